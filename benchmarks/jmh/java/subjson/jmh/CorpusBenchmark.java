@@ -0,0 +1,114 @@
+package subjson.jmh;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import su.boptim.al.subjson.FunctionalFromJsonPolicy;
+import su.boptim.al.subjson.SubJson;
+import su.boptim.al.subjson.ToJsonPolicy;
+import su.boptim.al.subjson.UnsynchronizedCharSequenceReader;
+
+import subjson.perftests.CorpusGenerator;
+
+/*
+  Reading and writing each shape of generated corpus, so that changes can
+  be matched to the workloads they help or hurt. Sizes take K, M and G
+  suffixes; pass -p size=1G to JMH for very large corpora (with a heap to
+  match). NDJSON is read one line's value at a time, and written the same
+  way, one value and a newline after another.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CorpusBenchmark
+{
+    @Param({"TELEMETRY", "BASE64_BLOBS", "UNICODE_TEXT", "DEEP_NESTING",
+            "WIDE_OBJECTS", "HUGE_ARRAY", "NDJSON"})
+    public String shape;
+
+    @Param({"64K", "4M"})
+    public String size;
+
+    @Param({"default", "clojure"})
+    public String policy;
+
+    @Param({"42"})
+    public long seed;
+
+    String json;
+    FunctionalFromJsonPolicy fjp;
+    ToJsonPolicy tjp;
+    boolean ndjson;
+    Object value;
+    ArrayList<Object> values; // For NDJSON, each line's value.
+
+    @Setup
+    public void setup() throws Exception
+    {
+        CorpusGenerator.Shape s = CorpusGenerator.Shape.valueOf(shape);
+        json = CorpusGenerator.generate(s, CorpusGenerator.parseSize(size), seed);
+        fjp = Inputs.fromJsonPolicy(policy);
+        tjp = Inputs.toJsonPolicy(policy);
+        ndjson = (s == CorpusGenerator.Shape.NDJSON);
+        if (ndjson) {
+            values = new ArrayList<Object>();
+            UnsynchronizedCharSequenceReader r = new UnsynchronizedCharSequenceReader(json);
+            while (r.position() < json.length() - 1) {
+                values.add((fjp == null) ? SubJson.read(r) : SubJson.read(r, fjp));
+            }
+        } else {
+            value = read();
+        }
+    }
+
+    @Benchmark
+    public Object read() throws Exception
+    {
+        UnsynchronizedCharSequenceReader r = new UnsynchronizedCharSequenceReader(json);
+        Object last;
+        do {
+            last = (fjp == null) ? SubJson.read(r) : SubJson.read(r, fjp);
+            // Generated NDJSON ends each value with a newline.
+        } while (ndjson && r.position() < json.length() - 1);
+        return last;
+    }
+
+    @Benchmark
+    public String write() throws Exception
+    {
+        StringBuilder sb = new StringBuilder(json.length());
+        if (ndjson) {
+            for (Object v : values) {
+                write(sb, v);
+                sb.append('\n');
+            }
+        } else {
+            write(sb, value);
+        }
+        return sb.toString();
+    }
+
+    private void write(StringBuilder sb, Object v) throws Exception
+    {
+        if (tjp == null) {
+            SubJson.write(sb, v, false);
+        } else {
+            SubJson.write(sb, v, false, tjp);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package subjson.jmh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import clojure.java.api.Clojure;
+import clojure.lang.IDeref;
+import clojure.lang.IFn;
+
+import su.boptim.al.subjson.FunctionalFromJsonPolicy;
+import su.boptim.al.subjson.ToJsonPolicy;
+
+/*
+  Where the benchmarks get their input and policies from, so that every
+  benchmark names them the same way in its @Params.
+ */
+final class Inputs
+{
+    private Inputs()
+    {
+    }
+
+    /*
+      Returns the contents of one of the examples in
+      test/resources/jsonorg_examples, given its name without ".json".
+     */
+    static String jsonorgExample(String name) throws IOException
+    {
+        String path = "jsonorg_examples/" + name + ".json";
+        try (InputStream in = Inputs.class.getClassLoader().getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No such example: " + path);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                bytes.write(buf, 0, n);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /*
+      Returns a var from the Clojure binding, loading it first.
+     */
+    static Object clojureVar(String name)
+    {
+        IFn require = Clojure.var("clojure.core", "require");
+        require.invoke(Clojure.read("su.boptim.al.subjson"));
+        return ((IDeref)Clojure.var("su.boptim.al.subjson", name)).deref();
+    }
+
+    /*
+      Returns the FunctionalFromJsonPolicy named by a benchmark @Param:
+      "clojure" for the Clojure binding's policy and "clojure-keyword" for
+      the one that makes keyword keys. "default" returns null, meaning
+      SubJson's own default policy, which isn't public.
+     */
+    static FunctionalFromJsonPolicy fromJsonPolicy(String name)
+    {
+        switch (name) {
+        case "default":
+            return null;
+        case "clojure":
+            return (FunctionalFromJsonPolicy)clojureVar("clojure-fromjson-policy");
+        case "clojure-keyword":
+            return (FunctionalFromJsonPolicy)clojureVar("clojure-keyword-fromjson-policy");
+        default:
+            throw new IllegalArgumentException("Unknown FromJsonPolicy: " + name);
+        }
+    }
+
+    /*
+      Returns the ToJsonPolicy named by a benchmark @Param: "clojure" for
+      the Clojure binding's policy, or null for "default", as above.
+     */
+    static ToJsonPolicy toJsonPolicy(String name)
+    {
+        switch (name) {
+        case "default":
+            return null;
+        case "clojure":
+            return (ToJsonPolicy)clojureVar("clojure-tojson-policy");
+        default:
+            throw new IllegalArgumentException("Unknown ToJsonPolicy: " + name);
+        }
+    }
+}
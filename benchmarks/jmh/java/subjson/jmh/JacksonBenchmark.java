@@ -0,0 +1,75 @@
+package subjson.jmh;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+  Jackson reading and writing the same examples as ReadBenchmark and
+  WriteBenchmark, to Maps and to its tree model, as a point of
+  comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JacksonBenchmark
+{
+    @Param({"menu", "widget", "glossary", "web-app"})
+    public String example;
+
+    String json;
+    Object value;
+    ObjectMapper mapper;
+    ObjectWriter prettyWriter;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        json = Inputs.jsonorgExample(example);
+        mapper = new ObjectMapper();
+        prettyWriter = mapper.writerWithDefaultPrettyPrinter();
+        value = mapper.readValue(json, Map.class);
+    }
+
+    @Benchmark
+    public Object readMap() throws IOException
+    {
+        return mapper.readValue(json, Map.class);
+    }
+
+    @Benchmark
+    public Object readTree() throws IOException
+    {
+        return mapper.readTree(json);
+    }
+
+    @Benchmark
+    public String writeCompact() throws IOException
+    {
+        return mapper.writeValueAsString(value);
+    }
+
+    @Benchmark
+    public String writePretty() throws IOException
+    {
+        return prettyWriter.writeValueAsString(value);
+    }
+}
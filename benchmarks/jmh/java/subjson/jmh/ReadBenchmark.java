@@ -0,0 +1,76 @@
+package subjson.jmh;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import su.boptim.al.subjson.FunctionalFromJsonPolicy;
+import su.boptim.al.subjson.SubJson;
+import su.boptim.al.subjson.UnsynchronizedBufferedReader;
+import su.boptim.al.subjson.UnsynchronizedStringReader;
+
+/*
+  Parsing speed, per document, for each example and policy, from a String
+  and from Readers. Run with -prof gc to see bytes allocated per document.
+  JacksonBenchmark has the same examples, for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadBenchmark
+{
+    @Param({"menu", "widget", "glossary", "web-app"})
+    public String example;
+
+    @Param({"default", "clojure", "clojure-keyword"})
+    public String policy;
+
+    String json;
+    FunctionalFromJsonPolicy fjp;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        json = Inputs.jsonorgExample(example);
+        fjp = Inputs.fromJsonPolicy(policy);
+    }
+
+    private Object read(Reader r) throws Exception
+    {
+        return (fjp == null) ? SubJson.read(r) : SubJson.read(r, fjp);
+    }
+
+    @Benchmark
+    public Object readString() throws Exception
+    {
+        return read(new UnsynchronizedStringReader(json));
+    }
+
+    @Benchmark
+    public Object readStringReader() throws Exception
+    {
+        return read(new StringReader(json));
+    }
+
+    @Benchmark
+    public Object readBufferedReader() throws Exception
+    {
+        return read(new UnsynchronizedBufferedReader(new StringReader(json)));
+    }
+}
@@ -0,0 +1,93 @@
+package subjson.jmh;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import su.boptim.al.subjson.FunctionalFromJsonPolicy;
+import su.boptim.al.subjson.SubJson;
+import su.boptim.al.subjson.ToJsonPolicy;
+
+/*
+  Writing speed, per document, for each example and policy, compact and
+  pretty-printed, to a StringBuilder and to a Writer. The values written
+  are the ones the matching FromJsonPolicy reads from the example. Run
+  with -prof gc to see bytes allocated per document. JacksonBenchmark has
+  the same examples, for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBenchmark
+{
+    @Param({"menu", "widget", "glossary", "web-app"})
+    public String example;
+
+    @Param({"default", "clojure"})
+    public String policy;
+
+    @Param({"false", "true"})
+    public boolean pretty;
+
+    Object value;
+    ToJsonPolicy tjp;
+    int expectedLength;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        String json = Inputs.jsonorgExample(example);
+        FunctionalFromJsonPolicy fjp = Inputs.fromJsonPolicy(policy);
+        value = (fjp == null) ? SubJson.read(json) : SubJson.read(json, fjp);
+        tjp = Inputs.toJsonPolicy(policy);
+        expectedLength = writeString().length();
+    }
+
+    private void write(Appendable out) throws IOException
+    {
+        if (tjp == null) {
+            SubJson.write(out, value, pretty);
+        } else {
+            SubJson.write(out, value, pretty, tjp);
+        }
+    }
+
+    @Benchmark
+    public String writeString() throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        write(sb);
+        return sb.toString();
+    }
+
+    @Benchmark
+    public String writePresized() throws IOException
+    {
+        StringBuilder sb = new StringBuilder(expectedLength);
+        write(sb);
+        return sb.toString();
+    }
+
+    @Benchmark
+    public StringWriter writeWriter() throws IOException
+    {
+        StringWriter sw = new StringWriter();
+        write(sw);
+        return sw;
+    }
+}
@@ -0,0 +1,333 @@
+package subjson.perftests;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.SplittableRandom;
+
+/*
+  Generates json for benchmarks, in a handful of shapes that each stress
+  something different, at any size from a kilobyte to many gigabytes. The
+  same seed, shape and size always give the same output, so results can
+  be compared across runs and machines. Output is streamed to an
+  Appendable as it is generated, so even very large corpora never have to
+  fit in memory; sizes are in characters, and the output stops at the
+  end of the first value that reaches the size.
+
+  From the command line:
+
+      java subjson.perftests.CorpusGenerator SHAPE SIZE [SEED] FILE
+
+  where SHAPE is one of the Shape names (case doesn't matter) and SIZE
+  is a number of characters with an optional K, M or G suffix (powers of
+  1024), eg, 512K or 2G.
+ */
+public class CorpusGenerator
+{
+    public enum Shape
+    {
+        // An array of small records that are mostly numbers, like metrics.
+        TELEMETRY,
+        // An array of records each holding a long base64 string.
+        BASE64_BLOBS,
+        // An array of strings full of non-ASCII text and escape sequences.
+        UNICODE_TEXT,
+        // An array of values nested depth levels deep.
+        DEEP_NESTING,
+        // An array of objects with width keys each.
+        WIDE_OBJECTS,
+        // One enormous array of small scalars.
+        HUGE_ARRAY,
+        // Telemetry records, one per line, with no enclosing array.
+        NDJSON
+    }
+
+    public static final int DEFAULT_DEPTH = 10000;
+    public static final int DEFAULT_WIDTH = 1000;
+
+    private static final String[] HOSTS = {"web", "db", "cache", "queue", "batch"};
+    private static final String[] MIMES = {"image/png", "image/jpeg",
+                                           "application/pdf",
+                                           "application/octet-stream"};
+
+    // Pieces of text for UNICODE_TEXT: accented Latin, Greek, Cyrillic,
+    // CJK, emoji (which need surrogate pairs), and right-to-left text,
+    // escaped here so the source doesn't depend on javac's encoding.
+    private static final String[] UNICODE_WORDS = {
+        "caf\u00e9", "na\u00efve", "\u00fcber", "\u03b1\u03b2\u03b3",
+        "\u043f\u0440\u0438\u0432\u0435\u0442", "\u6f22\u5b57",
+        "\u65e5\u672c\u8a9e", "\ud83d\ude00", "\ud83c\udf89",
+        "\u05e9\u05dc\u05d5\u05dd", "plain", "text"};
+    // Escape sequences, as they appear in json source. Control characters
+    // are only escaped with the short escapes: SubJson.write() writes the
+    // others as they are, so values read from text with them escaped as
+    // numbered escapes would not write out as valid json.
+    private static final String[] ESCAPES = {
+        "\\n", "\\t", "\\\"", "\\\\", "\\/", "\\r", "\\b", "\\f",
+        "\\u00e9", "\\u4e2d", "\\ud83d\\ude00"};
+
+    private final long seed;
+    private final int depth;
+    private final int width;
+
+    // Per-generate() state.
+    private SplittableRandom random;
+    private Appendable out;
+    private long written;
+
+    public CorpusGenerator(long seed)
+    {
+        this(seed, DEFAULT_DEPTH, DEFAULT_WIDTH);
+    }
+
+    /*
+      depth is the nesting depth of DEEP_NESTING values, and width the
+      number of keys in WIDE_OBJECTS objects.
+     */
+    public CorpusGenerator(long seed, int depth, int width)
+    {
+        if (depth < 1 || width < 1) {
+            throw new IllegalArgumentException("Depth and width must be positive.");
+        }
+        this.seed = seed;
+        this.depth = depth;
+        this.width = width;
+    }
+
+    /*
+      Writes about targetChars characters of json in the given shape to out,
+      and returns the number of characters actually written.
+     */
+    public long generate(Shape shape, long targetChars, Appendable out)
+        throws IOException
+    {
+        this.random = new SplittableRandom(seed);
+        this.out = out;
+        this.written = 0;
+        try {
+            if (shape == Shape.NDJSON) {
+                while (written < targetChars) {
+                    telemetry(written);
+                    emit('\n');
+                }
+            } else {
+                emit('[');
+                boolean first = true;
+                do {
+                    if (!first) emit(',');
+                    first = false;
+                    element(shape, targetChars);
+                } while (written < targetChars - 1);
+                emit(']');
+            }
+            return written;
+        } finally {
+            this.random = null;
+            this.out = null;
+        }
+    }
+
+    /*
+      Returns json in the given shape, about targetChars long, as a String.
+     */
+    public static String generate(Shape shape, long targetChars, long seed)
+    {
+        StringBuilder sb = new StringBuilder((int)Math.min(targetChars + 1024, Integer.MAX_VALUE - 8));
+        try {
+            new CorpusGenerator(seed).generate(shape, targetChars, sb);
+        } catch (IOException ioe) {
+            throw new AssertionError("StringBuilder threw IOException", ioe);
+        }
+        return sb.toString();
+    }
+
+    private void element(Shape shape, long targetChars) throws IOException
+    {
+        switch (shape) {
+        case TELEMETRY:
+            telemetry(written);
+            break;
+        case BASE64_BLOBS:
+            blob(targetChars);
+            break;
+        case UNICODE_TEXT:
+            unicodeText();
+            break;
+        case DEEP_NESTING:
+            // Shallower than asked if a full-depth value wouldn't fit; each
+            // level is about 8 characters.
+            nested((int)Math.max(1, Math.min(depth, (targetChars - written) / 8)));
+            break;
+        case WIDE_OBJECTS:
+            // Narrower than asked if a full-width object wouldn't fit; each
+            // key and value is about 20 characters.
+            wideObject((int)Math.max(1, Math.min(width, (targetChars - written) / 20)));
+            break;
+        case HUGE_ARRAY:
+            scalar();
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+    }
+
+    private void telemetry(long n) throws IOException
+    {
+        emit("{\"ts\":");
+        emit(Long.toString(1500000000000L + n * 10 + random.nextInt(10)));
+        emit(",\"host\":\"");
+        emit(HOSTS[random.nextInt(HOSTS.length)]);
+        emit('-');
+        emit(Integer.toString(random.nextInt(100)));
+        emit("\",\"cpu\":");
+        emit(Double.toString(random.nextDouble() * 100.0));
+        emit(",\"mem\":");
+        emit(Long.toString(random.nextLong(1L << 36)));
+        emit(",\"load\":[");
+        for (int i = 0; i < 3; i++) {
+            if (i > 0) emit(',');
+            emit(Double.toString(random.nextDouble() * 8.0));
+        }
+        emit("],\"errors\":");
+        emit(Integer.toString(random.nextInt(5) == 0 ? random.nextInt(1000) : 0));
+        emit(",\"ok\":");
+        emit(random.nextBoolean() ? "true" : "false");
+        emit('}');
+    }
+
+    private void blob(long targetChars) throws IOException
+    {
+        // Base64 is 4 characters per 3 bytes; keep small corpora small.
+        int maxBytes = (int)Math.max(48, Math.min(64 * 1024, (targetChars - written) * 3 / 4));
+        byte[] data = new byte[Math.min(maxBytes, 1024 + random.nextInt(63 * 1024))];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)random.nextInt(256);
+        }
+        emit("{\"id\":");
+        emit(Integer.toString(random.nextInt(Integer.MAX_VALUE)));
+        emit(",\"mime\":\"");
+        emit(MIMES[random.nextInt(MIMES.length)]);
+        emit("\",\"data\":\"");
+        emit(Base64.getEncoder().encodeToString(data));
+        emit("\"}");
+    }
+
+    private void unicodeText() throws IOException
+    {
+        emit('"');
+        int words = 5 + random.nextInt(60);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) emit(' ');
+            if (random.nextInt(4) == 0) {
+                emit(ESCAPES[random.nextInt(ESCAPES.length)]);
+            } else {
+                emit(UNICODE_WORDS[random.nextInt(UNICODE_WORDS.length)]);
+            }
+        }
+        emit('"');
+    }
+
+    /*
+      Alternates arrays and single-key objects down to the given depth,
+      with a scalar at the bottom.
+     */
+    private void nested(int levels) throws IOException
+    {
+        for (int i = 0; i < levels; i++) {
+            emit((i & 1) == 0 ? "[" : "{\"k\":");
+        }
+        scalar();
+        for (int i = levels - 1; i >= 0; i--) {
+            emit((i & 1) == 0 ? ']' : '}');
+        }
+    }
+
+    private void wideObject(int keys) throws IOException
+    {
+        emit('{');
+        for (int i = 0; i < keys; i++) {
+            if (i > 0) emit(',');
+            emit("\"field_");
+            emit(Integer.toString(i));
+            emit("\":");
+            scalar();
+        }
+        emit('}');
+    }
+
+    private void scalar() throws IOException
+    {
+        switch (random.nextInt(6)) {
+        case 0:
+            emit(Long.toString(random.nextLong()));
+            break;
+        case 1:
+            emit(Integer.toString(random.nextInt(1000)));
+            break;
+        case 2:
+            emit(Double.toString(random.nextDouble() * 1e6));
+            break;
+        case 3:
+            emit(random.nextBoolean() ? "true" : "false");
+            break;
+        case 4:
+            emit("null");
+            break;
+        default:
+            emit("\"s");
+            emit(Integer.toString(random.nextInt(100000)));
+            emit('"');
+            break;
+        }
+    }
+
+    private void emit(String s) throws IOException
+    {
+        out.append(s);
+        written += s.length();
+    }
+
+    private void emit(char c) throws IOException
+    {
+        out.append(c);
+        written++;
+    }
+
+    /*
+      Parses a size like "1024", "64K", "10M" or "2G".
+     */
+    public static long parseSize(String size)
+    {
+        String s = size.trim().toUpperCase();
+        long multiplier = 1;
+        char suffix = s.isEmpty() ? ' ' : s.charAt(s.length() - 1);
+        if (suffix == 'K') multiplier = 1L << 10;
+        else if (suffix == 'M') multiplier = 1L << 20;
+        else if (suffix == 'G') multiplier = 1L << 30;
+        if (multiplier != 1) s = s.substring(0, s.length() - 1);
+        return Long.parseLong(s) * multiplier;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 3 && args.length != 4) {
+            System.err.println("Usage: CorpusGenerator SHAPE SIZE [SEED] FILE");
+            System.exit(1);
+        }
+        Shape shape = Shape.valueOf(args[0].toUpperCase());
+        long size = parseSize(args[1]);
+        long seed = (args.length == 4) ? Long.parseLong(args[2]) : 0L;
+        String file = args[args.length - 1];
+
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                                                                  StandardCharsets.UTF_8),
+                                           1 << 16)) {
+            long written = new CorpusGenerator(seed).generate(shape, size, w);
+            System.out.println("Wrote " + written + " characters of " + shape + " to " + file);
+        }
+    }
+}
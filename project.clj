@@ -3,7 +3,7 @@
   :url "http://github.com/suboptimal/subjson"
   :license {:name "Eclipse Public License"
             :url "http://www.eclipse.org/legal/epl-v10.html"}
-  :dependencies [[org.clojure/clojure "1.4.0"]
+  :dependencies [[org.clojure/clojure "1.7.0"]
                  [criterium "0.4.0"]]
   :plugins [[perforate "0.3.1"]
             [lein-javadoc "0.1.1"]]
@@ -17,13 +17,27 @@
   ;; results unrealistic.
   :jvm-opts ^:replace []
 
+  ;; The performance regression test depends on the machine and its load,
+  ;; so it only runs when asked for, with `lein test :perf`.
+  :test-selectors {:default (complement :perf)
+                   :perf :perf}
+
   :profiles {:test {:resource-paths ["resources" "test/resources"]
                     :java-source-paths ["benchmarks/subjson/java"]}
              :subjson0.1 {:dependencies [[subjson "0.1.0"]]}
              :data.json {:dependencies [[org.clojure/data.json "0.2.1"]]}
              :cheshire5.0 {:dependencies [[cheshire "5.0.2"]]}
              :jackson2.1 {:dependencies [[com.fasterxml.jackson.core/jackson-core "2.1.3"]
-                                         [com.fasterxml.jackson.core/jackson-databind "2.1.3"]]}}
+                                         [com.fasterxml.jackson.core/jackson-databind "2.1.3"]]}
+             ;; JMH benchmarks of the Java sources. The annotation processor
+             ;; generates the benchmark harness when javac compiles them.
+             :jmh [:test :jackson2.1
+                   {:dependencies [[org.openjdk.jmh/jmh-core "1.37"]
+                                   [org.openjdk.jmh/jmh-generator-annprocess "1.37"]]
+                    :java-source-paths ["benchmarks/jmh/java"]}]}
+  ;; Extra arguments are passed on to JMH, eg, `lein jmh ReadBenchmark -p example=menu`.
+  :aliases {"jmh" ["with-profile" "+jmh" "run" "-m" "org.openjdk.jmh.Main"
+                   "-prof" "gc"]}
   :perforate {:environments [{:name :current
                               :profiles [:test :cheshire5.0 :jackson2.1
                                          :data.json]
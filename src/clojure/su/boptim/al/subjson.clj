@@ -1,94 +1,233 @@
 (ns su.boptim.al.subjson
   (:refer-clojure :exclude [read read-string])
-  (:import [su.boptim.al.subjson SubJson FromJsonPolicy ToJsonPolicy
-            ToJsonPolicy$ValueType]
-           [clojure.lang ITransientVector ITransientMap]
-           [java.io Reader Writer]))
-
-(defprotocol IBox
-  (box-get [box])
-  (box-set [box newVal]))
-
-(deftype Box [^:unsynchronized-mutable val]
-  IBox
-  (box-get [box] val)
-  (box-set [box newVal] (set! val newVal)))
+  (:require [clojure.core.reducers :as r])
+  (:import [su.boptim.al.subjson SubJson FunctionalFromJsonPolicy
+            ToJsonPolicy ToJsonPolicy$ValueType CacheableToJsonPolicy
+            WriteCache KeyCache ElementReader UnsynchronizedCharSequenceReader
+            ParseLimits]
+           [clojure.lang ITransientMap IPersistentCollection IPersistentVector
+            IPersistentMap PersistentArrayMap PersistentHashMap BigInt
+            IReduceInit]
+           [java.io Reader Writer]
+           [java.util Arrays]
+           [java.math BigInteger BigDecimal]))
 
 ;;
 ;; Read
 ;;
 
-;; We're going to keep objects inside a Box. This is just a type that
-;; will let us stick values into a reference that is not slowed down
-;; by volatile/CAS/thread-local/etc. It's essentially a deftype with a
-;; single unsynchronized-mutable field you can set or get, and nothing
-;; more.
+;; The parser keeps the array or object it is building in a slot of its
+;; own and replaces it with whatever we return after each addition, so
+;; transients can be updated with conj!/assoc! and returned directly.
 ;;
-;; Because Clojure transients cannot be "bashed in place," we need to
-;; reassign them to the Box each time we perform an update, since the
-;; BuildPolicy interface does not let us return new values, it expects
-;; modifications to an identity. Also note that we need to check for
-;; transient vectors/maps with a direct check against the class, since
-;; vector? and map? will return false for transients.
-(deftype ClojureFromJsonPolicy []
-  FromJsonPolicy
+;; Most json objects are small, so we build those without a transient at
+;; all: an object starts out as an array of key/value slots, which is
+;; filled in order and made directly into a PersistentArrayMap when the
+;; object is finished. Only if it fills up do we spill it into a
+;; transient hash map. Since keys are never nil, the first empty slot
+;; marks the end of the keys read so far.
+(def ^:private ^:const small-object-slots 16) ;; 8 key/value pairs
+
+(defn- spill-small-object
+  [^objects kvs]
+  (transient (PersistentHashMap/create kvs)))
+
+;; Object keys are either strings or, if we're given a KeyCache of
+;; keywords, keywords.
+(deftype ClojureFromJsonPolicy [^KeyCache key-cache]
+  FunctionalFromJsonPolicy
   ;; Arrays
-  (isArray [this box] (instance? ITransientVector
-                                 (.box-get ^Box box)))
-  (startArray [this] (Box. (transient [])))
-  (arrayAppend [this box val] (.box-set ^Box box
-                                        (conj! (.box-get ^Box box)
-                                               val)))
-  (finishArray [this box] (persistent! (.box-get ^Box box)))
+  (startArray [this] (transient []))
+  (arrayAppend [this arr val] (conj! arr val))
+  (finishArray [this arr] (persistent! arr))
   ;; Objects
-  (isObject [this obj] (instance? ITransientMap
-                                  (.box-get ^Box obj)))
-  (startObject [this] (Box. (transient {})))
-  (objectInsert [this box key val] (.box-set ^Box box
-                                             (assoc! (.box-get ^Box box)
-                                                     key val)))
-  (finishObject [this box] (persistent! (.box-get ^Box box)))
+  (startObject [this] (object-array small-object-slots))
+  (objectInsert [this obj key val]
+    (if (instance? ITransientMap obj)
+      (assoc! obj key val)
+      (let [^objects kvs obj]
+        (loop [i 0]
+          (cond (== i small-object-slots)
+                (assoc! (spill-small-object kvs) key val)
+
+                (nil? (aget kvs i))
+                (do (aset kvs i key)
+                    (aset kvs (inc i) val)
+                    kvs)
+
+                ;; Later values for a repeated key win, as with assoc.
+                (.equals ^Object key (aget kvs i))
+                (do (aset kvs (inc i) val)
+                    kvs)
+
+                :else (recur (+ i 2)))))))
+  (finishObject [this obj]
+    (if (instance? ITransientMap obj)
+      (persistent! obj)
+      (let [^objects kvs obj
+            n (loop [i 0]
+                (if (and (< i small-object-slots) (aget kvs i))
+                  (recur (+ i 2))
+                  i))]
+        (if (== n small-object-slots)
+          (PersistentArrayMap. kvs)
+          (PersistentArrayMap. (Arrays/copyOf kvs (int n)))))))
   ;; Primitives
   (makeNull [this] nil)
   (makeBoolean [this b] b)
   (makeString [this s] s)
+  (makeKey [this chars] (if key-cache
+                          (.get key-cache chars)
+                          (.toString ^CharSequence chars)))
   (makeNumber [this n] n))
 
-(def ^FromJsonPolicy clojure-fromjson-policy (ClojureFromJsonPolicy.))
+(def ^FunctionalFromJsonPolicy clojure-fromjson-policy
+  (ClojureFromJsonPolicy. nil))
+
+;; Keywords for object keys, cached by the characters of the key so that
+;; keys we've seen recently skip making a String and interning a keyword.
+(def ^:private ^KeyCache keyword-cache
+  (proxy [KeyCache] [4096 64]
+    (createKey [^String s] (keyword s))))
+
+(def ^FunctionalFromJsonPolicy clojure-keyword-fromjson-policy
+  (ClojureFromJsonPolicy. keyword-cache))
+
+(defn- fromjson-policy
+  ^FunctionalFromJsonPolicy [keywordize?]
+  (if keywordize? clojure-keyword-fromjson-policy clojure-fromjson-policy))
 
 (defn read
   "Read a json value from the argument and return the value, made out of
    Clojure objects, that the json represents. The argument must be a
    java.io.Reader. When the function returns, the Reader will not have
    been closed, and the next character read will be the first character
-   after the end of the json value."
-  [^Reader json-src]
-  (SubJson/read json-src clojure-fromjson-policy))
+   after the end of the json value. Optional second argument can be set to
+   true to make the keys of maps keywords, or false (default) to leave
+   them as strings. An optional third argument, a ParseLimits, bounds how
+   deep, long and large the json may be; going past a limit throws a
+   ParseLimitExceededException."
+  ([^Reader json-src]
+     (SubJson/read json-src clojure-fromjson-policy))
+  ([^Reader json-src keywordize?]
+     (SubJson/read json-src (fromjson-policy keywordize?)))
+  ([^Reader json-src keywordize? ^ParseLimits limits]
+     (SubJson/read json-src (fromjson-policy keywordize?) limits)))
 
 (defn read-string
   "Read a json value from the argument and return the value, made out of
    Clojure objects, that the json represents. The argument must be a
-   String."
-  [^String json-src]
-  (SubJson/read json-src clojure-fromjson-policy))
+   String or other CharSequence, such as a StringBuilder, which is read
+   in place rather than copied. Optional second argument can be set to
+   true to make the keys of maps keywords, or false (default) to leave
+   them as strings. An optional third argument, a ParseLimits, bounds
+   the json as it does for read."
+  ([^CharSequence json-src]
+     (SubJson/read json-src clojure-fromjson-policy))
+  ([^CharSequence json-src keywordize?]
+     (SubJson/read json-src (fromjson-policy keywordize?)))
+  ([^CharSequence json-src keywordize? ^ParseLimits limits]
+     (SubJson/read json-src (fromjson-policy keywordize?) limits)))
+
+(defn- element-reader
+  ^ElementReader [^Reader json-src ndjson? keywordize?]
+  (if ndjson?
+    (ElementReader/values json-src (fromjson-policy keywordize?))
+    (ElementReader/arrayElements json-src (fromjson-policy keywordize?))))
+
+(defn- reduce-elements
+  [^ElementReader elements f init]
+  (loop [acc init]
+    (cond (reduced? acc) @acc
+          (.hasNext elements) (recur (f acc (.next elements)))
+          :else acc)))
+
+(defn read-reducible
+  "Return a reducible that reads the elements of the json array in the
+   argument one at a time as it is reduced, passing each to the reducing
+   function without building the whole array in memory. Works with
+   reduce (given an initial value), transduce, into, and early
+   termination with reduced. The argument may be a java.io.Reader, which
+   can only be reduced once; after the whole array has been reduced, the
+   next character read from it will be the first character after the end
+   of the array. The argument may also be a String or other
+   CharSequence, in which case the reducible can also be folded with
+   clojure.core.reducers/fold, parsing groups of elements in parallel.
+   As when folding a vector, a reducef that returns a reduced value
+   ends the reduction of its own group of elements, but the other
+   groups are still reduced and combined. A file can be folded by
+   memory-mapping it and decoding it to a CharBuffer.
+
+   Options:
+     :ndjson?      if true, read a series of json values separated by
+                   whitespace, such as newline-delimited json, instead of
+                   the elements of an array (default false).
+     :keywordize?  if true, make the keys of maps keywords (default false)."
+  [json-src & {:keys [ndjson? keywordize?]}]
+  (if (instance? Reader json-src)
+    (reify IReduceInit
+      (reduce [this f init]
+        (reduce-elements (element-reader json-src ndjson? keywordize?)
+                         f init)))
+    (let [^CharSequence json-chars json-src
+          policy (fromjson-policy keywordize?)]
+      (reify
+        IReduceInit
+        (reduce [this f init]
+          (reduce-elements (element-reader (UnsynchronizedCharSequenceReader.
+                                            json-chars)
+                                           ndjson? keywordize?)
+                           f init))
+
+        r/CollFold
+        (coll-fold [this n combinef reducef]
+          ;; Find where each element starts, then let fold split those
+          ;; offsets up among threads, each parsing its elements from
+          ;; its own reader.
+          (r/fold n combinef
+                  (fn [acc offset]
+                    (let [rdr (UnsynchronizedCharSequenceReader.
+                               json-chars (int offset) (.length json-chars))]
+                      (reducef acc (SubJson/read rdr policy))))
+                  (vec (ElementReader/elementOffsets json-chars
+                                                     (not ndjson?)))))))))
 
 ;;
 ;; Write
 ;;
 
+(defn- subclass-of-any?
+  [^Class c classes]
+  (some (fn [^Class super] (.isAssignableFrom super c)) classes))
+
+;; The json type of each class we've been asked to categorize, worked out
+;; the first time we see the class, so that categorizing a value is a
+;; single lookup instead of a series of predicates. A class that can't be
+;; written as json maps to nil.
+(def ^:private ^ClassValue value-types
+  (proxy [ClassValue] []
+    (computeValue [^Class c]
+      (cond (= c Boolean) ToJsonPolicy$ValueType/TYPE_BOOLEAN
+            (= c String) ToJsonPolicy$ValueType/TYPE_STRING
+            (subclass-of-any? c [Long Integer Short Byte BigInteger BigInt])
+            ToJsonPolicy$ValueType/TYPE_INTEGER
+            (subclass-of-any? c [Double Float BigDecimal])
+            ToJsonPolicy$ValueType/TYPE_REAL
+            (subclass-of-any? c [IPersistentVector])
+            ToJsonPolicy$ValueType/TYPE_ARRAY
+            (subclass-of-any? c [IPersistentMap])
+            ToJsonPolicy$ValueType/TYPE_OBJECT
+            :else nil))))
+
 (deftype ClojureToJsonPolicy []
-  ToJsonPolicy
+  CacheableToJsonPolicy
   (categorize [this obj]
-    (cond (nil? obj) ToJsonPolicy$ValueType/TYPE_NULL
-          (instance? Boolean obj) ToJsonPolicy$ValueType/TYPE_BOOLEAN
-          (string? obj) ToJsonPolicy$ValueType/TYPE_STRING
-          (integer? obj) ToJsonPolicy$ValueType/TYPE_INTEGER
-          (float? obj) ToJsonPolicy$ValueType/TYPE_REAL
-          (vector? obj) ToJsonPolicy$ValueType/TYPE_ARRAY
-          (map? obj) ToJsonPolicy$ValueType/TYPE_OBJECT
-          :else (throw (IllegalArgumentException.
-                        (str "Could not categorize the given object" obj
-                             "into a JSON value type.")))))
+    (if (nil? obj)
+      ToJsonPolicy$ValueType/TYPE_NULL
+      (or (.get value-types (.getClass ^Object obj))
+          (throw (IllegalArgumentException.
+                  (str "Could not categorize the given object " obj
+                       " into a JSON value type."))))))
   ;; Conversions
   (asBoolean [this obj] obj)
   (asString [this obj] obj)
@@ -96,28 +235,51 @@
   (asReal [this obj] obj)
   ;; Iterators
   (arrayIterator [this obj] (.iterator ^Iterable obj))
-  (objectIterator [this obj] (.iterator ^Iterable obj)))
+  (objectIterator [this obj] (.iterator ^Iterable obj))
+  ;; Caching
+  (isCacheable [this obj] (instance? IPersistentCollection obj)))
+
+(def ^CacheableToJsonPolicy clojure-tojson-policy (ClojureToJsonPolicy.))
 
-(def ^ToJsonPolicy clojure-tojson-policy (ClojureToJsonPolicy.))
+(defn write-cache
+  "Return a cache that can be passed to write or write-string to reuse the
+   json written for persistent vectors and maps that are written again,
+   instead of walking them again. Values are cached by identity, so this
+   pays off when writing many values that share structure, such as
+   successive versions of the same map. At most max-entries values are
+   cached for each of pretty and compact printing, evicting the least
+   recently used; cached values may still be garbage collected."
+  [max-entries]
+  (WriteCache. max-entries))
 
 (defn write
   "Take a Writer and a Clojure value that represents a json value, and write
    the json representation of that value to the Writer. Clojure values that
    represent json objects are made from vectors, maps with string keys,
-   strings, numbers, booleans, and nil. Optional last argument can be set
-   to true (default) for pretty-printing, or false for compact printing."
+   strings, numbers, booleans, and nil. Optional third argument can be set
+   to true (default) for pretty-printing, or false for compact printing.
+   Optional last argument is a cache made with write-cache."
   ([^Writer out json-value]
      (write out json-value true))
   ([^Writer out json-value pretty?]
-     (SubJson/write out json-value pretty? clojure-tojson-policy)))
+     (SubJson/write out json-value (boolean pretty?) clojure-tojson-policy))
+  ([^Writer out json-value pretty? ^WriteCache cache]
+     (SubJson/write out json-value (boolean pretty?) clojure-tojson-policy
+                    cache)))
 
 (defn write-string
   "Return a String that contains the json encoding of the Clojure values
    given as the first argument. Clojure values that represent json objects
    are made from vectors, maps with string keys, strings, numbers, booleans,
-   and nil. Optional last argument can be set to true (default) for
-   pretty-printing, or false for compact printing."
+   and nil. Optional second argument can be set to true (default) for
+   pretty-printing, or false for compact printing. Optional last argument
+   is a cache made with write-cache."
   ([json-value]
      (write-string json-value true))
   ([json-value ^Boolean pretty?]
-     (SubJson/writeToString json-value pretty? clojure-tojson-policy)))
+     (SubJson/writeToString json-value pretty? clojure-tojson-policy))
+  ([json-value pretty? ^WriteCache cache]
+     (let [sb (StringBuilder.)]
+       (SubJson/write sb json-value (boolean pretty?) clojure-tojson-policy
+                      cache)
+       (.toString sb))))
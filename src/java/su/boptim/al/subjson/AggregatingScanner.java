@@ -0,0 +1,226 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/*
+  Does the scanning for JsonAggregator. This is the state machine of
+  read() (see there for how it works), matching the aggregator's paths
+  with a PathMatcher as it goes, and only going into an array or object
+  while some path still has steps left to match inside it; anything else
+  that no aggregate needs is skipped over with the Validator. Numbers
+  are decoded with a NumberScanner, so no Long or Double is made for
+  them.
+ */
+final class AggregatingScanner
+{
+    private static final int LBL_START_MEMBER = 0;
+    private static final int LBL_AFTER_VALUE = 1;
+
+    // Seeds and values for hashing, for distinct counts, so that values
+    // of different types are unlikely to hash the same.
+    private static final long STRING_SEED = 0x5DEECE66DL;
+    private static final long TRUE_HASH = 0x6A09E667F3BCC908L;
+    private static final long FALSE_HASH = 0xBB67AE8584CAA73BL;
+    private static final long NULL_HASH = 0x3C6EF372FE94F82BL;
+
+    private final JsonAggregates results;
+    private final int[] kinds;
+    private final PathMatcher matcher;
+
+    private final StringBuilder keyChars = new StringBuilder();
+    private final StringBuilder scratch = new StringBuilder();
+    private final NumberScanner number = new NumberScanner();
+    private ValidationResult skipResult;
+
+    // For each array or object being scanned: which it is, and the index
+    // of its next element.
+    private boolean[] isObject = new boolean[16];
+    private int[] indexes = new int[16];
+
+    AggregatingScanner(JsonAggregator aggregator, JsonAggregates results)
+    {
+        this.results = results;
+        this.kinds = aggregator.kinds;
+        this.matcher = new PathMatcher(aggregator.paths);
+    }
+
+    void scan(Reader jsonSrc) throws IOException
+    {
+        matcher.reset();
+        SubJson.skipWhitespace(jsonSrc);
+        if (!takeValue(jsonSrc, 0)) return;
+        int depth = 1;
+        boolean afterComma = false;
+        int currState = LBL_START_MEMBER;
+
+        while (true) {
+            switch (currState) {
+            case LBL_AFTER_VALUE:
+                {
+                    if (depth == 0) return;
+                    int level = depth - 1;
+                    SubJson.skipWhitespace(jsonSrc);
+                    int currRune = SubJson.peek(jsonSrc);
+                    if (currRune == ',') {
+                        jsonSrc.read();
+                        afterComma = true;
+                        currState = LBL_START_MEMBER;
+                    } else if (currRune == -1) {
+                        throw new IllegalArgumentException(isObject[level]
+                                                           ? "Reached EOF while parsing an object."
+                                                           : "Reached EOF while parsing an array.");
+                    } else {
+                        SubJson.readChar(jsonSrc, isObject[level] ? '}' : ']');
+                        depth--;
+                    }
+                    break;
+                }
+
+            case LBL_START_MEMBER:
+                {
+                    int level = depth - 1; // The level of the container.
+                    SubJson.skipWhitespace(jsonSrc);
+                    int currRune = SubJson.peek(jsonSrc);
+                    char close = isObject[level] ? '}' : ']';
+                    if (currRune == close) {
+                        if (afterComma) {
+                            throw new IllegalArgumentException(isObject[level]
+                                                               ? "Encountered a comma before the end of an object."
+                                                               : "Encountered a comma before the end of an array.");
+                        }
+                        jsonSrc.read();
+                        depth--;
+                        currState = LBL_AFTER_VALUE;
+                        break;
+                    }
+
+                    boolean live;
+                    if (isObject[level]) {
+                        if (currRune == -1) {
+                            throw new IllegalArgumentException("Reached EOF while parsing an object.");
+                        } else if (currRune != '"') {
+                            throw new IllegalArgumentException("Encountered unexpected character '"
+                                                               + (char)currRune
+                                                               + "' where an object key was expected.");
+                        }
+                        keyChars.setLength(0);
+                        RedactingCopier.readString(jsonSrc, null, keyChars);
+                        SubJson.skipWhitespace(jsonSrc);
+                        SubJson.readChar(jsonSrc, ':');
+                        SubJson.skipWhitespace(jsonSrc);
+                        live = matcher.enter(level, keyChars, -1);
+                    } else {
+                        live = matcher.enter(level, null, indexes[level]++);
+                    }
+
+                    if (live && takeValue(jsonSrc, depth)) {
+                        depth++;
+                        afterComma = false;
+                        currState = LBL_START_MEMBER;
+                    } else {
+                        if (!live) skipValue(jsonSrc);
+                        currState = LBL_AFTER_VALUE;
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /*
+      Hands the value jsonSrc is pointing at, which is at level, to the
+      aggregates whose paths match it. If it is an array or object that
+      something inside could match, reads its opening bracket or brace
+      and returns true, for the caller to go into it. Otherwise reads
+      past the whole value and returns false.
+     */
+    private boolean takeValue(Reader jsonSrc, int level) throws IOException
+    {
+        int currRune = SubJson.peek(jsonSrc);
+        boolean needsValue = false;
+        for (int r = matcher.matched(level); r >= 0; r = matcher.nextMatched(level, r + 1)) {
+            if (kinds[r] == JsonAggregator.COUNT) results.addValue(r);
+            else needsValue = true;
+        }
+
+        if (currRune == '[' || currRune == '{') {
+            if (!matcher.hasSteps(level)) {
+                skipValue(jsonSrc);
+                return false;
+            }
+            jsonSrc.read();
+            push(level, currRune == '{');
+            return true;
+        } else if (!needsValue) {
+            skipValue(jsonSrc);
+            return false;
+        }
+
+        long hash;
+        switch (currRune) {
+        case '-':
+        case '0':
+        case '1':
+        case '2':
+        case '3':
+        case '4':
+        case '5':
+        case '6':
+        case '7':
+        case '8':
+        case '9':
+            number.scan(jsonSrc);
+            for (int r = matcher.matched(level); r >= 0; r = matcher.nextMatched(level, r + 1)) {
+                if (kinds[r] == JsonAggregator.DISTINCT_COUNT) {
+                    results.addHash(r, number.hash());
+                } else if (kinds[r] != JsonAggregator.COUNT) {
+                    results.addNumber(r, number.isLong, number.longValue, number.doubleValue);
+                }
+            }
+            return false;
+        case '"':
+            scratch.setLength(0);
+            RedactingCopier.readString(jsonSrc, null, scratch);
+            hash = XxHash64.hash(scratch, STRING_SEED);
+            break;
+        case 't':
+        case 'f':
+            hash = SubJson.readBoolean(jsonSrc) ? TRUE_HASH : FALSE_HASH;
+            break;
+        case 'n':
+            SubJson.readNull(jsonSrc);
+            hash = NULL_HASH;
+            break;
+        case -1:
+            throw new IllegalArgumentException("Reached EOF while expecting a value.");
+        default:
+            throw new IllegalArgumentException("Encountered unexpected character '"
+                                               + (char)currRune + "' in input.");
+        }
+        for (int r = matcher.matched(level); r >= 0; r = matcher.nextMatched(level, r + 1)) {
+            if (kinds[r] == JsonAggregator.DISTINCT_COUNT) results.addHash(r, hash);
+        }
+        return false;
+    }
+
+    private void push(int level, boolean obj)
+    {
+        if (level == isObject.length) {
+            isObject = Arrays.copyOf(isObject, level * 2);
+            indexes = Arrays.copyOf(indexes, level * 2);
+        }
+        isObject[level] = obj;
+        indexes[level] = 0;
+    }
+
+    // Skips over the value jsonSrc is pointing at, checking it.
+    private void skipValue(Reader jsonSrc)
+    {
+        if (skipResult == null) skipResult = new ValidationResult();
+        if (!Validator.validate(jsonSrc, skipResult, false)) {
+            throw new IllegalArgumentException(skipResult.getErrorMessage());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package su.boptim.al.subjson;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+   A {@link StringChunkHandler} that decodes a base64 string value into
+   bytes as it is read, so that the encoded text is never held in memory.
+   Both the standard alphabet and the URL and filename safe one ('-' and
+   '_' in place of '+' and '/') are accepted, as is a string without its
+   trailing '=' padding. Line breaks, as in MIME base64, are skipped. Any
+   other character is an error, reported with an
+   {@link IllegalArgumentException} like other malformed input.
+   <p>
+   By default the bytes are collected into an array, which
+   {@link #finish()} returns as a byte[] of exactly the decoded length.
+   Given a {@link ByteBuffer}, the bytes are put into it instead, starting
+   at its position, and finish() returns a duplicate of it holding just
+   those bytes, ready to be read from. The given buffer's position is left
+   after the decoded bytes, so one buffer can take several values in turn.
+*/
+public class Base64StringHandler implements StringChunkHandler
+{
+    private static final byte[] DECODE = new byte[128];
+    private static final byte SKIP = -2;
+    private static final byte PAD = -3;
+
+    static {
+        Arrays.fill(DECODE, (byte)-1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE[alphabet.charAt(i)] = (byte)i;
+        }
+        DECODE['+'] = DECODE['-'] = 62;
+        DECODE['/'] = DECODE['_'] = 63;
+        DECODE['\r'] = DECODE['\n'] = SKIP;
+        DECODE['='] = PAD;
+    }
+
+    private final ByteBuffer target;
+    private final int targetStart;
+    private byte[] bytes;
+    private int length;
+
+    // Bits decoded but not yet written out, and how many characters of
+    // the current group of four they came from.
+    private int bits;
+    private int groupChars;
+    private boolean sawPadding;
+
+    /**
+       Creates a handler that decodes into a new byte[].
+     */
+    public Base64StringHandler()
+    {
+        this.target = null;
+        this.targetStart = 0;
+        this.bytes = new byte[256];
+    }
+
+    /**
+       Creates a handler that decodes into target, starting at its current
+       position. If the decoded bytes don't fit in target's remaining
+       space, an {@link IllegalArgumentException} is thrown.
+
+       @param target the {@link ByteBuffer} to put the decoded bytes into
+     */
+    public Base64StringHandler(ByteBuffer target)
+    {
+        this.target = target;
+        this.targetStart = target.position();
+    }
+
+    public void append(char[] cbuf, int off, int len)
+    {
+        for (int i = off; i < off + len; i++) {
+            char c = cbuf[i];
+            int value = c < 128 ? DECODE[c] : -1;
+            if (value >= 0) {
+                if (sawPadding) {
+                    throw new IllegalArgumentException("Encountered base64 data after padding.");
+                }
+                bits = (bits << 6) | value;
+                if (++groupChars == 4) {
+                    put((byte)(bits >> 16));
+                    put((byte)(bits >> 8));
+                    put((byte)bits);
+                    bits = 0;
+                    groupChars = 0;
+                }
+            } else if (value == PAD) {
+                sawPadding = true;
+            } else if (value != SKIP) {
+                throw new IllegalArgumentException("Encountered a character that is not base64 in a base64 string.");
+            }
+        }
+    }
+
+    /**
+       @return the decoded bytes, as a byte[], or as a duplicate of the
+       {@link ByteBuffer} given to the constructor whose position and limit
+       surround them
+     */
+    public Object finish()
+    {
+        // A final group of two or three characters holds one or two bytes;
+        // a single character can't hold a whole byte.
+        switch (groupChars) {
+        case 0:
+            break;
+        case 2:
+            put((byte)(bits >> 4));
+            break;
+        case 3:
+            put((byte)(bits >> 10));
+            put((byte)(bits >> 2));
+            break;
+        default:
+            throw new IllegalArgumentException("Encountered a base64 string with a truncated final group.");
+        }
+        bits = 0;
+        groupChars = 0;
+
+        if (target != null) {
+            // Flipping target would also expose whatever was before the
+            // position it was given to us at.
+            ByteBuffer decoded = target.duplicate();
+            decoded.limit(target.position());
+            decoded.position(targetStart);
+            return decoded;
+        } else {
+            return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+        }
+    }
+
+    private void put(byte b)
+    {
+        if (target != null) {
+            if (!target.hasRemaining()) {
+                throw new IllegalArgumentException("A base64 string decoded to more bytes than the buffer had room for.");
+            }
+            target.put(b);
+        } else {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, length * 2);
+            }
+            bytes[length++] = b;
+        }
+    }
+}
@@ -0,0 +1,631 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/*
+  Writes and reads the binary snapshot format behind SubJson.writeSnapshot()
+  and readSnapshot(): a json value tree, stored so that it can be loaded
+  much faster than its json text can be parsed, from a byte array or a
+  file mapped into memory.
+
+  The layout is
+
+    header   "SJSB", a version byte (1), three zero bytes
+    value    the root value, as below
+    strings  a varint count, then each string as a varint count of its
+             chars followed by the chars, each encoded as one to three
+             bytes the way UTF-8 would encode it on its own, so that
+             unpaired surrogates, which json strings can hold, survive
+    trailer  the offset of the strings from the start of the header as a
+             big-endian long, then "SJSB" again
+
+  and a value is a tag byte followed by
+
+    TAG_NULL, TAG_FALSE, TAG_TRUE     nothing
+    TAG_INTEGER                       a zigzag varint
+    TAG_REAL                          a big-endian IEEE 754 double
+    TAG_STRING                        the varint index of the string
+    TAG_ARRAY                         the elements, then TAG_END
+    TAG_OBJECT                        for each key/value pair, the varint
+                                      index of the key plus one, then the
+                                      value; then a 0
+    TAG_INTEGER_ARRAY                 a varint count, then that many
+                                      zigzag varints
+    TAG_REAL_ARRAY                    a varint count, then that many doubles
+    TAG_BIG_INTEGER, TAG_BIG_DECIMAL  the varint index of the number's
+                                      decimal text
+
+  Every string, key or value, is stored once in the table and referred to
+  by index, so repeated keys and values cost a varint each. Arrays whose
+  elements are all integers or all reals are stored packed, without a tag
+  per element. Numbers that a long or a double can't hold exactly, such as
+  BigIntegers and BigDecimals, are stored as text, and read back as
+  BigIntegers and BigDecimals. The strings come last so that the writer
+  can stream the values out in one pass, and both the writer and reader
+  use an explicit stack rather than recursion, like read() and write(),
+  so any depth of nesting can be stored.
+ */
+final class BinarySnapshot
+{
+    static final byte VERSION = 1;
+
+    static final int TAG_NULL = 0;
+    static final int TAG_FALSE = 1;
+    static final int TAG_TRUE = 2;
+    static final int TAG_INTEGER = 3;
+    static final int TAG_REAL = 4;
+    static final int TAG_STRING = 5;
+    static final int TAG_ARRAY = 6;
+    static final int TAG_OBJECT = 7;
+    static final int TAG_INTEGER_ARRAY = 8;
+    static final int TAG_REAL_ARRAY = 9;
+    static final int TAG_END = 10;
+    static final int TAG_BIG_INTEGER = 11;
+    static final int TAG_BIG_DECIMAL = 12;
+
+    private static final byte[] MAGIC = { 'S', 'J', 'S', 'B' };
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 12;
+    private static final int INITIAL_STACK_SIZE = 16;
+
+    private BinarySnapshot()
+    {
+    }
+
+    //
+    // Writing
+    //
+
+    // Buffers the output and counts the bytes, since the trailer has to
+    // give the offset of the string table.
+    private static final class Output
+    {
+        final OutputStream out;
+        final byte[] buf = new byte[8192];
+        int pos;
+        long flushed;
+
+        Output(OutputStream out)
+        {
+            this.out = out;
+        }
+
+        long position()
+        {
+            return flushed + pos;
+        }
+
+        void ensure(int n) throws IOException
+        {
+            if (pos + n > buf.length) flush();
+        }
+
+        void flush() throws IOException
+        {
+            out.write(buf, 0, pos);
+            flushed += pos;
+            pos = 0;
+        }
+
+        void writeByte(int b) throws IOException
+        {
+            ensure(1);
+            buf[pos++] = (byte)b;
+        }
+
+        void writeBytes(byte[] b) throws IOException
+        {
+            for (byte x : b) writeByte(x);
+        }
+
+        void writeVarint(long v) throws IOException
+        {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte)((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte)v;
+        }
+
+        void writeLong(long v) throws IOException
+        {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte)(v >>> shift);
+            }
+        }
+
+        void writeString(String s) throws IOException
+        {
+            final int length = s.length();
+            writeVarint(length);
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                ensure(3);
+                if (c < 0x80) {
+                    buf[pos++] = (byte)c;
+                } else if (c < 0x800) {
+                    buf[pos++] = (byte)(0xC0 | (c >> 6));
+                    buf[pos++] = (byte)(0x80 | (c & 0x3F));
+                } else {
+                    buf[pos++] = (byte)(0xE0 | (c >> 12));
+                    buf[pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                    buf[pos++] = (byte)(0x80 | (c & 0x3F));
+                }
+            }
+        }
+    }
+
+    // Interns the strings of the value being written, giving each distinct
+    // one an index into the table written at the end.
+    private static final class StringTable
+    {
+        final HashMap<String,Integer> indexes = new HashMap<String,Integer>();
+        final ArrayList<String> strings = new ArrayList<String>();
+
+        int indexOf(String s)
+        {
+            Integer index = indexes.get(s);
+            if (index == null) {
+                index = strings.size();
+                indexes.put(s, index);
+                strings.add(s);
+            }
+            return index;
+        }
+    }
+
+    static void write(OutputStream os, Object jsonValue, ToJsonPolicy tjp)
+        throws IOException
+    {
+        Output out = new Output(os);
+        StringTable table = new StringTable();
+        ArrayDeque<PrintingStackFrame> stack = new ArrayDeque<PrintingStackFrame>();
+        ArrayList<Object> elements = new ArrayList<Object>();
+
+        out.writeBytes(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(0);
+        out.writeByte(0);
+        out.writeByte(0);
+
+        Object currValue = jsonValue;
+        while (true) {
+            switch (tjp.categorize(currValue)) {
+            case TYPE_NULL:
+                out.writeByte(TAG_NULL);
+                break;
+            case TYPE_BOOLEAN:
+                out.writeByte(tjp.asBoolean(currValue).booleanValue() ? TAG_TRUE : TAG_FALSE);
+                break;
+            case TYPE_STRING:
+                out.writeByte(TAG_STRING);
+                out.writeVarint(table.indexOf(tjp.asString(currValue)));
+                break;
+            case TYPE_INTEGER:
+                if (isBig(currValue, ToJsonPolicy.ValueType.TYPE_INTEGER)) {
+                    out.writeByte(TAG_BIG_INTEGER);
+                    out.writeVarint(table.indexOf(bigText(currValue, ToJsonPolicy.ValueType.TYPE_INTEGER)));
+                } else {
+                    out.writeByte(TAG_INTEGER);
+                    out.writeVarint(zigzag(longValue(currValue, tjp)));
+                }
+                break;
+            case TYPE_REAL:
+                if (isBig(currValue, ToJsonPolicy.ValueType.TYPE_REAL)) {
+                    out.writeByte(TAG_BIG_DECIMAL);
+                    out.writeVarint(table.indexOf(bigText(currValue, ToJsonPolicy.ValueType.TYPE_REAL)));
+                } else {
+                    out.writeByte(TAG_REAL);
+                    out.writeLong(Double.doubleToRawLongBits(doubleValue(currValue, tjp)));
+                }
+                break;
+            case TYPE_ARRAY:
+                {
+                    // Gather the elements to see whether they can be packed.
+                    elements.clear();
+                    Iterator<Object> it = tjp.arrayIterator(currValue);
+                    ToJsonPolicy.ValueType elementType = null;
+                    boolean packable = true;
+                    while (it.hasNext()) {
+                        Object element = it.next();
+                        elements.add(element);
+                        if (packable) {
+                            ToJsonPolicy.ValueType t = tjp.categorize(element);
+                            if (elementType == null) {
+                                elementType = t;
+                            }
+                            packable = t == elementType
+                                && (t == ToJsonPolicy.ValueType.TYPE_INTEGER
+                                    || t == ToJsonPolicy.ValueType.TYPE_REAL)
+                                && !isBig(element, t);
+                        }
+                    }
+
+                    if (packable && elementType == ToJsonPolicy.ValueType.TYPE_INTEGER) {
+                        out.writeByte(TAG_INTEGER_ARRAY);
+                        out.writeVarint(elements.size());
+                        for (Object element : elements) {
+                            out.writeVarint(zigzag(longValue(element, tjp)));
+                        }
+                    } else if (packable && elementType == ToJsonPolicy.ValueType.TYPE_REAL) {
+                        out.writeByte(TAG_REAL_ARRAY);
+                        out.writeVarint(elements.size());
+                        for (Object element : elements) {
+                            out.writeLong(Double.doubleToRawLongBits(doubleValue(element, tjp)));
+                        }
+                    } else {
+                        out.writeByte(TAG_ARRAY);
+                        stack.push(new PrintingStackFrame(Arrays.asList(elements.toArray()).iterator(),
+                                                          ToJsonPolicy.ValueType.TYPE_ARRAY));
+                    }
+                    elements.clear();
+                }
+                break;
+            case TYPE_OBJECT:
+                out.writeByte(TAG_OBJECT);
+                stack.push(new PrintingStackFrame(tjp.objectIterator(currValue),
+                                                  ToJsonPolicy.ValueType.TYPE_OBJECT));
+                break;
+            }
+
+            // Find the next value to write, finishing any arrays and objects
+            // that have run out of values along the way.
+            while (true) {
+                PrintingStackFrame top = stack.peek();
+                if (top == null) {
+                    writeStrings(out, table);
+                    out.flush();
+                    return;
+                }
+                if (top.it.hasNext()) {
+                    if (top.iteratorType == ToJsonPolicy.ValueType.TYPE_OBJECT) {
+                        @SuppressWarnings("unchecked")
+                        Map.Entry<String,Object> kv = (Map.Entry<String,Object>)top.it.next();
+                        out.writeVarint(table.indexOf(kv.getKey()) + 1L);
+                        currValue = kv.getValue();
+                    } else {
+                        currValue = top.it.next();
+                    }
+                    break;
+                }
+                out.writeByte(top.iteratorType == ToJsonPolicy.ValueType.TYPE_OBJECT
+                              ? 0 : TAG_END);
+                stack.pop();
+            }
+        }
+    }
+
+    private static void writeStrings(Output out, StringTable table) throws IOException
+    {
+        long tableOffset = out.position();
+        out.writeVarint(table.strings.size());
+        for (String s : table.strings) {
+            out.writeString(s);
+        }
+        out.writeLong(tableOffset);
+        out.writeBytes(MAGIC);
+    }
+
+    /*
+      Whether a number of the given type has to be stored as text. Only
+      the boxed primitives are known to fit in a long or a double; any
+      other Number, such as a BigInteger, a BigDecimal or Clojure's BigInt,
+      is kept whole as its decimal text rather than narrowed. A value that
+      isn't a Number at all is the policy's own type, converted with
+      asInteger() or asReal().
+     */
+    private static boolean isBig(Object v, ToJsonPolicy.ValueType t)
+    {
+        if (!(v instanceof Number)) return false;
+        if (t == ToJsonPolicy.ValueType.TYPE_INTEGER) {
+            return !(v instanceof Long || v instanceof Integer
+                     || v instanceof Short || v instanceof Byte);
+        } else {
+            return !(v instanceof Double || v instanceof Float);
+        }
+    }
+
+    /*
+      The text to store a big number as. Other kinds of Number than
+      BigInteger and BigDecimal are checked by parsing their text as one
+      now, so that a snapshot that can't be read back is never written.
+     */
+    private static String bigText(Object v, ToJsonPolicy.ValueType t)
+    {
+        if (t == ToJsonPolicy.ValueType.TYPE_INTEGER) {
+            return v instanceof BigInteger ? v.toString()
+                : new BigInteger(v.toString()).toString();
+        } else {
+            return v instanceof BigDecimal ? v.toString()
+                : new BigDecimal(v.toString()).toString();
+        }
+    }
+
+    private static long longValue(Object v, ToJsonPolicy tjp)
+    {
+        return v instanceof Number ? ((Number)v).longValue()
+            : tjp.asInteger(v).longValue();
+    }
+
+    private static double doubleValue(Object v, ToJsonPolicy tjp)
+    {
+        return v instanceof Number ? ((Number)v).doubleValue()
+            : tjp.asReal(v).doubleValue();
+    }
+
+    private static long zigzag(long v)
+    {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    //
+    // Reading
+    //
+
+    // Reads through a ByteBuffer with absolute gets, so the caller's
+    // buffer is left alone.
+    private static final class Input
+    {
+        final ByteBuffer buf;
+        int pos;
+
+        Input(ByteBuffer buf, int pos)
+        {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        int readByte()
+        {
+            return buf.get(pos++) & 0xFF;
+        }
+
+        long readVarint()
+        {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = buf.get(pos++);
+                v |= (long)(b & 0x7F) << shift;
+                if (b >= 0) return v;
+            }
+            throw new IllegalArgumentException("Encountered a malformed varint in a snapshot.");
+        }
+
+        /*
+          Reads the count of something made of items that each take at
+          least bytesEach bytes, checking it against what's left of the
+          input, so that a corrupt count can't have us allocate more than
+          the snapshot could possibly hold.
+         */
+        int readCount(int bytesEach)
+        {
+            long v = readVarint();
+            if (v < 0 || v > (buf.limit() - pos) / bytesEach) {
+                throw new IllegalArgumentException("Encountered a count in a snapshot that is larger than the rest of it could hold.");
+            }
+            return (int)v;
+        }
+
+        int readIndex(int limit)
+        {
+            long v = readVarint();
+            if (v < 0 || v >= limit) {
+                throw new IllegalArgumentException("Encountered an out of range index or count in a snapshot.");
+            }
+            return (int)v;
+        }
+
+        long readZigzag()
+        {
+            long v = readVarint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        double readDouble()
+        {
+            double d = buf.getDouble(pos);
+            pos += 8;
+            return d;
+        }
+
+        String readString(char[] scratch)
+        {
+            // Each char takes at least one byte.
+            final int length = readCount(1);
+            char[] chars = length <= scratch.length ? scratch : new char[length];
+            for (int i = 0; i < length; i++) {
+                int b = buf.get(pos++) & 0xFF;
+                if (b < 0x80) {
+                    chars[i] = (char)b;
+                } else if (b < 0xE0) {
+                    chars[i] = (char)(((b & 0x1F) << 6) | (buf.get(pos++) & 0x3F));
+                } else {
+                    int b2 = buf.get(pos++) & 0x3F;
+                    chars[i] = (char)(((b & 0x0F) << 12) | (b2 << 6) | (buf.get(pos++) & 0x3F));
+                }
+            }
+            return new String(chars, 0, length);
+        }
+    }
+
+    static Object read(ByteBuffer src, FunctionalFromJsonPolicy fjp)
+        throws Exception
+    {
+        ByteBuffer buf = src.duplicate().order(ByteOrder.BIG_ENDIAN);
+        final int base = buf.position();
+        final int end = buf.limit();
+        if (end - base < HEADER_SIZE + TRAILER_SIZE
+            || !hasMagic(buf, base) || !hasMagic(buf, end - 4)) {
+            throw new IllegalArgumentException("The input is not a snapshot, or is truncated.");
+        }
+        if (buf.get(base + 4) != VERSION) {
+            throw new IllegalArgumentException("The snapshot is of an unsupported version, "
+                                               + buf.get(base + 4) + ".");
+        }
+        long tableOffset = buf.getLong(end - TRAILER_SIZE);
+        if (tableOffset < HEADER_SIZE || tableOffset > end - base - TRAILER_SIZE) {
+            throw new IllegalArgumentException("The snapshot's string table offset is out of range.");
+        }
+
+        // Only the region up to the trailer is valid for reads from here.
+        buf.limit(end - TRAILER_SIZE);
+        String[] strings = readStrings(new Input(buf, base + (int)tableOffset));
+        try {
+            return readValue(new Input(buf, base + HEADER_SIZE), strings, fjp);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("The snapshot is truncated or malformed.");
+        }
+    }
+
+    private static boolean hasMagic(ByteBuffer buf, int at)
+    {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buf.get(at + i) != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    private static String[] readStrings(Input in)
+    {
+        try {
+            // Each string takes at least the one byte of its length.
+            String[] strings = new String[in.readCount(1)];
+            char[] scratch = new char[256];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readString(scratch);
+            }
+            return strings;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("The snapshot's string table is truncated.");
+        }
+    }
+
+    private static Object readValue(Input in, String[] strings,
+                                    FunctionalFromJsonPolicy fjp)
+        throws Exception
+    {
+        // As in read(), the containers being built, innermost on top, with
+        // whether each is an object and the key of the value being read.
+        Object[] containers = new Object[INITIAL_STACK_SIZE];
+        boolean[] isObject = new boolean[INITIAL_STACK_SIZE];
+        Object[] keys = new Object[INITIAL_STACK_SIZE];
+        int depth = 0;
+
+        while (true) {
+            Object value;
+            int tag = in.readByte();
+            switch (tag) {
+            case TAG_NULL:
+                value = fjp.makeNull();
+                break;
+            case TAG_FALSE:
+                value = fjp.makeBoolean(Boolean.FALSE);
+                break;
+            case TAG_TRUE:
+                value = fjp.makeBoolean(Boolean.TRUE);
+                break;
+            case TAG_INTEGER:
+                value = fjp.makeNumber(Long.valueOf(in.readZigzag()));
+                break;
+            case TAG_REAL:
+                value = fjp.makeNumber(Double.valueOf(in.readDouble()));
+                break;
+            case TAG_STRING:
+                value = fjp.makeString(strings[in.readIndex(strings.length)]);
+                break;
+            case TAG_BIG_INTEGER:
+                value = fjp.makeNumber(new BigInteger(strings[in.readIndex(strings.length)]));
+                break;
+            case TAG_BIG_DECIMAL:
+                value = fjp.makeNumber(new BigDecimal(strings[in.readIndex(strings.length)]));
+                break;
+            case TAG_INTEGER_ARRAY:
+                {
+                    int count = in.readCount(1);
+                    Object array = fjp.startArray();
+                    for (int i = 0; i < count; i++) {
+                        array = fjp.arrayAppend(array, fjp.makeNumber(Long.valueOf(in.readZigzag())));
+                    }
+                    value = fjp.finishArray(array);
+                }
+                break;
+            case TAG_REAL_ARRAY:
+                {
+                    int count = in.readCount(8);
+                    Object array = fjp.startArray();
+                    for (int i = 0; i < count; i++) {
+                        array = fjp.arrayAppend(array, fjp.makeNumber(Double.valueOf(in.readDouble())));
+                    }
+                    value = fjp.finishArray(array);
+                }
+                break;
+            case TAG_ARRAY:
+            case TAG_OBJECT:
+                if (depth == containers.length) {
+                    containers = Arrays.copyOf(containers, depth * 2);
+                    isObject = Arrays.copyOf(isObject, depth * 2);
+                    keys = Arrays.copyOf(keys, depth * 2);
+                }
+                isObject[depth] = tag == TAG_OBJECT;
+                containers[depth] = isObject[depth] ? fjp.startObject() : fjp.startArray();
+                depth++;
+                value = null;
+                break;
+            default:
+                throw new IllegalArgumentException("Encountered an unknown tag, " + tag
+                                                   + ", in a snapshot.");
+            }
+
+            // Unless we just started an array or object, put the value where
+            // it goes, then finish any arrays and objects that end here.
+            boolean haveValue = tag != TAG_ARRAY && tag != TAG_OBJECT;
+            while (true) {
+                if (haveValue) {
+                    if (depth == 0) {
+                        return value;
+                    }
+                    int top = depth - 1;
+                    if (isObject[top]) {
+                        containers[top] = fjp.objectInsert(containers[top], keys[top], value);
+                        keys[top] = null;
+                    } else {
+                        containers[top] = fjp.arrayAppend(containers[top], value);
+                    }
+                }
+
+                int top = depth - 1;
+                if (isObject[top]) {
+                    int keyIndex = in.readIndex(strings.length + 1);
+                    if (keyIndex != 0) {
+                        keys[top] = fjp.makeKey(strings[keyIndex - 1]);
+                        break; // Go read its value.
+                    }
+                } else if (in.buf.get(in.pos) != TAG_END) {
+                    break; // Go read the next element.
+                } else {
+                    in.pos++;
+                }
+
+                // The array or object is finished.
+                depth--;
+                value = isObject[depth] ? fjp.finishObject(containers[depth])
+                    : fjp.finishArray(containers[depth]);
+                containers[depth] = null;
+                haveValue = true;
+            }
+        }
+    }
+}
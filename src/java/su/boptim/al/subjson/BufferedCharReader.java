@@ -0,0 +1,207 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/*
+  The common part of our unsynchronized buffered Readers: a char buffer
+  with mark/reset support, filled by subclasses from wherever their
+  characters come from. Like UnsynchronizedStringReader, none of this is
+  synchronized, and closed streams aren't checked for.
+
+  The parser knows about this class, and will look at peek() and the
+  buffer directly instead of going through mark()/read()/reset() when
+  it can, which is most of the point of these Readers. Characters from
+  buf[pos] up to buf[limit] have been buffered but not yet read.
+ */
+abstract class BufferedCharReader extends Reader
+{
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    char[] buf;
+    int pos;
+    int limit;
+
+    // Index in buf of the mark, or -1 if there is no valid mark, and the
+    // number of characters that may be read before the mark is dropped.
+    private int markPos = -1;
+    private int readAheadLimit;
+
+    // The number of characters read before the one at buf[0]; characters
+    // only leave the buffer by being read (or pushed back, in subclasses).
+    private long consumedBeforeBuf;
+
+    // True if buf is an array we were handed, holding all of the input.
+    // It is never refilled or moved around, since it isn't ours.
+    private final boolean wrapsArray;
+
+    BufferedCharReader(int bufferSize)
+    {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive.");
+        }
+        buf = new char[bufferSize];
+        pos = 0;
+        limit = 0;
+        wrapsArray = false;
+    }
+
+    /*
+      Makes a reader whose entire input is the len characters of cbuf
+      starting at off. The array is used in place, not copied.
+     */
+    BufferedCharReader(char[] cbuf, int off, int len)
+    {
+        if (off < 0 || len < 0 || off > cbuf.length - len) {
+            throw new IndexOutOfBoundsException("Region [" + off + ", " + off + "+" + len
+                                                + ") is outside of an array of length "
+                                                + cbuf.length + ".");
+        }
+        buf = cbuf;
+        pos = off;
+        limit = off + len;
+        consumedBeforeBuf = -off;
+        wrapsArray = true;
+    }
+
+    /*
+      Reads up to len characters into cbuf at off, returning the number
+      read, or -1 at the end of input. Must block until at least one
+      character is available or the end of input is reached.
+     */
+    abstract int fillBuffer(char[] cbuf, int off, int len) throws IOException;
+
+    /*
+      Reads more characters into the buffer. Should only be called when
+      every buffered character has been read (pos == limit). Returns the
+      number of characters added, or -1 at the end of input.
+     */
+    final int fill() throws IOException
+    {
+        if (wrapsArray) return -1;
+
+        if (markPos >= 0 && limit - markPos >= readAheadLimit) {
+            markPos = -1; // Read too far past the mark to keep it.
+        }
+
+        if (markPos < 0) {
+            consumedBeforeBuf += pos;
+            pos = 0;
+            limit = 0;
+        } else {
+            // Keep everything from the mark on, at the front of the buffer.
+            int kept = limit - markPos;
+            if (kept == buf.length) {
+                buf = Arrays.copyOf(buf, Math.min(buf.length * 2,
+                                                  Math.max(readAheadLimit, buf.length + 1)));
+            }
+            System.arraycopy(buf, markPos, buf, 0, kept);
+            consumedBeforeBuf += markPos;
+            pos -= markPos;
+            limit = kept;
+            markPos = 0;
+        }
+
+        int n = fillBuffer(buf, limit, buf.length - limit);
+        if (n <= 0) return -1;
+
+        limit += n;
+        return n;
+    }
+
+    /*
+      Forgets every buffered character, along with any mark.
+     */
+    final void discardBuffer()
+    {
+        consumedBeforeBuf += pos;
+        pos = 0;
+        limit = 0;
+        markPos = -1;
+    }
+
+    /*
+      Returns the number of characters that have been read so far.
+     */
+    final long charsConsumed()
+    {
+        return consumedBeforeBuf + pos;
+    }
+
+    /*
+      Returns the next character without reading it, or -1 at the end of
+      input.
+     */
+    final int peek() throws IOException
+    {
+        if (pos >= limit && fill() == -1) {
+            return -1;
+        }
+        return buf[pos];
+    }
+
+    public int read() throws IOException
+    {
+        if (pos >= limit && fill() == -1) {
+            return -1;
+        }
+        return buf[pos++];
+    }
+
+    public int read(char[] cbuf, int off, int len) throws IOException
+    {
+        if (len == 0) return 0;
+        if (pos >= limit && fill() == -1) {
+            return -1;
+        }
+
+        int numChars = Math.min(len, limit - pos);
+        System.arraycopy(buf, pos, cbuf, off, numChars);
+        pos += numChars;
+
+        return numChars;
+    }
+
+    public long skip(long n) throws IOException
+    {
+        if (n < 0L) {
+            throw new IllegalArgumentException("skip value is negative");
+        }
+
+        long remaining = n;
+        while (remaining > 0) {
+            if (pos >= limit && fill() == -1) break;
+
+            int numChars = (int)Math.min(remaining, limit - pos);
+            pos += numChars;
+            remaining -= numChars;
+        }
+
+        return n - remaining;
+    }
+
+    public boolean ready() throws IOException
+    {
+        return pos < limit;
+    }
+
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    public void mark(int readAheadLimit) throws IOException
+    {
+        markPos = pos;
+        this.readAheadLimit = Math.max(readAheadLimit, 1);
+    }
+
+    public void reset() throws IOException
+    {
+        if (markPos < 0) {
+            throw new IOException("Reader has not been marked, or the mark is no longer valid.");
+        }
+        pos = markPos;
+    }
+}
@@ -0,0 +1,30 @@
+package su.boptim.al.subjson;
+
+/**
+   A {@link ToJsonPolicy} that can tell the serializer which values are
+   safe to memoize in a {@link WriteCache}.
+   <p>
+   When {@link SubJson} is given a {@link WriteCache} along with a
+   CacheableToJsonPolicy, it will ask the policy about every array and
+   object it is about to write. If the policy says the value is
+   cacheable, the serializer will look for a previously written copy
+   of that exact object (by identity, not equality) in the cache and
+   splice it into the output, instead of walking the value again.
+*/
+public interface CacheableToJsonPolicy extends ToJsonPolicy
+{
+    /**
+       This function is called by the serializer on every array and
+       object it is about to write, when it has been given a
+       {@link WriteCache}. It should return true only if the value,
+       and every value inside of it, can never change, so that it will
+       always serialize to the same json. Immutable collections, such as
+       Clojure's persistent vectors and maps, are the intended use;
+       values that might be modified later must return false.
+
+       @param o an object that {@link #categorize(Object)} classified as
+       TYPE_ARRAY or TYPE_OBJECT
+       @return true if the json written for o may be cached and reused
+     */
+    public boolean isCacheable(Object o);
+}
@@ -0,0 +1,356 @@
+package su.boptim.al.subjson;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+   Reads json documents through a cache of the values read from
+   documents seen before, for programs that are handed the same documents
+   over and over, such as configuration. Each document is looked up by a
+   64-bit XXH64 hash of its content and then compared in full against the
+   cached document with that hash, so a document is only ever answered
+   with the value read from the same text; on a miss it is read with
+   {@link SubJson#read(java.io.Reader, FunctionalFromJsonPolicy)} and the
+   value is cached.
+   <p>
+   Since a cached value is handed to every caller that reads the same
+   document, it must not be modified. By default, values are made as by
+   the default {@link FromJsonPolicy}, but with each List and Map
+   unmodifiable. A CachingParser can be given any other policy, which
+   should likewise build values that can't change, such as Clojure's
+   persistent collections.
+   <p>
+   The cache holds at most a given number of documents and a given
+   estimated number of bytes, evicting the least recently used documents
+   first. A document is estimated to take
+   {@value #ESTIMATED_BYTES_PER_CHAR} bytes per character (or byte, for
+   UTF-8) of its json, for the kept copy of the text and the value read
+   from it. The cache is split into stripes, each with its own lock, so
+   that threads reading different documents rarely wait on each other.
+   The limits are on the whole cache, but a stripe only evicts its own
+   documents to make room for one it is adding, so recency is judged
+   within each stripe, and while the stripe being added to has nothing
+   else to give up, the cache can be over its limits by a few documents
+   until the next addition to another stripe. A CachingParser may be
+   shared between threads.
+*/
+public final class CachingParser
+{
+    /**
+       The estimated size of a cached document, in bytes per character of
+       its json.
+     */
+    public static final int ESTIMATED_BYTES_PER_CHAR = 8;
+
+    private static final int STRIPES = 16;
+
+    // Different seeds for the two kinds of input, so that equal hashes
+    // of a String and a byte[] are no more likely than any other.
+    private static final long CHARS_SEED = 0L;
+    private static final long BYTES_SEED = 0x5EED5EED5EED5EEDL;
+
+    private static final class Entry
+    {
+        // The json text, as a String or a byte[] of UTF-8.
+        final Object source;
+        final Object value;
+        final long estimatedBytes;
+
+        Entry(Object source, Object value, long estimatedBytes)
+        {
+            this.source = source;
+            this.value = value;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+
+    private static final class Stripe
+    {
+        // In access order, so the eldest entry is the least recently used.
+        final LinkedHashMap<Long,Entry> entries
+            = new LinkedHashMap<Long,Entry>(16, 0.75f, true);
+    }
+
+    private final Stripe[] stripes;
+    private final FunctionalFromJsonPolicy fjp;
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // Totals over all the stripes, only changed with a stripe's lock held.
+    private final AtomicLong entryCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+       Creates a CachingParser that reads values with unmodifiable Lists and
+       Maps, caching at most maxEntries documents and maxBytes estimated
+       bytes.
+
+       @param maxEntries the most documents to cache
+       @param maxBytes the most estimated bytes to cache
+     */
+    public CachingParser(int maxEntries, long maxBytes)
+    {
+        this(maxEntries, maxBytes,
+             new MutableFromJsonPolicyAdapter(new ImmutableFromJsonPolicy()));
+    }
+
+    /**
+       Creates a CachingParser that reads values with fjp, caching at most
+       maxEntries documents and maxBytes estimated bytes. The values fjp
+       builds are shared between all callers, so it should only build
+       values that can't be modified.
+
+       @param maxEntries the most documents to cache
+       @param maxBytes the most estimated bytes to cache
+       @param fjp the {@link FunctionalFromJsonPolicy} to read values with
+     */
+    public CachingParser(int maxEntries, long maxBytes,
+                         FunctionalFromJsonPolicy fjp)
+    {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("A CachingParser must be able to hold at least one entry and one byte.");
+        }
+        if (fjp == null) {
+            throw new IllegalArgumentException("A CachingParser needs a policy to read values with.");
+        }
+        this.fjp = fjp;
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+       Returns the value of the json document in jsonSrc, from the cache if
+       the same document has been read before. The whole of jsonSrc is the
+       key, so it must hold just the one json value, with nothing but
+       whitespace after it; anything else is an error, and is not cached.
+
+       @param jsonSrc a {@link CharSequence} holding a json document
+       @return the value read from jsonSrc, which must not be modified
+     */
+    public Object read(CharSequence jsonSrc) throws Exception, IOException
+    {
+        final long hash = XxHash64.hash(jsonSrc, CHARS_SEED);
+        final Stripe stripe = stripeFor(hash);
+
+        synchronized (stripe) {
+            Entry e = stripe.entries.get(hash);
+            if (e != null && e.source instanceof String
+                && ((String)e.source).contentEquals(jsonSrc)) {
+                hits.increment();
+                return e.value;
+            }
+        }
+
+        misses.increment();
+        String source = jsonSrc.toString();
+        Reader rdr = new UnsynchronizedStringReader(source);
+        Object value = SubJson.read(rdr, fjp);
+        requireEnd(rdr);
+        return put(stripe, hash, source, value,
+                   (long)source.length() * ESTIMATED_BYTES_PER_CHAR);
+    }
+
+    /**
+       Returns the value of the json document in the len bytes of utf8
+       starting at off, which must be UTF-8, from the cache if the same
+       bytes have been read before. As with {@link #read(CharSequence)},
+       the bytes must hold just the one json value. The bytes are copied
+       if they are cached, so the array may be reused afterwards.
+
+       @param utf8 an array holding a json document in UTF-8
+       @param off the index of the first byte of the document
+       @param len the number of bytes in the document
+       @return the value read from the bytes, which must not be modified
+     */
+    public Object read(byte[] utf8, int off, int len) throws Exception, IOException
+    {
+        final long hash = XxHash64.hash(utf8, off, len, BYTES_SEED);
+        final Stripe stripe = stripeFor(hash);
+
+        synchronized (stripe) {
+            Entry e = stripe.entries.get(hash);
+            if (e != null && e.source instanceof byte[]
+                && rangeEquals((byte[])e.source, utf8, off, len)) {
+                hits.increment();
+                return e.value;
+            }
+        }
+
+        misses.increment();
+        byte[] source = Arrays.copyOfRange(utf8, off, off + len);
+        Reader rdr = new UnsynchronizedUtf8StreamReader(
+            new ByteArrayInputStream(source));
+        Object value = SubJson.read(rdr, fjp);
+        requireEnd(rdr);
+        return put(stripe, hash, source, value,
+                   (long)len * ESTIMATED_BYTES_PER_CHAR);
+    }
+
+    /*
+      SubJson.read() stops just after the value, so check that there is
+      nothing more in the document before its value is cached; a value
+      cached for "1 2" would be handed back the next time it is read,
+      without the error.
+     */
+    private static void requireEnd(Reader rdr) throws IOException
+    {
+        int c;
+        do {
+            c = rdr.read();
+        } while (TextUtils.isWhitespace(c));
+        if (c != -1) {
+            throw new IllegalArgumentException("Encountered input after the json value in a document.");
+        }
+    }
+
+    private Stripe stripeFor(long hash)
+    {
+        // The low bits of the hash pick the bucket within the stripe's
+        // map, so use high ones to pick the stripe.
+        return stripes[(int)(hash >>> 60) & (STRIPES - 1)];
+    }
+
+    private static boolean rangeEquals(byte[] a, byte[] b, int off, int len)
+    {
+        if (a.length != len) return false;
+        for (int i = 0; i < len; i++) {
+            if (a[i] != b[off + i]) return false;
+        }
+        return true;
+    }
+
+    /*
+      Caches value under hash, unless it is too big for the cache, and
+      returns the value to give the caller: if another thread cached the
+      same document while this one was reading it, that thread's value, so
+      that everyone shares one copy.
+     */
+    private Object put(Stripe stripe, long hash, Object source, Object value,
+                       long estimatedBytes)
+    {
+        if (estimatedBytes > maxBytes) {
+            return value;
+        }
+
+        synchronized (stripe) {
+            Entry existing = stripe.entries.get(hash);
+            if (existing != null) {
+                if (sameSource(existing.source, source)) {
+                    return existing.value;
+                }
+                // A hash collision; the newer document replaces the older.
+                stripe.entries.remove(hash);
+                entryCount.decrementAndGet();
+                byteCount.addAndGet(-existing.estimatedBytes);
+            }
+
+            // Make room by evicting this stripe's least recently used
+            // entries, but never the last one, which is the one being added.
+            stripe.entries.put(hash, new Entry(source, value, estimatedBytes));
+            entryCount.incrementAndGet();
+            byteCount.addAndGet(estimatedBytes);
+
+            Iterator<Map.Entry<Long,Entry>> eldest = stripe.entries.entrySet().iterator();
+            while ((entryCount.get() > maxEntries || byteCount.get() > maxBytes)
+                   && stripe.entries.size() > 1) {
+                Entry e = eldest.next().getValue();
+                eldest.remove();
+                entryCount.decrementAndGet();
+                byteCount.addAndGet(-e.estimatedBytes);
+                evictions.increment();
+            }
+        }
+        return value;
+    }
+
+    private static boolean sameSource(Object a, Object b)
+    {
+        if (a instanceof String && b instanceof String) {
+            return a.equals(b);
+        } else if (a instanceof byte[] && b instanceof byte[]) {
+            return Arrays.equals((byte[])a, (byte[])b);
+        } else {
+            return false;
+        }
+    }
+
+    /**
+       Empties the cache. The hit, miss and eviction counts are kept.
+     */
+    public void clear()
+    {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                entryCount.addAndGet(-stripe.entries.size());
+                for (Entry e : stripe.entries.values()) {
+                    byteCount.addAndGet(-e.estimatedBytes);
+                }
+                stripe.entries.clear();
+            }
+        }
+    }
+
+    /**
+       @return the number of documents in the cache
+     */
+    public int size()
+    {
+        return (int)entryCount.get();
+    }
+
+    /**
+       @return the estimated number of bytes the cached documents take
+     */
+    public long getEstimatedBytes()
+    {
+        return byteCount.get();
+    }
+
+    /**
+       @return the number of reads answered from the cache
+     */
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /**
+       @return the number of reads that had to read the document
+     */
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+       @return the number of documents evicted to stay within the limits
+     */
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    public String toString()
+    {
+        return "CachingParser{size=" + size()
+            + ", estimatedBytes=" + getEstimatedBytes()
+            + ", hits=" + getHits()
+            + ", misses=" + getMisses()
+            + ", evictions=" + getEvictions() + "}";
+    }
+}
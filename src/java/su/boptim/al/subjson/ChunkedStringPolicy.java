@@ -0,0 +1,131 @@
+package su.boptim.al.subjson;
+
+/**
+   A {@link FunctionalFromJsonPolicy} that builds values with another
+   policy, but can choose to take the characters of any string value in
+   chunks, through a {@link StringChunkHandler}, rather than as a
+   {@link String}. This is for json holding string values too big to
+   want a String of, such as large base64 attachments; see
+   {@link Base64StringHandler}. Subclasses pick the string values to
+   handle by returning a handler from {@link #stringHandler(Object)}:
+   <pre>
+   new ChunkedStringPolicy() {
+       protected StringChunkHandler stringHandler(Object key) {
+           return "attachment".equals(key) ? new Base64StringHandler() : null;
+       }
+   };
+   </pre>
+   Object keys are never handled in chunks.
+*/
+public abstract class ChunkedStringPolicy implements FunctionalFromJsonPolicy
+{
+    final FunctionalFromJsonPolicy fjp;
+
+    /**
+       Creates a policy that builds the same values as the default
+       {@link FromJsonPolicy}, other than the string values it handles.
+     */
+    protected ChunkedStringPolicy()
+    {
+        this(new DefaultFromJsonPolicy());
+    }
+
+    /**
+       Creates a policy that builds values with fjp, other than the string
+       values it handles.
+
+       @param fjp the {@link FromJsonPolicy} to build values with
+     */
+    protected ChunkedStringPolicy(FromJsonPolicy fjp)
+    {
+        this(new MutableFromJsonPolicyAdapter(fjp));
+    }
+
+    /**
+       Creates a policy that builds values with fjp, other than the string
+       values it handles.
+
+       @param fjp the {@link FunctionalFromJsonPolicy} to build values with
+     */
+    protected ChunkedStringPolicy(FunctionalFromJsonPolicy fjp)
+    {
+        if (fjp == null) {
+            throw new IllegalArgumentException("A ChunkedStringPolicy needs a policy to build values with.");
+        }
+        this.fjp = fjp;
+    }
+
+    /**
+       Called by the parser when it reaches a string value, before reading
+       any of it, to ask whether to hand the value's characters to a
+       {@link StringChunkHandler}. If this returns a handler, whatever its
+       finish() returns is the value, and makeString() is not called for
+       it. If it returns null, the value is read into a {@link String} and
+       given to makeString() as usual.
+
+       @param key the object the other policy's makeKey() returned for the
+       key of the value, if it is the value of a key/value pair in an
+       object, or null if it is an array element or the top-level value
+       @return a new {@link StringChunkHandler} for this one value, or null
+     */
+    protected abstract StringChunkHandler stringHandler(Object key)
+        throws Exception;
+
+    // Arrays
+    public Object startArray()
+    {
+        return fjp.startArray();
+    }
+
+    public Object arrayAppend(Object array, Object value)
+    {
+        return fjp.arrayAppend(array, value);
+    }
+
+    public Object finishArray(Object array)
+    {
+        return fjp.finishArray(array);
+    }
+
+    // Objects
+    public Object startObject()
+    {
+        return fjp.startObject();
+    }
+
+    public Object objectInsert(Object obj, Object key, Object value)
+    {
+        return fjp.objectInsert(obj, key, value);
+    }
+
+    public Object finishObject(Object obj)
+    {
+        return fjp.finishObject(obj);
+    }
+
+    // Primitives
+    public Object makeNull()
+    {
+        return fjp.makeNull();
+    }
+
+    public Object makeBoolean(Boolean b)
+    {
+        return fjp.makeBoolean(b);
+    }
+
+    public Object makeString(String s)
+    {
+        return fjp.makeString(s);
+    }
+
+    public Object makeKey(CharSequence chars)
+    {
+        return fjp.makeKey(chars);
+    }
+
+    public Object makeNumber(Number n)
+    {
+        return fjp.makeNumber(n);
+    }
+}
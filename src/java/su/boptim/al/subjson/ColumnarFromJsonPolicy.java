@@ -0,0 +1,131 @@
+package su.boptim.al.subjson;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+   A {@link FromJsonPolicy} that builds the same values as the default
+   policy, except that an array of objects that have the same keys, such
+   as the rows of a table or a series of readings, is read into a
+   {@link ColumnarTable}, which holds each key's values in one primitive
+   array rather than in a map for each object. Objects are still read
+   into a map each, but each is put into the columns as soon as it is
+   read, and is left for the garbage collector to reclaim young.
+   <p>
+   An array becomes a ColumnarTable if its first minRows elements are
+   all objects, and more than half of all its elements have the same
+   keys as the first one; the others are kept as maps in the table.
+   Shorter arrays, arrays of anything else, and arrays with an element
+   that isn't an object are read into an {@link ArrayList}, as the
+   default policy does.
+   <p>
+   A ColumnarFromJsonPolicy can be shared between threads.
+*/
+public class ColumnarFromJsonPolicy implements FromJsonPolicy
+{
+    /**
+       The minRows of a policy made with {@link #ColumnarFromJsonPolicy()}.
+     */
+    public static final int DEFAULT_MIN_ROWS = 16;
+
+    final int minRows;
+
+    /**
+       Creates a policy that reads arrays of at least
+       {@link #DEFAULT_MIN_ROWS} objects into ColumnarTables.
+     */
+    public ColumnarFromJsonPolicy()
+    {
+        this(DEFAULT_MIN_ROWS);
+    }
+
+    /**
+       Creates a policy that reads arrays of at least minRows objects
+       into ColumnarTables.
+
+       @param minRows the fewest elements an array must have to be read
+       into a ColumnarTable, at least 1
+     */
+    public ColumnarFromJsonPolicy(int minRows)
+    {
+        if (minRows < 1) {
+            throw new IllegalArgumentException("The minimum number of rows must be positive.");
+        }
+        this.minRows = minRows;
+    }
+
+    /**
+       @return the fewest elements an array must have to be read into a
+               {@link ColumnarTable}
+     */
+    public int getMinRows()
+    {
+        return minRows;
+    }
+
+    // Arrays
+    public boolean isArray(Object o)
+    {
+        return o instanceof ColumnarTable.Builder || o instanceof ArrayList<?>
+            || o instanceof ColumnarTable;
+    }
+
+    public Object startArray()
+    {
+        return new ColumnarTable.Builder(minRows);
+    }
+
+    public void arrayAppend(Object array, Object value)
+    {
+        ((ColumnarTable.Builder)array).append(value);
+    }
+
+    public Object finishArray(Object array)
+    {
+        return ((ColumnarTable.Builder)array).finish();
+    }
+
+    // Objects
+    public boolean isObject(Object o)
+    {
+        return o instanceof HashMap<?,?>;
+    }
+
+    public Object startObject()
+    {
+        return new HashMap<String,Object>();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void objectInsert(Object o, Object key, Object value)
+    {
+        HashMap<String,Object> obj = (HashMap<String,Object>)o;
+        obj.put((String)key, value);
+    }
+
+    public Object finishObject(Object obj)
+    {
+        return obj;
+    }
+
+    // Primitives
+    public Object makeNull()
+    {
+        return null;
+    }
+
+    public Object makeBoolean(Boolean b)
+    {
+        return b;
+    }
+
+    public Object makeString(String s)
+    {
+        return s;
+    }
+
+    public Object makeNumber(Number n)
+    {
+        return n;
+    }
+}
@@ -0,0 +1,605 @@
+package su.boptim.al.subjson;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+   A json array of objects that all have the same keys, as read by a
+   {@link ColumnarFromJsonPolicy}, stored by column rather than by row.
+   Each key, or field, has one column holding its value in every row: a
+   {@code long[]} for integers, a {@code double[]} for reals, a
+   dictionary of the distinct strings and a code into it for each row
+   for strings, and bits for booleans and for nulls. A field whose values
+   are of more than one type, other than integers mixed with reals that
+   a double holds exactly, or that are arrays or objects, keeps its
+   values as they are. Rows whose keys are not the fields, and only
+   those, are kept as the maps they were read as.
+   <p>
+   A ColumnarTable is a {@link List} of {@link Map}s, so it can be used
+   wherever the array would have been, but it can't be modified. Each
+   row is a view of the columns, which makes its values as they are
+   asked for, so a loop over every value of a field is faster with the
+   methods that take a row and field number, such as
+   {@link #getLong(int, int)}, which make no objects for integers and
+   reals. {@link SubJson#write(Appendable, Object, boolean)} writes a
+   ColumnarTable straight from its columns, giving the same json as it
+   would for the rows, with each row's keys in the order of
+   {@link #getFields()}.
+   <p>
+   A ColumnarTable never changes, so it can be shared between threads.
+*/
+public final class ColumnarTable extends AbstractList<Map<String,Object>>
+{
+    // The kinds of column, by the values it holds.
+    static final int NULLS = 0;    // Only nulls, so far.
+    static final int LONGS = 1;
+    static final int DOUBLES = 2;  // With the integers among them marked.
+    static final int STRINGS = 3;
+    static final int BOOLEANS = 4;
+    static final int VALUES = 5;   // Anything, as it was read.
+
+    // Every integer of at most this magnitude is exactly a double.
+    private static final long MAX_EXACT = 1L << 53;
+
+    /*
+      A field's values, one for each row, with a kind saying which of the
+      arrays holds them. The entries for rows that are kept as maps are
+      unused.
+     */
+    static final class Column
+    {
+        final String name;
+        int kind = NULLS;
+        long[] longs;
+        double[] doubles;
+        int[] codes;
+        String[] dictionary;
+        Object[] values;
+        final BitSet nulls = new BitSet();
+        final BitSet bits = new BitSet(); // Booleans, or integers among doubles.
+
+        // While building, the code of each string, and the strings in order.
+        HashMap<String,Integer> codesByString;
+        ArrayList<String> strings;
+
+        Column(String name)
+        {
+            this.name = name;
+        }
+
+        /*
+          Sets the value at row, given a column with room for capacity
+          rows, of which the rows before row, except those in fallback,
+          are already set.
+         */
+        void set(int row, Object v, int capacity, BitSet fallback)
+        {
+            if (v == null) {
+                nulls.set(row);
+                return;
+            }
+            switch (kind) {
+            case NULLS:
+                start(v, capacity);
+                set(row, v, capacity, fallback);
+                return;
+            case LONGS:
+                if (v instanceof Long) {
+                    longs[row] = (Long)v;
+                    return;
+                }
+                if (v instanceof Double && longsAreExact(row, fallback)) {
+                    doubles = new double[capacity];
+                    for (int i = 0; i < row; i++) {
+                        doubles[i] = longs[i];
+                    }
+                    longs = null;
+                    bits.set(0, row);
+                    kind = DOUBLES;
+                    set(row, v, capacity, fallback);
+                    return;
+                }
+                break;
+            case DOUBLES:
+                if (v instanceof Double) {
+                    doubles[row] = (Double)v;
+                    return;
+                }
+                if (v instanceof Long && isExact((Long)v)) {
+                    doubles[row] = (Long)v;
+                    bits.set(row);
+                    return;
+                }
+                break;
+            case STRINGS:
+                if (v instanceof String) {
+                    Integer code = codesByString.get(v);
+                    if (code == null) {
+                        code = strings.size();
+                        codesByString.put((String)v, code);
+                        strings.add((String)v);
+                    }
+                    codes[row] = code;
+                    return;
+                }
+                break;
+            case BOOLEANS:
+                if (v instanceof Boolean) {
+                    if ((Boolean)v) bits.set(row);
+                    return;
+                }
+                break;
+            case VALUES:
+                values[row] = v;
+                return;
+            }
+
+            // The value doesn't fit this column, so keep every value as is.
+            Object[] all = new Object[capacity];
+            for (int i = 0; i < row; i++) {
+                if (!fallback.get(i)) all[i] = get(i);
+            }
+            longs = null;
+            doubles = null;
+            codes = null;
+            codesByString = null;
+            strings = null;
+            bits.clear();
+            values = all;
+            kind = VALUES;
+            values[row] = v;
+        }
+
+        // Picks the kind of column for v, the first value that isn't null.
+        private void start(Object v, int capacity)
+        {
+            if (v instanceof Long) {
+                kind = LONGS;
+                longs = new long[capacity];
+            } else if (v instanceof Double) {
+                kind = DOUBLES;
+                doubles = new double[capacity];
+            } else if (v instanceof String) {
+                kind = STRINGS;
+                codes = new int[capacity];
+                codesByString = new HashMap<String,Integer>();
+                strings = new ArrayList<String>();
+            } else if (v instanceof Boolean) {
+                kind = BOOLEANS;
+            } else {
+                kind = VALUES;
+                values = new Object[capacity];
+            }
+        }
+
+        private boolean longsAreExact(int rows, BitSet fallback)
+        {
+            for (int i = 0; i < rows; i++) {
+                if (!isExact(longs[i]) && !fallback.get(i) && !nulls.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isExact(long l)
+        {
+            return l >= -MAX_EXACT && l <= MAX_EXACT;
+        }
+
+        void resize(int capacity)
+        {
+            if (longs != null) longs = Arrays.copyOf(longs, capacity);
+            if (doubles != null) doubles = Arrays.copyOf(doubles, capacity);
+            if (codes != null) codes = Arrays.copyOf(codes, capacity);
+            if (values != null) values = Arrays.copyOf(values, capacity);
+        }
+
+        // Done building: keeps the dictionary as an array.
+        void finish()
+        {
+            if (strings != null) {
+                dictionary = strings.toArray(new String[strings.size()]);
+                strings = null;
+                codesByString = null;
+            }
+        }
+
+        // The value at row, as it was read.
+        Object get(int row)
+        {
+            if (nulls.get(row)) return null;
+            switch (kind) {
+            case LONGS:
+                return longs[row];
+            case DOUBLES:
+                if (bits.get(row)) return (long)doubles[row];
+                return doubles[row];
+            case STRINGS:
+                return (dictionary != null) ? dictionary[codes[row]] : strings.get(codes[row]);
+            case BOOLEANS:
+                return bits.get(row);
+            case VALUES:
+                return values[row];
+            default:
+                return null;
+            }
+        }
+    }
+
+    final Column[] columns;
+    final int rows;
+    // The rows kept as maps, by their row numbers, which are in order.
+    final int[] fallbackRows;
+    final List<Map<String,Object>> fallbackMaps;
+    private final List<String> fields;
+    // The number of each field, so that looking one up in a wide table
+    // doesn't go through all of them.
+    private final HashMap<String,Integer> fieldIndexes;
+
+    ColumnarTable(Column[] columns, int rows, int[] fallbackRows,
+                  List<Map<String,Object>> fallbackMaps)
+    {
+        this.columns = columns;
+        this.rows = rows;
+        this.fallbackRows = fallbackRows;
+        this.fallbackMaps = fallbackMaps;
+        String[] names = new String[columns.length];
+        fieldIndexes = new HashMap<String,Integer>(columns.length * 2);
+        for (int f = 0; f < columns.length; f++) {
+            names[f] = columns[f].name;
+            fieldIndexes.put(names[f], f);
+        }
+        this.fields = Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    public int size()
+    {
+        return rows;
+    }
+
+    /**
+       @param row the number of a row
+       @return the row, as a read-only {@link Map}
+     */
+    public Map<String,Object> get(int row)
+    {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rows + ".");
+        }
+        Map<String,Object> m = fallbackMap(row);
+        return (m != null) ? m : new Row(row);
+    }
+
+    /**
+       @return the keys every row but those kept as maps has, in the order
+               they are written
+     */
+    public List<String> getFields()
+    {
+        return fields;
+    }
+
+    /**
+       @param name a key
+       @return its number among {@link #getFields()}, or -1 if it isn't one
+     */
+    public int getFieldIndex(String name)
+    {
+        Integer f = fieldIndexes.get(name);
+        return (f != null) ? f.intValue() : -1;
+    }
+
+    /**
+       @param row the number of a row
+       @return whether the row is kept as the map it was read as, because
+               its keys are not the fields
+     */
+    public boolean isFallback(int row)
+    {
+        return fallbackMap(row) != null;
+    }
+
+    // The map for row if it is kept as one, or null.
+    Map<String,Object> fallbackMap(int row)
+    {
+        if (fallbackRows.length == 0) return null;
+        int i = Arrays.binarySearch(fallbackRows, row);
+        return (i >= 0) ? fallbackMaps.get(i) : null;
+    }
+
+    /**
+       Returns the value of a field in a row, as it was read: a
+       {@link Long}, {@link Double}, {@link String}, {@link Boolean},
+       null, or an array or object. For a row kept as a map, this is its
+       value at the field's key, which is null if it hasn't the key.
+
+       @param row the number of a row
+       @param field the number of a field
+       @return the value
+     */
+    public Object get(int row, int field)
+    {
+        Map<String,Object> m = fallbackMap(row);
+        if (m != null) return m.get(columns[field].name);
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rows + ".");
+        }
+        return columns[field].get(row);
+    }
+
+    /**
+       @param row the number of a row
+       @param field the number of a field
+       @return the value of the field in the row, which must be a number,
+               as a long
+       @throws IllegalStateException if the value isn't a number
+     */
+    public long getLong(int row, int field)
+    {
+        Column c = columns[field];
+        if (c.kind == LONGS && row < rows && !c.nulls.get(row) && fallbackMap(row) == null) {
+            return c.longs[row];
+        }
+        return number(row, field).longValue();
+    }
+
+    /**
+       @param row the number of a row
+       @param field the number of a field
+       @return the value of the field in the row, which must be a number,
+               as a double
+       @throws IllegalStateException if the value isn't a number
+     */
+    public double getDouble(int row, int field)
+    {
+        Column c = columns[field];
+        if (c.kind == DOUBLES && row < rows && !c.nulls.get(row) && fallbackMap(row) == null) {
+            return c.doubles[row];
+        }
+        return number(row, field).doubleValue();
+    }
+
+    private Number number(int row, int field)
+    {
+        Object v = get(row, field);
+        if (!(v instanceof Number)) {
+            throw new IllegalStateException("The value of " + columns[field].name + " in row "
+                                            + row + " is not a number.");
+        }
+        return (Number)v;
+    }
+
+    /**
+       @param row the number of a row
+       @param field the number of a field
+       @return the value of the field in the row, which must be a string
+               or null
+       @throws IllegalStateException if the value isn't a string or null
+     */
+    public String getString(int row, int field)
+    {
+        Object v = get(row, field);
+        if (v != null && !(v instanceof String)) {
+            throw new IllegalStateException("The value of " + columns[field].name + " in row "
+                                            + row + " is not a string.");
+        }
+        return (String)v;
+    }
+
+    /*
+      A row of the table, read from the columns. Its entries are in the
+      order of the fields.
+     */
+    private final class Row extends AbstractMap<String,Object>
+    {
+        final int row;
+
+        Row(int row)
+        {
+            this.row = row;
+        }
+
+        public int size()
+        {
+            return columns.length;
+        }
+
+        public boolean containsKey(Object key)
+        {
+            return (key instanceof String) && getFieldIndex((String)key) >= 0;
+        }
+
+        public Object get(Object key)
+        {
+            int f = (key instanceof String) ? getFieldIndex((String)key) : -1;
+            return (f < 0) ? null : columns[f].get(row);
+        }
+
+        public Set<Map.Entry<String,Object>> entrySet()
+        {
+            return new AbstractSet<Map.Entry<String,Object>>() {
+                public int size()
+                {
+                    return columns.length;
+                }
+
+                public Iterator<Map.Entry<String,Object>> iterator()
+                {
+                    return new Iterator<Map.Entry<String,Object>>() {
+                        int f = 0;
+
+                        public boolean hasNext()
+                        {
+                            return f < columns.length;
+                        }
+
+                        public Map.Entry<String,Object> next()
+                        {
+                            if (f >= columns.length) throw new NoSuchElementException();
+                            Column c = columns[f++];
+                            return new AbstractMap.SimpleImmutableEntry<String,Object>(c.name,
+                                                                                       c.get(row));
+                        }
+
+                        public void remove()
+                        {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /*
+      The array a ColumnarFromJsonPolicy builds while reading, which
+      becomes a ColumnarTable, or an ArrayList if it turns out not to be
+      an array of objects with the same keys. The first minRows elements
+      are kept as they are; if they are all objects, the keys of the first
+      are taken as the fields, and from then on each object is put into
+      the columns as it is appended, so that its map can be collected
+      straight away.
+     */
+    static final class Builder
+    {
+        private final int minRows;
+        private ArrayList<Object> list = new ArrayList<Object>();
+
+        private Column[] columns;
+        private Object[] rowValues;
+        private int rows = 0;
+        private int capacity = 0;
+        private final BitSet fallback = new BitSet();
+        private final ArrayList<Map<String,Object>> fallbackMaps
+            = new ArrayList<Map<String,Object>>();
+
+        Builder(int minRows)
+        {
+            this.minRows = minRows;
+        }
+
+        @SuppressWarnings("unchecked")
+        void append(Object value)
+        {
+            if (columns == null) {
+                list.add(value);
+                if (list.size() == minRows && allObjects(list)) {
+                    start((Map<String,Object>)list.get(0));
+                }
+            } else if (value instanceof Map) {
+                appendRow((Map<String,Object>)value);
+            } else {
+                // Not an array of objects after all.
+                list = toList();
+                columns = null;
+                list.add(value);
+            }
+        }
+
+        private static boolean allObjects(List<Object> list)
+        {
+            for (Object o : list) {
+                if (!(o instanceof Map)) return false;
+            }
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void start(Map<String,Object> first)
+        {
+            columns = new Column[first.size()];
+            rowValues = new Object[columns.length];
+            int f = 0;
+            for (String key : first.keySet()) {
+                columns[f++] = new Column(key);
+            }
+            capacity = Math.max(16, minRows * 2);
+            ArrayList<Object> pending = list;
+            list = null;
+            for (Object o : pending) {
+                appendRow((Map<String,Object>)o);
+            }
+        }
+
+        private void appendRow(Map<String,Object> row)
+        {
+            if (rows == capacity) {
+                capacity *= 2;
+                for (Column c : columns) {
+                    c.resize(capacity);
+                }
+            }
+
+            boolean matches = row.size() == columns.length;
+            for (int f = 0; matches && f < columns.length; f++) {
+                Object v = row.get(columns[f].name);
+                if (v == null && !row.containsKey(columns[f].name)) matches = false;
+                rowValues[f] = v;
+            }
+            if (matches) {
+                for (int f = 0; f < columns.length; f++) {
+                    columns[f].set(rows, rowValues[f], capacity, fallback);
+                }
+            } else {
+                fallback.set(rows);
+                fallbackMaps.add(row);
+            }
+            Arrays.fill(rowValues, null);
+            rows++;
+        }
+
+        // The rows so far, each as a map.
+        private ArrayList<Object> toList()
+        {
+            ArrayList<Object> all = new ArrayList<Object>(rows + 1);
+            int nextFallback = 0;
+            for (int r = 0; r < rows; r++) {
+                if (fallback.get(r)) {
+                    all.add(fallbackMaps.get(nextFallback++));
+                } else {
+                    HashMap<String,Object> m = new HashMap<String,Object>();
+                    for (Column c : columns) {
+                        m.put(c.name, c.get(r));
+                    }
+                    all.add(m);
+                }
+            }
+            return all;
+        }
+
+        /*
+          The finished array: a ColumnarTable, unless it is not an array of
+          objects, or is too short, or at least half of its rows would be
+          kept as maps rather than put in the columns.
+         */
+        Object finish()
+        {
+            if (columns == null) return list;
+            if (fallbackMaps.size() * 2 >= rows) return toList();
+
+            int[] fallbackRows = new int[fallbackMaps.size()];
+            int i = 0;
+            for (int r = fallback.nextSetBit(0); r >= 0; r = fallback.nextSetBit(r + 1)) {
+                fallbackRows[i++] = r;
+            }
+            for (Column c : columns) {
+                c.resize(rows);
+                c.finish();
+            }
+            fallbackMaps.trimToSize();
+            return new ColumnarTable(columns, rows, fallbackRows, fallbackMaps);
+        }
+    }
+}
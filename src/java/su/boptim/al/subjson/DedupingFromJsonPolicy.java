@@ -0,0 +1,140 @@
+package su.boptim.al.subjson;
+
+/**
+   A {@link FunctionalFromJsonPolicy} that builds values with another
+   policy, except that string values are looked up in a
+   {@link StringDedupTable} first, so that repeated values share one
+   {@link String}. When reading with this policy, the parser hands the
+   characters of each string value straight to the table, so a value that
+   is already in the table is returned without making a String at all.
+   The String from the table is then passed to the other policy's
+   makeString(). Object keys are left to the other policy, whose makeKey()
+   already sees the characters of each key before any String is made;
+   see {@link KeyCache} to share keys.
+   <p>
+   A DedupingFromJsonPolicy can be shared between threads if the policy
+   it wraps can.
+*/
+public class DedupingFromJsonPolicy implements FunctionalFromJsonPolicy
+{
+    final FunctionalFromJsonPolicy fjp;
+    final StringDedupTable table;
+
+    /**
+       Creates a policy that builds the same values as the default
+       {@link FromJsonPolicy}, with string values from table.
+
+       @param table the {@link StringDedupTable} to look up string values in
+     */
+    public DedupingFromJsonPolicy(StringDedupTable table)
+    {
+        this(new DefaultFromJsonPolicy(), table);
+    }
+
+    /**
+       Creates a policy that builds values with fjp, with string values
+       from table.
+
+       @param fjp the {@link FromJsonPolicy} to build values with
+       @param table the {@link StringDedupTable} to look up string values in
+     */
+    public DedupingFromJsonPolicy(FromJsonPolicy fjp, StringDedupTable table)
+    {
+        this(new MutableFromJsonPolicyAdapter(fjp), table);
+    }
+
+    /**
+       Creates a policy that builds values with fjp, with string values
+       from table.
+
+       @param fjp the {@link FunctionalFromJsonPolicy} to build values with
+       @param table the {@link StringDedupTable} to look up string values in
+     */
+    public DedupingFromJsonPolicy(FunctionalFromJsonPolicy fjp,
+                                  StringDedupTable table)
+    {
+        if (fjp == null || table == null) {
+            throw new IllegalArgumentException("A DedupingFromJsonPolicy needs a policy and a table.");
+        }
+        this.fjp = fjp;
+        this.table = table;
+    }
+
+    /**
+       @return the {@link StringDedupTable} string values are looked up in
+     */
+    public StringDedupTable getTable()
+    {
+        return table;
+    }
+
+    // Arrays
+    public Object startArray()
+    {
+        return fjp.startArray();
+    }
+
+    public Object arrayAppend(Object array, Object value)
+    {
+        return fjp.arrayAppend(array, value);
+    }
+
+    public Object finishArray(Object array)
+    {
+        return fjp.finishArray(array);
+    }
+
+    // Objects
+    public Object startObject()
+    {
+        return fjp.startObject();
+    }
+
+    public Object objectInsert(Object obj, Object key, Object value)
+    {
+        return fjp.objectInsert(obj, key, value);
+    }
+
+    public Object finishObject(Object obj)
+    {
+        return fjp.finishObject(obj);
+    }
+
+    // Primitives
+    public Object makeNull()
+    {
+        return fjp.makeNull();
+    }
+
+    public Object makeBoolean(Boolean b)
+    {
+        return fjp.makeBoolean(b);
+    }
+
+    public Object makeString(String s)
+    {
+        return fjp.makeString(table.get(s));
+    }
+
+    // What the parser calls instead of makeString(String), with the
+    // characters of the string before any String is made of them.
+    Object makeString(char[] cbuf, int off, int len)
+    {
+        return fjp.makeString(table.get(cbuf, off, len));
+    }
+
+    Object makeString(CharSequence chars)
+    {
+        return fjp.makeString(table.get(chars));
+    }
+
+    public Object makeKey(CharSequence chars)
+    {
+        return fjp.makeKey(chars);
+    }
+
+    public Object makeNumber(Number n)
+    {
+        return fjp.makeNumber(n);
+    }
+}
@@ -1,26 +1,47 @@
 package su.boptim.al.subjson;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 
 class DefaultToJsonPolicy implements ToJsonPolicy
 {
+    // The json type of each class we've been asked to categorize, worked
+    // out the first time we see the class, so that categorizing a value
+    // is a single lookup instead of a chain of instanceof checks. A class
+    // that can't be written as json maps to null.
+    private static final ClassValue<ValueType> valueTypes = new ClassValue<ValueType>() {
+        protected ValueType computeValue(Class<?> c)
+        {
+            if (c == Boolean.class) return ValueType.TYPE_BOOLEAN;
+            else if (c == String.class) return ValueType.TYPE_STRING;
+            else if (c == Long.class || c == Integer.class || c == Short.class
+                     || c == Byte.class || BigInteger.class.isAssignableFrom(c)) {
+                return ValueType.TYPE_INTEGER;
+            }
+            else if (c == Double.class || c == Float.class
+                     || BigDecimal.class.isAssignableFrom(c)) {
+                return ValueType.TYPE_REAL;
+            }
+            else if (List.class.isAssignableFrom(c)) return ValueType.TYPE_ARRAY;
+            else if (Map.class.isAssignableFrom(c)) return ValueType.TYPE_OBJECT;
+            else return null;
+        }
+    };
+
     public ValueType categorize(Object o)
     {
         if (o == null) return ValueType.TYPE_NULL;
-        else if (o instanceof Boolean) return ValueType.TYPE_BOOLEAN;
-        else if (o instanceof String) return ValueType.TYPE_STRING;
-        else if (o instanceof Long) return ValueType.TYPE_INTEGER;
-        else if (o instanceof Double) return ValueType.TYPE_REAL;
-        else if (o instanceof ArrayList<?>) return ValueType.TYPE_ARRAY;
-        else if (o instanceof HashMap<?,?>) return ValueType.TYPE_OBJECT;
-        else {
+
+        ValueType type = valueTypes.get(o.getClass());
+        if (type == null) {
             throw new IllegalArgumentException("Could not categorize the given object " 
                                                + o.toString() + " into a JSON value type.");
         }
+        return type;
     }
 
     public Boolean asBoolean(Object o)
@@ -33,27 +54,48 @@ class DefaultToJsonPolicy implements ToJsonPolicy
         return (String)o;
     }
 
+    // A BigInteger or BigDecimal is only narrowed if nothing is lost;
+    // otherwise this throws, rather than hand back a different number.
     public Long asInteger(Object o)
     {
-        return (Long)o;
+        if (o instanceof Long) return (Long)o;
+        if (o instanceof BigInteger) {
+            BigInteger bi = (BigInteger)o;
+            if (bi.bitLength() > 63) {
+                throw new IllegalArgumentException("The integer " + bi + " does not fit in a long.");
+            }
+            return Long.valueOf(bi.longValue());
+        }
+        return Long.valueOf(((Number)o).longValue());
     }
 
     public Double asReal(Object o)
     {
-        return (Double)o;
+        if (o instanceof Double) return (Double)o;
+        if (o instanceof BigDecimal) {
+            BigDecimal bd = (BigDecimal)o;
+            double d = bd.doubleValue();
+            if (Double.isInfinite(d) || BigDecimal.valueOf(d).compareTo(bd) != 0) {
+                throw new IllegalArgumentException("The number " + bd + " can't be held exactly by a double.");
+            }
+            return Double.valueOf(d);
+        }
+        return Double.valueOf(((Number)o).doubleValue());
     }
     
+    @SuppressWarnings("unchecked")
     public Iterator<Object> arrayIterator(Object o)
     {
-        ArrayList<Object> al = (ArrayList<Object>)o;
+        List<Object> l = (List<Object>)o;
 
-        return al.iterator();
+        return l.iterator();
     }
 
+    @SuppressWarnings("unchecked")
     public Iterator<Map.Entry<String, Object>> objectIterator(Object o)
     {
-        HashMap<String, Object> hm = (HashMap<String, Object>)o;
+        Map<String, Object> m = (Map<String, Object>)o;
 
-        return hm.entrySet().iterator();
+        return m.entrySet().iterator();
     }
 }
@@ -0,0 +1,256 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+   An {@link Iterator} that reads the elements of a json array, or a
+   series of json values, from a {@link Reader} one at a time, so that
+   they can be processed without building the whole array in memory.
+   <p>
+   Use {@link #arrayElements(Reader, FunctionalFromJsonPolicy)} to
+   iterate through the elements of the array the Reader is positioned
+   at; when the iterator is exhausted, the Reader will be positioned
+   just after the closing ']'. Use
+   {@link #values(Reader, FunctionalFromJsonPolicy)} to iterate through
+   json values separated by whitespace until the end of the input, as
+   in newline-delimited json. Each element is built with the policy
+   given, just as {@link SubJson#read(Reader, FunctionalFromJsonPolicy)}
+   would build it. The Reader must return true when markSupported() is
+   called.
+   <p>
+   Since {@link Iterator} methods can't throw checked exceptions, an
+   IOException from the Reader is rethrown wrapped in an
+   {@link UncheckedIOException}, and parse errors are thrown as they
+   would be from {@link SubJson#read(Reader)}.
+*/
+public class ElementReader implements Iterator<Object>
+{
+    private final Reader jsonSrc;
+    private final FunctionalFromJsonPolicy fjp;
+    private final boolean arrayElements;
+
+    private boolean started = false; // Have we read the '[' yet?
+    private boolean finished = false;
+
+    private ElementReader(Reader jsonSrc, FunctionalFromJsonPolicy fjp,
+                          boolean arrayElements)
+    {
+        this.jsonSrc = jsonSrc;
+        this.fjp = fjp;
+        this.arrayElements = arrayElements;
+    }
+
+    /**
+       Returns an ElementReader that iterates through the elements of the
+       json array jsonSrc is positioned at (possibly after whitespace).
+
+       @param jsonSrc a {@link Reader} positioned at a json array
+       @param fjp the policy to build each element with
+       @return an iterator over the elements of the array
+     */
+    public static ElementReader arrayElements(Reader jsonSrc,
+                                              FunctionalFromJsonPolicy fjp)
+    {
+        return new ElementReader(jsonSrc, fjp, true);
+    }
+
+    /**
+       Returns an ElementReader that iterates through the elements of the
+       json array jsonSrc is positioned at (possibly after whitespace).
+
+       @param jsonSrc a {@link Reader} positioned at a json array
+       @param fjp the policy to build each element with
+       @return an iterator over the elements of the array
+     */
+    public static ElementReader arrayElements(Reader jsonSrc, FromJsonPolicy fjp)
+    {
+        return arrayElements(jsonSrc, new MutableFromJsonPolicyAdapter(fjp));
+    }
+
+    /**
+       Returns an ElementReader that iterates through whitespace-separated
+       json values in jsonSrc, up to the end of the input.
+
+       @param jsonSrc a {@link Reader} containing json values
+       @param fjp the policy to build each value with
+       @return an iterator over the values
+     */
+    public static ElementReader values(Reader jsonSrc, FunctionalFromJsonPolicy fjp)
+    {
+        return new ElementReader(jsonSrc, fjp, false);
+    }
+
+    /**
+       Returns an ElementReader that iterates through whitespace-separated
+       json values in jsonSrc, up to the end of the input.
+
+       @param jsonSrc a {@link Reader} containing json values
+       @param fjp the policy to build each value with
+       @return an iterator over the values
+     */
+    public static ElementReader values(Reader jsonSrc, FromJsonPolicy fjp)
+    {
+        return values(jsonSrc, new MutableFromJsonPolicyAdapter(fjp));
+    }
+
+    public boolean hasNext()
+    {
+        if (finished) return false;
+
+        try {
+            if (arrayElements) {
+                if (!started) {
+                    SubJson.skipWhitespace(jsonSrc);
+                    SubJson.readChar(jsonSrc, '[');
+                    started = true;
+
+                    SubJson.skipWhitespace(jsonSrc);
+                    if (SubJson.peek(jsonSrc) == ']') {
+                        jsonSrc.read();
+                        finished = true;
+                    }
+                }
+                // Otherwise, next() already read past the separator after the
+                // previous element, and would have noticed the end of the array.
+            } else {
+                SubJson.skipWhitespace(jsonSrc);
+                if (SubJson.peek(jsonSrc) == -1) {
+                    finished = true;
+                }
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+
+        return !finished;
+    }
+
+    public Object next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        try {
+            Object value = SubJson.read(jsonSrc, fjp);
+
+            if (arrayElements) {
+                SubJson.skipWhitespace(jsonSrc);
+                int currRune = jsonSrc.read();
+                if (currRune == ']') {
+                    finished = true;
+                } else if (currRune == -1) {
+                    throw new IllegalArgumentException("Reached EOF while parsing an array.");
+                } else if (currRune != ',') {
+                    throw new IllegalArgumentException("Read " + (char)currRune
+                                                       + " when , or ] was expected.");
+                }
+            }
+
+            return value;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        } catch (RuntimeException re) {
+            throw re;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void remove()
+    {
+        throw new UnsupportedOperationException("Elements cannot be removed from json input.");
+    }
+
+    /**
+       Returns the offset in jsonSrc of the first character of each element
+       of the json array at the start of jsonSrc (after any whitespace), or,
+       if arrayElements is false, of each of the whitespace-separated json
+       values in jsonSrc. This is a quick scan that only tracks strings and
+       nesting to find where the elements start, so that they can then be
+       parsed independently, perhaps in parallel; it does not check that
+       the json is valid, and parsing the elements will report any errors.
+
+       @param jsonSrc the json text to scan
+       @param arrayElements true to find the elements of an array, false to
+       find a series of values
+       @return the offsets at which the elements begin, in order
+     */
+    public static int[] elementOffsets(CharSequence jsonSrc, boolean arrayElements)
+    {
+        final int length = jsonSrc.length();
+        int[] offsets = new int[16];
+        int count = 0;
+
+        int i = 0;
+        // Depth at which elements start: inside the top-level array, or at
+        // the top level for a series of values.
+        int elementDepth = 0;
+        if (arrayElements) {
+            while (i < length && TextUtils.isWhitespace(jsonSrc.charAt(i))) i++;
+            if (i == length || jsonSrc.charAt(i) != '[') {
+                throw new IllegalArgumentException("Expected a json array.");
+            }
+            i++;
+            elementDepth = 1;
+        }
+
+        int depth = elementDepth;
+        boolean expectingElement = true;
+        for (; i < length; i++) {
+            char c = jsonSrc.charAt(i);
+
+            if (TextUtils.isWhitespace(c)) {
+                // Whitespace at the top level separates a series of values.
+                if (!arrayElements && depth == 0) expectingElement = true;
+                continue;
+            }
+
+            if (depth == elementDepth && expectingElement) {
+                if (arrayElements && c == ']') break; // Empty array.
+
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                offsets[count++] = i;
+                expectingElement = false;
+            }
+
+            switch (c) {
+            case '"':
+                // Skip to the closing quote, minding escapes.
+                for (i++; i < length; i++) {
+                    char sc = jsonSrc.charAt(i);
+                    if (sc == '\\') i++;
+                    else if (sc == '"') break;
+                }
+                break;
+            case '[':
+            case '{':
+                depth++;
+                break;
+            case ']':
+            case '}':
+                depth--;
+                break;
+            case ',':
+                if (depth == elementDepth) expectingElement = true;
+                break;
+            default:
+                break;
+            }
+
+            if (depth < elementDepth) break; // End of the top-level array.
+            if (!arrayElements && depth == 0 && (c == ']' || c == '}' || c == '"')) {
+                expectingElement = true;
+            }
+        }
+
+        return Arrays.copyOf(offsets, count);
+    }
+}
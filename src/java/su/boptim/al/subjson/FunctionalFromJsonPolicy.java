@@ -0,0 +1,177 @@
+package su.boptim.al.subjson;
+
+/**
+   An alternative to {@link FromJsonPolicy} for building values out of
+   data structures that are not modified in place, but return a new
+   version of themselves with each change, such as Clojure's transients.
+   <p>
+   As {@link SubJson} parses, it keeps the array or object currently
+   under construction in a slot of its own. Each time it adds to one,
+   it replaces the contents of that slot with whatever
+   {@link #arrayAppend(Object, Object)} or
+   {@link #objectInsert(Object, Object, Object)} returned. Since the
+   parser always knows whether it is building an array or an object,
+   there is no need for a policy to tell it, nor for the policy to wrap
+   its arrays and objects in a mutable box so that they can be updated.
+*/
+public interface FunctionalFromJsonPolicy
+{
+    //
+    // Arrays
+    //
+
+    /**
+       This method is called by the parser when it needs a new,
+       empty array. This function should return an empty object
+       of the type that will be used to build up arrays in this
+       policy.
+
+       @return an object representing a new, empty array ready to
+       be added to by {@link #arrayAppend(Object, Object)}
+     */
+    public Object startArray();
+
+    /**
+       This method is called by the parser when it needs to append a
+       json value to the array given as the first argument, which is
+       the array most recently returned by {@link #startArray()} or
+       by this method for the array being built. The value argument
+       is some value that has been constructed by another function in
+       this interface. The parser will use the array this method
+       returns in place of the one it was given from then on; it is
+       fine to modify the given array and return it.
+
+       @param array the array under construction, to which the second
+       argument should be appended
+       @param value the object to insert at the end of the first
+       argument
+       @return the array with value appended
+     */
+    public Object arrayAppend(Object array, Object value);
+
+    /**
+       This method is called by the parser to signal that it is
+       finished adding to the array in the argument, and should return
+       the object that will represent the array in the finished value.
+
+       @param array the array that has been under construction, and
+       which is now finished
+       @return the finished array
+     */
+    public Object finishArray(Object array);
+
+    //
+    // Objects
+    //
+
+    /**
+       This method is called by the parser when it needs a new,
+       empty json object. This function should return an empty object
+       of the type that will be used to build up json objects in this
+       policy.
+
+       @return an object representing a new, empty json object ready to
+       be added to by {@link #objectInsert(Object, Object, Object)}
+     */
+    public Object startObject();
+
+    /**
+       This method is called by the parser when it needs to insert a
+       json value at a given key into the json object given as the
+       first argument, which is the object most recently returned by
+       {@link #startObject()} or by this method for the object being
+       built. The key argument is a key made by
+       {@link #makeKey(CharSequence)}, and the value argument is some json
+       value that has been constructed by another function in this
+       interface. The parser will use the object this method returns in
+       place of the one it was given from then on; it is fine to modify
+       the given object and return it.
+
+       @param obj the json object under construction, into which the
+       third argument should be inserted at the key given in the second
+       argument
+       @param key the string (as defined by this interface) key for the 
+       value about to be inserted
+       @param value the object to insert at the key given in the second
+       argument
+       @return the json object with the value inserted
+     */
+    public Object objectInsert(Object obj, Object key, Object value);
+
+    /**
+       This method is called by the parser to signal that it is
+       finished adding to the json object in the argument, and should
+       return the object that will represent the json object in the
+       finished value.
+
+       @param obj the json object that has been under construction, and
+       which is now finished
+       @return the finished json object
+     */
+    public Object finishObject(Object obj);
+
+    //
+    // Primitives
+    //
+
+    /**
+       This method is called by the parser to ask for an object (reference)
+       representing the null it has just parsed in the json source.
+
+       @return an object reference that represents a null value
+       @see FromJsonPolicy#makeNull()
+     */
+    public Object makeNull();
+
+    /**
+       This method is called by the parser to ask for an object
+       representing the true or false value it has just parsed.
+
+       @param b the boolean value parsed, {@link Boolean}
+       @return an object the represents the true or false value given
+       in the argument
+       @see FromJsonPolicy#makeBoolean(Boolean)
+     */
+    public Object makeBoolean(Boolean b);
+
+    /**
+       This method is called by the parser to ask for an object
+       representing the string value it has just parsed.
+
+       @param s the string value parsed, a {@link String}
+       @return an object that represents the string given in the
+       argument
+       @see FromJsonPolicy#makeString(String)
+     */
+    public Object makeString(String s);
+    
+    /**
+       This method is called by the parser to ask for an object
+       representing the key of a key/value pair in a json object, which
+       will be passed to {@link #objectInsert(Object, Object, Object)}.
+       The characters of the key are given as a {@link CharSequence} that
+       is only valid until this method returns, since the parser reuses
+       it for the next key; this lets policies that look keys up in a
+       table, or don't represent them as a {@link String}, avoid making a
+       String for every key. Policies that simply want a String can
+       return chars.toString().
+
+       @param chars the characters of the key parsed, valid only for
+       the duration of this call
+       @return an object that represents the key given in the argument
+       @see KeyCache
+     */
+    public Object makeKey(CharSequence chars);
+
+    /**
+       This method is called by the parser to ask for an object
+       representing the number value it has just parsed.
+
+       @param n the number value parsed, as either a {@link Long} or
+       {@link Double}
+       @return an object that represents the number given in the
+       argument
+       @see FromJsonPolicy#makeNumber(Number)
+     */
+    public Object makeNumber(Number n);
+}
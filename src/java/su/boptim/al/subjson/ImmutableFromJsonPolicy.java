@@ -0,0 +1,22 @@
+package su.boptim.al.subjson;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// The default policy, but with each finished array and object wrapped so
+// that it can't be modified, for values shared by CachingParser.
+class ImmutableFromJsonPolicy extends DefaultFromJsonPolicy
+{
+    @SuppressWarnings("unchecked")
+    public Object finishArray(Object array)
+    {
+        return Collections.unmodifiableList((List<Object>)array);
+    }
+
+    @SuppressWarnings("unchecked")
+    public Object finishObject(Object obj)
+    {
+        return Collections.unmodifiableMap((Map<String,Object>)obj);
+    }
+}
@@ -0,0 +1,91 @@
+package su.boptim.al.subjson;
+
+/*
+  The only place SubJson touches the Flight Recorder event classes, so that
+  SubJson itself still loads on JVMs without jdk.jfr (before JDK 11 or
+  8u262). Events are passed around as Objects for the same reason. When
+  JFR is missing, or isn't recording our events, begin*() returns null
+  and nothing else happens; an event that is recorded but finishes under
+  its threshold is dropped by shouldCommit() before any fields are set.
+ */
+final class JfrEvents
+{
+    static final boolean AVAILABLE = isAvailable();
+
+    private JfrEvents()
+    {
+    }
+
+    private static boolean isAvailable()
+    {
+        try {
+            Class.forName("jdk.jfr.Event", false, JfrEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /*
+      Returns a started ParseEvent, or null if none is wanted.
+     */
+    static Object beginParse()
+    {
+        if (!AVAILABLE) return null;
+
+        ParseEvent event = new ParseEvent();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+    static void commitParse(Object e, long inputChars, int maxDepth, long values,
+                            long arrays, long objects, long strings, long numbers,
+                            FunctionalFromJsonPolicy fjp)
+    {
+        ParseEvent event = (ParseEvent)e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.inputChars = inputChars;
+            event.maxDepth = maxDepth;
+            event.values = values;
+            event.arrays = arrays;
+            event.objects = objects;
+            event.strings = strings;
+            event.numbers = numbers;
+            // Report the policy the caller gave us, not our adapter.
+            event.policy = (fjp instanceof MutableFromJsonPolicyAdapter)
+                ? ((MutableFromJsonPolicyAdapter)fjp).fjp.getClass()
+                : fjp.getClass();
+            event.commit();
+        }
+    }
+
+    /*
+      Returns a started WriteEvent, or null if none is wanted.
+     */
+    static Object beginWrite()
+    {
+        if (!AVAILABLE) return null;
+
+        WriteEvent event = new WriteEvent();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+    static void commitWrite(Object e, long outputChars, boolean pretty,
+                            boolean parallel, boolean cached, ToJsonPolicy tjp)
+    {
+        WriteEvent event = (WriteEvent)e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.outputChars = outputChars;
+            event.pretty = pretty;
+            event.parallel = parallel;
+            event.cached = cached;
+            event.policy = tjp.getClass();
+            event.commit();
+        }
+    }
+}
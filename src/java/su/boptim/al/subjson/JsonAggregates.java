@@ -0,0 +1,321 @@
+package su.boptim.al.subjson;
+
+import java.util.ArrayList;
+
+/**
+   The results of a {@link JsonAggregator}, one for each of its
+   aggregates, numbered in the order they were added to it. Each call to
+   one of the aggregator's aggregate methods adds to the results it is
+   given, and {@link #merge(JsonAggregates)} adds in the results of
+   another JsonAggregates of the same aggregator, giving the same results
+   as if that one's input had been aggregated into this one, but for the
+   order of additions to a sum of doubles.
+   <p>
+   Asking for a result of a kind its aggregate doesn't compute, such as
+   the sum of a count, throws an IllegalStateException. A JsonAggregates
+   is not safe to use from more than one thread at once.
+*/
+public final class JsonAggregates
+{
+    // HyperLogLog sketches have 2^HLL_BITS registers, indexed by the top
+    // HLL_BITS bits of each value's hash, each holding the most leading
+    // zeros (plus one) seen in the rest of the hashes that went to it.
+    private static final int HLL_BITS = 12;
+    private static final int HLL_REGISTERS = 1 << HLL_BITS;
+
+    final JsonAggregator aggregator;
+
+    // For each aggregate, the number of values it took in, and for sums,
+    // minimums and maximums, the result as a double, and as a long while
+    // every number was an integer (exact) and the result still fits.
+    private final long[] counts;
+    private final double[] doubles;
+    private final long[] longs;
+    private final boolean[] exact;
+    private final byte[][] registers; // For distinct counts.
+    private final long[][] buckets;   // For histograms.
+
+    JsonAggregates(JsonAggregator aggregator)
+    {
+        this.aggregator = aggregator;
+        int n = aggregator.size();
+        counts = new long[n];
+        doubles = new double[n];
+        longs = new long[n];
+        exact = new boolean[n];
+        registers = new byte[n][];
+        buckets = new long[n][];
+        for (int r = 0; r < n; r++) {
+            exact[r] = true;
+            switch (aggregator.kinds[r]) {
+            case JsonAggregator.MIN:
+                doubles[r] = Double.POSITIVE_INFINITY;
+                longs[r] = Long.MAX_VALUE;
+                break;
+            case JsonAggregator.MAX:
+                doubles[r] = Double.NEGATIVE_INFINITY;
+                longs[r] = Long.MIN_VALUE;
+                break;
+            case JsonAggregator.DISTINCT_COUNT:
+                registers[r] = new byte[HLL_REGISTERS];
+                break;
+            case JsonAggregator.HISTOGRAM:
+                buckets[r] = new long[aggregator.bounds[r].length + 1];
+                break;
+            }
+        }
+    }
+
+    /**
+       @return the {@link JsonAggregator} these are the results of
+     */
+    public JsonAggregator getAggregator()
+    {
+        return aggregator;
+    }
+
+    // Takes in a value of any type, for counts.
+    void addValue(int r)
+    {
+        counts[r]++;
+    }
+
+    /*
+      Takes in a number, for sums, minimums, maximums and histograms.
+      isLong says whether it was an integer that fits in a long, l; d is
+      its value as a double either way.
+     */
+    void addNumber(int r, boolean isLong, long l, double d)
+    {
+        counts[r]++;
+        switch (aggregator.kinds[r]) {
+        case JsonAggregator.SUM:
+            doubles[r] += d;
+            if (exact[r]) {
+                if (isLong) {
+                    long sum = longs[r] + l;
+                    // Overflowed if both had the other sign to the sum.
+                    if (((longs[r] ^ sum) & (l ^ sum)) < 0) exact[r] = false;
+                    longs[r] = sum;
+                } else {
+                    exact[r] = false;
+                }
+            }
+            break;
+        case JsonAggregator.MIN:
+            if (d < doubles[r]) doubles[r] = d;
+            if (!isLong) exact[r] = false;
+            else if (l < longs[r]) longs[r] = l;
+            break;
+        case JsonAggregator.MAX:
+            if (d > doubles[r]) doubles[r] = d;
+            if (!isLong) exact[r] = false;
+            else if (l > longs[r]) longs[r] = l;
+            break;
+        case JsonAggregator.HISTOGRAM:
+            buckets[r][bucket(aggregator.bounds[r], d)]++;
+            break;
+        }
+    }
+
+    // The bucket of d: the number of bounds it is at or above.
+    private static int bucket(double[] bounds, double d)
+    {
+        int lo = 0;
+        int hi = bounds.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (d >= bounds[mid]) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Takes in the 64-bit hash of a value, for distinct counts.
+    void addHash(int r, long hash)
+    {
+        counts[r]++;
+        int index = (int)(hash >>> (64 - HLL_BITS));
+        byte rank = (byte)(Long.numberOfLeadingZeros((hash << HLL_BITS) | (1L << (HLL_BITS - 1))) + 1);
+        if (rank > registers[r][index]) registers[r][index] = rank;
+    }
+
+    /**
+       Adds the results of other, which must be of the same
+       {@link JsonAggregator}, to these.
+
+       @param other the results to add in
+     */
+    public void merge(JsonAggregates other)
+    {
+        if (other.aggregator != aggregator) {
+            throw new IllegalArgumentException("Can't merge the results of a different JsonAggregator.");
+        }
+        for (int r = 0; r < counts.length; r++) {
+            switch (aggregator.kinds[r]) {
+            case JsonAggregator.SUM:
+                doubles[r] += other.doubles[r];
+                if (exact[r]) {
+                    long sum = longs[r] + other.longs[r];
+                    if (!other.exact[r] || ((longs[r] ^ sum) & (other.longs[r] ^ sum)) < 0) {
+                        exact[r] = false;
+                    }
+                    longs[r] = sum;
+                }
+                break;
+            case JsonAggregator.MIN:
+                doubles[r] = Math.min(doubles[r], other.doubles[r]);
+                longs[r] = Math.min(longs[r], other.longs[r]);
+                exact[r] &= other.exact[r];
+                break;
+            case JsonAggregator.MAX:
+                doubles[r] = Math.max(doubles[r], other.doubles[r]);
+                longs[r] = Math.max(longs[r], other.longs[r]);
+                exact[r] &= other.exact[r];
+                break;
+            case JsonAggregator.DISTINCT_COUNT:
+                for (int i = 0; i < HLL_REGISTERS; i++) {
+                    if (other.registers[r][i] > registers[r][i]) {
+                        registers[r][i] = other.registers[r][i];
+                    }
+                }
+                break;
+            case JsonAggregator.HISTOGRAM:
+                for (int i = 0; i < buckets[r].length; i++) {
+                    buckets[r][i] += other.buckets[r][i];
+                }
+                break;
+            }
+            counts[r] += other.counts[r];
+        }
+    }
+
+    private void check(int r, int kind)
+    {
+        if (aggregator.kinds[r] != kind) {
+            throw new IllegalStateException("Aggregate " + r + " is a "
+                                            + JsonAggregator.kindName(aggregator.kinds[r])
+                                            + ", not a " + JsonAggregator.kindName(kind) + ".");
+        }
+    }
+
+    /**
+       Returns the number of values aggregate i took in: for a count, the
+       count; for a distinct count, all the values, duplicates included;
+       and for the others, the numbers.
+
+       @param i the number of the aggregate
+       @return the number of values it took in
+     */
+    public long getCount(int i)
+    {
+        return counts[i];
+    }
+
+    /**
+       @param i the number of a sum
+       @return the sum, as a double, or 0.0 if it took in no numbers
+     */
+    public double getSum(int i)
+    {
+        check(i, JsonAggregator.SUM);
+        return exact[i] ? (double)longs[i] : doubles[i];
+    }
+
+    /**
+       @param i the number of a minimum
+       @return the smallest number, as a double, or NaN if it took in none
+     */
+    public double getMin(int i)
+    {
+        check(i, JsonAggregator.MIN);
+        if (counts[i] == 0) return Double.NaN;
+        return exact[i] ? (double)longs[i] : doubles[i];
+    }
+
+    /**
+       @param i the number of a maximum
+       @return the largest number, as a double, or NaN if it took in none
+     */
+    public double getMax(int i)
+    {
+        check(i, JsonAggregator.MAX);
+        if (counts[i] == 0) return Double.NaN;
+        return exact[i] ? (double)longs[i] : doubles[i];
+    }
+
+    /**
+       @param i the number of a distinct count
+       @return the estimated number of distinct values
+     */
+    public long getDistinctCount(int i)
+    {
+        check(i, JsonAggregator.DISTINCT_COUNT);
+        byte[] regs = registers[i];
+        double sum = 0;
+        int zeros = 0;
+        for (int j = 0; j < HLL_REGISTERS; j++) {
+            sum += Double.longBitsToDouble((1023L - regs[j]) << 52); // 2^-regs[j]
+            if (regs[j] == 0) zeros++;
+        }
+        double m = HLL_REGISTERS;
+        double estimate = (0.7213 / (1 + 1.079 / m)) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // Linear counting is more accurate while many registers are empty.
+            estimate = m * Math.log(m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+       @param i the number of a histogram
+       @return a copy of the counts in each of its buckets, lowest first
+     */
+    public long[] getHistogram(int i)
+    {
+        check(i, JsonAggregator.HISTOGRAM);
+        return buckets[i].clone();
+    }
+
+    /**
+       Returns the result of aggregate i as a value
+       {@link SubJson#write(Appendable, Object)} can write: a
+       {@link Long} for counts and distinct counts; for sums, minimums and
+       maximums, a {@link Long} if it is exact and a {@link Double} if
+       not, or null for a minimum or maximum of no numbers; and a
+       {@link java.util.List} of {@link Long}s for histograms.
+
+       @param i the number of the aggregate
+       @return its result
+     */
+    public Object get(int i)
+    {
+        switch (aggregator.kinds[i]) {
+        case JsonAggregator.COUNT:
+            return counts[i];
+        case JsonAggregator.DISTINCT_COUNT:
+            return getDistinctCount(i);
+        case JsonAggregator.HISTOGRAM:
+            {
+                ArrayList<Long> list = new ArrayList<Long>(buckets[i].length);
+                for (long n : buckets[i]) list.add(n);
+                return list;
+            }
+        default:
+            if (counts[i] == 0 && aggregator.kinds[i] != JsonAggregator.SUM) return null;
+            if (exact[i]) return longs[i];
+            return doubles[i];
+        }
+    }
+
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("JsonAggregates[");
+        for (int i = 0; i < counts.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(JsonAggregator.kindName(aggregator.kinds[i])).append(' ')
+              .append(aggregator.paths[i]).append(" = ").append(get(i));
+        }
+        return sb.append(']').toString();
+    }
+}
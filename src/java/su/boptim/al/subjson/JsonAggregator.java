@@ -0,0 +1,285 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+   Computes aggregates, such as counts, sums and histograms, of the values
+   at a set of {@link JsonPath}s while reading json, without building
+   anything from it, for analytics over large arrays of records or files
+   of one record per line. Numbers are decoded straight to a long or a
+   double as they are scanned, with no {@link Long} or {@link Double}
+   made for them, and arrays and objects that no path can reach into are
+   skipped over rather than read.
+   <p>
+   JsonAggregators are immutable; each of the with methods returns a copy
+   with one more aggregate, starting from {@link #NONE}:
+   <pre>
+   JsonAggregator agg = JsonAggregator.NONE.withCount("$[*]")
+                                           .withSum("$[*].price")
+                                           .withHistogram("$[*].price", new double[] {10, 100});
+   JsonAggregates results = agg.aggregate(jsonSrc);
+   double total = results.getSum(1);
+   </pre>
+   The results are kept in a {@link JsonAggregates}, where each aggregate
+   is numbered in the order it was added. A JsonAggregates can be passed
+   to any number of calls, which add to it, and two can be merged, so a
+   large input can be split up, each part aggregated on its own thread,
+   and the results merged. A JsonAggregator can be shared between
+   threads.
+   <p>
+   Every value at an aggregate's path is counted by a count; distinct
+   counts take in strings, numbers, booleans and nulls; and sums,
+   minimums, maximums and histograms take in numbers, ignoring anything
+   else at their paths. Integers too large for a long are taken in as
+   doubles.
+   <p>
+   The input is checked as {@link SubJson#isValid(CharSequence)} checks
+   it, and if it is invalid, an IllegalArgumentException is thrown,
+   leaving whatever was added to the results before the problem in them.
+*/
+public final class JsonAggregator
+{
+    static final int COUNT = 0;
+    static final int SUM = 1;
+    static final int MIN = 2;
+    static final int MAX = 3;
+    static final int DISTINCT_COUNT = 4;
+    static final int HISTOGRAM = 5;
+
+    /**
+       An aggregator with no aggregates.
+     */
+    public static final JsonAggregator NONE
+        = new JsonAggregator(new JsonPath[0], new int[0], new double[0][]);
+
+    final JsonPath[] paths;
+    final int[] kinds;
+    final double[][] bounds; // The bucket boundaries, for HISTOGRAM.
+
+    private JsonAggregator(JsonPath[] paths, int[] kinds, double[][] bounds)
+    {
+        this.paths = paths;
+        this.kinds = kinds;
+        this.bounds = bounds;
+    }
+
+    private JsonAggregator with(String path, int kind, double[] bucketBounds)
+    {
+        JsonPath compiled = JsonPath.compile(path);
+        int n = paths.length;
+        JsonPath[] newPaths = Arrays.copyOf(paths, n + 1);
+        int[] newKinds = Arrays.copyOf(kinds, n + 1);
+        double[][] newBounds = Arrays.copyOf(bounds, n + 1);
+        newPaths[n] = compiled;
+        newKinds[n] = kind;
+        newBounds[n] = bucketBounds;
+        return new JsonAggregator(newPaths, newKinds, newBounds);
+    }
+
+    /**
+       Returns a copy of this aggregator that also counts the values at
+       path, of any type.
+
+       @param path the {@link JsonPath} of the values to count
+       @return a copy of this aggregator with the aggregate added
+     */
+    public JsonAggregator withCount(String path)
+    {
+        return with(path, COUNT, null);
+    }
+
+    /**
+       Returns a copy of this aggregator that also sums the numbers at
+       path. The sum is exact, as a long, for as long as every number was
+       an integer and the sum fits in a long, and a double after that.
+
+       @param path the {@link JsonPath} of the numbers to sum
+       @return a copy of this aggregator with the aggregate added
+     */
+    public JsonAggregator withSum(String path)
+    {
+        return with(path, SUM, null);
+    }
+
+    /**
+       Returns a copy of this aggregator that also finds the smallest of
+       the numbers at path.
+
+       @param path the {@link JsonPath} of the numbers
+       @return a copy of this aggregator with the aggregate added
+     */
+    public JsonAggregator withMin(String path)
+    {
+        return with(path, MIN, null);
+    }
+
+    /**
+       Returns a copy of this aggregator that also finds the largest of
+       the numbers at path.
+
+       @param path the {@link JsonPath} of the numbers
+       @return a copy of this aggregator with the aggregate added
+     */
+    public JsonAggregator withMax(String path)
+    {
+        return with(path, MAX, null);
+    }
+
+    /**
+       Returns a copy of this aggregator that also estimates the number of
+       distinct values at path, with a HyperLogLog sketch of 4096
+       registers, which is typically within 2% of the true count and
+       takes 4KB however many values there are. Numbers are compared by
+       value, so 1 and 1.0 are the same, and strings with their escape
+       sequences decoded. Arrays and objects are not taken in.
+
+       @param path the {@link JsonPath} of the values
+       @return a copy of this aggregator with the aggregate added
+     */
+    public JsonAggregator withDistinctCount(String path)
+    {
+        return with(path, DISTINCT_COUNT, null);
+    }
+
+    /**
+       Returns a copy of this aggregator that also counts the numbers at
+       path in the buckets between the given bounds, which must be in
+       increasing order. n bounds make n + 1 buckets: below the first
+       bound, each bound up to but not including the next, and the last
+       bound and above.
+
+       @param path the {@link JsonPath} of the numbers
+       @param bounds the boundaries between buckets
+       @return a copy of this aggregator with the aggregate added
+     */
+    public JsonAggregator withHistogram(String path, double[] bounds)
+    {
+        if (bounds.length == 0) {
+            throw new IllegalArgumentException("A histogram needs at least one bound.");
+        }
+        for (int i = 0; i < bounds.length; i++) {
+            if (Double.isNaN(bounds[i]) || (i > 0 && bounds[i] <= bounds[i - 1])) {
+                throw new IllegalArgumentException("The bounds of a histogram must be numbers in increasing order.");
+            }
+        }
+        return with(path, HISTOGRAM, bounds.clone());
+    }
+
+    /**
+       @return the number of aggregates in this aggregator
+     */
+    public int size()
+    {
+        return paths.length;
+    }
+
+    /**
+       @return a new {@link JsonAggregates} for this aggregator's results,
+               with nothing taken in yet
+     */
+    public JsonAggregates newAggregates()
+    {
+        return new JsonAggregates(this);
+    }
+
+    /**
+       Aggregates the json value jsonSrc is pointing at into results, and
+       leaves jsonSrc just after the value, as {@link SubJson#read(Reader)}
+       does. The {@link Reader} must return true when markSupported() is
+       called.
+
+       @param jsonSrc a {@link Reader} to read a json value from
+       @param results the {@link JsonAggregates} of this aggregator to add to
+     */
+    public void aggregate(Reader jsonSrc, JsonAggregates results)
+        throws IOException
+    {
+        checkResults(results);
+        new AggregatingScanner(this, results).scan(jsonSrc);
+    }
+
+    /**
+       Aggregates every json value in jsonSrc, up to its end, into
+       results, for a stream of values separated by whitespace, such as a
+       file of one record per line. The {@link Reader} must return true
+       when markSupported() is called.
+
+       @param jsonSrc a {@link Reader} to read json values from
+       @param results the {@link JsonAggregates} of this aggregator to add to
+     */
+    public void aggregateAll(Reader jsonSrc, JsonAggregates results)
+        throws IOException
+    {
+        checkResults(results);
+        AggregatingScanner scanner = new AggregatingScanner(this, results);
+        while (true) {
+            SubJson.skipWhitespace(jsonSrc);
+            if (SubJson.peek(jsonSrc) == -1) return;
+            scanner.scan(jsonSrc);
+        }
+    }
+
+    /**
+       Returns the aggregates of the json value in jsonSrc, any
+       {@link CharSequence}.
+
+       @param jsonSrc a {@link CharSequence} to read a json value from
+       @return the results
+       @see #aggregate(Reader, JsonAggregates)
+     */
+    public JsonAggregates aggregate(CharSequence jsonSrc)
+        throws IOException
+    {
+        JsonAggregates results = newAggregates();
+        aggregate(SubJson.charSequenceReader(jsonSrc), results);
+        return results;
+    }
+
+    /**
+       Returns the aggregates of every json value in jsonSrc, any
+       {@link CharSequence}.
+
+       @param jsonSrc a {@link CharSequence} to read json values from
+       @return the results
+       @see #aggregateAll(Reader, JsonAggregates)
+     */
+    public JsonAggregates aggregateAll(CharSequence jsonSrc)
+        throws IOException
+    {
+        JsonAggregates results = newAggregates();
+        aggregateAll(SubJson.charSequenceReader(jsonSrc), results);
+        return results;
+    }
+
+    private void checkResults(JsonAggregates results)
+    {
+        if (results.aggregator != this) {
+            throw new IllegalArgumentException("The results belong to a different JsonAggregator.");
+        }
+    }
+
+    static String kindName(int kind)
+    {
+        switch (kind) {
+        case COUNT: return "count";
+        case SUM: return "sum";
+        case MIN: return "min";
+        case MAX: return "max";
+        case DISTINCT_COUNT: return "distinct-count";
+        default: return "histogram";
+        }
+    }
+
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("JsonAggregator[");
+        for (int i = 0; i < paths.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(kindName(kinds[i])).append(' ').append(paths[i]);
+            if (kinds[i] == HISTOGRAM) sb.append(' ').append(Arrays.toString(bounds[i]));
+        }
+        return sb.append(']').toString();
+    }
+}
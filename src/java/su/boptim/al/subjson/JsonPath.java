@@ -0,0 +1,180 @@
+package su.boptim.al.subjson;
+
+import java.util.ArrayList;
+
+/**
+   A compiled path to values in a json document, written in a subset of
+   JSONPath. A path starts with {@code $}, the root value, followed by
+   steps, each of which selects among the elements or fields of the
+   values selected so far:
+   <ul>
+   <li>{@code .name} or {@code ['name']} selects the field with the key
+   name; the bracketed form, with single or double quotes, allows any
+   key, with {@code \} escaping a quote or backslash</li>
+   <li>{@code [3]} selects the element at index 3 of an array</li>
+   <li>{@code .*} or {@code [*]} selects every element or field</li>
+   <li>{@code ..name}, {@code ..[3]}, {@code ..*} select as the step
+   after the {@code ..} does, but at any depth below, rather than only
+   among the immediate elements or fields</li>
+   </ul>
+   So {@code $.user.email} is the email field of the user field of the
+   root object, and {@code $..password} is every field named password,
+   anywhere. A path has at least one step. JsonPaths are immutable and
+   can be shared between threads.
+*/
+public final class JsonPath
+{
+    static final int SELECT_NAME = 0;
+    static final int SELECT_INDEX = 1;
+    static final int SELECT_ANY = 2;
+
+    private final String source;
+
+    // The steps, in order: whether each is a descendant step, what it
+    // selects, and the name or index it selects, for those that do.
+    final boolean[] descendant;
+    final int[] selectors;
+    final String[] names;
+    final int[] indexes;
+
+    private JsonPath(String source, boolean[] descendant, int[] selectors,
+                     String[] names, int[] indexes)
+    {
+        this.source = source;
+        this.descendant = descendant;
+        this.selectors = selectors;
+        this.names = names;
+        this.indexes = indexes;
+    }
+
+    /**
+       Compiles a path from its JSONPath text.
+
+       @param path the text of the path, such as {@code $.user.email}
+       @return the compiled path
+       @throws IllegalArgumentException if the path can't be compiled
+     */
+    public static JsonPath compile(String path)
+    {
+        if (path.isEmpty() || path.charAt(0) != '$') {
+            throw badPath(path, 0, "a path must start with '$'");
+        }
+
+        ArrayList<Boolean> descendant = new ArrayList<Boolean>();
+        ArrayList<Integer> selectors = new ArrayList<Integer>();
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<Integer> indexes = new ArrayList<Integer>();
+
+        int i = 1;
+        int len = path.length();
+        while (i < len) {
+            boolean isDescendant = false;
+            char c = path.charAt(i);
+            if (c == '.') {
+                i++;
+                if (i < len && path.charAt(i) == '.') {
+                    isDescendant = true;
+                    i++;
+                }
+                if (i >= len) throw badPath(path, i, "expected a step after '.'");
+                c = path.charAt(i);
+                if (c == '.') throw badPath(path, i, "expected a name or '*' after '..'");
+                if (c == '[' && !isDescendant) throw badPath(path, i, "unexpected '[' after '.'");
+            } else if (c != '[') {
+                throw badPath(path, i, "expected '.' or '['");
+            }
+
+            int selector;
+            String name = null;
+            int index = -1;
+            if (c == '*') {
+                selector = SELECT_ANY;
+                i++;
+            } else if (c == '[') {
+                i++;
+                if (i >= len) throw badPath(path, i, "unterminated '['");
+                c = path.charAt(i);
+                if (c == '*') {
+                    selector = SELECT_ANY;
+                    i++;
+                } else if (c == '\'' || c == '"') {
+                    char quote = c;
+                    StringBuilder sb = new StringBuilder();
+                    i++;
+                    while (true) {
+                        if (i >= len) throw badPath(path, i, "unterminated quoted name");
+                        c = path.charAt(i++);
+                        if (c == quote) break;
+                        if (c == '\\') {
+                            if (i >= len) throw badPath(path, i, "unterminated quoted name");
+                            c = path.charAt(i++);
+                        }
+                        sb.append(c);
+                    }
+                    selector = SELECT_NAME;
+                    name = sb.toString();
+                } else if (TextUtils.isDigit(c)) {
+                    long n = 0;
+                    while (i < len && TextUtils.isDigit(path.charAt(i))) {
+                        n = n * 10 + (path.charAt(i++) - '0');
+                        if (n > Integer.MAX_VALUE) throw badPath(path, i, "index too large");
+                    }
+                    selector = SELECT_INDEX;
+                    index = (int)n;
+                } else {
+                    throw badPath(path, i, "expected an index, a quoted name or '*' after '['");
+                }
+                if (i >= len || path.charAt(i) != ']') {
+                    throw badPath(path, i, "expected ']'");
+                }
+                i++;
+            } else {
+                int start = i;
+                while (i < len && path.charAt(i) != '.' && path.charAt(i) != '[') {
+                    i++;
+                }
+                selector = SELECT_NAME;
+                name = path.substring(start, i);
+            }
+
+            descendant.add(isDescendant);
+            selectors.add(selector);
+            names.add(name);
+            indexes.add(index);
+        }
+
+        int n = selectors.size();
+        if (n == 0) throw badPath(path, len, "a path must have at least one step");
+        boolean[] d = new boolean[n];
+        int[] s = new int[n];
+        int[] ix = new int[n];
+        for (int j = 0; j < n; j++) {
+            d[j] = descendant.get(j);
+            s[j] = selectors.get(j);
+            ix[j] = indexes.get(j);
+        }
+        return new JsonPath(path, d, s, names.toArray(new String[n]), ix);
+    }
+
+    private static IllegalArgumentException badPath(String path, int pos, String why)
+    {
+        return new IllegalArgumentException("Invalid path \"" + path + "\" at "
+                                            + pos + ": " + why + ".");
+    }
+
+    /**
+       @return the number of steps in this path
+     */
+    public int length()
+    {
+        return selectors.length;
+    }
+
+    /**
+       @return the text this path was compiled from
+     */
+    public String toString()
+    {
+        return source;
+    }
+}
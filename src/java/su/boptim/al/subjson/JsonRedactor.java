@@ -0,0 +1,207 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+   Copies json from a {@link Reader} to an {@link Appendable} in one
+   pass, dropping, replacing or hashing the values at a set of
+   {@link JsonPath}s along the way, for stripping or masking fields such
+   as personal information from records before passing them on. Nothing
+   is built from the json: everything not redacted, whitespace included,
+   is copied exactly as it appears in the input, so keys keep their order
+   and numbers keep their text, and memory use doesn't grow with the size
+   of the input.
+   <p>
+   JsonRedactors are immutable; each of the with methods returns a copy
+   with one more rule, starting from {@link #NONE}, which copies its input
+   unchanged:
+   <pre>
+   JsonRedactor redactor = JsonRedactor.NONE.withDrop("$..password")
+                                            .withHash("$.user.email")
+                                            .withReplacement("$.user.phone", "***");
+   </pre>
+   When more than one rule's path selects a value, the rule added first
+   applies. A redacted value is not looked into, so no rule applies to
+   anything inside it. A JsonRedactor can be shared between threads and
+   used for any number of documents.
+   <p>
+   The input is checked as {@link SubJson#isValid(CharSequence)} checks
+   it, and if it is invalid, an IllegalArgumentException is thrown,
+   leaving whatever was copied before the problem in the output. The
+   exception is an array or object that is dropped or replaced: it is
+   skipped over quickly, checking only its strings and that its brackets
+   match, since none of it reaches the output.
+*/
+public final class JsonRedactor
+{
+    static final int DROP = 0;
+    static final int REPLACE = 1;
+    static final int HASH = 2;
+
+    /**
+       A redactor with no rules, which copies json unchanged.
+     */
+    public static final JsonRedactor NONE
+        = new JsonRedactor(new JsonPath[0], new int[0], new String[0], new byte[0][]);
+
+    final JsonPath[] paths;
+    final int[] actions;
+    final String[] replacements; // The json to write, for REPLACE.
+    final byte[][] hashKeys;     // The HMAC key, or null for plain SHA-256, for HASH.
+
+    private JsonRedactor(JsonPath[] paths, int[] actions, String[] replacements,
+                         byte[][] hashKeys)
+    {
+        this.paths = paths;
+        this.actions = actions;
+        this.replacements = replacements;
+        this.hashKeys = hashKeys;
+    }
+
+    private JsonRedactor with(String path, int action, String replacement,
+                              byte[] hashKey)
+    {
+        JsonPath compiled = JsonPath.compile(path);
+        int n = paths.length;
+        JsonPath[] newPaths = Arrays.copyOf(paths, n + 1);
+        int[] newActions = Arrays.copyOf(actions, n + 1);
+        String[] newReplacements = Arrays.copyOf(replacements, n + 1);
+        byte[][] newHashKeys = Arrays.copyOf(hashKeys, n + 1);
+        newPaths[n] = compiled;
+        newActions[n] = action;
+        newReplacements[n] = replacement;
+        newHashKeys[n] = hashKey;
+        return new JsonRedactor(newPaths, newActions, newReplacements, newHashKeys);
+    }
+
+    /**
+       Returns a copy of this redactor that also leaves out the values at
+       path entirely: a field is dropped along with its key, and an array
+       element along with the comma that separated it.
+
+       @param path the {@link JsonPath} of the values to drop
+       @return a copy of this redactor with the rule added
+     */
+    public JsonRedactor withDrop(String path)
+    {
+        return with(path, DROP, null, null);
+    }
+
+    /**
+       Returns a copy of this redactor that also writes value, as the
+       default {@link ToJsonPolicy} would write it, in place of the values
+       at path.
+
+       @param path the {@link JsonPath} of the values to replace
+       @param value the java value to write in their place
+       @return a copy of this redactor with the rule added
+     */
+    public JsonRedactor withReplacement(String path, Object value)
+    {
+        String json;
+        try {
+            json = SubJson.writeToString(value, false);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe); // A StringBuilder doesn't throw.
+        }
+        return with(path, REPLACE, json, null);
+    }
+
+    /**
+       Returns a copy of this redactor that also replaces the values at
+       path with a string of the lowercase hex SHA-256 hash of them, so
+       that equal values can still be matched up without being revealed.
+       A string is hashed as the UTF-8 bytes of its characters, with its
+       escape sequences decoded, and any other value as the UTF-8 bytes of
+       its compact json, as {@link SubJson#reformat(Reader, Appendable, boolean)}
+       would write it.
+       <p>
+       Values that could be guessed, such as email addresses, can be
+       found from a plain hash by hashing guesses; use
+       {@link #withHash(String, byte[])} with a secret key for those.
+
+       @param path the {@link JsonPath} of the values to hash
+       @return a copy of this redactor with the rule added
+     */
+    public JsonRedactor withHash(String path)
+    {
+        return with(path, HASH, null, null);
+    }
+
+    /**
+       Returns a copy of this redactor that also replaces the values at
+       path with a string of the lowercase hex HMAC-SHA256 of them, using
+       key, hashing the same bytes as {@link #withHash(String)} does.
+
+       @param path the {@link JsonPath} of the values to hash
+       @param key the secret key of the HMAC
+       @return a copy of this redactor with the rule added
+     */
+    public JsonRedactor withHash(String path, byte[] key)
+    {
+        if (key.length == 0) {
+            throw new IllegalArgumentException("An HMAC key can't be empty.");
+        }
+        return with(path, HASH, null, key.clone());
+    }
+
+    /**
+       Copies the json value jsonSrc is pointing at to out, redacted, and
+       leaves jsonSrc just after the value, as {@link SubJson#read(Reader)}
+       does, so a stream of values can be redacted by calling this once
+       per value. The {@link Reader} must return true when
+       markSupported() is called.
+
+       @param jsonSrc a {@link Reader} to read a json value from
+       @param out the {@link Appendable} to write the redacted value to
+     */
+    public void redact(Reader jsonSrc, Appendable out)
+        throws IOException
+    {
+        new RedactingCopier(this, out).copy(jsonSrc);
+    }
+
+    /**
+       Copies the json value in jsonSrc, any {@link CharSequence}, to out,
+       redacted.
+
+       @param jsonSrc a {@link CharSequence} to read a json value from
+       @param out the {@link Appendable} to write the redacted value to
+       @see #redact(Reader, Appendable)
+     */
+    public void redact(CharSequence jsonSrc, Appendable out)
+        throws IOException
+    {
+        redact(SubJson.charSequenceReader(jsonSrc), out);
+    }
+
+    /**
+       Returns the json value in jsonSrc, any {@link CharSequence},
+       redacted.
+
+       @param jsonSrc a {@link CharSequence} to read a json value from
+       @return the redacted json
+       @see #redact(Reader, Appendable)
+     */
+    public String redactToString(CharSequence jsonSrc)
+        throws IOException
+    {
+        StringBuilder sb = new StringBuilder(jsonSrc.length());
+        redact(jsonSrc, sb);
+        return sb.toString();
+    }
+
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("JsonRedactor[");
+        for (int i = 0; i < paths.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(actions[i] == DROP ? "drop " : actions[i] == REPLACE ? "replace " : "hash ");
+            sb.append(paths[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,304 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+   A set of subscriptions, each a predicate on json messages, that can
+   all be tested against a message at once, for routing messages to the
+   subscribers that want them. A predicate is one or more conditions
+   joined by {@code &&}, each a {@link JsonPath} followed by a comparison
+   with a json string, number, boolean or null:
+   <pre>
+   $.region == "eu" &amp;&amp; $.price &gt; 100
+   $.tags[*] == "urgent"
+   $.user.id != null
+   $.trace
+   </pre>
+   A path on its own is true when it selects any value.
+   {@code ==} is true when any value the path selects equals the
+   literal. Numbers are equal by value, so 1 equals 1.0. Strings are
+   equal when their characters are, with their escape sequences
+   decoded. {@code !=} is true exactly when {@code ==} would be false,
+   which includes when the path selects nothing. {@code <}, {@code <=},
+   {@code >} and {@code >=} take a number, compare numbers as doubles,
+   and are true when any number the path selects satisfies them. Names
+   in a path that contain spaces or any of {@code =!<>&} must use the
+   bracketed form.
+   <p>
+   {@link #match(CharSequence)} reads the message once, testing every
+   subscription as it goes, and returns the ids of those it satisfies.
+   Conditions on the same path share the work of finding its values, and
+   conditions comparing with {@code ==} or {@code !=} are looked up by
+   the value found rather than tested one by one, so thousands of
+   subscriptions on a few paths cost little more than a few. Arrays and
+   objects no path reaches into are skipped over. A path that can only
+   select one value, having no {@code *} or {@code ..}, is settled by the
+   first value it selects, and later values for a duplicate key are
+   ignored; once every path of every subscription is settled, nothing
+   later in the message can change any outcome, and reading stops there.
+   <p>
+   Subscriptions are added and removed under a lock, and the set is
+   compiled again before the next match after a change. Any number of
+   threads may match messages at once, each keeping its own state for
+   matching, so that a match allocates nothing but the ids it returns.
+*/
+public final class JsonSubscriptions
+{
+    /*
+      A parsed predicate: for each of its conditions, the path, the
+      operator and the literal, which is a String, Long, Double, Boolean
+      or null.
+     */
+    static final class Subscription
+    {
+        final int id;
+        final String predicate;
+        final JsonPath[] paths;
+        final int[] ops;
+        final Object[] literals;
+
+        Subscription(int id, String predicate, JsonPath[] paths, int[] ops,
+                     Object[] literals)
+        {
+            this.id = id;
+            this.predicate = predicate;
+            this.paths = paths;
+            this.ops = ops;
+            this.literals = literals;
+        }
+    }
+
+    private final Map<Integer, Subscription> subscriptions
+        = new LinkedHashMap<Integer, Subscription>();
+    private int nextId = 0;
+    private volatile SubscriptionIndex index;
+
+    /**
+       Creates an empty set of subscriptions.
+     */
+    public JsonSubscriptions()
+    {
+    }
+
+    /**
+       Adds a subscription.
+
+       @param predicate the subscription's predicate, as described above
+       @return the id of the new subscription, which is returned by
+               {@link #match(CharSequence)} for the messages it matches
+       @throws IllegalArgumentException if the predicate can't be parsed
+     */
+    public int subscribe(String predicate)
+    {
+        ArrayList<JsonPath> paths = new ArrayList<JsonPath>();
+        ArrayList<Integer> ops = new ArrayList<Integer>();
+        ArrayList<Object> literals = new ArrayList<Object>();
+        parse(predicate, paths, ops, literals);
+
+        int n = paths.size();
+        int[] opArray = new int[n];
+        for (int i = 0; i < n; i++) {
+            opArray[i] = ops.get(i);
+        }
+        synchronized (this) {
+            int id = nextId++;
+            subscriptions.put(id, new Subscription(id, predicate,
+                                                   paths.toArray(new JsonPath[n]),
+                                                   opArray, literals.toArray()));
+            index = null;
+            return id;
+        }
+    }
+
+    /**
+       Removes a subscription.
+
+       @param id the id {@link #subscribe(String)} returned for it
+       @return whether there was such a subscription
+     */
+    public synchronized boolean unsubscribe(int id)
+    {
+        if (subscriptions.remove(id) == null) return false;
+        index = null;
+        return true;
+    }
+
+    /**
+       @param id the id of a subscription
+       @return its predicate, or null if there is no such subscription
+     */
+    public synchronized String getPredicate(int id)
+    {
+        Subscription s = subscriptions.get(id);
+        return (s == null) ? null : s.predicate;
+    }
+
+    /**
+       @return the number of subscriptions
+     */
+    public synchronized int size()
+    {
+        return subscriptions.size();
+    }
+
+    private SubscriptionIndex index()
+    {
+        SubscriptionIndex idx = index;
+        if (idx != null) return idx;
+        synchronized (this) {
+            if (index == null) {
+                index = new SubscriptionIndex(new ArrayList<Subscription>(subscriptions.values()));
+            }
+            return index;
+        }
+    }
+
+    /**
+       Returns the ids of the subscriptions the json value in jsonSrc, any
+       {@link CharSequence}, satisfies.
+
+       @param jsonSrc a {@link CharSequence} to read a json value from
+       @return the ids of the subscriptions it satisfies, in increasing order
+       @see #match(Reader)
+     */
+    public int[] match(CharSequence jsonSrc)
+        throws IOException
+    {
+        return match(SubJson.charSequenceReader(jsonSrc));
+    }
+
+    /**
+       Returns the ids of the subscriptions the json value jsonSrc is
+       pointing at satisfies. The {@link Reader} must return true when
+       markSupported() is called. As reading stops once every path is
+       settled, jsonSrc is left wherever it stopped, which may be before
+       the end of the value, and anything after that point is not
+       checked. If the value turns out to be invalid before then, an
+       IllegalArgumentException is thrown.
+
+       @param jsonSrc a {@link Reader} to read a json value from
+       @return the ids of the subscriptions it satisfies, in increasing order
+     */
+    public int[] match(Reader jsonSrc)
+        throws IOException
+    {
+        return index().scanner().match(jsonSrc);
+    }
+
+    public synchronized String toString()
+    {
+        return "JsonSubscriptions[" + subscriptions.size() + " subscriptions]";
+    }
+
+    /*
+      Parses predicate into the path, operator and literal of each of its
+      conditions.
+     */
+    private static void parse(String predicate, List<JsonPath> paths,
+                              List<Integer> ops, List<Object> literals)
+    {
+        int len = predicate.length();
+        int i = skipSpaces(predicate, 0);
+        while (true) {
+            if (i >= len || predicate.charAt(i) != '$') {
+                throw badPredicate(predicate, i, "expected a path starting with '$'");
+            }
+
+            // The path runs up to a space or an operator, outside brackets.
+            int start = i;
+            char quote = 0;
+            boolean inBrackets = false;
+            for (; i < len; i++) {
+                char c = predicate.charAt(i);
+                if (quote != 0) {
+                    if (c == '\\') i++;
+                    else if (c == quote) quote = 0;
+                } else if (inBrackets) {
+                    if (c == '\'' || c == '"') quote = c;
+                    else if (c == ']') inBrackets = false;
+                } else if (c == '[') {
+                    inBrackets = true;
+                } else if (TextUtils.isWhitespace(c) || "=!<>&".indexOf(c) >= 0) {
+                    break;
+                }
+            }
+            paths.add(JsonPath.compile(predicate.substring(start, Math.min(i, len))));
+
+            i = skipSpaces(predicate, i);
+            int op = SubscriptionIndex.OP_EXISTS;
+            if (i < len && !predicate.startsWith("&&", i)) {
+                if (predicate.startsWith("==", i)) {
+                    op = SubscriptionIndex.OP_EQ;
+                    i += 2;
+                } else if (predicate.startsWith("!=", i)) {
+                    op = SubscriptionIndex.OP_NE;
+                    i += 2;
+                } else if (predicate.startsWith("<=", i)) {
+                    op = SubscriptionIndex.OP_LE;
+                    i += 2;
+                } else if (predicate.startsWith(">=", i)) {
+                    op = SubscriptionIndex.OP_GE;
+                    i += 2;
+                } else if (predicate.charAt(i) == '<') {
+                    op = SubscriptionIndex.OP_LT;
+                    i++;
+                } else if (predicate.charAt(i) == '>') {
+                    op = SubscriptionIndex.OP_GT;
+                    i++;
+                } else {
+                    throw badPredicate(predicate, i, "expected an operator or '&&'");
+                }
+            }
+            ops.add(op);
+
+            Object literal = null;
+            if (op != SubscriptionIndex.OP_EXISTS) {
+                i = skipSpaces(predicate, i);
+                UnsynchronizedStringReader r = new UnsynchronizedStringReader(predicate);
+                r.next = i;
+                try {
+                    literal = SubJson.read(r);
+                } catch (IllegalArgumentException iae) {
+                    throw badPredicate(predicate, i, "expected a json literal");
+                } catch (Exception e) {
+                    // The default policy doesn't throw anything else.
+                    throw new IllegalStateException(e);
+                }
+                if (literal instanceof List || literal instanceof Map) {
+                    throw badPredicate(predicate, i, "expected a string, number, boolean or null");
+                }
+                if (op >= SubscriptionIndex.OP_LT && !(literal instanceof Number)) {
+                    throw badPredicate(predicate, i, "expected a number to compare with");
+                }
+                i = skipSpaces(predicate, r.next);
+            }
+            literals.add(literal);
+
+            if (i >= len) return;
+            if (!predicate.startsWith("&&", i)) {
+                throw badPredicate(predicate, i, "expected '&&' or the end of the predicate");
+            }
+            i = skipSpaces(predicate, i + 2);
+        }
+    }
+
+    private static int skipSpaces(String s, int i)
+    {
+        while (i < s.length() && TextUtils.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static IllegalArgumentException badPredicate(String predicate, int pos,
+                                                         String why)
+    {
+        return new IllegalArgumentException("Invalid predicate \"" + predicate + "\" at "
+                                            + pos + ": " + why + ".");
+    }
+}
@@ -0,0 +1,103 @@
+package su.boptim.al.subjson;
+
+/**
+   A bounded table of the objects used to represent json object keys,
+   looked up by the characters of the key, so that
+   {@link FunctionalFromJsonPolicy#makeKey(CharSequence)} can return
+   the same object for a key it has seen before without making a
+   {@link String} from the characters first.
+   <p>
+   Subclasses decide what a key is by implementing
+   {@link #createKey(String)}, which is only called when a key is not
+   already in the table. The table has a fixed number of slots, each of
+   which holds one key; a new key simply replaces whatever key was in
+   its slot, so the table never grows. Keys longer than the maximum
+   length given to the constructor are not cached at all, so that
+   unusual keys don't crowd out the common ones. A KeyCache may be
+   shared between threads.
+*/
+public abstract class KeyCache
+{
+    private static final class Entry
+    {
+        final int hash;
+        final String chars;
+        final Object key;
+
+        Entry(int hash, String chars, Object key)
+        {
+            this.hash = hash;
+            this.chars = chars;
+            this.key = key;
+        }
+    }
+
+    // Entries are immutable, so racing threads can at worst overwrite each
+    // other's entries, which only costs a later miss.
+    private final Entry[] entries;
+    private final int mask;
+    private final int maxKeyLength;
+
+    /**
+       Creates an empty KeyCache with at least the given number of slots
+       (rounded up to a power of two), which will not cache keys longer
+       than maxKeyLength characters.
+
+       @param slots the number of keys the cache can hold
+       @param maxKeyLength the length of the longest key that will be cached
+     */
+    public KeyCache(int slots, int maxKeyLength)
+    {
+        if (slots < 1 || slots > (1 << 30)) {
+            throw new IllegalArgumentException("A KeyCache must have between 1 and 2^30 slots.");
+        }
+        int size = Integer.highestOneBit(slots);
+        if (size < slots) size <<= 1;
+
+        entries = new Entry[size];
+        mask = size - 1;
+        this.maxKeyLength = maxKeyLength;
+    }
+
+    /**
+       Returns the key for the given characters, creating it with
+       {@link #createKey(String)} if it is not in the cache.
+
+       @param chars the characters of the key
+       @return the object representing the key
+     */
+    public Object get(CharSequence chars)
+    {
+        final int length = chars.length();
+        if (length > maxKeyLength) {
+            return createKey(chars.toString());
+        }
+
+        // Same as String.hashCode(), so it is also the hash of e.chars.
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+
+        // Spread the high bits down, since only the low bits pick a slot.
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        Entry e = entries[slot];
+        if (e != null && e.hash == hash && e.chars.contentEquals(chars)) {
+            return e.key;
+        }
+
+        String s = chars.toString();
+        Object key = createKey(s);
+        entries[slot] = new Entry(hash, s, key);
+        return key;
+    }
+
+    /**
+       Called to make the object that will represent a key that is not in
+       the cache.
+
+       @param chars the characters of the key
+       @return the object to represent the key
+     */
+    protected abstract Object createKey(String chars);
+}
@@ -0,0 +1,102 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/*
+  Wraps the Reader given to SubJson.read() when there is a limit on how
+  much input may be read, and throws a ParseLimitExceededException as
+  soon as a character past the limit is asked for. Only the characters
+  actually consumed count: marking, reading ahead and then resetting
+  takes back whatever was read since the mark, so the parser's habit of
+  reading ahead in readString() doesn't use up the limit, and peek()
+  doesn't count at all, so that a value ending right at the limit can
+  still look at what comes after it. Otherwise, every
+  call goes straight through to the wrapped Reader, which is left where
+  it would have been without the wrapper.
+ */
+final class LimitedReader extends Reader
+{
+    private final Reader in;
+    private final long maxChars;
+    private long consumed;
+    private long markConsumed;
+
+    LimitedReader(Reader in, long maxChars)
+    {
+        this.in = in;
+        this.maxChars = maxChars;
+    }
+
+    private void consume(long n)
+    {
+        consumed += n;
+        if (consumed > maxChars) {
+            throw new ParseLimitExceededException("maxInputLength", maxChars);
+        }
+    }
+
+    long charsConsumed()
+    {
+        return consumed;
+    }
+
+    int peek() throws IOException
+    {
+        in.mark(1);
+        int c = in.read();
+        in.reset();
+        return c;
+    }
+
+    public int read() throws IOException
+    {
+        int c = in.read();
+        if (c != -1) consume(1);
+        return c;
+    }
+
+    public int read(char[] cbuf, int off, int len) throws IOException
+    {
+        // Never ask for more than the limit allows plus one, so a huge
+        // bulk read can't get far past the limit before we notice.
+        long allowed = maxChars - consumed + 1;
+        int n = in.read(cbuf, off, (int)Math.min(len, allowed));
+        if (n > 0) consume(n);
+        return n;
+    }
+
+    public long skip(long n) throws IOException
+    {
+        long skipped = in.skip(Math.min(n, maxChars - consumed + 1));
+        consume(skipped);
+        return skipped;
+    }
+
+    public boolean ready() throws IOException
+    {
+        return in.ready();
+    }
+
+    public boolean markSupported()
+    {
+        return in.markSupported();
+    }
+
+    public void mark(int readAheadLimit) throws IOException
+    {
+        in.mark(readAheadLimit);
+        markConsumed = consumed;
+    }
+
+    public void reset() throws IOException
+    {
+        in.reset();
+        consumed = markConsumed;
+    }
+
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
@@ -0,0 +1,81 @@
+package su.boptim.al.subjson;
+
+/**
+   An immutable copy of SubJson's metrics at one moment, as returned by
+   {@link SubJsonMetrics#snapshot()}. The counts are read one at a time
+   while other threads may be reading and writing, so a snapshot taken
+   under load is not an exact cut across all of them. See
+   {@link SubJsonMetricsMXBean} for what each count means.
+ */
+public final class MetricsSnapshot
+{
+    private final long documentsRead;
+    private final long charsRead;
+    private final long nullsRead;
+    private final long booleansRead;
+    private final long numbersRead;
+    private final long stringsRead;
+    private final long keysRead;
+    private final long arraysRead;
+    private final long objectsRead;
+    private final long maxDepth;
+    private final long parseNanos;
+    private final long documentsWritten;
+    private final long charsWritten;
+    private final long writeNanos;
+
+    MetricsSnapshot(long documentsRead, long charsRead, long nullsRead,
+                    long booleansRead, long numbersRead, long stringsRead,
+                    long keysRead, long arraysRead, long objectsRead,
+                    long maxDepth, long parseNanos, long documentsWritten,
+                    long charsWritten, long writeNanos)
+    {
+        this.documentsRead = documentsRead;
+        this.charsRead = charsRead;
+        this.nullsRead = nullsRead;
+        this.booleansRead = booleansRead;
+        this.numbersRead = numbersRead;
+        this.stringsRead = stringsRead;
+        this.keysRead = keysRead;
+        this.arraysRead = arraysRead;
+        this.objectsRead = objectsRead;
+        this.maxDepth = maxDepth;
+        this.parseNanos = parseNanos;
+        this.documentsWritten = documentsWritten;
+        this.charsWritten = charsWritten;
+        this.writeNanos = writeNanos;
+    }
+
+    public long getDocumentsRead() { return documentsRead; }
+    public long getCharsRead() { return charsRead; }
+    public long getNullsRead() { return nullsRead; }
+    public long getBooleansRead() { return booleansRead; }
+    public long getNumbersRead() { return numbersRead; }
+    public long getStringsRead() { return stringsRead; }
+    public long getKeysRead() { return keysRead; }
+    public long getArraysRead() { return arraysRead; }
+    public long getObjectsRead() { return objectsRead; }
+    public long getMaxDepth() { return maxDepth; }
+    public long getParseNanos() { return parseNanos; }
+    public long getDocumentsWritten() { return documentsWritten; }
+    public long getCharsWritten() { return charsWritten; }
+    public long getWriteNanos() { return writeNanos; }
+
+    public String toString()
+    {
+        return "MetricsSnapshot{documentsRead=" + documentsRead
+            + ", charsRead=" + charsRead
+            + ", nullsRead=" + nullsRead
+            + ", booleansRead=" + booleansRead
+            + ", numbersRead=" + numbersRead
+            + ", stringsRead=" + stringsRead
+            + ", keysRead=" + keysRead
+            + ", arraysRead=" + arraysRead
+            + ", objectsRead=" + objectsRead
+            + ", maxDepth=" + maxDepth
+            + ", parseNanos=" + parseNanos
+            + ", documentsWritten=" + documentsWritten
+            + ", charsWritten=" + charsWritten
+            + ", writeNanos=" + writeNanos + "}";
+    }
+}
@@ -0,0 +1,74 @@
+package su.boptim.al.subjson;
+
+// Lets the parser, which works in terms of FunctionalFromJsonPolicy, build
+// values with a FromJsonPolicy, whose arrays and objects are modified in
+// place and so can simply be returned after each change.
+class MutableFromJsonPolicyAdapter implements FunctionalFromJsonPolicy
+{
+    final FromJsonPolicy fjp;
+
+    public MutableFromJsonPolicyAdapter(FromJsonPolicy fjp)
+    {
+        this.fjp = fjp;
+    }
+
+    // Arrays
+    public Object startArray()
+    {
+        return fjp.startArray();
+    }
+
+    public Object arrayAppend(Object array, Object value)
+    {
+        fjp.arrayAppend(array, value);
+        return array;
+    }
+
+    public Object finishArray(Object array)
+    {
+        return fjp.finishArray(array);
+    }
+
+    // Objects
+    public Object startObject()
+    {
+        return fjp.startObject();
+    }
+
+    public Object objectInsert(Object obj, Object key, Object value)
+    {
+        fjp.objectInsert(obj, key, value);
+        return obj;
+    }
+
+    public Object finishObject(Object obj)
+    {
+        return fjp.finishObject(obj);
+    }
+
+    // Primitives
+    public Object makeNull()
+    {
+        return fjp.makeNull();
+    }
+
+    public Object makeBoolean(Boolean b)
+    {
+        return fjp.makeBoolean(b);
+    }
+
+    public Object makeString(String s)
+    {
+        return fjp.makeString(s);
+    }
+
+    public Object makeKey(CharSequence chars)
+    {
+        return fjp.makeString(chars.toString());
+    }
+
+    public Object makeNumber(Number n)
+    {
+        return fjp.makeNumber(n);
+    }
+}
@@ -0,0 +1,186 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/*
+  Decodes number literals straight to a long or a double, for the
+  scanners that look at values without building them (AggregatingScanner
+  and SubscriptionScanner), so that no Long or Double is made for them.
+  The literal is decoded as it is scanned into a long mantissa and a
+  decimal exponent. Integers of up to 18 digits are then exact as a long,
+  and reals with up to 15 significant digits and a decimal exponent of
+  at most 22 either way are exact as a double after one multiplication
+  or division by a power of ten, since both operands are exact doubles
+  and IEEE arithmetic rounds the one operation correctly (Clinger's fast
+  path). Only the numbers outside those bounds, which are rare in most
+  data, are handed to Long.parseLong() or Double.parseDouble(), so
+  nothing is allocated for the rest.
+ */
+final class NumberScanner
+{
+    private static final int MAX_LONG_DIGITS = 18;
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final long NUMBER_SEED = 0x9E3779B97F4A7C15L;
+
+    private final StringBuilder scratch = new StringBuilder();
+
+    // The last number scanned: whether it is an integer that fits in a
+    // long, the long if so, and its value as a double either way.
+    boolean isLong;
+    long longValue;
+    double doubleValue;
+
+    /*
+      Reads the number literal jsonSrc is pointing at into isLong,
+      longValue and doubleValue, checking it as readNumber() does. Its
+      text is kept in scratch for the slow path.
+     */
+    void scan(Reader jsonSrc) throws IOException
+    {
+        scratch.setLength(0);
+        long mantissa = 0;
+        int digits = 0;          // Significant digits in mantissa.
+        int exponent = 0;        // The power of ten mantissa is scaled by.
+        boolean truncated = false;
+        boolean isInteger = true;
+
+        int currRune = jsonSrc.read();
+        boolean negative = currRune == '-';
+        if (negative) {
+            scratch.append('-');
+            currRune = jsonSrc.read();
+            if (!TextUtils.isDigit(currRune)) {
+                throw new NumberFormatException("While attempting to read a negative number, the negative sign was not followed by a digit.");
+            }
+        }
+
+        scratch.append((char)currRune);
+        if (currRune == '0') {
+            if (TextUtils.isDigit(SubJson.peek(jsonSrc))) {
+                throw new NumberFormatException("While attempting to read a number, there was a leading zero not immediately followed by a decimal point or exponentiation.");
+            }
+        } else {
+            mantissa = currRune - '0';
+            digits = 1;
+        }
+        while (TextUtils.isDigit(currRune = SubJson.peek(jsonSrc))) {
+            jsonSrc.read();
+            scratch.append((char)currRune);
+            if (digits < MAX_LONG_DIGITS) {
+                mantissa = mantissa * 10 + (currRune - '0');
+                digits++;
+            } else {
+                exponent++;
+                truncated = true;
+            }
+        }
+
+        if (currRune == '.') {
+            isInteger = false;
+            jsonSrc.read();
+            scratch.append('.');
+            currRune = SubJson.peek(jsonSrc);
+            if (!TextUtils.isDigit(currRune)) {
+                throw new NumberFormatException("While attempting to read a number, there was a decimal point not immediately followed by a digit.");
+            }
+            do {
+                jsonSrc.read();
+                scratch.append((char)currRune);
+                if (digits < MAX_LONG_DIGITS) {
+                    // Zeros before the first significant digit only
+                    // move the exponent.
+                    mantissa = mantissa * 10 + (currRune - '0');
+                    if (mantissa != 0) digits++;
+                    exponent--;
+                } else if (currRune != '0') {
+                    truncated = true;
+                }
+            } while (TextUtils.isDigit(currRune = SubJson.peek(jsonSrc)));
+        }
+
+        if (currRune == 'e' || currRune == 'E') {
+            isInteger = false;
+            jsonSrc.read();
+            scratch.append((char)currRune);
+            currRune = SubJson.peek(jsonSrc);
+            boolean negativeExponent = currRune == '-';
+            if (currRune == '+' || currRune == '-') {
+                jsonSrc.read();
+                scratch.append((char)currRune);
+                currRune = SubJson.peek(jsonSrc);
+            }
+            if (!TextUtils.isDigit(currRune)) {
+                throw new NumberFormatException("While attempting to read a number, there was an exponent not followed by a digit.");
+            }
+            int explicit = 0;
+            do {
+                jsonSrc.read();
+                scratch.append((char)currRune);
+                if (explicit < 100000) explicit = explicit * 10 + (currRune - '0');
+            } while (TextUtils.isDigit(currRune = SubJson.peek(jsonSrc)));
+            exponent += negativeExponent ? -explicit : explicit;
+        }
+
+        if (isInteger) {
+            if (!truncated) {
+                isLong = true;
+                longValue = negative ? -mantissa : mantissa;
+                doubleValue = longValue;
+                return;
+            }
+            try {
+                longValue = Long.parseLong(scratch.toString());
+                isLong = true;
+                doubleValue = longValue;
+                return;
+            } catch (NumberFormatException nfe) {
+                // Too large for a long, so take it as a double.
+            }
+        }
+
+        isLong = false;
+        if (!truncated && digits <= MAX_FAST_DIGITS
+            && exponent >= -22 && exponent <= 22) {
+            double d = mantissa;
+            d = (exponent < 0) ? d / POWERS_OF_TEN[-exponent] : d * POWERS_OF_TEN[exponent];
+            doubleValue = negative ? -d : d;
+        } else {
+            doubleValue = Double.parseDouble(scratch.toString());
+        }
+    }
+
+    // The hash of the last number scanned; see hash(boolean, long, double).
+    long hash()
+    {
+        return hash(isLong, longValue, doubleValue);
+    }
+
+    /*
+      A hash of a number by value: integers hash the same whether they
+      were written as integers or reals.
+     */
+    static long hash(boolean isLong, long l, double d)
+    {
+        long bits;
+        if (isLong) {
+            bits = l;
+        } else if (d == Math.rint(d) && Math.abs(d) < 0x1p63) {
+            bits = (long)d;
+        } else {
+            bits = Double.doubleToLongBits(d) ^ NUMBER_SEED;
+        }
+        // The finalizer of MurmurHash3, to spread the bits of small integers.
+        bits ^= bits >>> 33;
+        bits *= 0xFF51AFD7ED558CCDL;
+        bits ^= bits >>> 33;
+        bits *= 0xC4CEB93F05A8A5A3L;
+        bits ^= bits >>> 33;
+        return bits;
+    }
+}
@@ -0,0 +1,525 @@
+package su.boptim.al.subjson;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+   A position in an {@link OffHeapDocument}, through which its values are
+   read. A cursor starts at the root value of its document, and is moved
+   into arrays and objects with {@link #index(int)} and
+   {@link #field(CharSequence)}, and back out with {@link #up()}, so one
+   cursor can visit any number of values without making an object for
+   each. For example, with a document holding
+   <pre>
+   {"countries": [{"code": "NZ", "population": 5100000}, ...]}
+   </pre>
+   the population of the first country is read with
+   <pre>
+   OffHeapCursor c = doc.cursor();
+   if (c.field("countries") &amp;&amp; c.index(0) &amp;&amp; c.field("population")) {
+       long population = c.asLong();
+   }
+   </pre>
+   Reading a value as the wrong type, such as calling {@link #asLong()}
+   at a string, throws an IllegalStateException.
+   <p>
+   A cursor is cheap to make, and is not safe to use from more than one
+   thread at a time; threads sharing a document should each make their
+   own cursors with {@link OffHeapDocument#cursor()} or {@link #copy()}.
+*/
+public final class OffHeapCursor
+{
+    private static final FunctionalFromJsonPolicy defaultFJP =
+        new MutableFromJsonPolicyAdapter(new DefaultFromJsonPolicy());
+
+    private final OffHeapDocument doc;
+    private final ByteBuffer tape;
+    private int pos; // The offset of the current value's record.
+
+    // The offsets of the arrays and objects the cursor has moved into.
+    private int[] path = new int[16];
+    private int pathDepth = 0;
+
+    OffHeapCursor(OffHeapDocument doc)
+    {
+        this.doc = doc;
+        this.tape = doc.tape;
+        this.pos = doc.root;
+    }
+
+    /**
+       Returns the document this cursor reads.
+
+       @return the document of this cursor
+     */
+    public OffHeapDocument getDocument()
+    {
+        return doc;
+    }
+
+    /**
+       Moves this cursor back to the root value of its document.
+
+       @return this cursor
+     */
+    public OffHeapCursor reset()
+    {
+        pos = doc.root;
+        pathDepth = 0;
+        return this;
+    }
+
+    /**
+       Returns a new cursor at the same value as this one, which can be
+       moved independently of it, for instance by another thread.
+
+       @return a copy of this cursor
+     */
+    public OffHeapCursor copy()
+    {
+        OffHeapCursor c = new OffHeapCursor(doc);
+        c.pos = pos;
+        c.path = path.clone();
+        c.pathDepth = pathDepth;
+        return c;
+    }
+
+    /**
+       Moves this cursor out to the array or object holding the current
+       value, the one it was at before the last call to {@link #index(int)}
+       or {@link #field(CharSequence)} that moved it.
+
+       @return false if the cursor is at the root value, and so was not
+       moved, and true otherwise
+     */
+    public boolean up()
+    {
+        if (pathDepth == 0) return false;
+        pos = path[--pathDepth];
+        return true;
+    }
+
+    //
+    // Types
+    //
+
+    /** @return true if the current value is null */
+    public boolean isNull()
+    {
+        return tag() == OffHeapDocument.TAG_NULL;
+    }
+
+    /** @return true if the current value is true or false */
+    public boolean isBoolean()
+    {
+        byte tag = tag();
+        return tag == OffHeapDocument.TAG_TRUE || tag == OffHeapDocument.TAG_FALSE;
+    }
+
+    /** @return true if the current value is a number, integer or real */
+    public boolean isNumber()
+    {
+        byte tag = tag();
+        return tag == OffHeapDocument.TAG_INTEGER || tag == OffHeapDocument.TAG_REAL;
+    }
+
+    /**
+       @return true if the current value is an integer, a number the parser
+       would have read as a Long
+     */
+    public boolean isInteger()
+    {
+        return tag() == OffHeapDocument.TAG_INTEGER;
+    }
+
+    /**
+       @return true if the current value is a real number, one the parser
+       would have read as a Double
+     */
+    public boolean isReal()
+    {
+        return tag() == OffHeapDocument.TAG_REAL;
+    }
+
+    /** @return true if the current value is a string */
+    public boolean isString()
+    {
+        return tag() == OffHeapDocument.TAG_STRING;
+    }
+
+    /** @return true if the current value is an array */
+    public boolean isArray()
+    {
+        return tag() == OffHeapDocument.TAG_ARRAY;
+    }
+
+    /** @return true if the current value is an object */
+    public boolean isObject()
+    {
+        return tag() == OffHeapDocument.TAG_OBJECT;
+    }
+
+    //
+    // Arrays and objects
+    //
+
+    /**
+       Returns the number of elements in the current value, an array, or
+       the number of fields in it, an object. A key that appeared more than
+       once in an object counts once; its value is the last one given, as
+       when the parser puts it in a Map.
+
+       @return the size of the current array or object
+     */
+    public int size()
+    {
+        byte tag = tag();
+        if (tag != OffHeapDocument.TAG_ARRAY && tag != OffHeapDocument.TAG_OBJECT) {
+            throw wrongType("an array or object");
+        }
+        return tape.getInt(pos + 1);
+    }
+
+    /**
+       Moves this cursor into the current value, an array, to its element
+       at index i. At an object, moves to the value of the field with the
+       i'th key, in the order {@link #keyAt(int)} gives them.
+
+       @param i the index of the element to move to
+       @return true if there was an element at i to move to, false if i
+       was out of range and the cursor was not moved
+     */
+    public boolean index(int i)
+    {
+        int count = size();
+        if (i < 0 || i >= count) return false;
+        if (tape.get(pos) == OffHeapDocument.TAG_ARRAY) {
+            moveTo(tape.getInt(pos + 5 + 4 * i));
+        } else {
+            moveTo(tape.getInt(pos + 5 + 8 * i + 4));
+        }
+        return true;
+    }
+
+    /**
+       Moves this cursor into the current value, an object, to the value of
+       its field with the given key. Keys are kept sorted, so the field is
+       found by binary search.
+
+       @param name the key of the field to move to
+       @return true if the object has the field, false if it doesn't and
+       the cursor was not moved
+     */
+    public boolean field(CharSequence name)
+    {
+        if (tag() != OffHeapDocument.TAG_OBJECT) throw wrongType("an object");
+        int lo = 0;
+        int hi = tape.getInt(pos + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = pos + 5 + 8 * mid;
+            int cmp = compareString(tape, tape.getInt(entry), name);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                moveTo(tape.getInt(entry + 4));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+       Returns the i'th key of the current value, an object. Keys are in
+       order of their code points, comparing unpaired surrogates as the
+       code points they would be on their own.
+
+       @param i the index of the key
+       @return the key
+     */
+    public String keyAt(int i)
+    {
+        if (tag() != OffHeapDocument.TAG_OBJECT) throw wrongType("an object");
+        if (i < 0 || i >= tape.getInt(pos + 1)) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", size: "
+                                                + tape.getInt(pos + 1));
+        }
+        return decodeString(tape, tape.getInt(pos + 5 + 8 * i));
+    }
+
+    //
+    // Primitives
+    //
+
+    /** @return the current value, a boolean */
+    public boolean asBoolean()
+    {
+        byte tag = tag();
+        if (tag == OffHeapDocument.TAG_TRUE) return true;
+        if (tag == OffHeapDocument.TAG_FALSE) return false;
+        throw wrongType("a boolean");
+    }
+
+    /**
+       @return the current value, a number, as a long, truncating a real
+       number as a cast would
+     */
+    public long asLong()
+    {
+        byte tag = tag();
+        if (tag == OffHeapDocument.TAG_INTEGER) return tape.getLong(pos + 1);
+        if (tag == OffHeapDocument.TAG_REAL) return (long)tape.getDouble(pos + 1);
+        throw wrongType("a number");
+    }
+
+    /** @return the current value, a number, as a double */
+    public double asDouble()
+    {
+        byte tag = tag();
+        if (tag == OffHeapDocument.TAG_REAL) return tape.getDouble(pos + 1);
+        if (tag == OffHeapDocument.TAG_INTEGER) return (double)tape.getLong(pos + 1);
+        throw wrongType("a number");
+    }
+
+    /** @return the current value, a string, decoded into a new String */
+    public String asString()
+    {
+        if (tag() != OffHeapDocument.TAG_STRING) throw wrongType("a string");
+        return decodeString(tape, pos);
+    }
+
+    /**
+       Returns whether the current value is a string with the same chars as
+       cs, without making a String of it.
+
+       @param cs the chars to compare the current value to
+       @return true if the current value is a string equal to cs
+     */
+    public boolean contentEquals(CharSequence cs)
+    {
+        return tag() == OffHeapDocument.TAG_STRING
+            && tape.getInt(pos + 5) == cs.length()
+            && compareString(tape, pos, cs) == 0;
+    }
+
+    /**
+       Copies the current value onto the heap, as the default
+       {@link FromJsonPolicy} would have read it.
+
+       @return the current value as java objects
+     */
+    public Object toValue()
+    {
+        return toValue(defaultFJP);
+    }
+
+    /**
+       Copies the current value onto the heap, building it according to
+       fjp, a {@link FunctionalFromJsonPolicy}. The fields of each object
+       are inserted in order of their keys.
+
+       @param fjp a {@link FunctionalFromJsonPolicy} to use when mapping
+       the json values to in-memory java objects
+       @return the current value as the java objects it was directed to
+       construct by the {@link FunctionalFromJsonPolicy}
+     */
+    public Object toValue(FunctionalFromJsonPolicy fjp)
+    {
+        // The arrays and objects being copied, innermost on top, with the
+        // offset of each one's record, the index of the element or field
+        // being copied, and for objects, the key of that field.
+        int[] recs = new int[16];
+        int[] indexes = new int[16];
+        Object[] containers = new Object[16];
+        Object[] keys = new Object[16];
+        int depth = 0;
+
+        int rec = pos;
+        while (true) {
+            Object value;
+            byte tag = tape.get(rec);
+            switch (tag) {
+            case OffHeapDocument.TAG_NULL:
+                value = fjp.makeNull();
+                break;
+            case OffHeapDocument.TAG_FALSE:
+                value = fjp.makeBoolean(Boolean.FALSE);
+                break;
+            case OffHeapDocument.TAG_TRUE:
+                value = fjp.makeBoolean(Boolean.TRUE);
+                break;
+            case OffHeapDocument.TAG_INTEGER:
+                value = fjp.makeNumber(Long.valueOf(tape.getLong(rec + 1)));
+                break;
+            case OffHeapDocument.TAG_REAL:
+                value = fjp.makeNumber(Double.valueOf(tape.getDouble(rec + 1)));
+                break;
+            case OffHeapDocument.TAG_STRING:
+                value = fjp.makeString(decodeString(tape, rec));
+                break;
+            default: // An array or object.
+                boolean isObj = tag == OffHeapDocument.TAG_OBJECT;
+                Object container = isObj ? fjp.startObject() : fjp.startArray();
+                if (tape.getInt(rec + 1) == 0) {
+                    value = isObj ? fjp.finishObject(container) : fjp.finishArray(container);
+                    break;
+                }
+                if (depth == recs.length) {
+                    int newSize = depth * 2;
+                    recs = Arrays.copyOf(recs, newSize);
+                    indexes = Arrays.copyOf(indexes, newSize);
+                    containers = Arrays.copyOf(containers, newSize);
+                    keys = Arrays.copyOf(keys, newSize);
+                }
+                recs[depth] = rec;
+                indexes[depth] = 0;
+                containers[depth] = container;
+                rec = child(rec, 0, keys, depth, fjp);
+                depth++;
+                continue;
+            }
+
+            // Add the value to the container it's in, and move on to the
+            // next element or field, finishing every container that has
+            // no more.
+            while (true) {
+                if (depth == 0) return value;
+                int top = depth - 1;
+                boolean isObj = tape.get(recs[top]) == OffHeapDocument.TAG_OBJECT;
+                if (isObj) {
+                    containers[top] = fjp.objectInsert(containers[top], keys[top], value);
+                } else {
+                    containers[top] = fjp.arrayAppend(containers[top], value);
+                }
+                int next = ++indexes[top];
+                if (next < tape.getInt(recs[top] + 1)) {
+                    rec = child(recs[top], next, keys, top, fjp);
+                    break;
+                }
+                value = isObj ? fjp.finishObject(containers[top])
+                    : fjp.finishArray(containers[top]);
+                containers[top] = null;
+                keys[top] = null;
+                depth--;
+            }
+        }
+    }
+
+    // The offset of the i'th child of the container at rec, making the key
+    // of the field into keys[slot] first if it is an object, since the
+    // parser makes a key before its value.
+    private int child(int rec, int i, Object[] keys, int slot,
+                      FunctionalFromJsonPolicy fjp)
+    {
+        if (tape.get(rec) == OffHeapDocument.TAG_ARRAY) {
+            return tape.getInt(rec + 5 + 4 * i);
+        }
+        int entry = rec + 5 + 8 * i;
+        keys[slot] = fjp.makeKey(decodeString(tape, tape.getInt(entry)));
+        return tape.getInt(entry + 4);
+    }
+
+    //
+    // Helpers
+    //
+
+    private byte tag()
+    {
+        return tape.get(pos);
+    }
+
+    private void moveTo(int rec)
+    {
+        if (pathDepth == path.length) {
+            int[] newPath = new int[path.length * 2];
+            System.arraycopy(path, 0, newPath, 0, pathDepth);
+            path = newPath;
+        }
+        path[pathDepth++] = pos;
+        pos = rec;
+    }
+
+    private IllegalStateException wrongType(String expected)
+    {
+        String[] names = { "null", "false", "true", "an integer", "a real number",
+                           "a string", "an array", "an object" };
+        return new IllegalStateException("Expected " + expected
+                                         + ", but the cursor is at "
+                                         + names[tag()] + ".");
+    }
+
+    /*
+      Compares the string in the TAG_STRING record at rec with cs, by code
+      point, pairing surrogates in cs as UTF-8 would have. Returns a
+      negative number, zero or a positive number as the string is less
+      than, equal to or greater than cs.
+     */
+    static int compareString(ByteBuffer tape, int rec, CharSequence cs)
+    {
+        int p = rec + 9;
+        int end = p + tape.getInt(rec + 1);
+        int len = cs.length();
+        int i = 0;
+        while (p < end && i < len) {
+            int b = tape.get(p) & 0xFF;
+            int cp;
+            if (b < 0x80) {
+                cp = b;
+                p++;
+            } else if (b < 0xE0) {
+                cp = ((b & 0x1F) << 6) | (tape.get(p + 1) & 0x3F);
+                p += 2;
+            } else if (b < 0xF0) {
+                cp = ((b & 0x0F) << 12) | ((tape.get(p + 1) & 0x3F) << 6)
+                    | (tape.get(p + 2) & 0x3F);
+                p += 3;
+            } else {
+                cp = ((b & 0x07) << 18) | ((tape.get(p + 1) & 0x3F) << 12)
+                    | ((tape.get(p + 2) & 0x3F) << 6) | (tape.get(p + 3) & 0x3F);
+                p += 4;
+            }
+
+            int c = cs.charAt(i++);
+            if (Character.isHighSurrogate((char)c) && i < len
+                && Character.isLowSurrogate(cs.charAt(i))) {
+                c = Character.toCodePoint((char)c, cs.charAt(i++));
+            }
+            if (cp != c) return cp < c ? -1 : 1;
+        }
+        if (p < end) return 1;
+        if (i < len) return -1;
+        return 0;
+    }
+
+    // Decodes the string in the TAG_STRING record at rec.
+    static String decodeString(ByteBuffer tape, int rec)
+    {
+        int p = rec + 9;
+        int end = p + tape.getInt(rec + 1);
+        char[] chars = new char[tape.getInt(rec + 5)];
+        int n = 0;
+        while (p < end) {
+            int b = tape.get(p) & 0xFF;
+            if (b < 0x80) {
+                chars[n++] = (char)b;
+                p++;
+            } else if (b < 0xE0) {
+                chars[n++] = (char)(((b & 0x1F) << 6) | (tape.get(p + 1) & 0x3F));
+                p += 2;
+            } else if (b < 0xF0) {
+                chars[n++] = (char)(((b & 0x0F) << 12) | ((tape.get(p + 1) & 0x3F) << 6)
+                                    | (tape.get(p + 2) & 0x3F));
+                p += 3;
+            } else {
+                int cp = ((b & 0x07) << 18) | ((tape.get(p + 1) & 0x3F) << 12)
+                    | ((tape.get(p + 2) & 0x3F) << 6) | (tape.get(p + 3) & 0x3F);
+                chars[n++] = Character.highSurrogate(cp);
+                chars[n++] = Character.lowSurrogate(cp);
+                p += 4;
+            }
+        }
+        return new String(chars);
+    }
+}
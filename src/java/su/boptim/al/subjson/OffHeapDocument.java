@@ -0,0 +1,93 @@
+package su.boptim.al.subjson;
+
+import java.nio.ByteBuffer;
+
+/**
+   A json value parsed into a tape of bytes held outside the Java heap,
+   made by {@link SubJson#readOffHeap(java.io.Reader)}, for large data
+   sets that are kept in memory for a long time, such as reference data,
+   where a tree of Java objects would be a burden on the garbage
+   collector. The whole document is one direct {@link ByteBuffer}, which
+   the collector sees as a single small object however much it holds.
+   <p>
+   The tape holds the structure of the value along with its numbers and
+   its strings, as UTF-8. Arrays keep the position of each element, and
+   objects keep their keys sorted, so an element is found in constant
+   time and a field in time logarithmic in the size of its object. Values
+   are read through an {@link OffHeapCursor}, a reusable object that is
+   moved around the document rather than making an object for each value
+   visited.
+   <p>
+   An OffHeapDocument never changes once made, and may be shared between
+   threads, each with its own cursors. Its memory is released when it is
+   garbage collected, and counts towards the JVM's limit on direct memory
+   (-XX:MaxDirectMemorySize). Like any ByteBuffer, a document's tape must
+   be smaller than 2GB; larger data sets can be split across documents.
+*/
+public final class OffHeapDocument
+{
+    /*
+      The tape is a sequence of records, one per value, each a tag byte
+      followed by
+
+        TAG_NULL, TAG_FALSE, TAG_TRUE   nothing
+        TAG_INTEGER                     the long
+        TAG_REAL                        the double
+        TAG_STRING                      an int count of bytes, an int count
+                                        of chars, then the chars as UTF-8,
+                                        with unpaired surrogates encoded as
+                                        three bytes each, as UTF-8 would
+                                        encode any other char on its own
+        TAG_ARRAY                       an int count, then the tape offset
+                                        of each element as an int
+        TAG_OBJECT                      an int count, then for each field
+                                        in order of key, the offsets of its
+                                        key, a TAG_STRING record, and its
+                                        value, as ints
+
+      in the tape's byte order, which is that of the platform. A container
+      is written after all the values in it, and the root value is last.
+      Since unpaired surrogates are encoded like any other char, comparing
+      the bytes of two keys orders them by code point, the same order that
+      OffHeapCursor.field() searches in.
+     */
+    static final byte TAG_NULL = 0;
+    static final byte TAG_FALSE = 1;
+    static final byte TAG_TRUE = 2;
+    static final byte TAG_INTEGER = 3;
+    static final byte TAG_REAL = 4;
+    static final byte TAG_STRING = 5;
+    static final byte TAG_ARRAY = 6;
+    static final byte TAG_OBJECT = 7;
+
+    final ByteBuffer tape; // Read-only, and only ever read with absolute gets.
+    final int root;
+
+    OffHeapDocument(ByteBuffer tape, int root)
+    {
+        this.tape = tape;
+        this.root = root;
+    }
+
+    /**
+       Returns a new cursor, at the root value of this document. A cursor
+       should only be used by one thread at a time.
+
+       @return a cursor at the root of this document
+     */
+    public OffHeapCursor cursor()
+    {
+        return new OffHeapCursor(this);
+    }
+
+    /**
+       Returns the number of bytes of off-heap memory this document's tape
+       takes up.
+
+       @return the size of the tape in bytes
+     */
+    public int getByteSize()
+    {
+        return tape.capacity();
+    }
+}
@@ -0,0 +1,50 @@
+package su.boptim.al.subjson;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+   A Java Flight Recorder event for a single call to SubJson.read(),
+   recorded when the read takes at least the event's threshold, 20 ms by
+   default. The threshold can be changed in a recording's settings, as
+   su.boptim.al.subjson.Parse#threshold. These events are created by
+   SubJson; there's no need to use this class directly.
+ */
+@Name("su.boptim.al.subjson.Parse")
+@Label("JSON Parse")
+@Category("SubJson")
+@Description("Reading a single json value with SubJson.read()")
+@Threshold("20 ms")
+@StackTrace(false)
+public final class ParseEvent extends jdk.jfr.Event
+{
+    @Label("Input Characters")
+    @Description("Characters consumed, or -1 if the Reader can't tell")
+    long inputChars;
+
+    @Label("Maximum Depth")
+    int maxDepth;
+
+    @Label("Values")
+    @Description("Values read, counting arrays and objects but not keys")
+    long values;
+
+    @Label("Arrays")
+    long arrays;
+
+    @Label("Objects")
+    long objects;
+
+    @Label("Strings")
+    long strings;
+
+    @Label("Numbers")
+    long numbers;
+
+    @Label("Policy")
+    Class<?> policy;
+}
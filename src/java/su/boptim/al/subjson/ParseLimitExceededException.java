@@ -0,0 +1,46 @@
+package su.boptim.al.subjson;
+
+/**
+   Thrown when json being read goes past one of the limits in a
+   {@link ParseLimits}. Like the exceptions for malformed json, it is an
+   {@link IllegalArgumentException}, so code that already handles bad
+   input handles this too, but it can be caught separately to tell input
+   that was too big apart from input that was broken.
+*/
+public class ParseLimitExceededException extends IllegalArgumentException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String limitName;
+    private final long limit;
+
+    /**
+       @param limitName the name of the limit that was exceeded, such as
+       "maxDepth"
+       @param limit the value of that limit
+     */
+    public ParseLimitExceededException(String limitName, long limit)
+    {
+        super("The json input exceeded the " + limitName + " limit of "
+              + limit + ".");
+        this.limitName = limitName;
+        this.limit = limit;
+    }
+
+    /**
+       @return the name of the limit that was exceeded, matching the name
+       of its method in {@link ParseLimits}, such as "maxDepth"
+     */
+    public String getLimitName()
+    {
+        return limitName;
+    }
+
+    /**
+       @return the value of the limit that was exceeded
+     */
+    public long getLimit()
+    {
+        return limit;
+    }
+}
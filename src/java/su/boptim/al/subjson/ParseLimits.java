@@ -0,0 +1,175 @@
+package su.boptim.al.subjson;
+
+/**
+   Bounds on how much work and memory a single call to
+   {@link SubJson#read(java.io.Reader, FunctionalFromJsonPolicy, ParseLimits)}
+   may spend on its input, for reading json from sources that can't be
+   trusted to be reasonable. Each limit is checked as the parser goes,
+   before it grows anything past the limit, and exceeding one stops the
+   read with a {@link ParseLimitExceededException}.
+   <p>
+   ParseLimits are immutable; each of the with methods returns a copy
+   with one limit changed, starting from {@link #NONE}, which has no
+   limits at all:
+   <pre>
+   ParseLimits limits = ParseLimits.NONE.withMaxDepth(64)
+                                        .withMaxStringLength(1 &lt;&lt; 20);
+   </pre>
+   A ParseLimits can be shared between threads and reused for any number
+   of reads.
+*/
+public final class ParseLimits
+{
+    /**
+       The limits used by the read methods that don't take a ParseLimits,
+       which is to say, no limits.
+     */
+    public static final ParseLimits NONE
+        = new ParseLimits(Integer.MAX_VALUE, Integer.MAX_VALUE,
+                          Integer.MAX_VALUE, Integer.MAX_VALUE,
+                          Long.MAX_VALUE, Long.MAX_VALUE);
+
+    final int maxDepth;
+    final int maxStringLength;
+    final int maxNumberLength;
+    final int maxContainerSize;
+    final long maxValues;
+    final long maxInputLength;
+
+    private ParseLimits(int maxDepth, int maxStringLength, int maxNumberLength,
+                        int maxContainerSize, long maxValues, long maxInputLength)
+    {
+        this.maxDepth = maxDepth;
+        this.maxStringLength = maxStringLength;
+        this.maxNumberLength = maxNumberLength;
+        this.maxContainerSize = maxContainerSize;
+        this.maxValues = maxValues;
+        this.maxInputLength = maxInputLength;
+    }
+
+    private static void checkPositive(long limit, String name)
+    {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The " + name + " limit must be at least 1.");
+        }
+    }
+
+    /**
+       @param maxDepth the deepest that arrays and objects may be nested;
+       a json value with no arrays or objects has a depth of 0
+       @return a copy of these limits with the given maximum depth
+     */
+    public ParseLimits withMaxDepth(int maxDepth)
+    {
+        checkPositive(maxDepth, "maxDepth");
+        return new ParseLimits(maxDepth, maxStringLength, maxNumberLength,
+                               maxContainerSize, maxValues, maxInputLength);
+    }
+
+    /**
+       @param maxStringLength the most characters a string value or object
+       key may have, after its escape sequences are decoded
+       @return a copy of these limits with the given maximum string length
+     */
+    public ParseLimits withMaxStringLength(int maxStringLength)
+    {
+        checkPositive(maxStringLength, "maxStringLength");
+        return new ParseLimits(maxDepth, maxStringLength, maxNumberLength,
+                               maxContainerSize, maxValues, maxInputLength);
+    }
+
+    /**
+       @param maxNumberLength the most characters a number literal may have,
+       counting its sign, decimal point and exponent
+       @return a copy of these limits with the given maximum number length
+     */
+    public ParseLimits withMaxNumberLength(int maxNumberLength)
+    {
+        checkPositive(maxNumberLength, "maxNumberLength");
+        return new ParseLimits(maxDepth, maxStringLength, maxNumberLength,
+                               maxContainerSize, maxValues, maxInputLength);
+    }
+
+    /**
+       @param maxContainerSize the most elements an array, or key/value
+       pairs an object, may have
+       @return a copy of these limits with the given maximum container size
+     */
+    public ParseLimits withMaxContainerSize(int maxContainerSize)
+    {
+        checkPositive(maxContainerSize, "maxContainerSize");
+        return new ParseLimits(maxDepth, maxStringLength, maxNumberLength,
+                               maxContainerSize, maxValues, maxInputLength);
+    }
+
+    /**
+       @param maxValues the most values the whole json value may contain,
+       counting arrays and objects and everything in them, but not
+       object keys
+       @return a copy of these limits with the given maximum number of values
+     */
+    public ParseLimits withMaxValues(long maxValues)
+    {
+        checkPositive(maxValues, "maxValues");
+        return new ParseLimits(maxDepth, maxStringLength, maxNumberLength,
+                               maxContainerSize, maxValues, maxInputLength);
+    }
+
+    /**
+       Limits the characters read from the input, including whitespace.
+       Enforcing this means reading through a counting wrapper around the
+       input, which gives up the faster paths the parser takes for its
+       own buffered Readers, so leave it unset when the input is already
+       known to be bounded, such as a String.
+
+       @param maxInputLength the most characters that may be read from the
+       input
+       @return a copy of these limits with the given maximum input length
+     */
+    public ParseLimits withMaxInputLength(long maxInputLength)
+    {
+        checkPositive(maxInputLength, "maxInputLength");
+        return new ParseLimits(maxDepth, maxStringLength, maxNumberLength,
+                               maxContainerSize, maxValues, maxInputLength);
+    }
+
+    public int getMaxDepth()
+    {
+        return maxDepth;
+    }
+
+    public int getMaxStringLength()
+    {
+        return maxStringLength;
+    }
+
+    public int getMaxNumberLength()
+    {
+        return maxNumberLength;
+    }
+
+    public int getMaxContainerSize()
+    {
+        return maxContainerSize;
+    }
+
+    public long getMaxValues()
+    {
+        return maxValues;
+    }
+
+    public long getMaxInputLength()
+    {
+        return maxInputLength;
+    }
+
+    public String toString()
+    {
+        return "ParseLimits{maxDepth=" + maxDepth
+            + ", maxStringLength=" + maxStringLength
+            + ", maxNumberLength=" + maxNumberLength
+            + ", maxContainerSize=" + maxContainerSize
+            + ", maxValues=" + maxValues
+            + ", maxInputLength=" + maxInputLength + "}";
+    }
+}
@@ -0,0 +1,241 @@
+package su.boptim.al.subjson;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+  Matches a set of JsonPaths against the values of a document as it is
+  read, one level of nesting at a time, without looking back. Each path
+  of n steps has n + 1 positions, for having matched 0 to n of its steps,
+  and the matcher keeps, for each level of nesting being read, the set of
+  positions reached by the value at that level, as a bitset. Moving into
+  an element or field computes the next level's set from the current
+  one: a step that selects the element or field advances, and a
+  descendant step also stays where it is, to try again further down. A
+  value is matched by a path when its set holds that path's last
+  position. Once a level's set is empty, nothing below it can match, so
+  callers can stop looking.
+
+  So that entering a field doesn't compare its key against the step of
+  every position in the set, which with many paths is most of the work,
+  the positions are also indexed by what their steps select: a bitset of
+  the positions whose step selects each field name, in a table looked up
+  by the characters of the key, and bitsets of the wildcard steps, the
+  index steps and the descendant steps. The next level's set is then a
+  few word-wide operations on the current one, plus a check of the live
+  index steps' indexes.
+
+  A PathMatcher is for one read at a time.
+ */
+final class PathMatcher
+{
+    private final JsonPath[] paths;
+    private final int[] base;    // The position of each path's step 0.
+    private final int[] posPath; // The path and step of each position.
+    private final int[] posStep;
+    private final int words;     // The longs in each level's set.
+    private final long[] starts;
+    private final long[] finals; // The last position of each path.
+
+    // The positions, not counting last ones, by what their steps select.
+    private final long[] wildcardSteps;
+    private final long[] indexSteps;
+    private final long[] descendantSteps;
+
+    // For each field name some step selects, the positions of those
+    // steps, in an open addressing table hashed as String.hashCode() does,
+    // so that it can be probed with the characters of a key.
+    private final String[] names;
+    private final long[][] nameSteps;
+    private final int nameMask;
+
+    private long[] states;
+
+    PathMatcher(JsonPath[] paths)
+    {
+        this.paths = paths;
+        base = new int[paths.length];
+        int positions = 0;
+        for (int r = 0; r < paths.length; r++) {
+            base[r] = positions;
+            positions += paths[r].length() + 1;
+        }
+        posPath = new int[positions];
+        posStep = new int[positions];
+        for (int r = 0; r < paths.length; r++) {
+            for (int i = 0; i <= paths[r].length(); i++) {
+                posPath[base[r] + i] = r;
+                posStep[base[r] + i] = i;
+            }
+        }
+        words = Math.max(1, (positions + 63) >>> 6);
+        starts = new long[words];
+        finals = new long[words];
+        for (int r = 0; r < paths.length; r++) {
+            starts[base[r] >>> 6] |= 1L << base[r];
+            int last = base[r] + paths[r].length();
+            finals[last >>> 6] |= 1L << last;
+        }
+
+        wildcardSteps = new long[words];
+        indexSteps = new long[words];
+        descendantSteps = new long[words];
+        Map<String,long[]> byName = new LinkedHashMap<String,long[]>();
+        for (int p = 0; p < positions; p++) {
+            JsonPath path = paths[posPath[p]];
+            int step = posStep[p];
+            if (step == path.length()) continue;
+            long bit = 1L << p;
+            if (path.descendant[step]) descendantSteps[p >>> 6] |= bit;
+            switch (path.selectors[step]) {
+            case JsonPath.SELECT_ANY:
+                wildcardSteps[p >>> 6] |= bit;
+                break;
+            case JsonPath.SELECT_INDEX:
+                indexSteps[p >>> 6] |= bit;
+                break;
+            default:
+                long[] steps = byName.get(path.names[step]);
+                if (steps == null) {
+                    steps = new long[words];
+                    byName.put(path.names[step], steps);
+                }
+                steps[p >>> 6] |= bit;
+                break;
+            }
+        }
+
+        // At most half full, so probes are short and always find an empty
+        // slot.
+        int size = Integer.highestOneBit(Math.max(1, byName.size())) * 4;
+        names = new String[size];
+        nameSteps = new long[size][];
+        nameMask = size - 1;
+        for (Map.Entry<String,long[]> e : byName.entrySet()) {
+            int hash = e.getKey().hashCode();
+            int slot = (hash ^ (hash >>> 16)) & nameMask;
+            while (names[slot] != null) slot = (slot + 1) & nameMask;
+            names[slot] = e.getKey();
+            nameSteps[slot] = e.getValue();
+        }
+
+        states = new long[words * 16];
+    }
+
+    // Starts a document: the root value, at level 0, has matched no steps.
+    void reset()
+    {
+        System.arraycopy(starts, 0, states, 0, words);
+    }
+
+    /*
+      Computes the set of the element or field of the value at level that
+      is about to be read, as level + 1: the field with the given key, or
+      if key is null, the element at index. Returns whether the set is
+      not empty.
+     */
+    boolean enter(int level, CharSequence key, int index)
+    {
+        int from = level * words;
+        int to = from + words;
+        if (to + words > states.length) {
+            states = Arrays.copyOf(states, states.length * 2);
+        }
+        final long[] named = (key == null) ? null : stepsSelecting(key);
+        long any = 0;
+        long carry = 0; // A position advanced off the end of the word before.
+        for (int w = 0; w < words; w++) {
+            long live = states[from + w];
+            long advancing = live & wildcardSteps[w];
+            if (named != null) {
+                advancing |= live & named[w];
+            } else if (key == null) {
+                long bits = live & indexSteps[w];
+                while (bits != 0) {
+                    int p = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (paths[posPath[p]].indexes[posStep[p]] == index) {
+                        advancing |= 1L << p;
+                    }
+                }
+            }
+            // Each advancing position moves on to the next one, its
+            // path's next step.
+            long next = (live & descendantSteps[w]) | (advancing << 1) | carry;
+            carry = advancing >>> 63;
+            states[to + w] = next;
+            any |= next;
+        }
+        return any != 0;
+    }
+
+    // The positions whose step selects the field named key, or null.
+    private long[] stepsSelecting(CharSequence key)
+    {
+        final int length = key.length();
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + key.charAt(i);
+        }
+        for (int slot = (hash ^ (hash >>> 16)) & nameMask;
+             names[slot] != null; slot = (slot + 1) & nameMask) {
+            if (names[slot].hashCode() == hash && names[slot].contentEquals(key)) {
+                return nameSteps[slot];
+            }
+        }
+        return null;
+    }
+
+    // Whether no path can match the value at level or anything in it.
+    boolean isDead(int level)
+    {
+        int from = level * words;
+        for (int w = 0; w < words; w++) {
+            if (states[from + w] != 0) return false;
+        }
+        return true;
+    }
+
+    /*
+      Whether some path has steps left to match below the value at level,
+      so that something in it could match. A value whose set only holds
+      last positions is matched, but nothing in it can be.
+     */
+    boolean hasSteps(int level)
+    {
+        int from = level * words;
+        for (int w = 0; w < words; w++) {
+            if ((states[from + w] & ~finals[w]) != 0) return true;
+        }
+        return false;
+    }
+
+    /*
+      Returns the index of the first path that matches the value at level,
+      or -1 if none does.
+     */
+    int matched(int level)
+    {
+        return nextMatched(level, 0);
+    }
+
+    /*
+      Returns the index of the first path from index r on that matches the
+      value at level, or -1 if none does, for going through all of them.
+     */
+    int nextMatched(int level, int r)
+    {
+        if (r >= paths.length) return -1;
+        // The paths' last positions are in the same order as the paths, so
+        // look for the next one in the set from path r's step 0 on.
+        int from = level * words;
+        int w = base[r] >>> 6;
+        long bits = states[from + w] & finals[w] & (-1L << base[r]);
+        while (bits == 0) {
+            if (++w == words) return -1;
+            bits = states[from + w] & finals[w];
+        }
+        return posPath[(w << 6) + Long.numberOfTrailingZeros(bits)];
+    }
+}
@@ -8,6 +8,14 @@ class PrintingStackFrame
 {
     Iterator<?> it;
     ToJsonPolicy.ValueType iteratorType;
+
+    // When the value being iterated over is being captured for a
+    // WriteCache, these hold the output and indentation to restore
+    // when it is finished, and the value to cache its json under.
+    // Otherwise, they are null.
+    Appendable captureParent;
+    StringBuilder savedIndentation;
+    Object cacheKey;
     
     public PrintingStackFrame(Iterator<?> it, ToJsonPolicy.ValueType iteratorType)
     {
@@ -0,0 +1,408 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+  Does the copying for JsonRedactor.redact(). This is the state machine
+  of Reformatter (and so of read(); see there for how it works), but
+  copying the whitespace between tokens as well as the tokens, and
+  matching the redactor's paths with a PathMatcher as it goes.
+
+  Whether an element or field is redacted is only known once its key (or
+  index) has been read, but if it is dropped, the comma before it and the
+  whitespace around its key have to go too. So the text from the start
+  of each element or field up to its value is held in pending until the
+  rule for the value is known. The comma itself is only written before
+  an element or field that is kept, and only if something has been
+  written in its container before, so dropping the first or last one
+  leaves no stray comma.
+
+  A dropped or replaced value isn't written anywhere, so an array or
+  object among them is skipped in bulk, scanning only for its strings and
+  brackets, rather than being taken through the grammar token by token.
+ */
+final class RedactingCopier
+{
+    private static final int LBL_COPY_VALUE = 0;
+    private static final int LBL_START_MEMBER = 1;
+    private static final int LBL_AFTER_VALUE = 2;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final JsonRedactor redactor;
+    private final Appendable out;
+    private final Reformatter copier; // Copies strings and numbers to out.
+    private final PathMatcher matcher;
+
+    private final StringBuilder pending = new StringBuilder();
+    private final StringBuilder keyChars = new StringBuilder();
+    private final StringBuilder scratch = new StringBuilder();
+    private ValidationResult skipResult;
+    private char[] skipClosers = new char[16];
+    private MessageDigest sha256;
+    private Mac[] macs;
+
+    // For each array or object being copied: which it is, whether anything
+    // has been written in it yet, and the index of the next element.
+    private boolean[] isObject = new boolean[16];
+    private boolean[] written = new boolean[16];
+    private int[] indexes = new int[16];
+
+    RedactingCopier(JsonRedactor redactor, Appendable out)
+    {
+        this.redactor = redactor;
+        this.out = out;
+        this.copier = new Reformatter(out, false);
+        this.matcher = new PathMatcher(redactor.paths);
+    }
+
+    void copy(Reader jsonSrc) throws IOException
+    {
+        matcher.reset();
+        copyWhitespace(jsonSrc, out);
+        int depth = 0;
+        boolean afterComma = false;
+        int currState = LBL_COPY_VALUE;
+
+        while (true) {
+            dispatch:
+            switch (currState) {
+            case LBL_COPY_VALUE:
+                {
+                    int currRune = SubJson.peek(jsonSrc);
+                    switch (currRune) {
+                    case 'n':
+                        SubJson.readNull(jsonSrc);
+                        out.append("null");
+                        break;
+                    case 't':
+                    case 'f':
+                        out.append(SubJson.readBoolean(jsonSrc) ? "true" : "false");
+                        break;
+                    case '-':
+                    case '0':
+                    case '1':
+                    case '2':
+                    case '3':
+                    case '4':
+                    case '5':
+                    case '6':
+                    case '7':
+                    case '8':
+                    case '9':
+                        copier.copyNumber(jsonSrc);
+                        break;
+                    case '"':
+                        copier.copyString(jsonSrc);
+                        break;
+                    case '[':
+                    case '{':
+                        jsonSrc.read();
+                        out.append((char)currRune);
+                        push(depth, currRune == '{');
+                        depth++;
+                        afterComma = false;
+                        currState = LBL_START_MEMBER;
+                        break dispatch;
+                    case -1:
+                        throw new IllegalArgumentException("Reached EOF while expecting a value.");
+                    default:
+                        throw new IllegalArgumentException("Encountered unexpected character '"
+                                                           + (char)currRune + "' in input.");
+                    }
+                    currState = LBL_AFTER_VALUE;
+                    break dispatch;
+                }
+
+            case LBL_AFTER_VALUE:
+                {
+                    if (depth == 0) return;
+                    int level = depth - 1;
+                    copyWhitespace(jsonSrc, out);
+                    int currRune = SubJson.peek(jsonSrc);
+                    if (currRune == ',') {
+                        jsonSrc.read();
+                        afterComma = true;
+                        currState = LBL_START_MEMBER;
+                    } else if (currRune == -1) {
+                        throw new IllegalArgumentException(isObject[level]
+                                                           ? "Reached EOF while parsing an object."
+                                                           : "Reached EOF while parsing an array.");
+                    } else {
+                        char close = isObject[level] ? '}' : ']';
+                        SubJson.readChar(jsonSrc, close);
+                        out.append(close);
+                        depth--;
+                    }
+                    break dispatch;
+                }
+
+            case LBL_START_MEMBER:
+                {
+                    int level = depth - 1; // The level of the container.
+                    pending.setLength(0);
+                    copyWhitespace(jsonSrc, pending);
+                    int currRune = SubJson.peek(jsonSrc);
+                    char close = isObject[level] ? '}' : ']';
+                    if (currRune == close) {
+                        if (afterComma) {
+                            throw new IllegalArgumentException(isObject[level]
+                                                               ? "Encountered a comma before the end of an object."
+                                                               : "Encountered a comma before the end of an array.");
+                        }
+                        jsonSrc.read();
+                        out.append(pending);
+                        out.append(close);
+                        depth--;
+                        currState = LBL_AFTER_VALUE;
+                        break dispatch;
+                    }
+
+                    if (isObject[level]) {
+                        if (currRune == -1) {
+                            throw new IllegalArgumentException("Reached EOF while parsing an object.");
+                        } else if (currRune != '"') {
+                            throw new IllegalArgumentException("Encountered unexpected character '"
+                                                               + (char)currRune
+                                                               + "' where an object key was expected.");
+                        }
+                        keyChars.setLength(0);
+                        readString(jsonSrc, pending, keyChars);
+                        copyWhitespace(jsonSrc, pending);
+                        SubJson.readChar(jsonSrc, ':');
+                        pending.append(':');
+                        copyWhitespace(jsonSrc, pending);
+                        matcher.enter(level, keyChars, -1);
+                    } else {
+                        matcher.enter(level, null, indexes[level]++);
+                    }
+
+                    int rule = matcher.matched(depth);
+                    int action = (rule < 0) ? -1 : redactor.actions[rule];
+                    if (action == JsonRedactor.DROP) {
+                        skipValue(jsonSrc);
+                        currState = LBL_AFTER_VALUE;
+                        break dispatch;
+                    }
+
+                    if (written[level]) out.append(',');
+                    written[level] = true;
+                    out.append(pending);
+                    if (action == JsonRedactor.REPLACE) {
+                        skipValue(jsonSrc);
+                        out.append(redactor.replacements[rule]);
+                        currState = LBL_AFTER_VALUE;
+                    } else if (action == JsonRedactor.HASH) {
+                        hashValue(jsonSrc, rule);
+                        currState = LBL_AFTER_VALUE;
+                    } else {
+                        currState = LBL_COPY_VALUE;
+                    }
+                    break dispatch;
+                }
+            }
+        }
+    }
+
+    private void push(int level, boolean obj)
+    {
+        if (level == isObject.length) {
+            isObject = Arrays.copyOf(isObject, level * 2);
+            written = Arrays.copyOf(written, level * 2);
+            indexes = Arrays.copyOf(indexes, level * 2);
+        }
+        isObject[level] = obj;
+        written[level] = false;
+        indexes[level] = 0;
+    }
+
+    private static void copyWhitespace(Reader jsonSrc, Appendable to)
+        throws IOException
+    {
+        while (TextUtils.isWhitespace(SubJson.peek(jsonSrc))) {
+            to.append((char)jsonSrc.read());
+        }
+    }
+
+    /*
+      Skips over the value jsonSrc is pointing at. A scalar is checked as
+      usual, but an array or object is only scanned for its matching close
+      bracket, checking its strings and that its brackets pair up.
+     */
+    private void skipValue(Reader jsonSrc) throws IOException
+    {
+        int first = SubJson.peek(jsonSrc);
+        if (first == '[' || first == '{') {
+            skipContainer(jsonSrc);
+            return;
+        }
+        if (skipResult == null) skipResult = new ValidationResult();
+        if (!Validator.validate(jsonSrc, skipResult, false)) {
+            throw new IllegalArgumentException(skipResult.getErrorMessage());
+        }
+    }
+
+    private void skipContainer(Reader jsonSrc) throws IOException
+    {
+        int depth = 0;
+        while (true) {
+            if (jsonSrc instanceof BufferedCharReader) {
+                skipToStructural((BufferedCharReader)jsonSrc);
+            }
+            int currRune = jsonSrc.read();
+            switch (currRune) {
+            case '"':
+                Validator.skipStringBody(jsonSrc);
+                break;
+            case '[':
+            case '{':
+                if (depth == skipClosers.length) {
+                    skipClosers = Arrays.copyOf(skipClosers, depth * 2);
+                }
+                skipClosers[depth++] = currRune == '[' ? ']' : '}';
+                break;
+            case ']':
+            case '}':
+                if (currRune != skipClosers[--depth]) {
+                    throw new IllegalArgumentException("Encountered unexpected character '"
+                                                       + (char)currRune + "' in input.");
+                }
+                if (depth == 0) return;
+                break;
+            case -1:
+                throw new IllegalArgumentException(skipClosers[depth - 1] == '}'
+                                                   ? "Reached EOF while parsing an object."
+                                                   : "Reached EOF while parsing an array.");
+            default:
+                break;
+            }
+        }
+    }
+
+    /*
+      Moves a BufferedCharReader up to the next quote or bracket, scanning
+      its buffer directly, or to the end of input.
+     */
+    private static void skipToStructural(BufferedCharReader jsonSrc)
+        throws IOException
+    {
+        while (jsonSrc.pos < jsonSrc.limit || jsonSrc.fill() != -1) {
+            final char[] buf = jsonSrc.buf;
+            final int limit = jsonSrc.limit;
+            int i = jsonSrc.pos;
+            while (i < limit) {
+                char c = buf[i];
+                if (c == '"' || c == '[' || c == ']' || c == '{' || c == '}') break;
+                i++;
+            }
+            jsonSrc.pos = i;
+            if (i < limit) return;
+        }
+    }
+
+    /*
+      Reads the string literal jsonSrc is pointing at, appending it as it
+      appears to raw, if raw is not null, and with its escape sequences
+      decoded to decoded.
+     */
+    static void readString(Reader jsonSrc, StringBuilder raw,
+                           StringBuilder decoded)
+        throws IOException
+    {
+        SubJson.readChar(jsonSrc, '"');
+        if (raw != null) raw.append('"');
+        while (true) {
+            int currRune = jsonSrc.read();
+            if (currRune == '"') {
+                if (raw != null) raw.append('"');
+                return;
+            } else if (currRune == -1) {
+                throw new IllegalArgumentException("Encountered end of input while reading a string.");
+            } else if (TextUtils.isControlCharacter(currRune)) {
+                throw new IllegalArgumentException("Encountered a control character while parsing a string.");
+            } else if (currRune == '\\') {
+                int escaped = jsonSrc.read();
+                if (raw != null) {
+                    raw.append('\\');
+                    if (escaped != -1) raw.append((char)escaped);
+                }
+                switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    decoded.append((char)escaped);
+                    break;
+                case 'b': decoded.append('\b'); break;
+                case 'f': decoded.append('\f'); break;
+                case 'n': decoded.append('\n'); break;
+                case 'r': decoded.append('\r'); break;
+                case 't': decoded.append('\t'); break;
+                case 'u':
+                    {
+                        int c = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int hex = jsonSrc.read();
+                            if (!TextUtils.isHexDigit(hex)) {
+                                throw new IllegalArgumentException("Encountered invalid input while reading a Unicode escape sequence.");
+                            }
+                            if (raw != null) raw.append((char)hex);
+                            c = (c << 4) | Character.digit(hex, 16);
+                        }
+                        decoded.append((char)c);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Encountered invalid input while reading an escape sequence.");
+                }
+            } else {
+                if (raw != null) raw.append((char)currRune);
+                decoded.append((char)currRune);
+            }
+        }
+    }
+
+    // Writes the hash of the value jsonSrc is pointing at, as a string.
+    private void hashValue(Reader jsonSrc, int rule) throws IOException
+    {
+        scratch.setLength(0);
+        if (SubJson.peek(jsonSrc) == '"') {
+            readString(jsonSrc, null, scratch);
+        } else {
+            Reformatter.reformat(jsonSrc, scratch, false);
+        }
+        byte[] bytes = scratch.toString().getBytes(StandardCharsets.UTF_8);
+
+        byte[] hash;
+        try {
+            byte[] key = redactor.hashKeys[rule];
+            if (key == null) {
+                if (sha256 == null) sha256 = MessageDigest.getInstance("SHA-256");
+                hash = sha256.digest(bytes);
+            } else {
+                if (macs == null) macs = new Mac[redactor.paths.length];
+                if (macs[rule] == null) {
+                    macs[rule] = Mac.getInstance("HmacSHA256");
+                    macs[rule].init(new SecretKeySpec(key, "HmacSHA256"));
+                }
+                hash = macs[rule].doFinal(bytes);
+            }
+        } catch (GeneralSecurityException gse) {
+            // Every Java platform is required to have both.
+            throw new IllegalStateException(gse);
+        }
+
+        out.append('"');
+        for (byte b : hash) {
+            out.append(HEX_DIGITS[(b >> 4) & 0xF]);
+            out.append(HEX_DIGITS[b & 0xF]);
+        }
+        out.append('"');
+    }
+}
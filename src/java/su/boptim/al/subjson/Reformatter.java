@@ -0,0 +1,458 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/*
+  Copies a json value from a Reader to an Appendable, laid out either
+  pretty-printed or compact exactly as write() lays out values, for
+  SubJson.reformat(). It runs the same state machine as Validator (see
+  read() for how that works), but writes each token as it goes, so
+  nothing is built from the json. Strings and numbers are copied as they
+  appear in the input, escapes and all, rather than read and printed
+  again, so reformatting never changes them. All it needs to remember is
+  whether each level of nesting is an array or an object, which is one
+  bit per level.
+
+  As with Validator, and as the json grammar requires, a comma before the
+  closing bracket or brace of an array or object is an error.
+ */
+final class Reformatter
+{
+    private static final int LBL_READ_VALUE = 0;
+    private static final int LBL_READ_ARRAY = 1;
+    private static final int LBL_PA_STARTVALUE = 2;
+    private static final int LBL_PA_HAVEREADVALUE = 3;
+    private static final int LBL_READ_OBJECT = 4;
+    private static final int LBL_PO_STARTKV = 5;
+    private static final int LBL_PO_HAVEREADKV = 6;
+    private static final int LBL_ROUTE_VALUE = 7;
+
+    // Indentation is appended in slices of this, 4 spaces per level as in
+    // write().
+    private static final String SPACES = "                                                                ";
+    private static final int TAB_WIDTH = 4;
+
+    private final Appendable out;
+    private final boolean pretty;
+
+    // When out is one of these, runs of chars from a buffered Reader are
+    // written to it straight from the Reader's buffer.
+    private final Writer outWriter;
+    private final StringBuilder outBuilder;
+    private CharBuffer wrappedBuf; // For other Appendables.
+
+    Reformatter(Appendable out, boolean pretty)
+    {
+        this.out = out;
+        this.pretty = pretty;
+        this.outWriter = (out instanceof Writer) ? (Writer)out : null;
+        this.outBuilder = (out instanceof StringBuilder) ? (StringBuilder)out : null;
+    }
+
+    /*
+      Copies the json value jsonSrc is pointing at to out, leaving jsonSrc
+      just after the value, as read() does. If the input is invalid, an
+      IllegalArgumentException is thrown, and whatever was written before
+      the problem was found is left in out.
+     */
+    static void reformat(Reader jsonSrc, Appendable out, boolean pretty)
+        throws IOException
+    {
+        new Reformatter(out, pretty).reformatValue(jsonSrc);
+    }
+
+    private void reformatValue(Reader jsonSrc) throws IOException
+    {
+        long[] containerBits = new long[1];
+        int depth = 0;
+        int currState = LBL_READ_VALUE;
+        int currRune = 0;
+
+        while (true) {
+            dispatch:
+            switch (currState) {
+            case LBL_READ_VALUE:
+                currRune = SubJson.peek(jsonSrc);
+
+                switch (currRune) {
+                case 0x20: // space
+                case 0x09: // tab
+                case 0x0A: // linefeed
+                case 0x0D: // carriage return
+                    SubJson.skipWhitespace(jsonSrc);
+                    break dispatch;
+                case 'n':
+                    SubJson.readNull(jsonSrc);
+                    out.append("null");
+                    break;
+                case 't':
+                case 'f':
+                    out.append(SubJson.readBoolean(jsonSrc) ? "true" : "false");
+                    break;
+                case '-':
+                case '0':
+                case '1':
+                case '2':
+                case '3':
+                case '4':
+                case '5':
+                case '6':
+                case '7':
+                case '8':
+                case '9':
+                    copyNumber(jsonSrc);
+                    break;
+                case '"':
+                    copyString(jsonSrc);
+                    break;
+                case '[':
+                    currState = LBL_READ_ARRAY;
+                    break dispatch;
+                case '{':
+                    currState = LBL_READ_OBJECT;
+                    break dispatch;
+                case -1:
+                    throw new IllegalArgumentException("Reached EOF while expecting a value.");
+                default:
+                    throw new IllegalArgumentException("Encountered unexpected character '"
+                                                       + (char)currRune + "' in input.");
+                }
+
+                // Fall through to route the value.
+            case LBL_ROUTE_VALUE:
+                if (depth == 0) {
+                    return;
+                } else if (isObject(containerBits, depth - 1)) {
+                    currState = LBL_PO_HAVEREADKV;
+                } else {
+                    currState = LBL_PA_HAVEREADVALUE;
+                }
+                break dispatch;
+
+            case LBL_READ_ARRAY:
+                SubJson.readChar(jsonSrc, '[');
+                SubJson.skipWhitespace(jsonSrc);
+                if (SubJson.peek(jsonSrc) == ']') {
+                    // Empty arrays are printed without whitespace.
+                    SubJson.readChar(jsonSrc, ']');
+                    out.append("[]");
+                    currState = LBL_ROUTE_VALUE;
+                    break dispatch;
+                }
+                containerBits = push(containerBits, depth, false);
+                depth++;
+                out.append('[');
+                newline(depth);
+                currState = LBL_READ_VALUE;
+                break dispatch;
+            case LBL_PA_STARTVALUE:
+                SubJson.skipWhitespace(jsonSrc);
+                if (SubJson.peek(jsonSrc) == ']') {
+                    throw new IllegalArgumentException("Encountered a comma before the end of an array.");
+                }
+                out.append(',');
+                newline(depth);
+                currState = LBL_READ_VALUE;
+                break dispatch;
+            case LBL_PA_HAVEREADVALUE:
+                SubJson.skipWhitespace(jsonSrc);
+                currRune = SubJson.peek(jsonSrc);
+                if (currRune == ',') {
+                    SubJson.readChar(jsonSrc, ',');
+                    currState = LBL_PA_STARTVALUE;
+                } else if (currRune == -1) {
+                    throw new IllegalArgumentException("Reached EOF while parsing an array.");
+                } else {
+                    SubJson.readChar(jsonSrc, ']');
+                    depth--;
+                    newline(depth);
+                    out.append(']');
+                    currState = LBL_ROUTE_VALUE;
+                }
+                break dispatch;
+
+            case LBL_READ_OBJECT:
+                SubJson.readChar(jsonSrc, '{');
+                SubJson.skipWhitespace(jsonSrc);
+                if (SubJson.peek(jsonSrc) == '}') {
+                    // Empty objects are printed without whitespace.
+                    SubJson.readChar(jsonSrc, '}');
+                    out.append("{}");
+                    currState = LBL_ROUTE_VALUE;
+                    break dispatch;
+                }
+                containerBits = push(containerBits, depth, true);
+                depth++;
+                out.append('{');
+                newline(depth);
+                copyKey(jsonSrc);
+                currState = LBL_READ_VALUE;
+                break dispatch;
+            case LBL_PO_STARTKV:
+                SubJson.skipWhitespace(jsonSrc);
+                if (SubJson.peek(jsonSrc) == '}') {
+                    throw new IllegalArgumentException("Encountered a comma before the end of an object.");
+                }
+                out.append(',');
+                newline(depth);
+                copyKey(jsonSrc);
+                currState = LBL_READ_VALUE;
+                break dispatch;
+            case LBL_PO_HAVEREADKV:
+                SubJson.skipWhitespace(jsonSrc);
+                currRune = SubJson.peek(jsonSrc);
+                if (currRune == ',') {
+                    SubJson.readChar(jsonSrc, ',');
+                    currState = LBL_PO_STARTKV;
+                } else if (currRune == -1) {
+                    throw new IllegalArgumentException("Reached EOF while parsing an object.");
+                } else {
+                    SubJson.readChar(jsonSrc, '}');
+                    depth--;
+                    newline(depth);
+                    out.append('}');
+                    currState = LBL_ROUTE_VALUE;
+                }
+                break dispatch;
+            }
+        }
+    }
+
+    // Copies an object key and the colon after it.
+    private void copyKey(Reader jsonSrc) throws IOException
+    {
+        int currRune = SubJson.peek(jsonSrc);
+        if (currRune == -1) {
+            throw new IllegalArgumentException("Reached EOF while parsing an object.");
+        } else if (currRune != '"') {
+            throw new IllegalArgumentException("Encountered unexpected character '"
+                                               + (char)currRune
+                                               + "' where an object key was expected.");
+        }
+        copyString(jsonSrc);
+        SubJson.skipWhitespace(jsonSrc);
+        SubJson.readChar(jsonSrc, ':');
+        out.append(pretty ? ": " : ":");
+    }
+
+    // When pretty-printing, starts a new line indented depth levels.
+    private void newline(int depth) throws IOException
+    {
+        if (!pretty) return;
+        out.append('\n');
+        int spaces = depth * TAB_WIDTH;
+        while (spaces > 0) {
+            int n = Math.min(spaces, SPACES.length());
+            out.append(SPACES, 0, n);
+            spaces -= n;
+        }
+    }
+
+    private static boolean isObject(long[] containerBits, int level)
+    {
+        return (containerBits[level >>> 6] & (1L << level)) != 0;
+    }
+
+    // Records whether the container at the given level is an object,
+    // growing the stack if needed, and returns the stack.
+    private static long[] push(long[] containerBits, int level, boolean isObject)
+    {
+        int word = level >>> 6;
+        if (word == containerBits.length) {
+            containerBits = Arrays.copyOf(containerBits, containerBits.length * 2);
+        }
+        if (isObject) {
+            containerBits[word] |= (1L << level);
+        } else {
+            containerBits[word] &= ~(1L << level);
+        }
+        return containerBits;
+    }
+
+    /*
+      Copies the json number literal jsonSrc is pointing at, checking it
+      against the same grammar as Validator.skipNumber().
+     */
+    void copyNumber(Reader jsonSrc) throws IOException
+    {
+        int currRune = SubJson.peek(jsonSrc);
+
+        if (currRune == '-') {
+            currRune = copyAndPeek(jsonSrc, currRune);
+            if (!TextUtils.isDigit(currRune)) { // Also handles EOF.
+                throw new NumberFormatException("While attempting to read a negative number, the negative sign was not followed by a digit.");
+            }
+        }
+
+        boolean sawLeadingZero = currRune == '0';
+        currRune = copyAndPeek(jsonSrc, currRune);
+        if (sawLeadingZero && TextUtils.isDigit(currRune)) {
+            throw new NumberFormatException("While attempting to read a number, there was a leading zero not immediately followed by a decimal point or exponentiation.");
+        }
+        while (TextUtils.isDigit(currRune)) {
+            currRune = copyAndPeek(jsonSrc, currRune);
+        }
+
+        if (currRune == '.') {
+            currRune = copyAndPeek(jsonSrc, currRune);
+            if (!TextUtils.isDigit(currRune)) {
+                throw new NumberFormatException("While attempting to read a number, there was a decimal point not immediately followed by a digit.");
+            }
+            while (TextUtils.isDigit(currRune)) {
+                currRune = copyAndPeek(jsonSrc, currRune);
+            }
+        }
+
+        if (currRune == 'e' || currRune == 'E') {
+            currRune = copyAndPeek(jsonSrc, currRune);
+            if (currRune == '+' || currRune == '-') {
+                currRune = copyAndPeek(jsonSrc, currRune);
+            }
+            if (!TextUtils.isDigit(currRune)) {
+                throw new NumberFormatException("While attempting to read a number, there was an exponent not followed by a digit.");
+            }
+            while (TextUtils.isDigit(currRune)) {
+                currRune = copyAndPeek(jsonSrc, currRune);
+            }
+        }
+    }
+
+    // Copies currRune, which jsonSrc is pointing at, and peeks at the next.
+    private int copyAndPeek(Reader jsonSrc, int currRune) throws IOException
+    {
+        out.append((char)currRune);
+        jsonSrc.skip(1);
+        return SubJson.peek(jsonSrc);
+    }
+
+    /*
+      Copies the json string literal jsonSrc is pointing at, quotes and
+      escape sequences included, checking it as Validator.skipString()
+      does.
+     */
+    void copyString(Reader jsonSrc) throws IOException
+    {
+        if (jsonSrc.read() != '"') {
+            throw new IllegalArgumentException("Attempted to parse a string literal from input that was not pointing at one.");
+        }
+        out.append('"');
+
+        if (jsonSrc instanceof BufferedCharReader) {
+            copyBufferedString((BufferedCharReader)jsonSrc);
+            return;
+        }
+
+        while (true) {
+            int currRune = jsonSrc.read();
+            if (currRune <= '"') {
+                if (currRune == '"') {
+                    out.append('"');
+                    return;
+                } else if (TextUtils.isControlCharacter(currRune)) {
+                    throw new IllegalArgumentException("Encountered a control character while parsing a string.");
+                } else if (currRune == -1) {
+                    throw new IllegalArgumentException("Encountered end of input while reading a string.");
+                }
+                out.append((char)currRune);
+            } else if (currRune == '\\') {
+                copyEscape(jsonSrc);
+            } else {
+                out.append((char)currRune);
+            }
+        }
+    }
+
+    /*
+      copyString() for our buffered Readers, copying each run of plain
+      chars straight out of the buffer. The opening quote has already been
+      read and copied.
+     */
+    private void copyBufferedString(BufferedCharReader jsonSrc) throws IOException
+    {
+        while (true) {
+            if (jsonSrc.pos >= jsonSrc.limit && jsonSrc.fill() == -1) {
+                throw new IllegalArgumentException("Encountered end of input while reading a string.");
+            }
+
+            final char[] buf = jsonSrc.buf;
+            final int limit = jsonSrc.limit;
+            final int start = jsonSrc.pos;
+            int i = start;
+            while (i < limit) {
+                char c = buf[i];
+                if (c <= '"' && (c == '"' || c < 0x20)) break;
+                if (c == '\\') break;
+                i++;
+            }
+            appendChars(buf, start, i);
+            jsonSrc.pos = i;
+            if (i == limit) continue;
+
+            char c = buf[i];
+            jsonSrc.pos++;
+            if (c == '"') {
+                out.append('"');
+                return;
+            } else if (c == '\\') {
+                copyEscape(jsonSrc);
+            } else {
+                throw new IllegalArgumentException("Encountered a control character while parsing a string.");
+            }
+        }
+    }
+
+    /*
+      Copies the escape sequence whose '\\' has just been read, checking
+      it as Validator.skipEscape() does.
+     */
+    private void copyEscape(Reader jsonSrc) throws IOException
+    {
+        out.append('\\');
+        int currRune = jsonSrc.read();
+        switch (currRune) {
+        case '"':
+        case '\\':
+        case '/':
+        case 'b':
+        case 'f':
+        case 'n':
+        case 'r':
+        case 't':
+            out.append((char)currRune);
+            return;
+        case 'u':
+            out.append('u');
+            for (int i = 0; i < 4; i++) {
+                int hex = jsonSrc.read();
+                if (!TextUtils.isHexDigit(hex)) {
+                    throw new IllegalArgumentException("Encountered invalid input while reading a Unicode escape sequence.");
+                }
+                out.append((char)hex);
+            }
+            return;
+        default:
+            throw new IllegalArgumentException("Encountered invalid input while reading an escape sequence.");
+        }
+    }
+
+    // Appends buf[start, end) to out without copying it first, when out
+    // allows that.
+    private void appendChars(char[] buf, int start, int end) throws IOException
+    {
+        if (start == end) return;
+        if (outBuilder != null) {
+            outBuilder.append(buf, start, end - start);
+        } else if (outWriter != null) {
+            outWriter.write(buf, start, end - start);
+        } else {
+            if (wrappedBuf == null || wrappedBuf.array() != buf) {
+                wrappedBuf = CharBuffer.wrap(buf);
+            }
+            out.append(wrappedBuf, start, end);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package su.boptim.al.subjson;
+
+/**
+   Receives the characters of a single json string value in chunks as the
+   parser reads them, instead of having them collected into a
+   {@link String}, so that very large strings can be processed or decoded
+   as they go without ever being held in memory whole. A handler is asked
+   for by a {@link ChunkedStringPolicy} for each string value it wants to
+   handle, and is used for that one value only.
+   <p>
+   Escape sequences have already been decoded in the characters the
+   handler is given. The chunks are of no particular size, and may
+   split a surrogate pair.
+*/
+public interface StringChunkHandler
+{
+    /**
+       Called with each run of characters in the string value, in order.
+       The array belongs to the parser, and is only valid until this method
+       returns; it may be a buffer of the Reader being read, so it must not
+       be modified or kept.
+
+       @param cbuf an array holding the characters
+       @param off the index of the first character in cbuf
+       @param len the number of characters
+     */
+    public void append(char[] cbuf, int off, int len) throws Exception;
+
+    /**
+       Called after the last character of the string value has been given
+       to {@link #append(char[], int, int)}, to get the object that will
+       represent the string value in the result.
+
+       @return the object that represents the string value
+     */
+    public Object finish() throws Exception;
+}
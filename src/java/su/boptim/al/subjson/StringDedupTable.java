@@ -0,0 +1,221 @@
+package su.boptim.al.subjson;
+
+/**
+   A bounded table of string values, looked up by their characters, so
+   that parsing the same string value again and again can return the
+   same {@link String} each time instead of a new copy of it. This is
+   worthwhile for json that is kept in memory after it is read and is
+   full of repeated values, such as codes and statuses: each distinct
+   value is then only held once. Use it by reading with a
+   {@link DedupingFromJsonPolicy}, which looks up each string value in the
+   table before making a String of it, so a value that is found costs
+   no allocation at all.
+   <p>
+   The table holds at most a fixed number of strings, and never holds
+   strings longer than the maximum length given to the constructor, so
+   long and mostly unique values such as descriptions don't take up room
+   meant for short repeated ones. It is split into small sets of slots
+   chosen by hash, and when a new string needs a slot in a full set, one
+   is chosen with the clock algorithm: each string is marked when it is
+   found, and the clock hand passes over (and unmarks) marked strings,
+   replacing the first unmarked one. A string that is seen once and
+   never again is thus replaced before one that keeps being found, which
+   keeps fields with many distinct values from pushing out the common
+   ones.
+   <p>
+   A StringDedupTable may be shared between threads. Threads racing to
+   update the same set can at worst overwrite each other's strings,
+   which only costs a later miss.
+*/
+public final class StringDedupTable
+{
+    // Slots per set. The clock sweeps within a set, and a lookup compares
+    // against every string in the set, so this is kept small.
+    private static final int WAYS = 8;
+
+    private static final class Entry
+    {
+        final int hash;
+        final String string;
+
+        Entry(int hash, String string)
+        {
+            this.hash = hash;
+            this.string = string;
+        }
+    }
+
+    private final Entry[] entries;
+    // Set when an entry is found, cleared as the clock hand passes it.
+    private final boolean[] referenced;
+    // The clock hand of each set, as an offset within the set.
+    private final byte[] hands;
+    private final int setMask;
+    private final int maxLength;
+
+    /**
+       Creates an empty StringDedupTable that holds at least the given
+       number of strings (rounded up to a power of two, and to at least
+       8), and will not hold strings longer than maxLength characters.
+
+       @param maxEntries the number of strings the table can hold
+       @param maxLength the length of the longest string that will be held
+     */
+    public StringDedupTable(int maxEntries, int maxLength)
+    {
+        if (maxEntries < 1 || maxEntries > (1 << 30)) {
+            throw new IllegalArgumentException("A StringDedupTable must hold between 1 and 2^30 strings.");
+        }
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("The maximum length of strings in a StringDedupTable can't be negative.");
+        }
+        int size = Integer.highestOneBit(Math.max(maxEntries, WAYS));
+        if (size < maxEntries) size <<= 1;
+
+        entries = new Entry[size];
+        referenced = new boolean[size];
+        hands = new byte[size / WAYS];
+        setMask = size / WAYS - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+       Returns the String in the table with the given characters, adding
+       one if there isn't one. If chars is itself a String, it is what
+       gets added, rather than a copy.
+
+       @param chars the characters of the string
+       @return a String with the given characters
+     */
+    public String get(CharSequence chars)
+    {
+        final int length = chars.length();
+        if (length > maxLength) {
+            return chars.toString();
+        }
+
+        // Same as String.hashCode(), so it is also the hash of each
+        // e.string, and a String's cached hash code can be used.
+        int hash;
+        if (chars instanceof String) {
+            hash = chars.hashCode();
+        } else {
+            hash = 0;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + chars.charAt(i);
+            }
+        }
+
+        final int set = setOf(hash);
+        for (int i = set; i < set + WAYS; i++) {
+            Entry e = entries[i];
+            if (e != null && e.hash == hash && e.string.contentEquals(chars)) {
+                referenced[i] = true;
+                return e.string;
+            }
+        }
+
+        return add(set, hash, chars.toString());
+    }
+
+    /**
+       Returns the String in the table with the len characters of cbuf
+       starting at off, adding one if there isn't one. The characters are
+       only copied into a new String if they aren't found.
+
+       @param cbuf an array holding the characters of the string
+       @param off the index of the first character of the string
+       @param len the number of characters in the string
+       @return a String with the given characters
+     */
+    public String get(char[] cbuf, int off, int len)
+    {
+        if (len > maxLength) {
+            return new String(cbuf, off, len);
+        }
+
+        int hash = 0;
+        for (int i = off; i < off + len; i++) {
+            hash = 31 * hash + cbuf[i];
+        }
+
+        final int set = setOf(hash);
+        for (int i = set; i < set + WAYS; i++) {
+            Entry e = entries[i];
+            if (e != null && e.hash == hash && equals(e.string, cbuf, off, len)) {
+                referenced[i] = true;
+                return e.string;
+            }
+        }
+
+        return add(set, hash, new String(cbuf, off, len));
+    }
+
+    /**
+       Empties the table.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = null;
+            referenced[i] = false;
+        }
+    }
+
+    /**
+       @return the number of strings the table can hold
+     */
+    public int capacity()
+    {
+        return entries.length;
+    }
+
+    /**
+       @return the length of the longest string the table will hold
+     */
+    public int getMaxLength()
+    {
+        return maxLength;
+    }
+
+    // Returns the index of the first slot of the set for hash, spreading
+    // the high bits down, since only the low bits pick a set.
+    private int setOf(int hash)
+    {
+        return ((hash ^ (hash >>> 16)) & setMask) * WAYS;
+    }
+
+    private static boolean equals(String s, char[] cbuf, int off, int len)
+    {
+        if (s.length() != len) return false;
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) != cbuf[off + i]) return false;
+        }
+        return true;
+    }
+
+    /*
+      Puts s into a slot of the set starting at index set, sweeping the
+      clock hand round to an unreferenced slot (or an empty one) to make
+      room, and returns s.
+     */
+    private String add(int set, int hash, String s)
+    {
+        final int setNumber = set / WAYS;
+        int hand = hands[setNumber];
+        // After one pass, every slot has been unmarked, so the second pass
+        // is sure to stop.
+        for (int tries = 0; tries < 2 * WAYS; tries++) {
+            int i = set + hand;
+            hand = (hand + 1) & (WAYS - 1);
+            if (entries[i] == null || !referenced[i]) {
+                entries[i] = new Entry(hash, s);
+                referenced[i] = false;
+                break;
+            }
+            referenced[i] = false;
+        }
+        hands[setNumber] = (byte)hand;
+        return s;
+    }
+}
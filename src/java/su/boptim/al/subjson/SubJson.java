@@ -1,10 +1,19 @@
 package su.boptim.al.subjson;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.io.Reader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 
 
 /**
@@ -41,15 +50,40 @@ public class SubJson
     private static final int LBL_PRINT_OBJECT_FINISH = 7;
     
     private static final FromJsonPolicy defaultFromJP = new DefaultFromJsonPolicy();
+    private static final FunctionalFromJsonPolicy defaultFunctionalFromJP
+        = new MutableFromJsonPolicyAdapter(defaultFromJP);
     private static final ToJsonPolicy defaultToJP = new DefaultToJsonPolicy();
 
+    // Size of the buffer readString() copies characters through.
+    private static final int STRING_BUFFER_SIZE = 32;
+
+    // How many arrays/objects deep read() can nest before growing its stacks.
+    private static final int INITIAL_STACK_SIZE = 16;
+
+    // Size of the chunks string values are handed to a StringChunkHandler
+    // in, when the Reader has no buffer of its own to hand over.
+    private static final int STRING_CHUNK_SIZE = 4096;
+
+    // The tape an off-heap document starts with, when its length is unknown.
+    private static final int OFF_HEAP_INITIAL_TAPE_SIZE = 64 * 1024;
+
+    // Number of elements (or key/value pairs) of a top-level array (or object)
+    // that writeParallel() hands to a single task.
+    private static final int DEFAULT_CHUNK_SIZE = 1024;
+
     /*
       Takes a Reader and returns what read() will return,
       but without actually moving the stream forward. The Reader
       must return true when markSupported() is called.
      */
-    private static int peek(Reader r) throws IOException
+    static int peek(Reader r) throws IOException
     {
+        if (r instanceof BufferedCharReader) {
+            return ((BufferedCharReader)r).peek();
+        } else if (r instanceof LimitedReader) {
+            return ((LimitedReader)r).peek();
+        }
+
         r.mark(1);
         int retVal = r.read();
         r.reset();
@@ -96,6 +130,214 @@ public class SubJson
         return read(new UnsynchronizedStringReader(jsonSrc), fjp);
     }
 
+    /**
+       Reads a json value from the jsonSrc argument, a {@link String},
+       and builds a corresponding java object according to the fjp
+       argument, a {@link FunctionalFromJsonPolicy}. The parser will only
+       read as much input as it needs to read a single json value, so the
+       jsonSrc argument can contain any data after a valid json value.
+
+       @param jsonSrc a {@link String} to read a json value from
+       @param fjp a {@link FunctionalFromJsonPolicy} to use when mapping
+       the json values to in-memory java objects
+       @return the in-memory java object it was directed to construct
+       by the {@link FunctionalFromJsonPolicy}
+       @see #read(Reader, FunctionalFromJsonPolicy)
+     */
+    public static Object read(String jsonSrc, FunctionalFromJsonPolicy fjp)
+        throws Exception, IOException
+    {
+        return read(new UnsynchronizedStringReader(jsonSrc), fjp);
+    }
+
+    /**
+       Reads a json value from the jsonSrc argument, any
+       {@link CharSequence}, such as a StringBuilder or a CharBuffer,
+       without first copying it into a String. Otherwise this is the same
+       as {@link #read(String)}. To find out where the json value ended,
+       read from an {@link UnsynchronizedCharSequenceReader} and ask it
+       for its position() afterwards.
+
+       @param jsonSrc a {@link CharSequence} to read a json value from
+       @return the in-memory java object parsed
+       @see #read(Reader, FunctionalFromJsonPolicy)
+     */
+    public static Object read(CharSequence jsonSrc)
+        throws Exception, IOException
+    {
+        return read(charSequenceReader(jsonSrc), defaultFunctionalFromJP);
+    }
+
+    /**
+       Reads a json value from the jsonSrc argument, any
+       {@link CharSequence}, without first copying it into a String, and
+       builds a corresponding java object according to the fjp argument,
+       a {@link FunctionalFromJsonPolicy}.
+
+       @param jsonSrc a {@link CharSequence} to read a json value from
+       @param fjp a {@link FunctionalFromJsonPolicy} to use when mapping
+       the json values to in-memory java objects
+       @return the in-memory java object it was directed to construct
+       by the {@link FunctionalFromJsonPolicy}
+       @see #read(Reader, FunctionalFromJsonPolicy)
+     */
+    public static Object read(CharSequence jsonSrc, FunctionalFromJsonPolicy fjp)
+        throws Exception, IOException
+    {
+        return read(charSequenceReader(jsonSrc), fjp);
+    }
+
+    /**
+       Reads a json value from the jsonSrc argument, any
+       {@link CharSequence}, as {@link #read(CharSequence)} does, but
+       within the given limits.
+
+       @param jsonSrc a {@link CharSequence} to read a json value from
+       @param limits the {@link ParseLimits} the input must stay within
+       @return the in-memory java object parsed
+       @see #read(Reader, FunctionalFromJsonPolicy, ParseLimits)
+     */
+    public static Object read(CharSequence jsonSrc, ParseLimits limits)
+        throws Exception, IOException
+    {
+        return read(charSequenceReader(jsonSrc), defaultFunctionalFromJP, limits);
+    }
+
+    /**
+       Reads a json value from the jsonSrc argument, any
+       {@link CharSequence}, as
+       {@link #read(CharSequence, FunctionalFromJsonPolicy)} does, but
+       within the given limits.
+
+       @param jsonSrc a {@link CharSequence} to read a json value from
+       @param fjp a {@link FunctionalFromJsonPolicy} to use when mapping
+       the json values to in-memory java objects
+       @param limits the {@link ParseLimits} the input must stay within
+       @return the in-memory java object it was directed to construct
+       by the {@link FunctionalFromJsonPolicy}
+       @see #read(Reader, FunctionalFromJsonPolicy, ParseLimits)
+     */
+    public static Object read(CharSequence jsonSrc, FunctionalFromJsonPolicy fjp,
+                              ParseLimits limits)
+        throws Exception, IOException
+    {
+        return read(charSequenceReader(jsonSrc), fjp, limits);
+    }
+
+    /**
+       Reads a json value from the len characters of the cbuf argument
+       starting at index off, without copying them. To find out where the
+       json value ended, read from an {@link UnsynchronizedCharArrayReader}
+       and ask it for its position() afterwards.
+
+       @param cbuf the array holding the json to read
+       @param off the index of the first character to read
+       @param len the number of characters that may be read
+       @return the in-memory java object parsed
+       @see #read(Reader, FunctionalFromJsonPolicy)
+     */
+    public static Object read(char[] cbuf, int off, int len)
+        throws Exception, IOException
+    {
+        return read(new UnsynchronizedCharArrayReader(cbuf, off, len),
+                    defaultFunctionalFromJP);
+    }
+
+    /**
+       Reads a json value from the len characters of the cbuf argument
+       starting at index off, without copying them, and builds a
+       corresponding java object according to the fjp argument, a
+       {@link FunctionalFromJsonPolicy}.
+
+       @param cbuf the array holding the json to read
+       @param off the index of the first character to read
+       @param len the number of characters that may be read
+       @param fjp a {@link FunctionalFromJsonPolicy} to use when mapping
+       the json values to in-memory java objects
+       @return the in-memory java object it was directed to construct
+       by the {@link FunctionalFromJsonPolicy}
+       @see #read(Reader, FunctionalFromJsonPolicy)
+     */
+    public static Object read(char[] cbuf, int off, int len,
+                              FunctionalFromJsonPolicy fjp)
+        throws Exception, IOException
+    {
+        return read(new UnsynchronizedCharArrayReader(cbuf, off, len), fjp);
+    }
+
+    /**
+       Checks whether jsonSrc holds exactly one json value, with nothing
+       else around it but whitespace, without building any objects from
+       it. This is stricter than {@link #read(CharSequence)} in one way:
+       a comma before the closing bracket or brace of an array or object
+       makes the input invalid.
+
+       @param jsonSrc a {@link CharSequence} to validate
+       @return true if jsonSrc is a single valid json value
+       @see #validateAndMeasure(CharSequence, ValidationResult)
+     */
+    public static boolean isValid(CharSequence jsonSrc)
+    {
+        return Validator.validate(jsonSrc, new ValidationResult());
+    }
+
+    /**
+       Does what {@link #isValid(CharSequence)} does, and fills in result
+       with the number of characters, values and levels of nesting in
+       jsonSrc, or with where and why it was invalid. Nothing at all is
+       allocated for valid input when the same result is passed in again
+       and again, which makes this suited to checking many documents
+       before deciding which of them are worth reading.
+
+       @param jsonSrc a {@link CharSequence} to validate
+       @param result a {@link ValidationResult} to fill in, overwriting
+       whatever it held before
+       @return true if jsonSrc is a single valid json value
+     */
+    public static boolean validateAndMeasure(CharSequence jsonSrc,
+                                             ValidationResult result)
+    {
+        return Validator.validate(jsonSrc, result);
+    }
+
+    /**
+       Validates a single json value from jsonSrc, the way
+       {@link #validateAndMeasure(CharSequence, ValidationResult)} does,
+       except that, as with {@link #read(Reader)}, the {@link Reader} is
+       left just after the value, and anything after it is not
+       examined. If the value is invalid, the {@link Reader} is left
+       wherever the problem was found. The {@link Reader} must return
+       true when markSupported() is called.
+
+       @param jsonSrc a {@link Reader} to validate a json value from
+       @param result a {@link ValidationResult} to fill in, overwriting
+       whatever it held before
+       @return true if a valid json value was read
+     */
+    public static boolean validateAndMeasure(Reader jsonSrc,
+                                             ValidationResult result)
+    {
+        return Validator.validate(jsonSrc, result, false);
+    }
+
+    /*
+      Picks the cheapest Reader for a CharSequence: a CharBuffer backed by
+      an array can be scanned in place, and Strings have their own Reader.
+     */
+    static Reader charSequenceReader(CharSequence cs)
+    {
+        if (cs instanceof String) {
+            return new UnsynchronizedStringReader((String)cs);
+        } else if (cs instanceof CharBuffer && ((CharBuffer)cs).hasArray()) {
+            CharBuffer cb = (CharBuffer)cs;
+            return new UnsynchronizedCharArrayReader(cb.array(),
+                                                     cb.arrayOffset() + cb.position(),
+                                                     cb.remaining());
+        } else {
+            return new UnsynchronizedCharSequenceReader(cs);
+        }
+    }
+
     /**
        Reads a json value from the jsonSrc argument, a {@link Reader}, and
        builds a corresponding java object. This function is equivalent to
@@ -110,7 +352,7 @@ public class SubJson
     public static Object read(Reader jsonSrc) 
         throws Exception, IOException
     {
-        return read(jsonSrc, defaultFromJP);
+        return read(jsonSrc, defaultFunctionalFromJP);
     }
 
     // jsonSrc must be pointing at the first character of a valid JSON object,
@@ -137,10 +379,142 @@ public class SubJson
     public static Object read(Reader jsonSrc, FromJsonPolicy fjp) 
         throws Exception, IOException
     {
-        ArrayDeque<Object> valueStack = new ArrayDeque<Object>();
-        ArrayDeque<Object> keyStack = new ArrayDeque<Object>(); // For parsing KV pairs in objects.
+        if (fjp == defaultFromJP) {
+            return read(jsonSrc, defaultFunctionalFromJP);
+        } else {
+            return read(jsonSrc, new MutableFromJsonPolicyAdapter(fjp));
+        }
+    }
+
+    /**
+       Reads a json value from the jsonSrc argument, a {@link Reader}, and 
+       builds a corresponding java object according to the fjp argument, a 
+       {@link FunctionalFromJsonPolicy}. Other than building values with
+       a different kind of policy, this behaves exactly as
+       {@link #read(Reader, FromJsonPolicy)} does. The {@link Reader} must
+       return true when markSupported() is called.
+
+       @param jsonSrc a {@link Reader} to read a json value from
+       @param fjp a {@link FunctionalFromJsonPolicy} to use when mapping
+       the json values to in-memory java objects
+       @return the in-memory java object it was directed to construct
+       by the {@link FunctionalFromJsonPolicy}
+     */
+    public static Object read(Reader jsonSrc, FunctionalFromJsonPolicy fjp)
+        throws Exception, IOException
+    {
+        return read(jsonSrc, fjp, ParseLimits.NONE);
+    }
+
+    /**
+       Reads a json value from the jsonSrc argument, a {@link Reader}, as
+       {@link #read(Reader)} does, but within the given limits.
+
+       @param jsonSrc a {@link Reader} to read a json value from
+       @param limits the {@link ParseLimits} the input must stay within
+       @return the in-memory java object parsed
+       @see #read(Reader, FunctionalFromJsonPolicy, ParseLimits)
+     */
+    public static Object read(Reader jsonSrc, ParseLimits limits)
+        throws Exception, IOException
+    {
+        return read(jsonSrc, defaultFunctionalFromJP, limits);
+    }
+
+    /**
+       Reads a json value from the jsonSrc argument, a {@link Reader}, and
+       builds a corresponding java object according to the fjp argument, a
+       {@link FromJsonPolicy}, as {@link #read(Reader, FromJsonPolicy)}
+       does, but stops with a {@link ParseLimitExceededException} as soon
+       as the input goes past any of the given limits, before the parser
+       has built anything too big.
+
+       @param jsonSrc a {@link Reader} to read a json value from
+       @param fjp a {@link FromJsonPolicy} to use when mapping the json
+       values to in-memory java objects
+       @param limits the {@link ParseLimits} the input must stay within
+       @return the in-memory java object it was directed to construct
+       by the {@link FromJsonPolicy}
+     */
+    public static Object read(Reader jsonSrc, FromJsonPolicy fjp,
+                              ParseLimits limits)
+        throws Exception, IOException
+    {
+        if (fjp == defaultFromJP) {
+            return read(jsonSrc, defaultFunctionalFromJP, limits);
+        } else {
+            return read(jsonSrc, new MutableFromJsonPolicyAdapter(fjp), limits);
+        }
+    }
+
+    /**
+       Reads a json value from the jsonSrc argument, a {@link Reader}, and
+       builds a corresponding java object according to the fjp argument, a
+       {@link FunctionalFromJsonPolicy}, as
+       {@link #read(Reader, FunctionalFromJsonPolicy)} does, but stops with
+       a {@link ParseLimitExceededException} as soon as the input goes past
+       any of the given limits, before the parser has built anything too
+       big. If the limits are exceeded, the {@link Reader} is left wherever
+       the parser had got to.
+
+       @param jsonSrc a {@link Reader} to read a json value from
+       @param fjp a {@link FunctionalFromJsonPolicy} to use when mapping
+       the json values to in-memory java objects
+       @param limits the {@link ParseLimits} the input must stay within
+       @return the in-memory java object it was directed to construct
+       by the {@link FunctionalFromJsonPolicy}
+     */
+    public static Object read(Reader jsonSrc, FunctionalFromJsonPolicy fjp,
+                              ParseLimits limits)
+        throws Exception, IOException
+    {
+        if (limits.maxInputLength != Long.MAX_VALUE) {
+            jsonSrc = new LimitedReader(jsonSrc, limits.maxInputLength);
+        }
+        final int maxDepthLimit = limits.maxDepth;
+        final int maxStringLength = limits.maxStringLength;
+        final int maxNumberLength = limits.maxNumberLength;
+        final int maxContainerSize = limits.maxContainerSize;
+        final long maxValues = limits.maxValues;
+        long valueCount = 0;
+
+        // A DedupingFromJsonPolicy gets the characters of string values,
+        // read the way keys are, so that it can skip making Strings.
+        final DedupingFromJsonPolicy dedup = (fjp instanceof DedupingFromJsonPolicy)
+            ? (DedupingFromJsonPolicy)fjp : null;
+        // A ChunkedStringPolicy may want string values in chunks instead.
+        final ChunkedStringPolicy chunked = (fjp instanceof ChunkedStringPolicy)
+            ? (ChunkedStringPolicy)fjp : null;
+
+        // The arrays and objects under construction, innermost on top (at
+        // depth-1), along with whether each is an object, and for objects, 
+        // the key of the value currently being read. The slot for a
+        // container is overwritten with whatever the policy returns each
+        // time something is added to it.
+        Object[] containers = new Object[INITIAL_STACK_SIZE];
+        boolean[] isObject = new boolean[INITIAL_STACK_SIZE];
+        Object[] keys = new Object[INITIAL_STACK_SIZE];
+        int[] sizes = new int[INITIAL_STACK_SIZE]; // Elements added so far.
+        int depth = 0;
+
+        // Object keys are read into these, which are reused for every key,
+        // and handed to the policy without making a String of them. So are
+        // string values, when the policy is a DedupingFromJsonPolicy.
+        StringBuilder keyChars = new StringBuilder();
+        char[] keyBuf = new char[STRING_BUFFER_SIZE];
         int currState = LBL_READ_VALUE; 
 
+        // Counts for SubJsonMetrics and the JFR ParseEvent, kept in locals
+        // while reading and handed over once at the end.
+        final boolean metricsEnabled = SubJsonMetrics.enabled;
+        final Object jfrEvent = JfrEvents.beginParse();
+        final long startNanos = metricsEnabled ? System.nanoTime() : 0L;
+        final long startChars = (metricsEnabled || jfrEvent != null)
+            ? charsConsumed(jsonSrc) : -1L;
+        long nulls = 0, booleans = 0, numbers = 0, strings = 0, keyCount = 0;
+        long arrays = 0, objects = 0;
+        int maxDepth = 0;
+
         int currRune = 0;
         
         // Although null is a value we care about, we have written this so
@@ -218,12 +592,14 @@ public class SubJson
                     readNull(jsonSrc);
 
                     latestValue = fjp.makeNull();
+                    nulls++;
                     break; // Jump to cleanup code after inner switch.
                     
                     // true & false
                 case 't':
                 case 'f':
                     latestValue = fjp.makeBoolean(readBoolean(jsonSrc));
+                    booleans++;
                     break; // Jump to cleanup code after inner switch.
                     
                     // Number
@@ -238,12 +614,33 @@ public class SubJson
                 case '7':
                 case '8':
                 case '9':
-                    latestValue = fjp.makeNumber(readNumber(jsonSrc));
+                    latestValue = fjp.makeNumber(readNumber(jsonSrc, maxNumberLength));
+                    numbers++;
                     break; // Jump to cleanup code after inner switch
                     
                     // String
                 case '"':
-                    latestValue = fjp.makeString(readString(jsonSrc));
+                    if (chunked != null) {
+                        StringChunkHandler handler = chunked.stringHandler(
+                            (depth > 0 && isObject[depth - 1]) ? keys[depth - 1] : null);
+                        if (handler != null) {
+                            readString(jsonSrc, handler, keyChars, keyBuf, maxStringLength);
+                            latestValue = handler.finish();
+                            strings++;
+                            break; // Jump to cleanup code after inner switch
+                        }
+                    }
+                    if (dedup == null) {
+                        latestValue = fjp.makeString(readString(jsonSrc, maxStringLength));
+                    } else {
+                        keyChars.setLength(0);
+                        int length = readString(jsonSrc, keyChars, keyBuf,
+                                                maxStringLength);
+                        latestValue = (length >= 0)
+                            ? dedup.makeString(keyBuf, 0, length)
+                            : dedup.makeString(keyChars);
+                    }
+                    strings++;
                     break; // Jump to cleanup code after inner switch
                     
                     // Array
@@ -261,6 +658,10 @@ public class SubJson
                                                        + (char)currRune + "' in input.");
                 }
 
+                if (++valueCount > maxValues) {
+                    throw new ParseLimitExceededException("maxValues", maxValues);
+                }
+
                 // Fall through to route_value() to finish the value...
             case LBL_ROUTE_VALUE:
                 // Having read a value, we need to figure out where to store it and
@@ -268,16 +669,36 @@ public class SubJson
                 // the value should be returned. Otherwise, we need to insert it on
                 // the value stack, depending on what is on top of that, and "return" to
                 // the "function" that was building what was on top of the stack.
-                if (valueStack.isEmpty()) {
+                if (depth == 0) {
+                    if (metricsEnabled || jfrEvent != null) {
+                        long chars = startChars < 0 ? -1L : charsConsumed(jsonSrc) - startChars;
+                        if (metricsEnabled) {
+                            SubJsonMetrics.recordRead(System.nanoTime() - startNanos, chars,
+                                                      nulls, booleans, numbers, strings,
+                                                      keyCount, arrays, objects, maxDepth);
+                        }
+                        if (jfrEvent != null) {
+                            JfrEvents.commitParse(jfrEvent, chars, maxDepth,
+                                                  nulls + booleans + numbers + strings
+                                                  + arrays + objects,
+                                                  arrays, objects, strings, numbers, fjp);
+                        }
+                    }
                     return latestValue;
                 } else {
-                    Object valueStackTop = valueStack.peek();
-                    if (fjp.isArray(valueStackTop)) {
+                    int top = depth - 1;
+                    if (++sizes[top] > maxContainerSize) {
+                        throw new ParseLimitExceededException("maxContainerSize",
+                                                              maxContainerSize);
+                    }
+                    if (!isObject[top]) {
                         // We had to read a value while parsing an array
-                        fjp.arrayAppend(valueStackTop, latestValue);
+                        containers[top] = fjp.arrayAppend(containers[top], latestValue);
                         currState = LBL_PA_HAVEREADVALUE;
-                    } else if (fjp.isObject(valueStackTop)) {
-                        fjp.objectInsert(valueStackTop, keyStack.pop(), latestValue);
+                    } else {
+                        containers[top] = fjp.objectInsert(containers[top], keys[top],
+                                                           latestValue);
+                        keys[top] = null;
                         currState = LBL_PO_HAVEREADKV;
                     }
                     break dispatch;
@@ -287,7 +708,24 @@ public class SubJson
                 // "readArray()" (see comment above)
             case LBL_READ_ARRAY:
                 readChar(jsonSrc, '[');
-                valueStack.push(fjp.startArray());
+                if (depth == maxDepthLimit) {
+                    throw new ParseLimitExceededException("maxDepth", maxDepthLimit);
+                }
+                if (++valueCount > maxValues) {
+                    throw new ParseLimitExceededException("maxValues", maxValues);
+                }
+                if (depth == containers.length) {
+                    containers = Arrays.copyOf(containers, depth * 2);
+                    isObject = Arrays.copyOf(isObject, depth * 2);
+                    keys = Arrays.copyOf(keys, depth * 2);
+                    sizes = Arrays.copyOf(sizes, depth * 2);
+                }
+                containers[depth] = fjp.startArray();
+                isObject[depth] = false;
+                sizes[depth] = 0;
+                depth++;
+                arrays++;
+                if (depth > maxDepth) maxDepth = depth;
             case LBL_PA_STARTVALUE: // Note: Falls through from LBL_READ_ARRAY!
                 skipWhitespace(jsonSrc);
                 currRune = peek(jsonSrc);
@@ -310,7 +748,9 @@ public class SubJson
                     break dispatch;
                 } else {
                     readChar(jsonSrc, ']');
-                    latestValue = fjp.finishArray(valueStack.pop());
+                    depth--;
+                    latestValue = fjp.finishArray(containers[depth]);
+                    containers[depth] = null;
                     // Now we need to check stack to figure out where to return to.
                     currState = LBL_ROUTE_VALUE; // "call" "route_value()"
                     break dispatch;
@@ -319,7 +759,24 @@ public class SubJson
                 // "readObject()" (see comment above)
             case LBL_READ_OBJECT:
                 readChar(jsonSrc, '{');
-                valueStack.push(fjp.startObject());
+                if (depth == maxDepthLimit) {
+                    throw new ParseLimitExceededException("maxDepth", maxDepthLimit);
+                }
+                if (++valueCount > maxValues) {
+                    throw new ParseLimitExceededException("maxValues", maxValues);
+                }
+                if (depth == containers.length) {
+                    containers = Arrays.copyOf(containers, depth * 2);
+                    isObject = Arrays.copyOf(isObject, depth * 2);
+                    keys = Arrays.copyOf(keys, depth * 2);
+                    sizes = Arrays.copyOf(sizes, depth * 2);
+                }
+                containers[depth] = fjp.startObject();
+                isObject[depth] = true;
+                sizes[depth] = 0;
+                depth++;
+                objects++;
+                if (depth > maxDepth) maxDepth = depth;
             case LBL_PO_STARTKV: // Note: Falls through from LBL_READ_OBJECT!
                 skipWhitespace(jsonSrc);
                 currRune = peek(jsonSrc);
@@ -329,7 +786,14 @@ public class SubJson
                 if (currRune == -1) {
                     throw new IllegalArgumentException("Reached EOF while parsing an object.");
                 } else if (currRune != '}') {
-                    keyStack.push(fjp.makeString(readString(jsonSrc)));
+                    keyChars.setLength(0);
+                    int keyLength = readString(jsonSrc, keyChars, keyBuf,
+                                               maxStringLength);
+                    if (keyLength >= 0) {
+                        keyChars.append(keyBuf, 0, keyLength);
+                    }
+                    keys[depth - 1] = fjp.makeKey(keyChars);
+                    keyCount++;
                     skipWhitespace(jsonSrc);
                     readChar(jsonSrc, ':');
                     skipWhitespace(jsonSrc);
@@ -346,21 +810,42 @@ public class SubJson
                     break dispatch;
                 } else {
                     readChar(jsonSrc, '}');
-                    latestValue = fjp.finishObject(valueStack.pop());
+                    depth--;
+                    latestValue = fjp.finishObject(containers[depth]);
+                    containers[depth] = null;
                     // Now we need to check stack to figure out where to return to.
                     currState = LBL_ROUTE_VALUE; // "call" "route_value()"
                     break dispatch;
                 }
             }
         }   
-        return valueStack.pop(); // No idea how we'd get here.
+        return latestValue; // No idea how we'd get here.
+    }
+
+    /*
+      Returns how many characters have been read from r so far, for the
+      Readers that can tell us, or -1 for the ones that can't.
+     */
+    static long charsConsumed(Reader r)
+    {
+        if (r instanceof BufferedCharReader) {
+            return ((BufferedCharReader)r).charsConsumed();
+        } else if (r instanceof UnsynchronizedStringReader) {
+            return ((UnsynchronizedStringReader)r).next;
+        } else if (r instanceof UnsynchronizedCharSequenceReader) {
+            return ((UnsynchronizedCharSequenceReader)r).next;
+        } else if (r instanceof LimitedReader) {
+            return ((LimitedReader)r).charsConsumed();
+        } else {
+            return -1L;
+        }
     }
 
     /*
       Given a Reader at any point, skips past any whitespace (space, tab, CR, LF)
       so that the next character read will be something that is not whitespace (or EOF).
     */
-    private static void skipWhitespace(Reader jsonSrc) throws IOException
+    static void skipWhitespace(Reader jsonSrc) throws IOException
     {
         int currRune = peek(jsonSrc);
         
@@ -402,7 +887,7 @@ public class SubJson
       and the Reader will be on the next character after the one just read. 
       Otherwise, throws a descriptive error.
      */
-    private static void readChar(Reader jsonSrc, char theChar) throws IOException
+    static void readChar(Reader jsonSrc, char theChar) throws IOException
     {
         int currRune = jsonSrc.read();
         if (currRune == theChar) {
@@ -422,7 +907,7 @@ public class SubJson
       while checking that the null literal is correctly written and providing errors
       if not.
     */
-    private static void readNull(Reader jsonSrc) throws IOException
+    static void readNull(Reader jsonSrc) throws IOException
     {   
         // This loop only executes once, use it to simulate goto with a break.
         while (true) {
@@ -451,7 +936,7 @@ public class SubJson
       1) Returns the boolean value that literal represents (true or false)
       2) Advances the Reader to the character after the end of the literal.
     */
-    private static Boolean readBoolean(Reader jsonSrc) throws IOException
+    static Boolean readBoolean(Reader jsonSrc) throws IOException
     {
         int currRune = jsonSrc.read();
         switch (currRune) {
@@ -510,6 +995,18 @@ public class SubJson
           the stream.
     */
     private static Number readNumber(Reader jsonSrc) throws IOException
+    {
+        return readNumber(jsonSrc, Integer.MAX_VALUE);
+    }
+
+    /*
+      readNumber(Reader), but throws a ParseLimitExceededException as soon
+      as the literal is longer than maxLength characters. Single characters
+      are appended at a few fixed points, so only the loops over digits,
+      which are what can go on indefinitely, need to check.
+     */
+    private static Number readNumber(Reader jsonSrc, int maxLength)
+        throws IOException
     {
         StringBuilder sb = new StringBuilder();
         int currRune = peek(jsonSrc);
@@ -555,6 +1052,7 @@ public class SubJson
             // we already saw a '.' or 'e' (for example, this loop doesn't execute and
             // we move right on to the next test.
             while (TextUtils.isDigit(currRune)) {
+                if (sb.length() >= maxLength) throw numberTooLong(maxLength);
                 sb.appendCodePoint(currRune);
                 jsonSrc.skip(1);
                 currRune = peek(jsonSrc);
@@ -579,6 +1077,7 @@ public class SubJson
                 }
                 
                 while (TextUtils.isDigit(currRune)) {
+                    if (sb.length() >= maxLength) throw numberTooLong(maxLength);
                     sb.appendCodePoint(currRune);
                     jsonSrc.skip(1);
                     currRune = peek(jsonSrc);
@@ -612,6 +1111,7 @@ public class SubJson
             // be either a digit, EOF, or some non-number character. If it's not the
             // first one of those, then we've reached the end of the number.
             while (TextUtils.isDigit(currRune)) {
+                if (sb.length() >= maxLength) throw numberTooLong(maxLength);
                 sb.appendCodePoint(currRune);
                 jsonSrc.skip(1);
                 currRune = peek(jsonSrc);
@@ -620,7 +1120,9 @@ public class SubJson
             break; // We have to break out of the infinite loop every time.
         }
         
-        // Finish up the parsing of the number.
+        // Finish up the parsing of the number. The sign, decimal point and
+        // exponent characters weren't checked as they were appended.
+        if (sb.length() > maxLength) throw numberTooLong(maxLength);
         Number retVal = null;
         if (sawDecimal || sawExponent) { 
             // If there was a decimal point or exponent, it must be floating point.
@@ -632,6 +1134,16 @@ public class SubJson
         return retVal;
     }
 
+    private static ParseLimitExceededException numberTooLong(int maxLength)
+    {
+        return new ParseLimitExceededException("maxNumberLength", maxLength);
+    }
+
+    private static ParseLimitExceededException stringTooLong(int maxLength)
+    {
+        return new ParseLimitExceededException("maxStringLength", maxLength);
+    }
+
     /* 
        readString takes a Reader that is pointing at a JSON string literal
        and does two things: 
@@ -641,6 +1153,101 @@ public class SubJson
           of the stream.
     */
     private static String readString(Reader jsonSrc) throws IOException
+    {
+        return readString(jsonSrc, Integer.MAX_VALUE);
+    }
+
+    /*
+      readString(Reader), but throws a ParseLimitExceededException before
+      building a string longer than maxLength characters.
+     */
+    private static String readString(Reader jsonSrc, int maxLength)
+        throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        char[] cbuf = new char[STRING_BUFFER_SIZE];
+
+        int length = readString(jsonSrc, sb, cbuf, maxLength);
+        if (length >= 0) {
+            return new String(cbuf, 0, length);
+        } else {
+            return sb.toString();
+        }
+    }
+
+    /*
+      Given a Reader positioned just after the '\\' that starts an escape
+      sequence in a string, reads the rest of the escape sequence and
+      appends the character it represents to sb.
+     */
+    private static void readEscape(Reader jsonSrc, StringBuilder sb)
+        throws IOException
+    {
+        int currRune = jsonSrc.read();
+        switch (currRune) {
+        case '"': // Escaped quotation mark
+            sb.append('\"');
+            break;
+        case '\\': // Escaped reverse solidus
+            sb.append('\\');
+            break;
+        case '/': // Escaped solidus
+            sb.append('/');
+            break;
+        case 'b': // Escaped backspace
+            sb.append('\b');
+            break;
+        case 'f': // Escaped formfeed
+            sb.append('\f');
+            break;
+        case 'n': // Escaped newline
+            sb.append('\n');
+            break;
+        case 'r': // Escaped carriage return
+            sb.append('\r');
+            break;
+        case 't': // Escaped tab
+            sb.append('\t');
+            break;
+        case 'u': // Escaped Unicode character
+            int cp = 0;
+            
+            for (int i = 0; i < 4; i++) {
+                currRune = jsonSrc.read();
+
+                // Note: '0'-'9' are 0x30-0x39
+                //       'a'-'f' are 0x61-0x66
+                //       'A'-'F' are 0x41-0x46
+                // So lowest 4 bits of ascii code for a hex digit
+                // are the digit's value, as long as you add 9 for
+                // values in the 0x41-0x66 range.
+                if (TextUtils.isHexDigit(currRune)) {
+                    cp = (cp << 4) | ((0xf & currRune) + (currRune <= '9' ? 0 : 9));
+                } else {
+                    throw new IllegalArgumentException("Encountered invalid input while reading a Unicode escape sequence.");
+                }
+            }
+            
+            sb.appendCodePoint(cp);
+            break;
+        default:
+            throw new IllegalArgumentException("Encountered invalid input while reading an escape sequence.");
+        }
+    }
+
+    /*
+      Does the work of readString(Reader), but leaves the characters of the
+      string where they were read into, so that callers that don't need a
+      String can avoid making one. sb must be empty, and cbuf must be
+      STRING_BUFFER_SIZE long. If the string was short enough to be read
+      entirely into cbuf, its length is returned and sb is left empty.
+      Otherwise, -1 is returned and the string is in sb. A string longer
+      than maxLength is an error, found before sb grows past maxLength
+      by more than a character or two.
+     */
+    private static int readString(Reader jsonSrc, StringBuilder sb, char[] cbuf,
+                                  int maxLength)
+        throws IOException
     {
         // There's a measurable performance benefit to building a
         // string out of chunks, instead of char by char, so we'll use
@@ -654,11 +1261,13 @@ public class SubJson
         // many characters as we said the mark should buffer. bufferedCount
         // is used to help us keep track of when that is, so we can do
         // the copy.
-        final int BUFFER_SIZE = 32;
-        final char[] cbuf = new char[BUFFER_SIZE];
+        if (jsonSrc instanceof BufferedCharReader) {
+            return readString((BufferedCharReader)jsonSrc, sb, cbuf, maxLength);
+        }
+
+        final int BUFFER_SIZE = STRING_BUFFER_SIZE;
         int bufferedCount = 0;
 
-        StringBuilder sb = new StringBuilder();
         int currRune = jsonSrc.read();
 
         if (currRune != '"') {
@@ -670,6 +1279,9 @@ public class SubJson
             // Need to check if our buffer filled up, and if so copy it off
             // to the StringBuilder.
             if (bufferedCount == BUFFER_SIZE) {
+                if (sb.length() + bufferedCount > maxLength) {
+                    throw stringTooLong(maxLength);
+                }
                 jsonSrc.reset();
                 jsonSrc.read(cbuf, 0, bufferedCount);
                 sb.append(cbuf, 0, bufferedCount);
@@ -699,11 +1311,13 @@ public class SubJson
                     // If we haven't had to copy to the builder yet, just return
                     // the string without doing extraneous copies through the
                     // StringBuilder.
-                    if (sb.length() == 0) {
-                        return new String(cbuf, 0, bufferedCount-1);
+                    if (sb.length() + bufferedCount - 1 > maxLength) {
+                        throw stringTooLong(maxLength);
+                    } else if (sb.length() == 0) {
+                        return bufferedCount-1;
                     } else {
                         sb.append(cbuf, 0, bufferedCount-1);
-                        return sb.toString();
+                        return -1;
                     }
                 } else if (TextUtils.isControlCharacter(currRune)) {
                     throw new IllegalArgumentException("Encountered a control character while parsing a string.");
@@ -729,56 +1343,9 @@ public class SubJson
                     sb.append(cbuf, 0, bufferedCount-1);
                     jsonSrc.skip(1); // Skip past the '/' we already saw.
 
-                    // Now we decode the escape sequence.
-                    currRune = jsonSrc.read();
-                    switch (currRune) {
-                    case '"': // Escaped quotation mark
-                        sb.append('\"');
-                        break;
-                    case '\\': // Escaped reverse solidus
-                        sb.append('\\');
-                        break;
-                    case '/': // Escaped solidus
-                        sb.append('/');
-                        break;
-                    case 'b': // Escaped backspace
-                        sb.append('\b');
-                        break;
-                    case 'f': // Escaped formfeed
-                        sb.append('\f');
-                        break;
-                    case 'n': // Escaped newline
-                        sb.append('\n');
-                        break;
-                    case 'r': // Escaped carriage return
-                        sb.append('\r');
-                        break;
-                    case 't': // Escaped tab
-                        sb.append('\t');
-                        break;
-                    case 'u': // Escaped Unicode character
-                        int cp = 0;
-                        
-                        for (int i = 0; i < 4; i++) {
-                            currRune = jsonSrc.read();
-
-                            // Note: '0'-'9' are 0x30-0x39
-                            //       'a'-'f' are 0x61-0x66
-                            //       'A'-'F' are 0x41-0x46
-                            // So lowest 4 bits of ascii code for a hex digit
-                            // are the digit's value, as long as you add 9 for
-                            // values in the 0x41-0x66 range.
-                            if (TextUtils.isHexDigit(currRune)) {
-                                cp = (cp << 4) | ((0xf & currRune) + (currRune <= '9' ? 0 : 9));
-                            } else {
-                                throw new IllegalArgumentException("Encountered invalid input while reading a Unicode escape sequence.");
-                            }
-                        }
-                        
-                        sb.appendCodePoint(cp);
-                        break;
-                    default:
-                        throw new IllegalArgumentException("Encountered invalid input while reading an escape sequence.");
+                    readEscape(jsonSrc, sb);
+                    if (sb.length() > maxLength) {
+                        throw stringTooLong(maxLength);
                     }
                     
                     // Finally, restart the buffering.
@@ -794,38 +1361,374 @@ public class SubJson
         }
     }
 
-    /**
-       Returns a String containing the pretty-printed serialization of jsonValue.
-
-       @param jsonValue the value to pretty-print to json
+    /*
+      readString() for our buffered Readers, which can skip the mark/reset
+      dance and scan their buffers directly, copying each run of ordinary
+      characters in one go.
      */
-    public static String writeToString(Object jsonValue)
+    private static int readString(BufferedCharReader jsonSrc, StringBuilder sb,
+                                  char[] cbuf, int maxLength)
         throws IOException
     {
-        return writeToString(jsonValue, true);
-    }
-
-    /**
-       Returns a String containing the serialization of jsonValue, according
-       to the default {@link ToJsonPolicy}. If pretty is true, the output will
-       be pretty-printed, and if it is false, the output will be printed
-       in a compact style with minimal whitespace.
+        if (jsonSrc.read() != '"') {
+            throw new IllegalArgumentException("Attempted to parse a string literal from input that was not pointing at one.");
+        }
 
-       @param jsonValue the value to serialize to json
-       @param pretty pass true to emite pretty-printed json, false for
-       compact json
-     */
-    public static String writeToString(Object jsonValue, boolean pretty)
-        throws IOException
-    {
-        return writeToString(jsonValue, pretty, defaultToJP);
-    }
+        boolean firstRun = true;
+        while (true) {
+            if (jsonSrc.pos >= jsonSrc.limit && jsonSrc.fill() == -1) {
+                throw new IllegalArgumentException("Encountered end of input while reading a string.");
+            }
 
-    /**
-       Returns a String containing the serialization of jsonValue, according
-       to tjp, a {@link ToJsonPolicy}. If pretty is true, the output will
-       be pretty-printed, and if it is false, the output will be printed
-       in a compact style with minimal whitespace.
+            final char[] buf = jsonSrc.buf;
+            final int start = jsonSrc.pos;
+            final int limit = jsonSrc.limit;
+            int i = start;
+            while (i < limit) {
+                char c = buf[i];
+                // As in readString(Reader, ...), everything special is at or
+                // below '"', except for '\\'.
+                if (c <= '"' && (c == '"' || c < 0x20)) break;
+                if (c == '\\') break;
+                i++;
+            }
+
+            if (sb.length() + (i - start) > maxLength) {
+                throw stringTooLong(maxLength);
+            }
+            if (i < limit && buf[i] == '"' && firstRun && i - start <= cbuf.length) {
+                // The whole string, no escapes, and it fits; skip sb.
+                System.arraycopy(buf, start, cbuf, 0, i - start);
+                jsonSrc.pos = i + 1;
+                return i - start;
+            }
+
+            sb.append(buf, start, i - start);
+            jsonSrc.pos = i;
+            firstRun = false;
+            if (i == limit) continue; // Ran off the end of the buffer.
+
+            char c = buf[i];
+            jsonSrc.pos++;
+            if (c == '"') {
+                return -1;
+            } else if (c == '\\') {
+                readEscape(jsonSrc, sb);
+                if (sb.length() > maxLength) {
+                    throw stringTooLong(maxLength);
+                }
+            } else {
+                throw new IllegalArgumentException("Encountered a control character while parsing a string.");
+            }
+        }
+    }
+
+    /*
+      Reads the json string literal jsonSrc is pointing at, handing its
+      characters to handler in chunks rather than collecting them, and
+      leaves jsonSrc just after it. The characters go to the handler
+      straight out of a BufferedCharReader's buffer; otherwise they are
+      gathered into chunks of STRING_CHUNK_SIZE first. Escape sequences are
+      decoded through sb and cbuf. As with readString(), a string longer
+      than maxLength is an error.
+     */
+    private static void readString(Reader jsonSrc, StringChunkHandler handler,
+                                   StringBuilder sb, char[] cbuf, int maxLength)
+        throws Exception
+    {
+        if (jsonSrc.read() != '"') {
+            throw new IllegalArgumentException("Attempted to parse a string literal from input that was not pointing at one.");
+        }
+
+        long length = 0;
+        if (jsonSrc instanceof BufferedCharReader) {
+            BufferedCharReader bcr = (BufferedCharReader)jsonSrc;
+            while (true) {
+                if (bcr.pos >= bcr.limit && bcr.fill() == -1) {
+                    throw new IllegalArgumentException("Encountered end of input while reading a string.");
+                }
+
+                final char[] buf = bcr.buf;
+                final int start = bcr.pos;
+                final int limit = bcr.limit;
+                int i = start;
+                while (i < limit) {
+                    char c = buf[i];
+                    if (c <= '"' && (c == '"' || c < 0x20)) break;
+                    if (c == '\\') break;
+                    i++;
+                }
+
+                length += i - start;
+                if (length > maxLength) throw stringTooLong(maxLength);
+                if (i > start) handler.append(buf, start, i - start);
+                bcr.pos = i;
+                if (i == limit) continue; // Ran off the end of the buffer.
+
+                char c = buf[i];
+                bcr.pos++;
+                if (c == '"') {
+                    return;
+                } else if (c == '\\') {
+                    sb.setLength(0);
+                    readEscape(bcr, sb);
+                    length += sb.length();
+                    if (length > maxLength) throw stringTooLong(maxLength);
+                    sb.getChars(0, sb.length(), cbuf, 0);
+                    handler.append(cbuf, 0, sb.length());
+                } else {
+                    throw new IllegalArgumentException("Encountered a control character while parsing a string.");
+                }
+            }
+        }
+
+        char[] chunk = new char[STRING_CHUNK_SIZE];
+        int count = 0; // Characters waiting in chunk.
+        while (true) {
+            // An escape adds at most two characters.
+            if (count >= chunk.length - 1) {
+                handler.append(chunk, 0, count);
+                count = 0;
+            }
+
+            int currRune = jsonSrc.read();
+            if (currRune <= '"') {
+                if (currRune == '"') {
+                    if (count > 0) handler.append(chunk, 0, count);
+                    return;
+                } else if (TextUtils.isControlCharacter(currRune)) {
+                    throw new IllegalArgumentException("Encountered a control character while parsing a string.");
+                } else if (currRune == -1) {
+                    throw new IllegalArgumentException("Encountered end of input while reading a string.");
+                }
+                chunk[count++] = (char)currRune;
+                length++;
+            } else if (currRune == '\\') {
+                sb.setLength(0);
+                readEscape(jsonSrc, sb);
+                sb.getChars(0, sb.length(), chunk, count);
+                count += sb.length();
+                length += sb.length();
+            } else {
+                chunk[count++] = (char)currRune;
+                length++;
+            }
+            if (length > maxLength) throw stringTooLong(maxLength);
+        }
+    }
+
+    /**
+       Writes the java object jsonValue to out as a binary snapshot, a
+       compact encoding of the json value tree that
+       {@link #readSnapshot(ByteBuffer)} can load much faster than the
+       json text could be read, for data that is read once and then loaded
+       again and again, such as large reference files loaded at startup.
+       Strings, including object keys, are stored once each in a table
+       and referred to by index, and arrays of only integers or only reals
+       are stored packed. The snapshot is written in one pass, and out is
+       flushed but not closed. This is equivalent to calling
+       {@link #writeSnapshot(OutputStream, Object, ToJsonPolicy)} with the
+       default ToJsonPolicy.
+
+       @param out the stream to write the snapshot to
+       @param jsonValue the value to write
+     */
+    public static void writeSnapshot(OutputStream out, Object jsonValue)
+        throws IOException
+    {
+        writeSnapshot(out, jsonValue, defaultToJP);
+    }
+
+    /**
+       Writes the java object jsonValue to out as a binary snapshot,
+       according to tjp, a {@link ToJsonPolicy}, as
+       {@link #writeSnapshot(OutputStream, Object)} does. Numbers are
+       stored as the Long or Double that tjp converts them to, so that
+       writing the loaded value as json gives the same text as writing
+       jsonValue, as long as tjp's numbers print as those would.
+
+       @param out the stream to write the snapshot to
+       @param jsonValue the value to write
+       @param tjp a ToJsonPolicy to translate the java value to json values
+     */
+    public static void writeSnapshot(OutputStream out, Object jsonValue,
+                                     ToJsonPolicy tjp)
+        throws IOException
+    {
+        BinarySnapshot.write(out, jsonValue, tjp);
+    }
+
+    /**
+       Loads a value from a binary snapshot written by
+       {@link #writeSnapshot(OutputStream, Object)}, held in the bytes of
+       snapshot from its position to its limit, building it with the
+       default {@link FromJsonPolicy}. The buffer's position and limit are
+       left as they were. To load a snapshot file without reading it onto
+       the heap first, map it:
+       <pre>
+       try (FileChannel ch = FileChannel.open(path)) {
+           Object value = SubJson.readSnapshot(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+       }
+       </pre>
+       As with any ByteBuffer, snapshots must be smaller than 2GB.
+
+       @param snapshot the bytes of the snapshot
+       @return the in-memory java object loaded
+     */
+    public static Object readSnapshot(ByteBuffer snapshot)
+        throws Exception
+    {
+        return BinarySnapshot.read(snapshot, defaultFunctionalFromJP);
+    }
+
+    /**
+       Loads a value from a binary snapshot, as
+       {@link #readSnapshot(ByteBuffer)} does, building it according to
+       fjp, a {@link FromJsonPolicy}.
+
+       @param snapshot the bytes of the snapshot
+       @param fjp a {@link FromJsonPolicy} to use when mapping the json
+       values to in-memory java objects
+       @return the in-memory java object it was directed to construct
+       by the {@link FromJsonPolicy}
+     */
+    public static Object readSnapshot(ByteBuffer snapshot, FromJsonPolicy fjp)
+        throws Exception
+    {
+        if (fjp == defaultFromJP) {
+            return BinarySnapshot.read(snapshot, defaultFunctionalFromJP);
+        } else {
+            return BinarySnapshot.read(snapshot, new MutableFromJsonPolicyAdapter(fjp));
+        }
+    }
+
+    /**
+       Loads a value from a binary snapshot, as
+       {@link #readSnapshot(ByteBuffer)} does, building it according to
+       fjp, a {@link FunctionalFromJsonPolicy}.
+
+       @param snapshot the bytes of the snapshot
+       @param fjp a {@link FunctionalFromJsonPolicy} to use when mapping
+       the json values to in-memory java objects
+       @return the in-memory java object it was directed to construct
+       by the {@link FunctionalFromJsonPolicy}
+     */
+    public static Object readSnapshot(ByteBuffer snapshot,
+                                      FunctionalFromJsonPolicy fjp)
+        throws Exception
+    {
+        return BinarySnapshot.read(snapshot, fjp);
+    }
+
+    /**
+       Reads a json value from the jsonSrc argument, any
+       {@link CharSequence}, into an {@link OffHeapDocument}, whose values
+       are held outside the Java heap and read through an
+       {@link OffHeapCursor}, rather than building java objects.
+
+       @param jsonSrc a {@link CharSequence} to read a json value from
+       @return the document read
+       @see #readOffHeap(Reader, ParseLimits)
+     */
+    public static OffHeapDocument readOffHeap(CharSequence jsonSrc)
+        throws Exception, IOException
+    {
+        return readOffHeap(jsonSrc, ParseLimits.NONE);
+    }
+
+    /**
+       Reads a json value from the jsonSrc argument, any
+       {@link CharSequence}, into an {@link OffHeapDocument}, as
+       {@link #readOffHeap(CharSequence)} does, but within the given
+       limits.
+
+       @param jsonSrc a {@link CharSequence} to read a json value from
+       @param limits the {@link ParseLimits} the input must stay within
+       @return the document read
+       @see #readOffHeap(Reader, ParseLimits)
+     */
+    public static OffHeapDocument readOffHeap(CharSequence jsonSrc,
+                                              ParseLimits limits)
+        throws Exception, IOException
+    {
+        // The tape usually takes about as many bytes as the json has chars.
+        TapeBuilder tb = new TapeBuilder((int)Math.min(jsonSrc.length() * 5L / 4,
+                                                        Integer.MAX_VALUE - 8));
+        read(charSequenceReader(jsonSrc), tb, limits);
+        return tb.finish();
+    }
+
+    /**
+       Reads a json value from the jsonSrc argument, a {@link Reader}, into
+       an {@link OffHeapDocument}. This function is equivalent to calling
+       {@link #readOffHeap(Reader, ParseLimits)} with
+       {@link ParseLimits#NONE}. The {@link Reader} must return true when
+       markSupported() is called.
+
+       @param jsonSrc a {@link Reader} to read a json value from
+       @return the document read
+     */
+    public static OffHeapDocument readOffHeap(Reader jsonSrc)
+        throws Exception, IOException
+    {
+        return readOffHeap(jsonSrc, ParseLimits.NONE);
+    }
+
+    /**
+       Reads a json value from the jsonSrc argument, a {@link Reader}, into
+       an {@link OffHeapDocument}, within the given limits. The json is
+       parsed just as {@link #read(Reader)} would, but each value is
+       written to the document's tape, outside the Java heap, as soon as
+       it is read, so the only objects kept on the heap while reading are
+       the ones the parser needs for the value in hand, and the finished
+       document is a single object as far as the garbage collector is
+       concerned. The document's tape must be smaller than 2GB. The
+       {@link Reader} must return true when markSupported() is called.
+
+       @param jsonSrc a {@link Reader} to read a json value from
+       @param limits the {@link ParseLimits} the input must stay within
+       @return the document read
+     */
+    public static OffHeapDocument readOffHeap(Reader jsonSrc, ParseLimits limits)
+        throws Exception, IOException
+    {
+        TapeBuilder tb = new TapeBuilder(OFF_HEAP_INITIAL_TAPE_SIZE);
+        read(jsonSrc, tb, limits);
+        return tb.finish();
+    }
+
+    /**
+       Returns a String containing the pretty-printed serialization of jsonValue.
+
+       @param jsonValue the value to pretty-print to json
+     */
+    public static String writeToString(Object jsonValue)
+        throws IOException
+    {
+        return writeToString(jsonValue, true);
+    }
+
+    /**
+       Returns a String containing the serialization of jsonValue, according
+       to the default {@link ToJsonPolicy}. If pretty is true, the output will
+       be pretty-printed, and if it is false, the output will be printed
+       in a compact style with minimal whitespace.
+
+       @param jsonValue the value to serialize to json
+       @param pretty pass true to emite pretty-printed json, false for
+       compact json
+     */
+    public static String writeToString(Object jsonValue, boolean pretty)
+        throws IOException
+    {
+        return writeToString(jsonValue, pretty, defaultToJP);
+    }
+
+    /**
+       Returns a String containing the serialization of jsonValue, according
+       to tjp, a {@link ToJsonPolicy}. If pretty is true, the output will
+       be pretty-printed, and if it is false, the output will be printed
+       in a compact style with minimal whitespace.
 
        @param jsonValue the value to serialize to json
        @param pretty pass true to emit pretty-printed json, false for
@@ -886,6 +1789,87 @@ public class SubJson
     public static void write(Appendable out, Object jsonValue, boolean pretty, 
                              ToJsonPolicy tjp)
         throws IOException
+    {
+        writeDocument(out, jsonValue, pretty, tjp, null);
+    }
+
+    /**
+       Writes the java object jsonValue to the {@link Appendable} out according
+       to tjp, a {@link CacheableToJsonPolicy}, reusing the json previously
+       written for any array or object that tjp says is cacheable from cache,
+       a {@link WriteCache}. Cacheable values that are not in the cache yet
+       are written as usual and then added to it. The output is identical to
+       what {@link #write(Appendable, Object, boolean, ToJsonPolicy)} would
+       produce. If pretty is true, the output will be pretty-printed, and if
+       it is false, the output will be printed in a compact style with
+       minimal whitespace.
+
+       @param out the writer to serialize the value to
+       @param jsonValue the value to serialize to json
+       @param pretty pass true to emit pretty-printed json, false for
+       compact json
+       @param tjp a CacheableToJsonPolicy to translate the java value to json
+       values and decide which of them can be cached
+       @param cache the {@link WriteCache} to reuse and store json in
+     */
+    public static void write(Appendable out, Object jsonValue, boolean pretty,
+                             CacheableToJsonPolicy tjp, WriteCache cache)
+        throws IOException
+    {
+        writeDocument(out, jsonValue, pretty, tjp, cache);
+    }
+
+    /*
+      Writes a whole json value, as the public write()s do, and adds it
+      to SubJsonMetrics and a JFR WriteEvent.
+     */
+    private static void writeDocument(Appendable out, Object jsonValue, boolean pretty,
+                                      ToJsonPolicy tjp, WriteCache cache)
+        throws IOException
+    {
+        final boolean metricsEnabled = SubJsonMetrics.enabled;
+        final Object jfrEvent = JfrEvents.beginWrite();
+        if (!metricsEnabled && jfrEvent == null) {
+            write(out, jsonValue, pretty, tjp, 0, cache);
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        long startChars = charsWritten(out);
+        write(out, jsonValue, pretty, tjp, 0, cache);
+        long chars = startChars < 0 ? -1L : charsWritten(out) - startChars;
+        if (metricsEnabled) {
+            SubJsonMetrics.recordWrite(System.nanoTime() - startNanos, chars);
+        }
+        if (jfrEvent != null) {
+            JfrEvents.commitWrite(jfrEvent, chars, pretty, false, cache != null, tjp);
+        }
+    }
+
+    /*
+      Returns how many characters have been written to out so far, for the
+      Appendables that can tell us, or -1 for the ones that can't. Other
+      Appendables, such as Writers to files or sockets, would have to be
+      wrapped to be counted, at a cost to every append, so they aren't.
+     */
+    private static long charsWritten(Appendable out)
+    {
+        if (out instanceof StringBuilder) return ((StringBuilder)out).length();
+        if (out instanceof StringBuffer) return ((StringBuffer)out).length();
+        if (out instanceof StringWriter) return ((StringWriter)out).getBuffer().length();
+        return -1L;
+    }
+
+    /*
+      Writes jsonValue as though it were nested depth levels deep inside
+      other arrays or objects, so that pretty-printed output is indented
+      to match. The first line is not indented; that is up to the caller,
+      just as it is when printing any other array element or object value.
+      If cache is not null, tjp must be a CacheableToJsonPolicy.
+     */
+    private static void write(Appendable out, Object jsonValue, boolean pretty,
+                              ToJsonPolicy tjp, int depth, WriteCache cache)
+        throws IOException
     {
         ArrayDeque<PrintingStackFrame> inProgressStack 
             = new ArrayDeque<PrintingStackFrame>();
@@ -911,6 +1895,11 @@ public class SubJson
         // hold the current characters used for indentation. An
         // indentation is 4 space characters.
         StringBuilder indentation = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            indentation.append(TAB);
+        }
+
+        PrintingStackFrame finishedFrame;
 
         /*
           Here's the (pseudo-)code we wish we could write 
@@ -979,6 +1968,24 @@ public class SubJson
                     break;
                 case TYPE_ARRAY:
                     {
+                        if (tjp == defaultToJP && currValue instanceof ColumnarTable) {
+                            writeTable(out, (ColumnarTable)currValue, pretty, indentation);
+                            currState = LBL_CHECK_STACK_OR_FINISH;
+                            break dispatch;
+                        }
+
+                        boolean capture = false;
+                        if (cache != null
+                            && ((CacheableToJsonPolicy)tjp).isCacheable(currValue)) {
+                            String cached = cache.get(currValue, tjp, pretty);
+                            if (cached != null) {
+                                appendCached(out, cached, indentation);
+                                currState = LBL_CHECK_STACK_OR_FINISH;
+                                break dispatch;
+                            }
+                            capture = true;
+                        }
+
                         PrintingStackFrame psf = 
                             new PrintingStackFrame(tjp.arrayIterator(currValue),
                                                    ToJsonPolicy.ValueType.TYPE_ARRAY);
@@ -991,6 +1998,13 @@ public class SubJson
                             
                             currState = LBL_CHECK_STACK_OR_FINISH;
                         } else {
+                            if (capture) {
+                                psf.captureParent = out;
+                                psf.savedIndentation = indentation;
+                                psf.cacheKey = currValue;
+                                out = new StringBuilder();
+                                indentation = new StringBuilder();
+                            }
                             inProgressStack.push(psf);
                             indentation.append(TAB);
                             
@@ -1006,6 +2020,18 @@ public class SubJson
                     }
                 case TYPE_OBJECT:
                     {
+                        boolean capture = false;
+                        if (cache != null
+                            && ((CacheableToJsonPolicy)tjp).isCacheable(currValue)) {
+                            String cached = cache.get(currValue, tjp, pretty);
+                            if (cached != null) {
+                                appendCached(out, cached, indentation);
+                                currState = LBL_CHECK_STACK_OR_FINISH;
+                                break dispatch;
+                            }
+                            capture = true;
+                        }
+
                         PrintingStackFrame psf =
                             new PrintingStackFrame(tjp.objectIterator(currValue),
                                                    ToJsonPolicy.ValueType.TYPE_OBJECT);
@@ -1017,6 +2043,13 @@ public class SubJson
 
                             currState = LBL_CHECK_STACK_OR_FINISH;
                         } else {
+                            if (capture) {
+                                psf.captureParent = out;
+                                psf.savedIndentation = indentation;
+                                psf.cacheKey = currValue;
+                                out = new StringBuilder();
+                                indentation = new StringBuilder();
+                            }
                             inProgressStack.push(psf);
                             indentation.append(TAB);
                             
@@ -1078,7 +2111,7 @@ public class SubJson
                 
             case LBL_PRINT_ARRAY_FINISH:
                 // Finish printing the array and "return."
-                inProgressStack.pop();
+                finishedFrame = inProgressStack.pop();
                 indentation.delete(indentation.length() - TAB.length(),
                                    indentation.length());
                 
@@ -1086,6 +2119,16 @@ public class SubJson
                 out.append(indentation);
                 out.append("]");
 
+                if (finishedFrame.captureParent != null) {
+                    // It was written without indentation into its own
+                    // buffer, so cache it and splice it into the real output.
+                    String json = out.toString();
+                    cache.put(finishedFrame.cacheKey, tjp, pretty, json);
+                    out = finishedFrame.captureParent;
+                    indentation = finishedFrame.savedIndentation;
+                    appendCached(out, json, indentation);
+                }
+
                 currState = LBL_CHECK_STACK_OR_FINISH;
                 break dispatch;
 
@@ -1123,7 +2166,7 @@ public class SubJson
 
             case LBL_PRINT_OBJECT_FINISH:
                 // Finish printing the object and "return."
-                inProgressStack.pop();
+                finishedFrame = inProgressStack.pop();
                 indentation.delete(indentation.length() - TAB.length(),
                                    indentation.length());
 
@@ -1131,12 +2174,457 @@ public class SubJson
                 out.append(indentation);
                 out.append("}");
 
+                if (finishedFrame.captureParent != null) {
+                    // It was written without indentation into its own
+                    // buffer, so cache it and splice it into the real output.
+                    String json = out.toString();
+                    cache.put(finishedFrame.cacheKey, tjp, pretty, json);
+                    out = finishedFrame.captureParent;
+                    indentation = finishedFrame.savedIndentation;
+                    appendCached(out, json, indentation);
+                }
+
                 currState = LBL_CHECK_STACK_OR_FINISH;
                 break dispatch;
             }
         }
     }
 
+    /**
+       Copies a json value from the jsonSrc argument, any
+       {@link CharSequence}, to out, laid out as
+       {@link #write(Appendable, Object, boolean)} would write it, and
+       returns it as a String.
+
+       @param jsonSrc a {@link CharSequence} to read a json value from
+       @param pretty pass true to emit pretty-printed json, false for
+       compact json
+       @return the reformatted json
+       @see #reformat(Reader, Appendable, boolean)
+     */
+    public static String reformatToString(CharSequence jsonSrc, boolean pretty)
+        throws IOException
+    {
+        StringBuilder sb = new StringBuilder(jsonSrc.length());
+        reformat(charSequenceReader(jsonSrc), sb, pretty);
+        return sb.toString();
+    }
+
+    /**
+       Copies a json value from the jsonSrc argument, any
+       {@link CharSequence}, to out, laid out as
+       {@link #write(Appendable, Object, boolean)} would write it.
+
+       @param jsonSrc a {@link CharSequence} to read a json value from
+       @param out the {@link Appendable} to write the value to
+       @param pretty pass true to emit pretty-printed json, false for
+       compact json
+       @see #reformat(Reader, Appendable, boolean)
+     */
+    public static void reformat(CharSequence jsonSrc, Appendable out, boolean pretty)
+        throws IOException
+    {
+        reformat(charSequenceReader(jsonSrc), out, pretty);
+    }
+
+    /**
+       Copies a json value from the jsonSrc argument, a {@link Reader}, to
+       out, either pretty-printed or compact, laid out exactly as
+       {@link #write(Appendable, Object, boolean)} would write the value
+       read from it. This is for minifying or re-indenting json without
+       reading it: nothing is built from the json, so memory use doesn't
+       grow with its size, and strings and numbers are copied as they
+       appear in the input, escapes and all, so their text is kept
+       exactly, even for numbers that a Long or Double can't hold. Only
+       the whitespace between tokens changes.
+       <p>
+       As with {@link #read(Reader)}, the {@link Reader} is left just after
+       the value, so a stream of values can be reformatted by calling this
+       once per value, and it must return true when markSupported() is
+       called. The input is checked as {@link #isValid(CharSequence)}
+       checks it, and if it is invalid, an IllegalArgumentException is
+       thrown, leaving whatever was copied before the problem in out.
+
+       @param jsonSrc a {@link Reader} to read a json value from
+       @param out the {@link Appendable} to write the value to
+       @param pretty pass true to emit pretty-printed json, false for
+       compact json
+     */
+    public static void reformat(Reader jsonSrc, Appendable out, boolean pretty)
+        throws IOException
+    {
+        Reformatter.reformat(jsonSrc, out, pretty);
+    }
+
+    /**
+       Pretty-print the java object jsonValue to the {@link Appendable} out,
+       using the default ToJsonPolicy, serializing the elements of a
+       top-level array or object in parallel.
+
+       @param out the {@link Appendable} to pretty-print the value to
+       @param jsonValue the value to pretty-print to json
+       @see #writeParallel(Appendable, Object, boolean, ToJsonPolicy, ForkJoinPool, int)
+     */
+    public static void writeParallel(Appendable out, Object jsonValue)
+        throws IOException
+    {
+        writeParallel(out, jsonValue, true, defaultToJP);
+    }
+
+    /**
+       Write the java object jsonValue to the {@link Appendable} out, using
+       the default ToJsonPolicy, serializing the elements of a top-level
+       array or object in parallel. If pretty is true, the output will
+       be pretty-printed, and if it is false, the output will be printed
+       in a compact style with minimal whitespace.
+
+       @param out the {@link Appendable} to serialize the value to
+       @param jsonValue the value to serialize to json
+       @param pretty pass true to emit pretty-printed json, false for
+       compact json
+       @see #writeParallel(Appendable, Object, boolean, ToJsonPolicy, ForkJoinPool, int)
+     */
+    public static void writeParallel(Appendable out, Object jsonValue,
+                                     boolean pretty)
+        throws IOException
+    {
+        writeParallel(out, jsonValue, pretty, defaultToJP);
+    }
+
+    /**
+       Writes the java object jsonValue to the {@link Appendable} out
+       according to tjp, a {@link ToJsonPolicy}, serializing the elements
+       of a top-level array or object in parallel on the common
+       {@link ForkJoinPool}.
+
+       @param out the {@link Appendable} to serialize the value to
+       @param jsonValue the value to serialize to json
+       @param pretty pass true to emit pretty-printed json, false for
+       compact json
+       @param tjp a ToJsonPolicy to translate the java value to json values
+       @see #writeParallel(Appendable, Object, boolean, ToJsonPolicy, ForkJoinPool, int)
+     */
+    public static void writeParallel(Appendable out, Object jsonValue,
+                                     boolean pretty, ToJsonPolicy tjp)
+        throws IOException
+    {
+        writeParallel(out, jsonValue, pretty, tjp, ForkJoinPool.commonPool(),
+                      DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+       Writes the java object jsonValue to the {@link Appendable} out
+       according to tjp, a {@link ToJsonPolicy}, producing exactly the
+       same output as {@link #write(Appendable, Object, boolean, ToJsonPolicy)}.
+       If jsonValue is an array or object, its elements (or key/value
+       pairs) are split into chunks of chunkSize, each chunk is
+       serialized into its own buffer by a task on pool, and the buffers
+       are appended to out in order. Any other value is simply written
+       on the calling thread.
+       <p>
+       The top-level value is iterated on the calling thread, but the
+       values inside of it are handed to the policy from the pool's
+       threads, so tjp must be safe to call concurrently. At most a
+       few chunks per thread of the pool are in flight at once, so
+       memory use is bounded by the chunk size rather than the size of
+       the whole value.
+
+       @param out the {@link Appendable} to serialize the value to
+       @param jsonValue the value to serialize to json
+       @param pretty pass true to emit pretty-printed json, false for
+       compact json
+       @param tjp a ToJsonPolicy to translate the java value to json values
+       @param pool the {@link ForkJoinPool} to serialize chunks on
+       @param chunkSize the number of elements or key/value pairs to
+       serialize in each task
+     */
+    public static void writeParallel(Appendable out, Object jsonValue,
+                                     boolean pretty, ToJsonPolicy tjp,
+                                     ForkJoinPool pool, int chunkSize)
+        throws IOException
+    {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive.");
+        }
+
+        ToJsonPolicy.ValueType type = tjp.categorize(jsonValue);
+        Iterator<?> it;
+        String open, close;
+        if (type == ToJsonPolicy.ValueType.TYPE_ARRAY) {
+            it = tjp.arrayIterator(jsonValue);
+            open = "[";
+            close = "]";
+        } else if (type == ToJsonPolicy.ValueType.TYPE_OBJECT) {
+            it = tjp.objectIterator(jsonValue);
+            open = "{";
+            close = "}";
+        } else {
+            write(out, jsonValue, pretty, tjp);
+            return;
+        }
+
+        // Nothing to split up; write() prints empty values without
+        // whitespace.
+        if (!it.hasNext()) {
+            write(out, jsonValue, pretty, tjp);
+            return;
+        }
+
+        final String NL = pretty ? "\n" : "";
+        final String COMMA = "," + NL;
+
+        final boolean metricsEnabled = SubJsonMetrics.enabled;
+        final Object jfrEvent = JfrEvents.beginWrite();
+        final long startNanos = metricsEnabled ? System.nanoTime() : 0L;
+        final long startChars = charsWritten(out);
+
+        // Keep a bounded window of chunks in flight, appending the
+        // oldest to out whenever the window is full.
+        final int maxInFlight = 2 * pool.getParallelism();
+        ArrayDeque<ChunkWriteTask> inFlight = new ArrayDeque<ChunkWriteTask>();
+        boolean firstChunk = true;
+
+        out.append(open);
+        out.append(NL);
+        while (it.hasNext()) {
+            ArrayList<Object> chunk = new ArrayList<Object>(chunkSize);
+            while (it.hasNext() && chunk.size() < chunkSize) {
+                chunk.add(it.next());
+            }
+
+            ChunkWriteTask task = new ChunkWriteTask(chunk, type, pretty, tjp);
+            if (firstChunk && !it.hasNext()) {
+                // Only one chunk, so there's nothing to run in parallel.
+                task.invoke();
+            } else {
+                pool.execute(task);
+            }
+            inFlight.addLast(task);
+
+            if (inFlight.size() >= maxInFlight) {
+                appendChunk(out, inFlight.removeFirst(), firstChunk, COMMA);
+                firstChunk = false;
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            appendChunk(out, inFlight.removeFirst(), firstChunk, COMMA);
+            firstChunk = false;
+        }
+        out.append(NL);
+        out.append(close);
+
+        long chars = startChars < 0 ? -1L : charsWritten(out) - startChars;
+        if (metricsEnabled) {
+            SubJsonMetrics.recordWrite(System.nanoTime() - startNanos, chars);
+        }
+        if (jfrEvent != null) {
+            JfrEvents.commitWrite(jfrEvent, chars, pretty, true, false, tjp);
+        }
+    }
+
+    private static void appendChunk(Appendable out, ChunkWriteTask task,
+                                    boolean firstChunk, String COMMA)
+        throws IOException
+    {
+        String chunkJson;
+        try {
+            chunkJson = task.join();
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
+        }
+
+        if (!firstChunk) {
+            out.append(COMMA);
+        }
+        out.append(chunkJson);
+    }
+
+    /*
+      Serializes a run of elements of a top-level array (or entries of a
+      top-level object) to a String, just as write() would print them
+      one level deep in that array or object, separated by commas.
+     */
+    private static class ChunkWriteTask extends RecursiveTask<String>
+    {
+        private static final long serialVersionUID = 1L;
+
+        final ArrayList<Object> elements;
+        final ToJsonPolicy.ValueType containerType;
+        final boolean pretty;
+        final ToJsonPolicy tjp;
+
+        ChunkWriteTask(ArrayList<Object> elements,
+                       ToJsonPolicy.ValueType containerType,
+                       boolean pretty, ToJsonPolicy tjp)
+        {
+            this.elements = elements;
+            this.containerType = containerType;
+            this.pretty = pretty;
+            this.tjp = tjp;
+        }
+
+        @SuppressWarnings("unchecked")
+        protected String compute()
+        {
+            final String COMMA = pretty ? ",\n" : ",";
+            final String COLON = pretty ? ": " : ":";
+            final String TAB = pretty ? "    " : "";
+            StringBuilder sb = new StringBuilder();
+
+            try {
+                for (int i = 0; i < elements.size(); i++) {
+                    if (i > 0) {
+                        sb.append(COMMA);
+                    }
+                    sb.append(TAB);
+
+                    Object element = elements.get(i);
+                    if (containerType == ToJsonPolicy.ValueType.TYPE_OBJECT) {
+                        Map.Entry<String, Object> me = (Map.Entry<String, Object>)element;
+                        writeString(sb, me.getKey());
+                        sb.append(COLON);
+                        write(sb, me.getValue(), pretty, tjp, 1, null);
+                    } else {
+                        write(sb, element, pretty, tjp, 1, null);
+                    }
+                }
+            } catch (IOException ioe) {
+                // Can't happen with a StringBuilder, but write() says it might.
+                throw new UncheckedIOException(ioe);
+            }
+
+            return sb.toString();
+        }
+    }
+
+    /*
+      Appends json that was cached from a write at the top level (that is,
+      without indentation) to out, indenting every line after the first by
+      the given indentation. Json strings never contain a raw newline, so
+      every newline in the cached json is one put there by pretty-printing.
+     */
+    private static void appendCached(Appendable out, String json,
+                                     CharSequence indentation)
+        throws IOException
+    {
+        if (indentation.length() == 0) {
+            out.append(json);
+            return;
+        }
+
+        int segStart = 0;
+        int nl;
+        while ((nl = json.indexOf('\n', segStart)) != -1) {
+            out.append(json, segStart, nl + 1);
+            out.append(indentation);
+            segStart = nl + 1;
+        }
+        out.append(json, segStart, json.length());
+    }
+
+    /*
+      Writes a ColumnarTable for the default policy, straight from its
+      columns, giving the same json as writing its rows would. The table
+      is at the nesting of indentation, and its first line is not
+      indented, as for write(). Values that aren't in a primitive column,
+      and rows kept as maps, are written with write().
+     */
+    private static void writeTable(Appendable out, ColumnarTable table, boolean pretty,
+                                   CharSequence indentation)
+        throws IOException
+    {
+        if (table.rows == 0) {
+            out.append("[]");
+            return;
+        }
+        String TAB = pretty ? "    " : "";
+        String NL = pretty ? "\n" : "";
+        String COMMA = "," + NL;
+        int depth = pretty ? indentation.length() / TAB.length() : 0;
+        String rowIndentation = indentation + TAB;
+        String fieldIndentation = rowIndentation + TAB;
+
+        // Each field's key and colon, and, for the strings of a column
+        // with few of them, each string as json, made once for all rows.
+        ColumnarTable.Column[] columns = table.columns;
+        String[] keys = new String[columns.length];
+        String[][] strings = new String[columns.length][];
+        for (int f = 0; f < columns.length; f++) {
+            StringBuilder sb = new StringBuilder();
+            writeString(sb, columns[f].name);
+            keys[f] = sb.append(pretty ? ": " : ":").toString();
+            if (columns[f].kind == ColumnarTable.STRINGS
+                && columns[f].dictionary.length * 2 <= table.rows) {
+                strings[f] = new String[columns[f].dictionary.length];
+            }
+        }
+
+        out.append("[");
+        out.append(NL);
+        for (int r = 0; r < table.rows; r++) {
+            if (r > 0) out.append(COMMA);
+            out.append(rowIndentation);
+            Map<String,Object> fallback = table.fallbackMap(r);
+            if (fallback != null) {
+                write(out, fallback, pretty, defaultToJP, depth + 1, null);
+                continue;
+            }
+            if (columns.length == 0) {
+                out.append("{}");
+                continue;
+            }
+
+            out.append("{");
+            out.append(NL);
+            for (int f = 0; f < columns.length; f++) {
+                ColumnarTable.Column c = columns[f];
+                if (f > 0) out.append(COMMA);
+                out.append(fieldIndentation);
+                out.append(keys[f]);
+                if (c.nulls.get(r)) {
+                    out.append("null");
+                    continue;
+                }
+                switch (c.kind) {
+                case ColumnarTable.LONGS:
+                    out.append(Long.toString(c.longs[r]));
+                    break;
+                case ColumnarTable.DOUBLES:
+                    if (c.bits.get(r)) out.append(Long.toString((long)c.doubles[r]));
+                    else out.append(Double.toString(c.doubles[r]));
+                    break;
+                case ColumnarTable.STRINGS:
+                    {
+                        int code = c.codes[r];
+                        if (strings[f] == null) {
+                            writeString(out, c.dictionary[code]);
+                        } else {
+                            if (strings[f][code] == null) {
+                                StringBuilder sb = new StringBuilder();
+                                writeString(sb, c.dictionary[code]);
+                                strings[f][code] = sb.toString();
+                            }
+                            out.append(strings[f][code]);
+                        }
+                        break;
+                    }
+                case ColumnarTable.BOOLEANS:
+                    out.append(c.bits.get(r) ? "true" : "false");
+                    break;
+                default:
+                    write(out, c.values[r], pretty, defaultToJP, depth + 2, null);
+                    break;
+                }
+            }
+            out.append(NL);
+            out.append(rowIndentation);
+            out.append("}");
+        }
+        out.append(NL);
+        out.append(indentation);
+        out.append("]");
+    }
+
     private static void writeString(Appendable out, String str)
         throws IOException
     {
@@ -0,0 +1,193 @@
+package su.boptim.al.subjson;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+   Counts of the work SubJson has done: values read and written, what
+   kinds of values they were, how many characters they took, and how long
+   it took. The counts are kept in {@link LongAdder}s, which stripe their
+   updates across cells so that threads don't contend with each other, and
+   each read() or write() counts into local variables as it goes and adds
+   them in once, when it's done. That makes them cheap enough to leave on,
+   but they can be turned off with {@link #setEnabled(boolean)}.
+
+   The counts can be read in code with {@link #snapshot()}, or over JMX
+   after calling {@link #registerMBean()}.
+ */
+public final class SubJsonMetrics
+{
+    /** The name the MBean is registered under. */
+    public static final String MBEAN_NAME = "su.boptim.al.subjson:type=Metrics";
+
+    // Read once at the start of each read() or write(); turning metrics
+    // off or on affects documents started after the change.
+    static volatile boolean enabled = true;
+
+    private static final LongAdder documentsRead = new LongAdder();
+    private static final LongAdder charsRead = new LongAdder();
+    private static final LongAdder nullsRead = new LongAdder();
+    private static final LongAdder booleansRead = new LongAdder();
+    private static final LongAdder numbersRead = new LongAdder();
+    private static final LongAdder stringsRead = new LongAdder();
+    private static final LongAdder keysRead = new LongAdder();
+    private static final LongAdder arraysRead = new LongAdder();
+    private static final LongAdder objectsRead = new LongAdder();
+    private static final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+    private static final LongAdder parseNanos = new LongAdder();
+    private static final LongAdder documentsWritten = new LongAdder();
+    private static final LongAdder charsWritten = new LongAdder();
+    private static final LongAdder writeNanos = new LongAdder();
+
+    private SubJsonMetrics()
+    {
+    }
+
+    /**
+       Returns whether metrics are being collected.
+
+       @return true if metrics are being collected
+     */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+       Turns the collection of metrics on or off. Counts collected so far
+       are kept either way.
+
+       @param enable true to collect metrics, false to stop
+     */
+    public static void setEnabled(boolean enable)
+    {
+        enabled = enable;
+    }
+
+    /**
+       Returns a copy of the counts as they are now.
+
+       @return a {@link MetricsSnapshot} of the current counts
+     */
+    public static MetricsSnapshot snapshot()
+    {
+        return new MetricsSnapshot(documentsRead.sum(), charsRead.sum(),
+                                   nullsRead.sum(), booleansRead.sum(),
+                                   numbersRead.sum(), stringsRead.sum(),
+                                   keysRead.sum(), arraysRead.sum(),
+                                   objectsRead.sum(), maxDepth.get(),
+                                   parseNanos.sum(), documentsWritten.sum(),
+                                   charsWritten.sum(), writeNanos.sum());
+    }
+
+    /**
+       Sets every count back to zero. Reads and writes in progress on
+       other threads may still add their counts afterwards.
+     */
+    public static void reset()
+    {
+        documentsRead.reset();
+        charsRead.reset();
+        nullsRead.reset();
+        booleansRead.reset();
+        numbersRead.reset();
+        stringsRead.reset();
+        keysRead.reset();
+        arraysRead.reset();
+        objectsRead.reset();
+        maxDepth.reset();
+        parseNanos.reset();
+        documentsWritten.reset();
+        charsWritten.reset();
+        writeNanos.reset();
+    }
+
+    /**
+       Registers a {@link SubJsonMetricsMXBean} with the platform MBean
+       server under {@link #MBEAN_NAME}, if one isn't registered already.
+
+       @throws JMException if the MBean server refuses the MBean
+     */
+    public static synchronized void registerMBean()
+        throws JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MBEAN_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new MXBeanImpl(), name);
+        }
+    }
+
+    /**
+       Unregisters the MBean registered by {@link #registerMBean()}, if
+       there is one.
+
+       @throws JMException if the MBean server refuses to unregister it
+     */
+    public static synchronized void unregisterMBean()
+        throws JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MBEAN_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    /*
+      Adds in the counts from a single read(). charCount is -1 if the
+      number of characters read is unknown.
+     */
+    static void recordRead(long nanos, long charCount, long nulls, long booleans,
+                           long numbers, long strings, long keys, long arrays,
+                           long objects, int depth)
+    {
+        documentsRead.increment();
+        if (charCount > 0) charsRead.add(charCount);
+        if (nulls != 0) nullsRead.add(nulls);
+        if (booleans != 0) booleansRead.add(booleans);
+        if (numbers != 0) numbersRead.add(numbers);
+        if (strings != 0) stringsRead.add(strings);
+        if (keys != 0) keysRead.add(keys);
+        if (arrays != 0) arraysRead.add(arrays);
+        if (objects != 0) objectsRead.add(objects);
+        if (depth != 0) maxDepth.accumulate(depth);
+        parseNanos.add(nanos);
+    }
+
+    /*
+      Adds in the counts from a single write(). charCount is -1 if the
+      number of characters written is unknown.
+     */
+    static void recordWrite(long nanos, long charCount)
+    {
+        documentsWritten.increment();
+        if (charCount > 0) charsWritten.add(charCount);
+        writeNanos.add(nanos);
+    }
+
+    private static final class MXBeanImpl implements SubJsonMetricsMXBean
+    {
+        public boolean isEnabled() { return SubJsonMetrics.isEnabled(); }
+        public void setEnabled(boolean enabled) { SubJsonMetrics.setEnabled(enabled); }
+        public long getDocumentsRead() { return documentsRead.sum(); }
+        public long getCharsRead() { return charsRead.sum(); }
+        public long getNullsRead() { return nullsRead.sum(); }
+        public long getBooleansRead() { return booleansRead.sum(); }
+        public long getNumbersRead() { return numbersRead.sum(); }
+        public long getStringsRead() { return stringsRead.sum(); }
+        public long getKeysRead() { return keysRead.sum(); }
+        public long getArraysRead() { return arraysRead.sum(); }
+        public long getObjectsRead() { return objectsRead.sum(); }
+        public long getMaxDepth() { return maxDepth.get(); }
+        public long getParseNanos() { return parseNanos.sum(); }
+        public long getDocumentsWritten() { return documentsWritten.sum(); }
+        public long getCharsWritten() { return charsWritten.sum(); }
+        public long getWriteNanos() { return writeNanos.sum(); }
+        public void reset() { SubJsonMetrics.reset(); }
+    }
+}
@@ -0,0 +1,70 @@
+package su.boptim.al.subjson;
+
+/**
+   The management interface for SubJson's metrics, registered with the
+   platform MBean server by {@link SubJsonMetrics#registerMBean()}. Every
+   count is the total since the JVM started or since the last call to
+   reset(), across all threads.
+ */
+public interface SubJsonMetricsMXBean
+{
+    /** @return whether metrics are being collected */
+    boolean isEnabled();
+
+    /** @param enabled true to collect metrics, false to stop */
+    void setEnabled(boolean enabled);
+
+    /** @return the number of json values read by SubJson.read() */
+    long getDocumentsRead();
+
+    /**
+       @return the number of characters consumed while reading json values,
+       counted for SubJson's own Readers and for Strings, CharSequences and
+       char arrays; other Readers can't tell how far they have been read
+     */
+    long getCharsRead();
+
+    /** @return the number of nulls read */
+    long getNullsRead();
+
+    /** @return the number of booleans read */
+    long getBooleansRead();
+
+    /** @return the number of numbers read */
+    long getNumbersRead();
+
+    /** @return the number of strings read, not including object keys */
+    long getStringsRead();
+
+    /** @return the number of object keys read */
+    long getKeysRead();
+
+    /** @return the number of arrays read */
+    long getArraysRead();
+
+    /** @return the number of objects read */
+    long getObjectsRead();
+
+    /** @return the deepest nesting of arrays and objects read */
+    long getMaxDepth();
+
+    /** @return the total time spent in SubJson.read(), in nanoseconds */
+    long getParseNanos();
+
+    /** @return the number of json values written by SubJson.write() */
+    long getDocumentsWritten();
+
+    /**
+       @return the number of characters written, counted only when
+       writing to a StringBuilder (as writeToString() does), a
+       StringBuffer or a StringWriter; writes to any other Appendable
+       add nothing here, though they are still counted as documents
+     */
+    long getCharsWritten();
+
+    /** @return the total time spent in SubJson.write(), in nanoseconds */
+    long getWriteNanos();
+
+    /** Sets every count back to zero. */
+    void reset();
+}
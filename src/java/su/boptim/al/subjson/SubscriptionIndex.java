@@ -0,0 +1,261 @@
+package su.boptim.al.subjson;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+  The compiled form of a JsonSubscriptions, which SubscriptionScanner
+  matches messages against. The conditions of all the subscriptions are
+  numbered in one sequence, and grouped by path, with each distinct path
+  appearing once, so that a PathMatcher over the distinct paths finds the
+  values every condition needs in one pass. For each path, the conditions
+  on it are indexed by what they test:
+
+  - existence, which any value satisfies, in a plain list;
+  - == and !=, by a 64-bit hash of the literal, sorted, so the conditions
+    a value could satisfy are found by binary search on the value's hash,
+    then checked against the literal itself;
+  - > and >=, sorted by increasing bound, so that the ones a number
+    satisfies are a prefix of the list; and < and <= likewise, sorted by
+    decreasing bound.
+
+  Never changes once built, so it may be shared by any number of scans,
+  each thread's with a scanner of its own.
+ */
+final class SubscriptionIndex
+{
+    static final int OP_EXISTS = 0;
+    static final int OP_EQ = 1;
+    static final int OP_NE = 2;
+    static final int OP_LT = 3;
+    static final int OP_LE = 4;
+    static final int OP_GT = 5;
+    static final int OP_GE = 6;
+
+    // Seeds and values for hashing scalars, so that values of different
+    // types are unlikely to hash the same.
+    static final long STRING_SEED = 0x5DEECE66DL;
+    static final long TRUE_HASH = 0x6A09E667F3BCC908L;
+    static final long FALSE_HASH = 0xBB67AE8584CAA73BL;
+    static final long NULL_HASH = 0x3C6EF372FE94F82BL;
+
+    // Each subscription's id, and the number of its conditions other
+    // than !=, which must all become true for it to be satisfied.
+    final int[] ids;
+    final int[] positiveCounts;
+
+    // Each condition's subscription, operator and literal.
+    final int[] conditionSubs;
+    final int[] conditionOps;
+    final Object[] literals;
+
+    // Each distinct path, and whether it selects at most one value.
+    final JsonPath[] paths;
+    final boolean[] singular;
+
+    // The conditions on each path, by what they test, as described above.
+    final int[][] exists;
+    final long[][] eqHashes;
+    final int[][] eqConditions;
+    final double[][] gtBounds;
+    final int[][] gtConditions;
+    final double[][] ltBounds;
+    final int[][] ltConditions;
+
+    // The scanner each thread last matched messages with. This is shared
+    // by all indexes, rather than one for each, as a scanner refers to its
+    // index, which would then keep its own ThreadLocal from ever being
+    // collected; this way each thread keeps at most one scanner.
+    private static final ThreadLocal<SubscriptionScanner> scanners
+        = new ThreadLocal<SubscriptionScanner>();
+
+    SubscriptionIndex(List<JsonSubscriptions.Subscription> subs)
+    {
+        int nSubs = subs.size();
+        ids = new int[nSubs];
+        positiveCounts = new int[nSubs];
+        int nConditions = 0;
+        for (JsonSubscriptions.Subscription s : subs) {
+            nConditions += s.paths.length;
+        }
+        conditionSubs = new int[nConditions];
+        int[] conditionPaths = new int[nConditions];
+        conditionOps = new int[nConditions];
+        literals = new Object[nConditions];
+
+        HashMap<String, Integer> pathNumbers = new HashMap<String, Integer>();
+        ArrayList<JsonPath> distinct = new ArrayList<JsonPath>();
+        int c = 0;
+        for (int s = 0; s < nSubs; s++) {
+            JsonSubscriptions.Subscription sub = subs.get(s);
+            ids[s] = sub.id;
+            for (int i = 0; i < sub.paths.length; i++, c++) {
+                String key = sub.paths[i].toString();
+                Integer p = pathNumbers.get(key);
+                if (p == null) {
+                    p = distinct.size();
+                    pathNumbers.put(key, p);
+                    distinct.add(sub.paths[i]);
+                }
+                conditionSubs[c] = s;
+                conditionPaths[c] = p;
+                conditionOps[c] = sub.ops[i];
+                literals[c] = sub.literals[i];
+                if (sub.ops[i] != OP_NE) positiveCounts[s]++;
+            }
+        }
+
+        int nPaths = distinct.size();
+        paths = distinct.toArray(new JsonPath[nPaths]);
+        singular = new boolean[nPaths];
+        for (int p = 0; p < nPaths; p++) {
+            singular[p] = true;
+            for (int i = 0; i < paths[p].length(); i++) {
+                if (paths[p].descendant[i] || paths[p].selectors[i] == JsonPath.SELECT_ANY) {
+                    singular[p] = false;
+                }
+            }
+        }
+
+        // Count the conditions of each kind on each path, to size the lists.
+        int[] nExists = new int[nPaths];
+        int[] nEq = new int[nPaths];
+        int[] nGt = new int[nPaths];
+        int[] nLt = new int[nPaths];
+        for (c = 0; c < nConditions; c++) {
+            int p = conditionPaths[c];
+            switch (conditionOps[c]) {
+            case OP_EXISTS: nExists[p]++; break;
+            case OP_EQ:
+            case OP_NE: nEq[p]++; break;
+            case OP_GT:
+            case OP_GE: nGt[p]++; break;
+            default: nLt[p]++; break;
+            }
+        }
+        exists = new int[nPaths][];
+        eqHashes = new long[nPaths][];
+        eqConditions = new int[nPaths][];
+        gtBounds = new double[nPaths][];
+        gtConditions = new int[nPaths][];
+        ltBounds = new double[nPaths][];
+        ltConditions = new int[nPaths][];
+        long[][] gtKeys = new long[nPaths][];
+        long[][] ltKeys = new long[nPaths][];
+        for (int p = 0; p < nPaths; p++) {
+            exists[p] = new int[nExists[p]];
+            eqHashes[p] = new long[nEq[p]];
+            eqConditions[p] = new int[nEq[p]];
+            gtBounds[p] = new double[nGt[p]];
+            gtConditions[p] = new int[nGt[p]];
+            gtKeys[p] = new long[nGt[p]];
+            ltBounds[p] = new double[nLt[p]];
+            ltConditions[p] = new int[nLt[p]];
+            ltKeys[p] = new long[nLt[p]];
+            nExists[p] = nEq[p] = nGt[p] = nLt[p] = 0;
+        }
+
+        for (c = 0; c < nConditions; c++) {
+            int p = conditionPaths[c];
+            switch (conditionOps[c]) {
+            case OP_EXISTS:
+                exists[p][nExists[p]++] = c;
+                break;
+            case OP_EQ:
+            case OP_NE:
+                eqHashes[p][nEq[p]] = hashLiteral(literals[c]);
+                eqConditions[p][nEq[p]++] = c;
+                break;
+            case OP_GT:
+            case OP_GE:
+                gtKeys[p][nGt[p]] = sortKey(((Number)literals[c]).doubleValue());
+                gtConditions[p][nGt[p]++] = c;
+                break;
+            default:
+                // Sorting by the negated bound puts these in decreasing order.
+                ltKeys[p][nLt[p]] = sortKey(-((Number)literals[c]).doubleValue());
+                ltConditions[p][nLt[p]++] = c;
+                break;
+            }
+        }
+
+        for (int p = 0; p < nPaths; p++) {
+            sort(eqHashes[p], eqConditions[p]);
+            sort(gtKeys[p], gtConditions[p]);
+            sort(ltKeys[p], ltConditions[p]);
+            for (int i = 0; i < gtBounds[p].length; i++) {
+                gtBounds[p][i] = ((Number)literals[gtConditions[p][i]]).doubleValue();
+            }
+            for (int i = 0; i < ltBounds[p].length; i++) {
+                ltBounds[p][i] = ((Number)literals[ltConditions[p][i]]).doubleValue();
+            }
+        }
+    }
+
+    // The calling thread's scanner for this index.
+    SubscriptionScanner scanner()
+    {
+        SubscriptionScanner scanner = scanners.get();
+        if (scanner == null || scanner.index != this) {
+            scanner = new SubscriptionScanner(this);
+            scanners.set(scanner);
+        }
+        return scanner;
+    }
+
+    // A long that sorts as d does among doubles.
+    private static long sortKey(double d)
+    {
+        long bits = Double.doubleToLongBits(d);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    /*
+      Sorts keys into increasing order, moving the conditions along with
+      them, with a merge sort, which is stable, so conditions with equal
+      keys stay in the order they were added.
+     */
+    private static void sort(long[] keys, int[] conditions)
+    {
+        int n = keys.length;
+        long[] keyBuf = new long[n];
+        int[] condBuf = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n);
+                int hi = Math.min(lo + 2 * width, n);
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++) {
+                    if (j >= hi || (i < mid && keys[i] <= keys[j])) {
+                        keyBuf[k] = keys[i];
+                        condBuf[k] = conditions[i++];
+                    } else {
+                        keyBuf[k] = keys[j];
+                        condBuf[k] = conditions[j++];
+                    }
+                }
+            }
+            System.arraycopy(keyBuf, 0, keys, 0, n);
+            System.arraycopy(condBuf, 0, conditions, 0, n);
+        }
+    }
+
+    // The hash of a literal, as SubscriptionScanner hashes values.
+    static long hashLiteral(Object literal)
+    {
+        if (literal == null) {
+            return NULL_HASH;
+        } else if (literal instanceof Boolean) {
+            return ((Boolean)literal) ? TRUE_HASH : FALSE_HASH;
+        } else if (literal instanceof String) {
+            return XxHash64.hash((String)literal, STRING_SEED);
+        } else if (literal instanceof Long) {
+            long l = (Long)literal;
+            return NumberScanner.hash(true, l, l);
+        } else {
+            return NumberScanner.hash(false, 0, ((Number)literal).doubleValue());
+        }
+    }
+}
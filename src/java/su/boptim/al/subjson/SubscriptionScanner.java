@@ -0,0 +1,394 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/*
+  Matches one message against a SubscriptionIndex, for
+  JsonSubscriptions.match(). This is the state machine of read() (see
+  there for how it works), matching the index's paths with a PathMatcher
+  as it goes, as AggregatingScanner does, and testing each value a path
+  selects against the conditions on that path.
+
+  Only the conditions a value satisfies are touched, so the work for
+  each value is in proportion to the conditions it satisfies, rather
+  than to all of the conditions on its path. Each subscription counts
+  its conditions that have become true, each counted once however many
+  values satisfy it, and is satisfied at the end if the count reaches
+  its number of conditions other than !=, and none of its != conditions
+  found a value equal to its literal, which sets the count far below
+  zero for good. A path that selects at most one value is settled by
+  that value, and once every path is settled, nothing more in the
+  message can change the outcome, so the scan stops where it is.
+
+  A scanner is kept for each thread (see SubscriptionIndex.scanner())
+  and reused for every message it matches, so that matching allocates
+  nothing but the ids it returns. So that nothing has to be cleared
+  between messages, the state of each condition, subscription and path
+  is stamped with the number of the message it was last set for, and
+  state with an older stamp counts as unset.
+ */
+final class SubscriptionScanner
+{
+    private static final int LBL_START_MEMBER = 0;
+    private static final int LBL_AFTER_VALUE = 1;
+
+    // A count no number of conditions coming true can bring back up.
+    private static final int VIOLATED = Integer.MIN_VALUE / 2;
+
+    private static final int VALUE_STRING = 0;
+    private static final int VALUE_NUMBER = 1;
+    private static final int VALUE_TRUE = 2;
+    private static final int VALUE_FALSE = 3;
+    private static final int VALUE_NULL = 4;
+
+    final SubscriptionIndex index;
+    private final PathMatcher matcher;
+
+    private int stamp;
+    private final int[] countedStamps;  // For each condition, when it was counted.
+    private final int[] countStamps;    // For each subscription, when trueCounts was set.
+    private final int[] trueCounts;
+    private final int[] doneStamps;     // For each singular path, when it was settled.
+    private int livePaths;
+
+    private final StringBuilder keyChars = new StringBuilder();
+    private final StringBuilder scratch = new StringBuilder();
+    private final NumberScanner number = new NumberScanner();
+    private ValidationResult skipResult;
+
+    // For each array or object being scanned: which it is, and the index
+    // of its next element.
+    private boolean[] isObject = new boolean[16];
+    private int[] indexes = new int[16];
+
+    SubscriptionScanner(SubscriptionIndex index)
+    {
+        this.index = index;
+        this.matcher = new PathMatcher(index.paths);
+        countedStamps = new int[index.conditionOps.length];
+        countStamps = new int[index.ids.length];
+        trueCounts = new int[index.ids.length];
+        doneStamps = new int[index.paths.length];
+    }
+
+    int[] match(Reader jsonSrc) throws IOException
+    {
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(countedStamps, 0);
+            Arrays.fill(countStamps, 0);
+            Arrays.fill(doneStamps, 0);
+            stamp = 0;
+        }
+        stamp++;
+        livePaths = index.paths.length;
+        scan(jsonSrc);
+
+        int[] positiveCounts = index.positiveCounts;
+        int n = 0;
+        for (int s = 0; s < trueCounts.length; s++) {
+            if (count(s) == positiveCounts[s]) n++;
+        }
+        int[] ids = new int[n];
+        n = 0;
+        for (int s = 0; s < trueCounts.length; s++) {
+            if (count(s) == positiveCounts[s]) ids[n++] = index.ids[s];
+        }
+        return ids;
+    }
+
+    private int count(int s)
+    {
+        return (countStamps[s] == stamp) ? trueCounts[s] : 0;
+    }
+
+    private void scan(Reader jsonSrc) throws IOException
+    {
+        if (livePaths == 0) return;
+        matcher.reset();
+        SubJson.skipWhitespace(jsonSrc);
+        if (!takeValue(jsonSrc, 0)) return;
+        int depth = 1;
+        boolean afterComma = false;
+        int currState = LBL_START_MEMBER;
+
+        while (true) {
+            if (livePaths == 0) return;
+            switch (currState) {
+            case LBL_AFTER_VALUE:
+                {
+                    if (depth == 0) return;
+                    int level = depth - 1;
+                    SubJson.skipWhitespace(jsonSrc);
+                    int currRune = SubJson.peek(jsonSrc);
+                    if (currRune == ',') {
+                        jsonSrc.read();
+                        afterComma = true;
+                        currState = LBL_START_MEMBER;
+                    } else if (currRune == -1) {
+                        throw new IllegalArgumentException(isObject[level]
+                                                           ? "Reached EOF while parsing an object."
+                                                           : "Reached EOF while parsing an array.");
+                    } else {
+                        SubJson.readChar(jsonSrc, isObject[level] ? '}' : ']');
+                        depth--;
+                    }
+                    break;
+                }
+
+            case LBL_START_MEMBER:
+                {
+                    int level = depth - 1; // The level of the container.
+                    SubJson.skipWhitespace(jsonSrc);
+                    int currRune = SubJson.peek(jsonSrc);
+                    char close = isObject[level] ? '}' : ']';
+                    if (currRune == close) {
+                        if (afterComma) {
+                            throw new IllegalArgumentException(isObject[level]
+                                                               ? "Encountered a comma before the end of an object."
+                                                               : "Encountered a comma before the end of an array.");
+                        }
+                        jsonSrc.read();
+                        depth--;
+                        currState = LBL_AFTER_VALUE;
+                        break;
+                    }
+
+                    boolean live;
+                    if (isObject[level]) {
+                        if (currRune == -1) {
+                            throw new IllegalArgumentException("Reached EOF while parsing an object.");
+                        } else if (currRune != '"') {
+                            throw new IllegalArgumentException("Encountered unexpected character '"
+                                                               + (char)currRune
+                                                               + "' where an object key was expected.");
+                        }
+                        keyChars.setLength(0);
+                        RedactingCopier.readString(jsonSrc, null, keyChars);
+                        SubJson.skipWhitespace(jsonSrc);
+                        SubJson.readChar(jsonSrc, ':');
+                        SubJson.skipWhitespace(jsonSrc);
+                        live = matcher.enter(level, keyChars, -1);
+                    } else {
+                        live = matcher.enter(level, null, indexes[level]++);
+                    }
+
+                    if (live && takeValue(jsonSrc, depth)) {
+                        depth++;
+                        afterComma = false;
+                        currState = LBL_START_MEMBER;
+                    } else {
+                        if (!live) skipValue(jsonSrc);
+                        currState = LBL_AFTER_VALUE;
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /*
+      Tests the value jsonSrc is pointing at, which is at level, against
+      the conditions on the paths that select it. If it is an array or
+      object that something inside could match, reads its opening bracket
+      or brace and returns true, for the caller to go into it. Otherwise
+      reads past the whole value and returns false.
+     */
+    private boolean takeValue(Reader jsonSrc, int level) throws IOException
+    {
+        int currRune = SubJson.peek(jsonSrc);
+        boolean needsValue = false;
+        for (int p = matcher.matched(level); p >= 0; p = matcher.nextMatched(level, p + 1)) {
+            if (doneStamps[p] == stamp) continue;
+            for (int c : index.exists[p]) {
+                setTrue(c);
+            }
+            if (index.eqConditions[p].length > 0 || index.gtConditions[p].length > 0
+                || index.ltConditions[p].length > 0) {
+                needsValue = true;
+            }
+        }
+
+        if (currRune == '[' || currRune == '{') {
+            settleSingularPaths(level);
+            if (!matcher.hasSteps(level)) {
+                skipValue(jsonSrc);
+                return false;
+            }
+            jsonSrc.read();
+            push(level, currRune == '{');
+            return true;
+        } else if (!needsValue) {
+            settleSingularPaths(level);
+            skipValue(jsonSrc);
+            return false;
+        }
+
+        int kind;
+        long hash;
+        switch (currRune) {
+        case '-':
+        case '0':
+        case '1':
+        case '2':
+        case '3':
+        case '4':
+        case '5':
+        case '6':
+        case '7':
+        case '8':
+        case '9':
+            number.scan(jsonSrc);
+            kind = VALUE_NUMBER;
+            hash = number.hash();
+            break;
+        case '"':
+            scratch.setLength(0);
+            RedactingCopier.readString(jsonSrc, null, scratch);
+            kind = VALUE_STRING;
+            hash = XxHash64.hash(scratch, SubscriptionIndex.STRING_SEED);
+            break;
+        case 't':
+        case 'f':
+            if (SubJson.readBoolean(jsonSrc)) {
+                kind = VALUE_TRUE;
+                hash = SubscriptionIndex.TRUE_HASH;
+            } else {
+                kind = VALUE_FALSE;
+                hash = SubscriptionIndex.FALSE_HASH;
+            }
+            break;
+        case 'n':
+            SubJson.readNull(jsonSrc);
+            kind = VALUE_NULL;
+            hash = SubscriptionIndex.NULL_HASH;
+            break;
+        case -1:
+            throw new IllegalArgumentException("Reached EOF while expecting a value.");
+        default:
+            throw new IllegalArgumentException("Encountered unexpected character '"
+                                               + (char)currRune + "' in input.");
+        }
+
+        for (int p = matcher.matched(level); p >= 0; p = matcher.nextMatched(level, p + 1)) {
+            if (doneStamps[p] == stamp) continue;
+            testEquality(p, kind, hash);
+            if (kind == VALUE_NUMBER) testComparisons(p, number.doubleValue);
+        }
+        settleSingularPaths(level);
+        return false;
+    }
+
+    // Decides the == and != conditions on path p whose literal the value equals.
+    private void testEquality(int p, int kind, long hash)
+    {
+        long[] hashes = index.eqHashes[p];
+        int lo = 0;
+        int hi = hashes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (hashes[mid] < hash) lo = mid + 1;
+            else hi = mid;
+        }
+        for (int i = lo; i < hashes.length && hashes[i] == hash; i++) {
+            int c = index.eqConditions[p][i];
+            if (countedStamps[c] != stamp && equalsLiteral(index.literals[c], kind)) {
+                if (index.conditionOps[c] == SubscriptionIndex.OP_EQ) setTrue(c);
+                else violate(c);
+            }
+        }
+    }
+
+    private boolean equalsLiteral(Object literal, int kind)
+    {
+        switch (kind) {
+        case VALUE_STRING:
+            return (literal instanceof String) && ((String)literal).contentEquals(scratch);
+        case VALUE_NUMBER:
+            if (!(literal instanceof Number)) return false;
+            if (number.isLong && literal instanceof Long) {
+                return number.longValue == (Long)literal;
+            }
+            return number.doubleValue == ((Number)literal).doubleValue();
+        case VALUE_TRUE:
+            return Boolean.TRUE.equals(literal);
+        case VALUE_FALSE:
+            return Boolean.FALSE.equals(literal);
+        default:
+            return literal == null;
+        }
+    }
+
+    /*
+      Makes the comparisons on path p that v satisfies true. As the lists
+      are sorted by bound, those are found at the start of each.
+     */
+    private void testComparisons(int p, double v)
+    {
+        double[] bounds = index.gtBounds[p];
+        for (int i = 0; i < bounds.length && bounds[i] <= v; i++) {
+            int c = index.gtConditions[p][i];
+            if (v > bounds[i] || index.conditionOps[c] == SubscriptionIndex.OP_GE) setTrue(c);
+        }
+        bounds = index.ltBounds[p];
+        for (int i = 0; i < bounds.length && bounds[i] >= v; i++) {
+            int c = index.ltConditions[p][i];
+            if (v < bounds[i] || index.conditionOps[c] == SubscriptionIndex.OP_LE) setTrue(c);
+        }
+    }
+
+    /*
+      Settles the singular paths that select the value at level, which was
+      the only value they can select.
+     */
+    private void settleSingularPaths(int level)
+    {
+        for (int p = matcher.matched(level); p >= 0; p = matcher.nextMatched(level, p + 1)) {
+            if (index.singular[p] && doneStamps[p] != stamp) {
+                doneStamps[p] = stamp;
+                livePaths--;
+            }
+        }
+    }
+
+    private void setTrue(int c)
+    {
+        if (countedStamps[c] == stamp) return;
+        countedStamps[c] = stamp;
+        int s = index.conditionSubs[c];
+        if (countStamps[s] != stamp) {
+            countStamps[s] = stamp;
+            trueCounts[s] = 0;
+        }
+        trueCounts[s]++;
+    }
+
+    // A != condition found a value equal to its literal.
+    private void violate(int c)
+    {
+        countedStamps[c] = stamp;
+        int s = index.conditionSubs[c];
+        countStamps[s] = stamp;
+        trueCounts[s] = VIOLATED;
+    }
+
+    private void push(int level, boolean obj)
+    {
+        if (level == isObject.length) {
+            isObject = Arrays.copyOf(isObject, level * 2);
+            indexes = Arrays.copyOf(indexes, level * 2);
+        }
+        isObject[level] = obj;
+        indexes[level] = 0;
+    }
+
+    // Skips over the value jsonSrc is pointing at, checking it.
+    private void skipValue(Reader jsonSrc)
+    {
+        if (skipResult == null) skipResult = new ValidationResult();
+        if (!Validator.validate(jsonSrc, skipResult, false)) {
+            throw new IllegalArgumentException(skipResult.getErrorMessage());
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package su.boptim.al.subjson;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+  The policy SubJson.readOffHeap() reads with, which writes each value to
+  the tape of an OffHeapDocument (see there for the layout) as the parser
+  hands it over, instead of making an object of it.
+
+  The parser calls a policy's methods in the order the values appear in
+  the json, so the builder doesn't need the objects it returns at all;
+  every method returns the same marker. Instead, the tape offset of each
+  finished value is pushed onto a stack of ints, and keys are pushed in
+  front of their values. When an array or object is finished, the
+  offsets of everything in it are the top of the stack, down to where it
+  was when the container was started, and are replaced by the offset of
+  the container's own record. That way nothing is kept on the heap for
+  each value but its offset while its container is being read.
+
+  Keys tend to repeat, so keys that are short enough are written once,
+  and found again by a small hash table of their offsets, which stops
+  taking new keys once it is half full.
+ */
+final class TapeBuilder implements FunctionalFromJsonPolicy
+{
+    private static final Object MARKER = new Object();
+
+    private static final int MAX_TAPE_SIZE = Integer.MAX_VALUE - 8;
+    private static final int KEY_TABLE_SIZE = 4096; // A power of two.
+    private static final int MAX_INTERNED_KEY_LENGTH = 64;
+    private static final int SORT_THRESHOLD = 16; // Insertion sort below this.
+
+    private ByteBuffer tape;
+    private int pos = 0;
+
+    // The offsets of finished values (and keys) not yet in a container.
+    private int[] values = new int[64];
+    private int valueCount = 0;
+
+    // For each container being read, how many values were on the stack
+    // when it was started.
+    private int[] frames = new int[16];
+    private int depth = 0;
+
+    // The offsets of interned keys plus one, so that 0 is an empty slot.
+    private final int[] keyTable = new int[KEY_TABLE_SIZE];
+    private int keyTableCount = 0;
+
+    // Scratch space for sorting object fields, as key offset << 32 | value offset.
+    private long[] fields = new long[16];
+    private long[] mergeBuf = new long[16];
+
+    TapeBuilder(int initialCapacity)
+    {
+        tape = ByteBuffer.allocateDirect(Math.max(initialCapacity, 64))
+            .order(ByteOrder.nativeOrder());
+    }
+
+    /*
+      Returns the document, once the parser has read a whole value. The
+      tape is copied into a buffer of exactly its size, so that no more
+      memory is held than it needs.
+     */
+    OffHeapDocument finish()
+    {
+        if (valueCount != 1 || depth != 0) {
+            throw new IllegalStateException("The tape is not finished.");
+        }
+        ByteBuffer src = tape.duplicate();
+        src.position(0).limit(pos);
+        ByteBuffer exact = ByteBuffer.allocateDirect(pos);
+        exact.put(src);
+        tape = null;
+        return new OffHeapDocument(exact.asReadOnlyBuffer().order(ByteOrder.nativeOrder()),
+                                   values[0]);
+    }
+
+    // Arrays
+    public Object startArray()
+    {
+        pushFrame();
+        return MARKER;
+    }
+
+    public Object arrayAppend(Object array, Object value)
+    {
+        return array; // The value's offset is already on the stack.
+    }
+
+    public Object finishArray(Object array)
+    {
+        int start = frames[--depth];
+        int count = valueCount - start;
+        ensureCapacity(5 + 4 * (long)count);
+        int offset = pos;
+        tape.put(pos, OffHeapDocument.TAG_ARRAY);
+        tape.putInt(pos + 1, count);
+        pos += 5;
+        for (int i = start; i < valueCount; i++) {
+            tape.putInt(pos, values[i]);
+            pos += 4;
+        }
+        valueCount = start;
+        pushValue(offset);
+        return MARKER;
+    }
+
+    // Objects
+    public Object startObject()
+    {
+        pushFrame();
+        return MARKER;
+    }
+
+    public Object objectInsert(Object obj, Object key, Object value)
+    {
+        return obj; // The key's and value's offsets are already on the stack.
+    }
+
+    public Object finishObject(Object obj)
+    {
+        int start = frames[--depth];
+        int count = (valueCount - start) / 2;
+        if (fields.length < count) {
+            fields = new long[Math.max(count, fields.length * 2)];
+        }
+        for (int i = 0; i < count; i++) {
+            fields[i] = ((long)values[start + 2 * i] << 32)
+                | (values[start + 2 * i + 1] & 0xFFFFFFFFL);
+        }
+        sortFields(count);
+
+        // When a key appears more than once, the last value wins, as it
+        // would if the object were put in a Map. The sort is stable, so
+        // that is the last of each run of equal keys.
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (i + 1 < count && compareKeys(keyOf(fields[i]), keyOf(fields[i + 1])) == 0) {
+                continue;
+            }
+            fields[unique++] = fields[i];
+        }
+
+        ensureCapacity(5 + 8 * (long)unique);
+        int offset = pos;
+        tape.put(pos, OffHeapDocument.TAG_OBJECT);
+        tape.putInt(pos + 1, unique);
+        pos += 5;
+        for (int i = 0; i < unique; i++) {
+            tape.putInt(pos, keyOf(fields[i]));
+            tape.putInt(pos + 4, (int)fields[i]);
+            pos += 8;
+        }
+        valueCount = start;
+        pushValue(offset);
+        return MARKER;
+    }
+
+    // Primitives
+    public Object makeNull()
+    {
+        ensureCapacity(1);
+        pushValue(pos);
+        tape.put(pos++, OffHeapDocument.TAG_NULL);
+        return MARKER;
+    }
+
+    public Object makeBoolean(Boolean b)
+    {
+        ensureCapacity(1);
+        pushValue(pos);
+        tape.put(pos++, b.booleanValue() ? OffHeapDocument.TAG_TRUE : OffHeapDocument.TAG_FALSE);
+        return MARKER;
+    }
+
+    public Object makeString(String s)
+    {
+        pushValue(writeString(s));
+        return MARKER;
+    }
+
+    public Object makeKey(CharSequence chars)
+    {
+        int len = chars.length();
+        if (len > MAX_INTERNED_KEY_LENGTH) {
+            pushValue(writeString(chars));
+            return MARKER;
+        }
+
+        int hash = 0;
+        for (int i = 0; i < len; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        hash ^= hash >>> 16;
+        int mask = KEY_TABLE_SIZE - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = keyTable[slot];
+            if (entry == 0) {
+                int offset = writeString(chars);
+                if (keyTableCount < KEY_TABLE_SIZE / 2) {
+                    keyTable[slot] = offset + 1;
+                    keyTableCount++;
+                }
+                pushValue(offset);
+                return MARKER;
+            } else if (OffHeapCursor.compareString(tape, entry - 1, chars) == 0) {
+                pushValue(entry - 1);
+                return MARKER;
+            }
+        }
+    }
+
+    public Object makeNumber(Number n)
+    {
+        ensureCapacity(9);
+        pushValue(pos);
+        if (n instanceof Long) {
+            tape.put(pos, OffHeapDocument.TAG_INTEGER);
+            tape.putLong(pos + 1, n.longValue());
+        } else {
+            tape.put(pos, OffHeapDocument.TAG_REAL);
+            tape.putDouble(pos + 1, n.doubleValue());
+        }
+        pos += 9;
+        return MARKER;
+    }
+
+    //
+    // Helpers
+    //
+
+    private void pushValue(int offset)
+    {
+        if (valueCount == values.length) {
+            int[] newValues = new int[values.length * 2];
+            System.arraycopy(values, 0, newValues, 0, valueCount);
+            values = newValues;
+        }
+        values[valueCount++] = offset;
+    }
+
+    private void pushFrame()
+    {
+        if (depth == frames.length) {
+            int[] newFrames = new int[frames.length * 2];
+            System.arraycopy(frames, 0, newFrames, 0, depth);
+            frames = newFrames;
+        }
+        frames[depth++] = valueCount;
+    }
+
+    // Makes room for at least needed more bytes, doubling the tape.
+    private void ensureCapacity(long needed)
+    {
+        if (pos + needed <= tape.capacity()) return;
+        if (pos + needed > MAX_TAPE_SIZE) {
+            throw new IllegalArgumentException("The json is too large for one off-heap document, whose tape must be smaller than 2GB.");
+        }
+        long newCapacity = Math.max((long)tape.capacity() * 2, pos + needed);
+        ByteBuffer newTape = ByteBuffer.allocateDirect((int)Math.min(newCapacity, MAX_TAPE_SIZE))
+            .order(ByteOrder.nativeOrder());
+        ByteBuffer src = tape.duplicate();
+        src.position(0).limit(pos);
+        newTape.put(src);
+        tape = newTape;
+    }
+
+    // Writes a TAG_STRING record for chars, returning its offset.
+    private int writeString(CharSequence chars)
+    {
+        int len = chars.length();
+        ensureCapacity(9 + 3 * (long)len);
+        int offset = pos;
+        int p = pos + 9;
+        for (int i = 0; i < len; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                tape.put(p++, (byte)c);
+            } else if (c < 0x800) {
+                tape.put(p++, (byte)(0xC0 | (c >> 6)));
+                tape.put(p++, (byte)(0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len
+                       && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, chars.charAt(++i));
+                tape.put(p++, (byte)(0xF0 | (cp >> 18)));
+                tape.put(p++, (byte)(0x80 | ((cp >> 12) & 0x3F)));
+                tape.put(p++, (byte)(0x80 | ((cp >> 6) & 0x3F)));
+                tape.put(p++, (byte)(0x80 | (cp & 0x3F)));
+            } else {
+                tape.put(p++, (byte)(0xE0 | (c >> 12)));
+                tape.put(p++, (byte)(0x80 | ((c >> 6) & 0x3F)));
+                tape.put(p++, (byte)(0x80 | (c & 0x3F)));
+            }
+        }
+        tape.put(offset, OffHeapDocument.TAG_STRING);
+        tape.putInt(offset + 1, p - offset - 9);
+        tape.putInt(offset + 5, len);
+        pos = p;
+        return offset;
+    }
+
+    private static int keyOf(long field)
+    {
+        return (int)(field >>> 32);
+    }
+
+    // Compares the bytes of two TAG_STRING records, as unsigned bytes.
+    private int compareKeys(int a, int b)
+    {
+        if (a == b) return 0;
+        int aLen = tape.getInt(a + 1);
+        int bLen = tape.getInt(b + 1);
+        int n = Math.min(aLen, bLen);
+        for (int i = 0; i < n; i++) {
+            int d = (tape.get(a + 9 + i) & 0xFF) - (tape.get(b + 9 + i) & 0xFF);
+            if (d != 0) return d;
+        }
+        return aLen - bLen;
+    }
+
+    // A stable sort of the first count fields by key: insertion sort for
+    // small objects, merge sort otherwise.
+    private void sortFields(int count)
+    {
+        if (count < SORT_THRESHOLD) {
+            insertionSort(fields, 0, count);
+            return;
+        }
+        if (mergeBuf.length < count) {
+            mergeBuf = new long[fields.length];
+        }
+        for (int i = 0; i < count; i += SORT_THRESHOLD) {
+            insertionSort(fields, i, Math.min(i + SORT_THRESHOLD, count));
+        }
+        long[] src = fields;
+        long[] dst = mergeBuf;
+        for (int width = SORT_THRESHOLD; width < count; width *= 2) {
+            for (int lo = 0; lo < count; lo += 2 * width) {
+                int mid = Math.min(lo + width, count);
+                int hi = Math.min(lo + 2 * width, count);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    if (compareKeys(keyOf(src[j]), keyOf(src[i])) < 0) {
+                        dst[k++] = src[j++];
+                    } else {
+                        dst[k++] = src[i++];
+                    }
+                }
+                while (i < mid) dst[k++] = src[i++];
+                while (j < hi) dst[k++] = src[j++];
+            }
+            long[] tmp = src;
+            src = dst;
+            dst = tmp;
+        }
+        if (src != fields) {
+            System.arraycopy(src, 0, fields, 0, count);
+        }
+    }
+
+    private void insertionSort(long[] a, int from, int to)
+    {
+        for (int i = from + 1; i < to; i++) {
+            long f = a[i];
+            int j = i - 1;
+            while (j >= from && compareKeys(keyOf(a[j]), keyOf(f)) > 0) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = f;
+        }
+    }
+}
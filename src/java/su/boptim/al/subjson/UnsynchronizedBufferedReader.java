@@ -0,0 +1,118 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+
+/**
+   A buffering {@link Reader} like {@link java.io.BufferedReader}, but
+   without synchronization, so that the mark(), read(), and reset() calls
+   the parser makes to peek at its input don't each take a lock. The
+   parser also recognizes this class and scans its buffer directly.
+   <p>
+   Since it reads ahead, parsing from this Reader will usually consume
+   more characters from the underlying Reader than the json value
+   needed. Calling {@link #pushBack()} after parsing returns the
+   characters that were buffered but not read to the underlying Reader,
+   so that it is positioned just after the json value. This works if
+   the underlying Reader is a {@link PushbackReader} with room for a
+   buffer's worth of characters, or supports mark() and reset().
+   <p>
+   As with {@link UnsynchronizedStringReader}, this class should only be
+   used from one thread at a time.
+*/
+public class UnsynchronizedBufferedReader extends BufferedCharReader
+{
+    private final Reader in;
+
+    // Number of characters the last fillBuffer() got from in, which is
+    // how far back in.reset() will take in, if we are using marks.
+    private int lastReadCount = 0;
+
+    /**
+       Creates an UnsynchronizedBufferedReader reading from in with the
+       default buffer size.
+
+       @param in the Reader to buffer
+     */
+    public UnsynchronizedBufferedReader(Reader in)
+    {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+       Creates an UnsynchronizedBufferedReader reading from in with a
+       buffer of the given size.
+
+       @param in the Reader to buffer
+       @param bufferSize the number of characters to read from in at a time
+     */
+    public UnsynchronizedBufferedReader(Reader in, int bufferSize)
+    {
+        super(bufferSize);
+        this.in = in;
+    }
+
+    int fillBuffer(char[] cbuf, int off, int len) throws IOException
+    {
+        // Mark before every read if that's how we'll push back unread chars.
+        if (!(in instanceof PushbackReader) && in.markSupported()) {
+            in.mark(len);
+        }
+
+        int n;
+        do {
+            n = in.read(cbuf, off, len);
+        } while (n == 0);
+
+        lastReadCount = Math.max(n, 0);
+        return n;
+    }
+
+    /**
+       Returns every character that has been buffered but not read to the
+       underlying Reader, leaving it positioned at the next character this
+       Reader would have returned, and empties the buffer. This Reader can
+       still be used afterwards; it will simply read those characters
+       again.
+
+       @throws IOException if the underlying Reader is neither a
+       {@link PushbackReader} nor supports mark(), or can't take back
+       the characters
+     */
+    public void pushBack() throws IOException
+    {
+        int unread = limit - pos;
+
+        if (in instanceof PushbackReader) {
+            if (unread > 0) {
+                ((PushbackReader)in).unread(buf, pos, unread);
+            }
+        } else if (in.markSupported()) {
+            if (unread > lastReadCount) {
+                throw new IOException("Cannot push back characters from before the last read.");
+            }
+            if (unread > 0) {
+                in.reset();
+                long toSkip = lastReadCount - unread;
+                while (toSkip > 0) {
+                    long skipped = in.skip(toSkip);
+                    if (skipped <= 0) {
+                        throw new IOException("Could not skip back to the first unread character.");
+                    }
+                    toSkip -= skipped;
+                }
+            }
+        } else {
+            throw new IOException("Cannot push back characters to a Reader that is not a PushbackReader and does not support mark().");
+        }
+
+        lastReadCount = 0;
+        discardBuffer();
+    }
+
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
@@ -0,0 +1,61 @@
+package su.boptim.al.subjson;
+
+/*
+  A Reader over a region of a char[], such as a frame inside a larger
+  protocol buffer, without copying it. Like UnsynchronizedStringReader, it
+  is not synchronized. Since the array is its buffer, the parser scans it
+  directly, just as it does the buffers of UnsynchronizedBufferedReader.
+
+  The array is read in place, so it should not be changed while it is
+  being read. After reading a json value, position() gives the index in
+  the array of the first character after the value, where reading the
+  rest of the region can pick up.
+ */
+public class UnsynchronizedCharArrayReader extends BufferedCharReader
+{
+    /**
+       Makes a Reader over all of the characters in the given array.
+
+       @param cbuf the characters to read
+     */
+    public UnsynchronizedCharArrayReader(char[] cbuf)
+    {
+        this(cbuf, 0, cbuf.length);
+    }
+
+    /**
+       Makes a Reader over the len characters of the given array
+       starting at index off.
+
+       @param cbuf the array holding the characters to read
+       @param off the index of the first character to read
+       @param len the number of characters to read
+       @throws IndexOutOfBoundsException if the region does not fit in
+       the array
+     */
+    public UnsynchronizedCharArrayReader(char[] cbuf, int off, int len)
+    {
+        super(cbuf, off, len);
+    }
+
+    int fillBuffer(char[] cbuf, int off, int len)
+    {
+        return -1; // Everything is already in the buffer.
+    }
+
+    /**
+       Returns the index in the array of the next character that will be
+       read, or the end of the region if everything has been read.
+
+       @return the index of the next character to be read
+     */
+    public int position()
+    {
+        return pos;
+    }
+
+    public void close()
+    {
+        // Nothing to release.
+    }
+}
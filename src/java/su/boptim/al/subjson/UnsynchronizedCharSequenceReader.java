@@ -0,0 +1,142 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/*
+  This class is UnsynchronizedStringReader for any CharSequence, such as a
+  StringBuilder or a CharBuffer, so that json held in one doesn't have to
+  be copied into a String before it is parsed. It can also read just a
+  region of the sequence. The same caveats apply: it is not synchronized,
+  and the sequence should not be changed while it is being read.
+
+  After reading a json value, position() gives the index in the sequence
+  of the first character after the value.
+ */
+public class UnsynchronizedCharSequenceReader extends Reader
+{
+    CharSequence chars;
+    int next;
+    int end;
+    int mark;
+
+    /**
+       Makes a Reader over all of the given characters.
+
+       @param cs the characters to read
+     */
+    public UnsynchronizedCharSequenceReader(CharSequence cs)
+    {
+        this(cs, 0, cs.length());
+    }
+
+    /**
+       Makes a Reader over the characters of cs from index start up to,
+       but not including, index end.
+
+       @param cs the sequence holding the characters to read
+       @param start the index of the first character to read
+       @param end the index after the last character to read
+       @throws IndexOutOfBoundsException if the region is not within cs
+     */
+    public UnsynchronizedCharSequenceReader(CharSequence cs, int start, int end)
+    {
+        if (start < 0 || start > end || end > cs.length()) {
+            throw new IndexOutOfBoundsException("Region [" + start + ", " + end
+                                                + ") is outside of a sequence of length "
+                                                + cs.length() + ".");
+        }
+        chars = cs;
+        next = start;
+        this.end = end;
+        mark = -1;
+    }
+
+    /*
+      Points this Reader at a new region, as though it had just been made,
+      so that one Reader can be reused for many sequences.
+     */
+    void reuse(CharSequence cs, int start, int end)
+    {
+        chars = cs;
+        next = start;
+        this.end = end;
+        mark = -1;
+    }
+
+    /**
+       Returns the index in the sequence of the next character that will
+       be read, or the end of the region if everything has been read.
+
+       @return the index of the next character to be read
+     */
+    public int position()
+    {
+        return next;
+    }
+
+    public int read(char[] cbuf, int off, int len) throws IOException
+    {
+        if (len == 0) return 0;
+        if (next >= end) return -1;
+
+        int numChars = Math.min(len, end - next);
+        for (int i = 0; i < numChars; i++) {
+            cbuf[off + i] = chars.charAt(next + i);
+        }
+        next += numChars;
+
+        return numChars;
+    }
+
+    public int read() throws IOException
+    {
+        if (next >= end) {
+            return -1;
+        } else {
+            int cu = chars.charAt(next);
+            next += 1;
+            return cu;
+        }
+    }
+
+    public long skip(long n) throws IOException
+    {
+        if (n < 0L) {
+            throw new IllegalArgumentException("skip value is negative");
+        }
+
+        int numChars = (int)Math.min(n, end - next);
+        next += numChars;
+
+        return numChars;
+    }
+
+    public boolean ready() throws IOException
+    {
+        return true;
+    }
+
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    public void mark(int readAheadLimit) throws IOException
+    {
+        mark = next;
+    }
+
+    public void reset() throws IOException
+    {
+        if (mark < 0) {
+            throw new IOException("Reader has not been marked.");
+        }
+        next = mark;
+    }
+
+    public void close()
+    {
+        // Nothing to release.
+    }
+}
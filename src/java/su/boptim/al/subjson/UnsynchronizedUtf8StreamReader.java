@@ -0,0 +1,231 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.MalformedInputException;
+
+/**
+   A {@link java.io.Reader} that decodes UTF-8 from an {@link InputStream},
+   like an {@link java.io.InputStreamReader} wrapped in a
+   {@link java.io.BufferedReader}, but without synchronization, and with
+   a decoder specialized for UTF-8, which is what json is almost always
+   encoded in. The parser recognizes this class and scans its buffer
+   directly. Malformed UTF-8 is reported with an exception instead of
+   being replaced.
+   <p>
+   Since it reads ahead, parsing from this Reader will usually consume
+   more bytes from the InputStream than the json value needed. Calling
+   {@link #pushBack()} after parsing returns the bytes that were read but
+   not decoded into characters that were read to the InputStream, so that
+   it is positioned just after the json value. This works if the
+   InputStream is a {@link PushbackInputStream} with room for a buffer's
+   worth of bytes, or supports mark() and reset().
+   <p>
+   As with {@link UnsynchronizedStringReader}, this class should only be
+   used from one thread at a time.
+*/
+public class UnsynchronizedUtf8StreamReader extends BufferedCharReader
+{
+    private final InputStream in;
+
+    // Bytes read from in, of which bbuf[bpos] up to bbuf[blimit] have not
+    // been decoded yet. Those can only be the start of a multi-byte
+    // sequence whose remaining bytes haven't been read.
+    private final byte[] bbuf;
+    private int bpos = 0;
+    private int blimit = 0;
+
+    // Number of bytes the last read from in returned, which is how far
+    // back in.reset() will take in, if we are using marks.
+    private int lastReadCount = 0;
+
+    /**
+       Creates an UnsynchronizedUtf8StreamReader reading from in with the
+       default buffer size.
+
+       @param in the InputStream of UTF-8 to decode
+     */
+    public UnsynchronizedUtf8StreamReader(InputStream in)
+    {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+       Creates an UnsynchronizedUtf8StreamReader reading from in with
+       buffers of the given size.
+
+       @param in the InputStream of UTF-8 to decode
+       @param bufferSize the number of bytes to read from in at a time
+     */
+    public UnsynchronizedUtf8StreamReader(InputStream in, int bufferSize)
+    {
+        // Need room for at least one whole 4-byte sequence.
+        super(Math.max(bufferSize, 4));
+        this.in = in;
+        this.bbuf = new byte[Math.max(bufferSize, 4)];
+    }
+
+    int fillBuffer(char[] cbuf, int off, int len) throws IOException
+    {
+        while (true) {
+            int n = decode(cbuf, off, len);
+            if (n > 0) return n;
+
+            // Couldn't decode anything, so we need more bytes. Keep any
+            // partial sequence at the front of the buffer.
+            int leftover = blimit - bpos;
+            System.arraycopy(bbuf, bpos, bbuf, 0, leftover);
+            bpos = 0;
+            blimit = leftover;
+
+            if (!(in instanceof PushbackInputStream) && in.markSupported()) {
+                in.mark(bbuf.length);
+            }
+            int read;
+            do {
+                read = in.read(bbuf, blimit, bbuf.length - blimit);
+            } while (read == 0);
+
+            if (read < 0) {
+                lastReadCount = 0;
+                if (leftover > 0) {
+                    throw new MalformedInputException(leftover);
+                }
+                return -1;
+            }
+            lastReadCount = read;
+            blimit += read;
+        }
+    }
+
+    /*
+      Decodes as many whole characters as are available and fit in cbuf,
+      returning how many were decoded.
+     */
+    private int decode(char[] cbuf, int off, int len) throws IOException
+    {
+        int o = off;
+        final int end = off + len;
+
+        while (o < end && bpos < blimit) {
+            int b = bbuf[bpos];
+
+            // The overwhelmingly common case for json: ASCII.
+            if (b >= 0) {
+                cbuf[o++] = (char)b;
+                bpos++;
+                continue;
+            }
+
+            int seqLength;
+            int cp;
+            if ((b & 0xe0) == 0xc0) {
+                seqLength = 2;
+                cp = b & 0x1f;
+            } else if ((b & 0xf0) == 0xe0) {
+                seqLength = 3;
+                cp = b & 0x0f;
+            } else if ((b & 0xf8) == 0xf0) {
+                seqLength = 4;
+                cp = b & 0x07;
+            } else {
+                throw new MalformedInputException(1);
+            }
+
+            if (bpos + seqLength > blimit) break; // Rest of it isn't read yet.
+
+            for (int i = 1; i < seqLength; i++) {
+                int cont = bbuf[bpos + i];
+                if ((cont & 0xc0) != 0x80) {
+                    throw new MalformedInputException(i);
+                }
+                cp = (cp << 6) | (cont & 0x3f);
+            }
+
+            // Reject overlong encodings, surrogates, and values past U+10FFFF.
+            if ((seqLength == 2 && cp < 0x80)
+                || (seqLength == 3 && (cp < 0x800 || (cp >= 0xd800 && cp <= 0xdfff)))
+                || (seqLength == 4 && (cp < 0x10000 || cp > 0x10ffff))) {
+                throw new MalformedInputException(seqLength);
+            }
+
+            if (cp < 0x10000) {
+                cbuf[o++] = (char)cp;
+            } else {
+                if (o + 2 > end) break; // No room for the surrogate pair.
+                cbuf[o++] = Character.highSurrogate(cp);
+                cbuf[o++] = Character.lowSurrogate(cp);
+            }
+            bpos += seqLength;
+        }
+
+        return o - off;
+    }
+
+    /**
+       Returns every byte that has been read from the InputStream but not
+       decoded into a character that was read from this Reader, leaving
+       the InputStream positioned at the first byte of the next character
+       this Reader would have returned, and empties the buffer. This
+       Reader can still be used afterwards; it will simply read those
+       characters again.
+
+       @throws IOException if the InputStream is neither a
+       {@link PushbackInputStream} nor supports mark(), or can't take
+       back the bytes
+     */
+    public void pushBack() throws IOException
+    {
+        // The characters we decoded but weren't read, re-encoded, followed
+        // by the bytes we haven't decoded.
+        int unreadCharBytes = 0;
+        for (int i = pos; i < limit; i++) {
+            char c = buf[i];
+            if (c < 0x80) unreadCharBytes += 1;
+            else if (c < 0x800) unreadCharBytes += 2;
+            else if (Character.isHighSurrogate(c)) {
+                unreadCharBytes += 4;
+                i++;
+            } else unreadCharBytes += 3;
+        }
+        int unread = unreadCharBytes + (blimit - bpos);
+
+        if (in instanceof PushbackInputStream) {
+            if (unread > 0) {
+                byte[] bytes = new byte[unread];
+                byte[] encoded = new String(buf, pos, limit - pos).getBytes("UTF-8");
+                System.arraycopy(encoded, 0, bytes, 0, unreadCharBytes);
+                System.arraycopy(bbuf, bpos, bytes, unreadCharBytes, blimit - bpos);
+                ((PushbackInputStream)in).unread(bytes);
+            }
+        } else if (in.markSupported()) {
+            if (unread > lastReadCount) {
+                throw new IOException("Cannot push back bytes from before the last read.");
+            }
+            if (unread > 0) {
+                in.reset();
+                long toSkip = lastReadCount - unread;
+                while (toSkip > 0) {
+                    long skipped = in.skip(toSkip);
+                    if (skipped <= 0) {
+                        throw new IOException("Could not skip back to the first unread byte.");
+                    }
+                    toSkip -= skipped;
+                }
+            }
+        } else {
+            throw new IOException("Cannot push back bytes to an InputStream that is not a PushbackInputStream and does not support mark().");
+        }
+
+        lastReadCount = 0;
+        bpos = 0;
+        blimit = 0;
+        discardBuffer();
+    }
+
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
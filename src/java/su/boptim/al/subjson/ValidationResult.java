@@ -0,0 +1,111 @@
+package su.boptim.al.subjson;
+
+/**
+   The outcome of {@link SubJson#validateAndMeasure(CharSequence, ValidationResult)}:
+   whether the input was valid json and, if so, a few measurements of it,
+   or if not, what was wrong. A ValidationResult can be reused for any
+   number of validations, one at a time, and doing so is what lets
+   validation run without allocating; each validation overwrites
+   everything from the last. It is not safe to share one between threads.
+ */
+public final class ValidationResult
+{
+    boolean valid;
+    long charsConsumed;
+    int maxDepth;
+    long valueCount;
+    String errorMessage;
+    long errorOffset;
+
+    // One bit per level of nesting, set for objects and clear for arrays,
+    // kept between validations so that the stack is only allocated once.
+    long[] containerBits = new long[4];
+
+    // Reused to read CharSequences.
+    final UnsynchronizedCharSequenceReader reader
+        = new UnsynchronizedCharSequenceReader("");
+
+    public ValidationResult()
+    {
+        reset();
+    }
+
+    void reset()
+    {
+        valid = false;
+        charsConsumed = -1;
+        maxDepth = 0;
+        valueCount = 0;
+        errorMessage = null;
+        errorOffset = -1;
+    }
+
+    /**
+       @return true if the input was valid
+     */
+    public boolean isValid()
+    {
+        return valid;
+    }
+
+    /**
+       Returns the number of characters that were validated, including
+       whitespace around the value. If the input was invalid, this is
+       how far validation got before finding the error. It is -1 when
+       validating a Reader that can't say how much has been read from it;
+       SubJson's own Readers can.
+
+       @return the number of characters consumed, or -1 if unknown
+     */
+    public long getCharsConsumed()
+    {
+        return charsConsumed;
+    }
+
+    /**
+       @return the deepest nesting of arrays and objects; 0 for a value
+       that is not an array or object
+     */
+    public int getMaxDepth()
+    {
+        return maxDepth;
+    }
+
+    /**
+       @return the number of values, counting arrays and objects and the
+       values within them, but not object keys
+     */
+    public long getValueCount()
+    {
+        return valueCount;
+    }
+
+    /**
+       @return a description of why the input was invalid, or null if it
+       was valid
+     */
+    public String getErrorMessage()
+    {
+        return errorMessage;
+    }
+
+    /**
+       @return the number of characters read before the error was found,
+       or -1 if the input was valid or the Reader can't say
+     */
+    public long getErrorOffset()
+    {
+        return errorOffset;
+    }
+
+    public String toString()
+    {
+        if (valid) {
+            return "ValidationResult{valid, charsConsumed=" + charsConsumed
+                + ", maxDepth=" + maxDepth + ", valueCount=" + valueCount + "}";
+        } else {
+            return "ValidationResult{invalid at " + errorOffset + ": "
+                + errorMessage + "}";
+        }
+    }
+}
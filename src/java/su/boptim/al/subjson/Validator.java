@@ -0,0 +1,422 @@
+package su.boptim.al.subjson;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/*
+  Checks that input is valid json without building anything from it, for
+  SubJson.isValid() and validateAndMeasure(). This is read() with the
+  values taken out: the same state machine (see the comments in read()
+  for how it works), and the same grammar checks, except that strings and
+  numbers are skipped over rather than read. Since there are no values to
+  keep on the stack, all it needs to remember about each level of
+  nesting is whether it is an array or an object, which is a bit in the
+  ValidationResult, so a ValidationResult that is reused means nothing is
+  allocated unless the input turns out to be invalid.
+
+  Unlike read(), a comma before the closing bracket or brace of an array
+  or object is reported as an error, as the json grammar requires.
+ */
+final class Validator
+{
+    private static final int LBL_READ_VALUE = 0;
+    private static final int LBL_READ_ARRAY = 1;
+    private static final int LBL_PA_STARTVALUE = 2;
+    private static final int LBL_PA_HAVEREADVALUE = 3;
+    private static final int LBL_READ_OBJECT = 4;
+    private static final int LBL_PO_STARTKV = 5;
+    private static final int LBL_PO_HAVEREADKV = 6;
+    private static final int LBL_ROUTE_VALUE = 7;
+
+    private Validator()
+    {
+    }
+
+    /*
+      Validates the whole of jsonSrc, which must hold one json value and
+      nothing else but whitespace.
+     */
+    static boolean validate(CharSequence jsonSrc, ValidationResult result)
+    {
+        UnsynchronizedCharSequenceReader r = result.reader;
+        r.reuse(jsonSrc, 0, jsonSrc.length());
+        try {
+            return validate(r, result, true);
+        } finally {
+            r.reuse("", 0, 0); // Don't hang on to the input.
+        }
+    }
+
+    /*
+      Validates a single json value from jsonSrc, leaving it just after
+      the value, like read(). If wholeInput is true, anything but
+      whitespace after the value is an error.
+     */
+    static boolean validate(Reader jsonSrc, ValidationResult result,
+                            boolean wholeInput)
+    {
+        result.reset();
+        final long startChars = SubJson.charsConsumed(jsonSrc);
+        try {
+            validateValue(jsonSrc, result);
+            if (wholeInput) {
+                SubJson.skipWhitespace(jsonSrc);
+                if (SubJson.peek(jsonSrc) != -1) {
+                    throw new IllegalArgumentException("Encountered more input after the json value.");
+                }
+            }
+            result.valid = true;
+        } catch (IllegalArgumentException iae) {
+            result.errorMessage = iae.getMessage();
+        } catch (IOException ioe) {
+            result.errorMessage = "Could not read input: " + ioe.getMessage();
+        }
+
+        if (startChars >= 0) {
+            result.charsConsumed = SubJson.charsConsumed(jsonSrc) - startChars;
+            if (!result.valid) {
+                result.errorOffset = result.charsConsumed;
+            }
+        }
+        return result.valid;
+    }
+
+    private static void validateValue(Reader jsonSrc, ValidationResult result)
+        throws IOException
+    {
+        long[] containerBits = result.containerBits;
+        int depth = 0;
+        int maxDepth = 0;
+        long valueCount = 0;
+        int currState = LBL_READ_VALUE;
+        int currRune = 0;
+
+        try {
+            while (true) {
+                dispatch:
+                switch (currState) {
+                case LBL_READ_VALUE:
+                    currRune = SubJson.peek(jsonSrc);
+
+                    switch (currRune) {
+                    case 0x20: // space
+                    case 0x09: // tab
+                    case 0x0A: // linefeed
+                    case 0x0D: // carriage return
+                        SubJson.skipWhitespace(jsonSrc);
+                        break dispatch;
+                    case 'n':
+                        SubJson.readNull(jsonSrc);
+                        break;
+                    case 't':
+                    case 'f':
+                        SubJson.readBoolean(jsonSrc);
+                        break;
+                    case '-':
+                    case '0':
+                    case '1':
+                    case '2':
+                    case '3':
+                    case '4':
+                    case '5':
+                    case '6':
+                    case '7':
+                    case '8':
+                    case '9':
+                        skipNumber(jsonSrc);
+                        break;
+                    case '"':
+                        skipString(jsonSrc);
+                        break;
+                    case '[':
+                        currState = LBL_READ_ARRAY;
+                        break dispatch;
+                    case '{':
+                        currState = LBL_READ_OBJECT;
+                        break dispatch;
+                    case -1:
+                        throw new IllegalArgumentException("Reached EOF while expecting a value.");
+                    default:
+                        throw new IllegalArgumentException("Encountered unexpected character '"
+                                                           + (char)currRune + "' in input.");
+                    }
+                    valueCount++;
+
+                    // Fall through to route the value.
+                case LBL_ROUTE_VALUE:
+                    if (depth == 0) {
+                        return;
+                    } else if (isObject(containerBits, depth - 1)) {
+                        currState = LBL_PO_HAVEREADKV;
+                    } else {
+                        currState = LBL_PA_HAVEREADVALUE;
+                    }
+                    break dispatch;
+
+                case LBL_READ_ARRAY:
+                    SubJson.readChar(jsonSrc, '[');
+                    containerBits = push(result, depth, false);
+                    depth++;
+                    if (depth > maxDepth) maxDepth = depth;
+                    SubJson.skipWhitespace(jsonSrc);
+                    if (SubJson.peek(jsonSrc) == ']') {
+                        currState = LBL_PA_HAVEREADVALUE;
+                        break dispatch;
+                    }
+                    // Not empty, so fall through to read the first element.
+                case LBL_PA_STARTVALUE:
+                    SubJson.skipWhitespace(jsonSrc);
+                    currState = LBL_READ_VALUE;
+                    break dispatch;
+                case LBL_PA_HAVEREADVALUE:
+                    SubJson.skipWhitespace(jsonSrc);
+                    currRune = SubJson.peek(jsonSrc);
+                    if (currRune == ',') {
+                        SubJson.readChar(jsonSrc, ',');
+                        currState = LBL_PA_STARTVALUE;
+                    } else if (currRune == -1) {
+                        throw new IllegalArgumentException("Reached EOF while parsing an array.");
+                    } else {
+                        SubJson.readChar(jsonSrc, ']');
+                        depth--;
+                        valueCount++;
+                        currState = LBL_ROUTE_VALUE;
+                    }
+                    break dispatch;
+
+                case LBL_READ_OBJECT:
+                    SubJson.readChar(jsonSrc, '{');
+                    containerBits = push(result, depth, true);
+                    depth++;
+                    if (depth > maxDepth) maxDepth = depth;
+                    SubJson.skipWhitespace(jsonSrc);
+                    if (SubJson.peek(jsonSrc) == '}') {
+                        currState = LBL_PO_HAVEREADKV;
+                        break dispatch;
+                    }
+                    // Not empty, so fall through to read the first key.
+                case LBL_PO_STARTKV:
+                    SubJson.skipWhitespace(jsonSrc);
+                    currRune = SubJson.peek(jsonSrc);
+                    if (currRune == -1) {
+                        throw new IllegalArgumentException("Reached EOF while parsing an object.");
+                    } else if (currRune != '"') {
+                        throw new IllegalArgumentException("Encountered unexpected character '"
+                                                           + (char)currRune
+                                                           + "' where an object key was expected.");
+                    }
+                    skipString(jsonSrc);
+                    SubJson.skipWhitespace(jsonSrc);
+                    SubJson.readChar(jsonSrc, ':');
+                    SubJson.skipWhitespace(jsonSrc);
+                    currState = LBL_READ_VALUE;
+                    break dispatch;
+                case LBL_PO_HAVEREADKV:
+                    SubJson.skipWhitespace(jsonSrc);
+                    currRune = SubJson.peek(jsonSrc);
+                    if (currRune == ',') {
+                        SubJson.readChar(jsonSrc, ',');
+                        currState = LBL_PO_STARTKV;
+                    } else if (currRune == -1) {
+                        throw new IllegalArgumentException("Reached EOF while parsing an object.");
+                    } else {
+                        SubJson.readChar(jsonSrc, '}');
+                        depth--;
+                        valueCount++;
+                        currState = LBL_ROUTE_VALUE;
+                    }
+                    break dispatch;
+                }
+            }
+        } finally {
+            result.maxDepth = maxDepth;
+            result.valueCount = valueCount;
+        }
+    }
+
+    private static boolean isObject(long[] containerBits, int level)
+    {
+        return (containerBits[level >>> 6] & (1L << level)) != 0;
+    }
+
+    /*
+      Records whether the container at the given level is an object,
+      growing the result's stack if needed, and returns the stack.
+     */
+    private static long[] push(ValidationResult result, int level, boolean isObject)
+    {
+        long[] containerBits = result.containerBits;
+        int word = level >>> 6;
+        if (word == containerBits.length) {
+            containerBits = java.util.Arrays.copyOf(containerBits, containerBits.length * 2);
+            result.containerBits = containerBits;
+        }
+        if (isObject) {
+            containerBits[word] |= (1L << level);
+        } else {
+            containerBits[word] &= ~(1L << level);
+        }
+        return containerBits;
+    }
+
+    /*
+      Checks the json number literal jsonSrc is pointing at, following the
+      same grammar as readNumber(), and leaves jsonSrc just after it. Any
+      number that fits the grammar is accepted, even one too large for the
+      Long or Double that read() would make of it.
+     */
+    static void skipNumber(Reader jsonSrc) throws IOException
+    {
+        int currRune = SubJson.peek(jsonSrc);
+
+        if (currRune == '-') {
+            jsonSrc.skip(1);
+            currRune = SubJson.peek(jsonSrc);
+            if (!TextUtils.isDigit(currRune)) { // Also handles EOF.
+                throw new NumberFormatException("While attempting to read a negative number, the negative sign was not followed by a digit.");
+            }
+        }
+
+        // One leading zero, or any run of digits not starting with zero.
+        boolean sawLeadingZero = currRune == '0';
+        jsonSrc.skip(1);
+        currRune = SubJson.peek(jsonSrc);
+        if (sawLeadingZero && TextUtils.isDigit(currRune)) {
+            throw new NumberFormatException("While attempting to read a number, there was a leading zero not immediately followed by a decimal point or exponentiation.");
+        }
+        while (TextUtils.isDigit(currRune)) {
+            jsonSrc.skip(1);
+            currRune = SubJson.peek(jsonSrc);
+        }
+
+        if (currRune == '.') {
+            jsonSrc.skip(1);
+            currRune = SubJson.peek(jsonSrc);
+            if (!TextUtils.isDigit(currRune)) {
+                throw new NumberFormatException("While attempting to read a number, there was a decimal point not immediately followed by a digit.");
+            }
+            while (TextUtils.isDigit(currRune)) {
+                jsonSrc.skip(1);
+                currRune = SubJson.peek(jsonSrc);
+            }
+        }
+
+        if (currRune == 'e' || currRune == 'E') {
+            jsonSrc.skip(1);
+            currRune = SubJson.peek(jsonSrc);
+            if (currRune == '+' || currRune == '-') {
+                jsonSrc.skip(1);
+                currRune = SubJson.peek(jsonSrc);
+            }
+            if (!TextUtils.isDigit(currRune)) {
+                throw new NumberFormatException("While attempting to read a number, there was an exponent not followed by a digit.");
+            }
+            while (TextUtils.isDigit(currRune)) {
+                jsonSrc.skip(1);
+                currRune = SubJson.peek(jsonSrc);
+            }
+        }
+    }
+
+    /*
+      Checks the json string literal jsonSrc is pointing at, including
+      its escape sequences, and leaves jsonSrc just after it.
+     */
+    static void skipString(Reader jsonSrc) throws IOException
+    {
+        if (jsonSrc.read() != '"') {
+            throw new IllegalArgumentException("Attempted to parse a string literal from input that was not pointing at one.");
+        }
+        skipStringBody(jsonSrc);
+    }
+
+    /*
+      The rest of skipString(), once the opening quote has been read.
+     */
+    static void skipStringBody(Reader jsonSrc) throws IOException
+    {
+        if (jsonSrc instanceof BufferedCharReader) {
+            skipBufferedString((BufferedCharReader)jsonSrc);
+            return;
+        }
+
+        while (true) {
+            int currRune = jsonSrc.read();
+            if (currRune <= '"') {
+                if (currRune == '"') {
+                    return;
+                } else if (TextUtils.isControlCharacter(currRune)) {
+                    throw new IllegalArgumentException("Encountered a control character while parsing a string.");
+                } else if (currRune == -1) {
+                    throw new IllegalArgumentException("Encountered end of input while reading a string.");
+                }
+            } else if (currRune == '\\') {
+                skipEscape(jsonSrc);
+            }
+        }
+    }
+
+    /*
+      skipString() for our buffered Readers, scanning the buffer directly.
+      The opening quote has already been read.
+     */
+    private static void skipBufferedString(BufferedCharReader jsonSrc)
+        throws IOException
+    {
+        while (true) {
+            if (jsonSrc.pos >= jsonSrc.limit && jsonSrc.fill() == -1) {
+                throw new IllegalArgumentException("Encountered end of input while reading a string.");
+            }
+
+            final char[] buf = jsonSrc.buf;
+            final int limit = jsonSrc.limit;
+            int i = jsonSrc.pos;
+            while (i < limit) {
+                char c = buf[i];
+                if (c <= '"' && (c == '"' || c < 0x20)) break;
+                if (c == '\\') break;
+                i++;
+            }
+            jsonSrc.pos = i;
+            if (i == limit) continue;
+
+            char c = buf[i];
+            jsonSrc.pos++;
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                skipEscape(jsonSrc);
+            } else {
+                throw new IllegalArgumentException("Encountered a control character while parsing a string.");
+            }
+        }
+    }
+
+    /*
+      Checks the escape sequence whose '\\' has just been read.
+     */
+    private static void skipEscape(Reader jsonSrc) throws IOException
+    {
+        int currRune = jsonSrc.read();
+        switch (currRune) {
+        case '"':
+        case '\\':
+        case '/':
+        case 'b':
+        case 'f':
+        case 'n':
+        case 'r':
+        case 't':
+            return;
+        case 'u':
+            for (int i = 0; i < 4; i++) {
+                if (!TextUtils.isHexDigit(jsonSrc.read())) {
+                    throw new IllegalArgumentException("Encountered invalid input while reading a Unicode escape sequence.");
+                }
+            }
+            return;
+        default:
+            throw new IllegalArgumentException("Encountered invalid input while reading an escape sequence.");
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package su.boptim.al.subjson;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+   A bounded cache of the json previously written for immutable arrays
+   and objects, keyed by the identity of the Java object that was
+   written.
+   <p>
+   Pass a WriteCache to
+   {@link SubJson#write(Appendable, Object, boolean, CacheableToJsonPolicy, WriteCache)}
+   to have the serializer splice in the cached json for any value the
+   {@link CacheableToJsonPolicy} says is cacheable, instead of walking
+   it again. This pays off when the same immutable subtrees are
+   written over and over, as happens when serializing successive
+   versions of a persistent data structure that share most of their
+   structure.
+   <p>
+   Keys are held weakly, so caching a value never keeps it alive, and
+   entries whose values have been garbage collected are dropped. Beyond
+   that, the cache holds at most the number of entries given to the
+   constructor, evicting the least recently used entry when it is full.
+   Compact and pretty-printed json are cached separately, as is the json
+   written for the same value by different policies, so a cache can be
+   shared between policies. A WriteCache may be shared between threads.
+*/
+public class WriteCache
+{
+    /*
+      A weak reference that compares by the identity of its referent and
+      of the policy that wrote it. Two keys whose referents have been
+      collected are only equal if they are the same key, which lets us
+      remove stale entries by key.
+     */
+    private static class IdentityKey extends WeakReference<Object>
+    {
+        final ToJsonPolicy policy;
+        final int hash;
+
+        IdentityKey(Object referent, ToJsonPolicy policy, ReferenceQueue<Object> queue)
+        {
+            super(referent, queue);
+            this.policy = policy;
+            hash = 31 * System.identityHashCode(referent) + System.identityHashCode(policy);
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            if (this == o) return true;
+            if (!(o instanceof IdentityKey)) return false;
+
+            IdentityKey other = (IdentityKey)o;
+            Object referent = get();
+            return referent != null && referent == other.get() && policy == other.policy;
+        }
+    }
+
+    private static class LruMap extends LinkedHashMap<IdentityKey, String>
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int maxEntries;
+
+        LruMap(int maxEntries)
+        {
+            super(16, 0.75f, true); // Access order, for LRU eviction.
+            this.maxEntries = maxEntries;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<IdentityKey, String> eldest)
+        {
+            return size() > maxEntries;
+        }
+    }
+
+    private final LruMap compact;
+    private final LruMap pretty;
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+
+    /**
+       Creates an empty WriteCache that will hold the json for at most
+       maxEntries values of each of the compact and pretty-printed styles.
+
+       @param maxEntries the maximum number of entries for each style
+     */
+    public WriteCache(int maxEntries)
+    {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("A WriteCache must be able to hold at least one entry.");
+        }
+        compact = new LruMap(maxEntries);
+        pretty = new LruMap(maxEntries);
+    }
+
+    /**
+       Returns the number of entries currently in the cache, for both
+       styles together.
+
+       @return the number of cached values
+     */
+    public synchronized int size()
+    {
+        expungeCollected();
+        return compact.size() + pretty.size();
+    }
+
+    /**
+       Removes every entry from the cache.
+     */
+    public synchronized void clear()
+    {
+        expungeCollected();
+        compact.clear();
+        pretty.clear();
+    }
+
+    /*
+      Returns the json cached for value as written by policy in the given
+      style, or null if there is none. Pretty-printed json is cached as if
+      the value were written at the top level, without any indentation.
+     */
+    synchronized String get(Object value, ToJsonPolicy policy, boolean isPretty)
+    {
+        expungeCollected();
+        return (isPretty ? pretty : compact).get(new IdentityKey(value, policy, null));
+    }
+
+    synchronized void put(Object value, ToJsonPolicy policy, boolean isPretty, String json)
+    {
+        expungeCollected();
+        (isPretty ? pretty : compact).put(new IdentityKey(value, policy, collected), json);
+    }
+
+    private void expungeCollected()
+    {
+        Object key;
+        while ((key = collected.poll()) != null) {
+            compact.remove(key);
+            pretty.remove(key);
+        }
+    }
+}
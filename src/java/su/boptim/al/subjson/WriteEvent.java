@@ -0,0 +1,42 @@
+package su.boptim.al.subjson;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+   A Java Flight Recorder event for a single call to SubJson.write() or
+   writeParallel(), recorded when the write takes at least the event's
+   threshold, 20 ms by default. The threshold can be changed in a
+   recording's settings, as su.boptim.al.subjson.Write#threshold. These
+   events are created by SubJson; there's no need to use this class
+   directly.
+ */
+@Name("su.boptim.al.subjson.Write")
+@Label("JSON Write")
+@Category("SubJson")
+@Description("Writing a single json value with SubJson.write()")
+@Threshold("20 ms")
+@StackTrace(false)
+public final class WriteEvent extends jdk.jfr.Event
+{
+    @Label("Output Characters")
+    @Description("Characters written, or -1 if the Appendable can't tell")
+    long outputChars;
+
+    @Label("Pretty")
+    boolean pretty;
+
+    @Label("Parallel")
+    boolean parallel;
+
+    @Label("Cached")
+    @Description("Whether a WriteCache was used")
+    boolean cached;
+
+    @Label("Policy")
+    Class<?> policy;
+}
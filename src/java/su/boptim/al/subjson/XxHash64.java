@@ -0,0 +1,170 @@
+package su.boptim.al.subjson;
+
+/*
+  The XXH64 hash function, for CachingParser, which needs a fast 64-bit
+  hash of whole documents. Characters are hashed as their UTF-16
+  little-endian bytes would be, four to a 64-bit lane, so both versions
+  give the same hash as the reference implementation does for the
+  corresponding bytes.
+ */
+final class XxHash64
+{
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private XxHash64()
+    {
+    }
+
+    static long hash(byte[] b, int off, int len, long seed)
+    {
+        final int end = off + len;
+        int i = off;
+        long h;
+
+        if (len >= 32) {
+            long v1 = seed + PRIME1 + PRIME2;
+            long v2 = seed + PRIME2;
+            long v3 = seed;
+            long v4 = seed - PRIME1;
+            for (; i <= end - 32; i += 32) {
+                v1 = round(v1, longAt(b, i));
+                v2 = round(v2, longAt(b, i + 8));
+                v3 = round(v3, longAt(b, i + 16));
+                v4 = round(v4, longAt(b, i + 24));
+            }
+            h = converge(v1, v2, v3, v4);
+        } else {
+            h = seed + PRIME5;
+        }
+        h += len;
+
+        for (; i <= end - 8; i += 8) {
+            h = mixLane(h, longAt(b, i));
+        }
+        if (i <= end - 4) {
+            h = mixHalfLane(h, intAt(b, i) & 0xFFFFFFFFL);
+            i += 4;
+        }
+        for (; i < end; i++) {
+            h ^= (b[i] & 0xFFL) * PRIME5;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+        }
+        return avalanche(h);
+    }
+
+    static long hash(CharSequence cs, long seed)
+    {
+        final int end = cs.length();
+        int i = 0;
+        long h;
+
+        if (end >= 16) { // 32 bytes
+            long v1 = seed + PRIME1 + PRIME2;
+            long v2 = seed + PRIME2;
+            long v3 = seed;
+            long v4 = seed - PRIME1;
+            for (; i <= end - 16; i += 16) {
+                v1 = round(v1, longAt(cs, i));
+                v2 = round(v2, longAt(cs, i + 4));
+                v3 = round(v3, longAt(cs, i + 8));
+                v4 = round(v4, longAt(cs, i + 12));
+            }
+            h = converge(v1, v2, v3, v4);
+        } else {
+            h = seed + PRIME5;
+        }
+        h += 2L * end;
+
+        for (; i <= end - 4; i += 4) {
+            h = mixLane(h, longAt(cs, i));
+        }
+        if (i <= end - 2) {
+            h = mixHalfLane(h, (cs.charAt(i) | ((long)cs.charAt(i + 1) << 16)));
+            i += 2;
+        }
+        if (i < end) { // One char left is two bytes.
+            char c = cs.charAt(i);
+            h ^= (c & 0xFFL) * PRIME5;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+            h ^= ((c >>> 8) & 0xFFL) * PRIME5;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+        }
+        return avalanche(h);
+    }
+
+    private static long round(long acc, long input)
+    {
+        acc += input * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long val)
+    {
+        acc ^= round(0, val);
+        return acc * PRIME1 + PRIME4;
+    }
+
+    private static long converge(long v1, long v2, long v3, long v4)
+    {
+        long h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+            + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+        h = mergeRound(h, v1);
+        h = mergeRound(h, v2);
+        h = mergeRound(h, v3);
+        return mergeRound(h, v4);
+    }
+
+    private static long mixLane(long h, long lane)
+    {
+        h ^= round(0, lane);
+        return Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+    }
+
+    private static long mixHalfLane(long h, long halfLane)
+    {
+        h ^= halfLane * PRIME1;
+        return Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+    }
+
+    private static long avalanche(long h)
+    {
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        return h ^ (h >>> 32);
+    }
+
+    private static long longAt(byte[] b, int i)
+    {
+        return (b[i] & 0xFFL)
+            | ((b[i + 1] & 0xFFL) << 8)
+            | ((b[i + 2] & 0xFFL) << 16)
+            | ((b[i + 3] & 0xFFL) << 24)
+            | ((b[i + 4] & 0xFFL) << 32)
+            | ((b[i + 5] & 0xFFL) << 40)
+            | ((b[i + 6] & 0xFFL) << 48)
+            | ((b[i + 7] & 0xFFL) << 56);
+    }
+
+    private static int intAt(byte[] b, int i)
+    {
+        return (b[i] & 0xFF)
+            | ((b[i + 1] & 0xFF) << 8)
+            | ((b[i + 2] & 0xFF) << 16)
+            | ((b[i + 3] & 0xFF) << 24);
+    }
+
+    private static long longAt(CharSequence cs, int i)
+    {
+        return cs.charAt(i)
+            | ((long)cs.charAt(i + 1) << 16)
+            | ((long)cs.charAt(i + 2) << 32)
+            | ((long)cs.charAt(i + 3) << 48);
+    }
+}
@@ -0,0 +1,100 @@
+(ns subjson.test.binarysnapshot
+  (:use clojure.test)
+  (:require [clojure.java.io :as io]
+            [su.boptim.al.subjson :as subjson])
+  (:import [su.boptim.al.subjson SubJson]
+           [java.io ByteArrayOutputStream File FileOutputStream]
+           [java.math BigDecimal BigInteger]
+           [java.nio ByteBuffer]
+           [java.nio.channels FileChannel FileChannel$MapMode]
+           [java.nio.file OpenOption StandardOpenOption]))
+
+(defn snapshot-bytes
+  ([v] (let [out (ByteArrayOutputStream.)]
+         (SubJson/writeSnapshot out v)
+         (.toByteArray out)))
+  ([v tjp] (let [out (ByteArrayOutputStream.)]
+             (SubJson/writeSnapshot out v tjp)
+             (.toByteArray out))))
+
+(defn round-trip
+  [^String json]
+  (let [v (SubJson/read ^CharSequence json)]
+    (SubJson/readSnapshot (ByteBuffer/wrap (snapshot-bytes v)))))
+
+(deftest round-trip-test
+  (doseq [json ["null" "true" "false" "0" "-9223372036854775808" "1.5" "-0.0"
+                "\"\"" "\"h\\u00e9\\ud800x\"" "[]" "{}" "[1,2,3]" "[1.5,2.5]"
+                "[1,2.5,\"x\"]" "[[],[[]],{}]" "{\"a\":{\"a\":[1,\"a\",null]}}"]]
+    (is (= (SubJson/writeToString (SubJson/read ^CharSequence json) false)
+           (SubJson/writeToString (round-trip json) false))
+        json))
+  (doseq [ex ["glossary" "menu" "widget" "web-app" "menu2"]]
+    (let [json (slurp (io/resource (str "jsonorg_examples/" ex ".json")))]
+      (is (= (SubJson/read ^CharSequence json) (round-trip json)) ex))))
+
+(deftest big-number-test
+  ;; Numbers a long or double can't hold come back whole, not narrowed.
+  (let [big-int (.shiftLeft BigInteger/ONE 100)
+        big-dec (BigDecimal. "0.1000000000000000000001")
+        v [big-int (.negate big-int) (BigInteger/valueOf 5) big-dec
+           (BigDecimal. "1E+400") [1 big-int] [1.5 big-dec] {"n" big-int}]
+        back (SubJson/readSnapshot (ByteBuffer/wrap (snapshot-bytes v)))]
+    (is (= v back))
+    (is (instance? BigInteger (nth back 2)))
+    (is (instance? BigDecimal (nth back 3))))
+  (let [v {"a" 100000000000000000000000N "b" [1N 2.5M]}
+        back (SubJson/readSnapshot (ByteBuffer/wrap (snapshot-bytes v subjson/clojure-tojson-policy))
+                                   subjson/clojure-fromjson-policy)]
+    (is (= v back))))
+
+(deftest deep-nesting-test
+  (let [json (str (apply str (repeat 10000 "[")) (apply str (repeat 10000 "]")))]
+    (is (= (SubJson/writeToString (SubJson/read ^CharSequence json) false)
+           (SubJson/writeToString (round-trip json) false)))))
+
+(deftest buffer-test
+  (let [bs (snapshot-bytes (SubJson/read ^CharSequence "{\"a\":[1,2,3],\"b\":\"a\"}"))
+        padded (byte-array (+ 3 (count bs)))
+        _ (System/arraycopy bs 0 padded 3 (count bs))
+        buf (.position (ByteBuffer/wrap padded) 3)]
+    (is (= {"a" [1 2 3] "b" "a"} (SubJson/readSnapshot buf)))
+    (is (= 3 (.position buf)))
+    (is (= (count padded) (.limit buf))))
+  (let [f (File/createTempFile "subjson" ".snap")]
+    (try
+      (with-open [out (FileOutputStream. f)]
+        (SubJson/writeSnapshot out (SubJson/read ^CharSequence "[1.5,\"x\",null]")))
+      (with-open [ch (FileChannel/open (.toPath f)
+                                       (into-array OpenOption [StandardOpenOption/READ]))]
+        (is (= [1.5 "x" nil]
+               (SubJson/readSnapshot (.map ch FileChannel$MapMode/READ_ONLY 0 (.size ch))))))
+      (finally (.delete f)))))
+
+(deftest clojure-policy-test
+  (let [v {"a" [1 2 3] "b" {"c" nil} "d" [true false 1.5]}
+        bs (snapshot-bytes v subjson/clojure-tojson-policy)
+        back (SubJson/readSnapshot (ByteBuffer/wrap bs) subjson/clojure-fromjson-policy)]
+    (is (= v back))
+    (is (vector? (get back "a")))
+    (is (map? (get back "b")))))
+
+(deftest corrupt-test
+  (let [bs (snapshot-bytes (SubJson/read ^CharSequence "{\"a\":[1,\"b\",{\"c\":null}]}"))]
+    (doseq [n (range (count bs))]
+      (is (thrown? IllegalArgumentException
+                   (SubJson/readSnapshot (ByteBuffer/wrap bs 0 n)))))
+    (is (thrown? IllegalArgumentException
+                 (SubJson/readSnapshot (ByteBuffer/wrap (.getBytes "[1,2,3]" "UTF-8"))))))
+  ;; Counts far larger than the snapshot are errors, not huge allocations:
+  ;; a null, then a string table claiming 2^31-1 strings, or one string of
+  ;; 2^31-1 chars.
+  (let [snapshot (fn [& table]
+                   (let [header [(int \S) (int \J) (int \S) (int \B) 1 0 0 0 0]]
+                     (byte-array (concat header table
+                                         [0 0 0 0 0 0 0 (count header)]
+                                         [(int \S) (int \J) (int \S) (int \B)]))))]
+    (is (thrown? IllegalArgumentException
+                 (SubJson/readSnapshot (ByteBuffer/wrap (snapshot -1 -1 -1 -1 7)))))
+    (is (thrown? IllegalArgumentException
+                 (SubJson/readSnapshot (ByteBuffer/wrap (snapshot 1 -1 -1 -1 -1 7)))))))
@@ -0,0 +1,90 @@
+(ns subjson.test.cachingparser
+  (:use clojure.test)
+  (:require [clojure.java.io :as io]
+            [su.boptim.al.subjson :as subjson])
+  (:import [su.boptim.al.subjson SubJson CachingParser]
+           [java.util.concurrent Executors Future]))
+
+(def test-json "{\"flags\": {\"a\": true, \"b\": [1, 2, 3]}, \"name\": \"cfg\"}")
+
+(deftest hit-test
+  (let [cp (CachingParser. 100 (* 1024 1024))
+        v1 (.read cp ^CharSequence test-json)
+        v2 (.read cp (StringBuilder. ^String test-json))]
+    (is (identical? v1 v2))
+    (is (= v1 (SubJson/read ^CharSequence test-json)))
+    (is (= 1 (.getHits cp)))
+    (is (= 1 (.getMisses cp)))
+    (is (= 1 (.size cp)))
+    (is (= (* CachingParser/ESTIMATED_BYTES_PER_CHAR (count test-json))
+           (.getEstimatedBytes cp)))
+    (.clear cp)
+    (is (= 0 (.size cp)))
+    (is (= 0 (.getEstimatedBytes cp)))
+    (is (not (identical? v1 (.read cp ^CharSequence test-json))))))
+
+(deftest bytes-test
+  (let [cp (CachingParser. 100 (* 1024 1024))
+        utf8 (.getBytes ^String test-json "UTF-8")
+        padded (byte-array (+ 4 (count utf8)))]
+    (System/arraycopy utf8 0 padded 2 (count utf8))
+    (let [v1 (.read cp utf8 0 (count utf8))
+          v2 (.read cp padded 2 (count utf8))]
+      (is (identical? v1 v2))
+      (is (= v1 (SubJson/read ^CharSequence test-json))))))
+
+(deftest immutable-test
+  (let [v (.read (CachingParser. 10 100000) ^CharSequence test-json)]
+    (is (thrown? UnsupportedOperationException (.put ^java.util.Map v "x" 1)))
+    (is (thrown? UnsupportedOperationException
+                 (.add ^java.util.List (get-in v ["flags" "b"]) 4)))))
+
+(deftest bounds-test
+  (let [cp (CachingParser. 16 (* 1024 1024))]
+    (dotimes [i 1000]
+      (.read cp ^CharSequence (str "[" i "]")))
+    (is (<= (.size cp) 16))
+    (is (= 1000 (.getMisses cp)))
+    (is (= (- 1000 (.size cp)) (.getEvictions cp))))
+  (let [max-bytes (* 20 CachingParser/ESTIMATED_BYTES_PER_CHAR 16)
+        cp (CachingParser. 10000 max-bytes)]
+    (dotimes [i 1000]
+      (.read cp ^CharSequence (format "[\"%012d\"]" i)))
+    (is (<= (.getEstimatedBytes cp) max-bytes)))
+  ;; Too big to cache at all.
+  (let [cp (CachingParser. 10 10)]
+    (is (= [1 2 3] (.read cp ^CharSequence "[1,2,3]")))
+    (is (= 0 (.size cp)))))
+
+(deftest error-test
+  (let [cp (CachingParser. 10 100000)]
+    (is (thrown? IllegalArgumentException (.read cp ^CharSequence "[1,")))
+    (is (= 0 (.size cp)))
+    ;; Input after the value is an error every time, not only the first.
+    (dotimes [_ 2]
+      (is (thrown? IllegalArgumentException (.read cp ^CharSequence "[1] [2]")))
+      (is (thrown? IllegalArgumentException (.read cp (.getBytes "{} x" "UTF-8") 0 4))))
+    (is (= 0 (.size cp)))
+    (is (= [1] (.read cp ^CharSequence " [1] \n")))
+    (is (= 1 (.size cp)))))
+
+(deftest clojure-policy-test
+  (let [cp (CachingParser. 10 100000 subjson/clojure-fromjson-policy)
+        v (.read cp ^CharSequence test-json)]
+    (is (= {"flags" {"a" true "b" [1 2 3]} "name" "cfg"} v))
+    (is (identical? v (.read cp ^CharSequence test-json)))))
+
+(deftest concurrent-test
+  (let [cp (CachingParser. 64 (* 1024 1024))
+        pool (Executors/newFixedThreadPool 4)
+        task (fn []
+               (dotimes [i 5000]
+                 (let [k (mod i 50)]
+                   (assert (= k (get (.read cp ^CharSequence (str "{\"k\":" k "}"))
+                                     "k"))))))]
+    (try
+      (doseq [^Future f (.invokeAll pool (repeat 4 task))]
+        (.get f))
+      (finally (.shutdown pool)))
+    (is (= 20000 (+ (.getHits cp) (.getMisses cp))))
+    (is (<= (.size cp) 64))))
@@ -0,0 +1,92 @@
+(ns subjson.test.chunkedstrings
+  (:use clojure.test)
+  (:require [subjson.test.subjson :refer [reader-makers]])
+  (:import [su.boptim.al.subjson SubJson ChunkedStringPolicy
+            StringChunkHandler Base64StringHandler ParseLimits
+            ParseLimitExceededException]
+           [java.nio ByteBuffer]
+           [java.util Arrays Base64 Random]))
+
+(defn- policy
+  "A ChunkedStringPolicy that asks make-handler for a handler for each
+   string value, with its key."
+  [make-handler]
+  (proxy [ChunkedStringPolicy] []
+    (stringHandler [key] (make-handler key))))
+
+(defn- collecting-handler
+  "A StringChunkHandler that collects its chunks into a vector of
+   Strings, which it finishes as."
+  []
+  (let [chunks (atom [])]
+    (reify StringChunkHandler
+      (append [_ cbuf off len] (swap! chunks conj (String. ^chars cbuf (int off) (int len))))
+      (finish [_] @chunks))))
+
+(deftest chunks-test
+  (let [long-str (apply str (repeat 10000 "x"))
+        json-src (str "{\"short\": \"ab\\u00e9\\n\\\"c\", \"long\": \"" long-str "\","
+                      " \"plain\": \"left alone\"}")
+        p (policy #(when (not= "plain" %) (collecting-handler)))]
+    (doseq [make-rdr reader-makers]
+      (let [m (SubJson/read (make-rdr json-src) p)]
+        (is (= "abé\n\"c" (apply str (get m "short"))))
+        (is (= long-str (apply str (get m "long"))))
+        (is (< 1 (count (get m "long"))))
+        (is (= "left alone" (get m "plain")))))))
+
+(deftest key-test
+  ;; Array elements and top-level values have no key.
+  (let [keys (atom [])
+        p (policy (fn [key] (swap! keys conj key) nil))]
+    (is (= ["a" {"k" "b"}] (SubJson/read ^CharSequence "[\"a\", {\"k\": \"b\"}]" p)))
+    (is (= [nil "k"] @keys))))
+
+(deftest base64-test
+  (let [rnd (Random. 42)]
+    (doseq [size [0 1 2 3 4 100 100000]]
+      (let [data (let [b (byte-array size)] (.nextBytes rnd b) b)
+            encoded (.encodeToString (Base64/getEncoder) data)
+            url-encoded (.encodeToString (.withoutPadding (Base64/getUrlEncoder)) data)
+            ;; Writers may escape the slashes.
+            json-src (str "{\"att\": \"" (.replace encoded "/" "\\/") "\","
+                          " \"url\": \"" url-encoded "\"}")
+            p (policy (fn [_] (Base64StringHandler.)))]
+        (doseq [make-rdr reader-makers]
+          (let [m (SubJson/read (make-rdr json-src) p)]
+            (is (Arrays/equals ^bytes data ^bytes (get m "att")))
+            (is (Arrays/equals ^bytes data ^bytes (get m "url")))))
+        (let [buf (ByteBuffer/allocate (+ size 8))
+              ^ByteBuffer decoded (get (SubJson/read ^CharSequence json-src
+                                                     (policy #(when (= "att" %)
+                                                                (Base64StringHandler. buf))))
+                                       "att")
+              out (byte-array (.remaining decoded))]
+          (.get decoded out)
+          (is (Arrays/equals ^bytes data out)))))))
+
+(deftest base64-buffer-position-test
+  ;; Values decoded into one buffer in turn each come back as just their
+  ;; own bytes, not the ones before them.
+  (let [buf (ByteBuffer/allocate 16)
+        _ (.put buf (byte-array [(byte 9) (byte 9) (byte 9)]))
+        m (SubJson/read ^CharSequence "{\"a\": \"AQI=\", \"b\": \"AwQF\"}"
+                        (policy (fn [_] (Base64StringHandler. buf))))
+        bytes-of (fn [^ByteBuffer b]
+                   (let [out (byte-array (.remaining b))]
+                     (.get b out)
+                     (vec out)))]
+    (is (= [1 2] (bytes-of (get m "a"))))
+    (is (= [3 4 5] (bytes-of (get m "b"))))
+    (is (= 8 (.position buf)))))
+
+(deftest base64-error-test
+  (let [p (policy (fn [_] (Base64StringHandler.)))]
+    (doseq [bad ["\"abc!\"" "\"a\"" "\"ab==cd\""]]
+      (is (thrown? IllegalArgumentException (SubJson/read ^CharSequence bad p))))
+    (is (thrown? IllegalArgumentException
+                 (SubJson/read ^CharSequence "\"AAAAAAAA\""
+                               (policy (fn [_] (Base64StringHandler. (ByteBuffer/allocate 4)))))))
+    (is (thrown? ParseLimitExceededException
+                 (SubJson/read ^CharSequence (str "\"" (apply str (repeat 100 "A")) "\"")
+                               p (.withMaxStringLength ParseLimits/NONE 50))))))
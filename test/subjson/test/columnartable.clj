@@ -0,0 +1,89 @@
+(ns subjson.test.columnartable
+  (:use clojure.test)
+  (:import [su.boptim.al.subjson SubJson ColumnarFromJsonPolicy ColumnarTable]))
+
+(def policy (ColumnarFromJsonPolicy. 2))
+
+(def test-json
+  "[{\"ts\": 1, \"v\": 0.5, \"tag\": \"a\", \"ok\": true, \"x\": null},
+    {\"ts\": 2, \"v\": 2, \"tag\": \"b\\n\", \"ok\": false, \"x\": [1]},
+    {\"ts\": 3, \"other\": 1},
+    {\"ts\": 4, \"v\": -1.25, \"tag\": \"a\", \"ok\": null, \"x\": \"s\"}]")
+
+(deftest read-test
+  (let [t (SubJson/read test-json policy)]
+    (is (instance? ColumnarTable t))
+    (is (= (SubJson/read test-json) t))
+    (is (= 4 (count t)))
+    (is (= #{"ts" "v" "tag" "ok" "x"} (set (.getFields t))))
+    (is (= [false false true false] (map #(.isFallback t %) (range 4))))
+    (let [ts (.getFieldIndex t "ts")
+          v (.getFieldIndex t "v")
+          tag (.getFieldIndex t "tag")]
+      (is (= [1 2 3 4] (map #(.getLong t % ts) (range 4))))
+      (is (= [0.5 2.0 -1.25] (map #(.getDouble t % v) [0 1 3])))
+      ;; Integers among reals are still integers.
+      (is (instance? Long (.get t 1 v)))
+      (is (= "b\n" (.getString t 1 tag)))
+      (is (nil? (.get t 2 v)))
+      (is (thrown? IllegalStateException (.getLong t 0 tag)))
+      (is (= -1 (.getFieldIndex t "nope"))))
+    (is (= {"ts" 3 "other" 1} (.get t 2)))
+    (is (thrown? UnsupportedOperationException (.add t {})))))
+
+(deftest fallback-test
+  ;; Arrays that are short, not all objects, or with no more than half
+  ;; their elements of the first one's shape are read as the default
+  ;; policy reads them.
+  (doseq [json ["[{\"a\": 1}]" "[1, 2, 3]" "[{\"a\": 1}, {\"a\": 2}, 3]"
+                "[{\"a\": 1}, {\"b\": 2}, {\"c\": 3}]" "[]"
+                ;; Exactly half the rows have the first one's keys.
+                "[{\"a\": 1}, {\"b\": 2}]"
+                "[{\"a\": 1}, {\"a\": 2}, {\"b\": 3}, {\"c\": 4}]"]]
+    (let [v (SubJson/read json policy)]
+      (is (not (instance? ColumnarTable v)) json)
+      (is (= (SubJson/read json) v) json)))
+  (is (instance? ColumnarTable (get (SubJson/read "{\"rows\": [{\"a\": 1}, {\"a\": 2}]}" policy)
+                                    "rows")))
+  (is (instance? ColumnarTable (SubJson/read "[{\"a\": 1}, {\"a\": 2}, {\"b\": 3}]" policy)))
+  (is (thrown? IllegalArgumentException (ColumnarFromJsonPolicy. 0))))
+
+(deftest write-test
+  ;; Written straight from the columns, the json is the same as for the
+  ;; rows, read back.
+  (let [t (SubJson/read test-json policy)]
+    (doseq [pretty [true false]]
+      (is (= (SubJson/read test-json)
+             (SubJson/read (SubJson/writeToString t pretty))))
+      (is (= (SubJson/writeToString t pretty)
+             (SubJson/writeToString (vec t) pretty))))
+    (is (= "[{\"a\":1},{\"a\":2}]"
+           (SubJson/writeToString (SubJson/read "[{\"a\": 1}, {\"a\": 2}]" policy) false)))
+    (is (= "[\n    {\n        \"a\": [\n            1\n        ]\n    },\n    {\n        \"a\": null\n    }\n]"
+           (SubJson/writeToString (SubJson/read "[{\"a\": [1]}, {\"a\": null}]" policy) true)))))
+
+(deftest many-rows-test
+  (let [n 100000
+        json (str "[" (apply str (interpose "," (for [i (range n)]
+                                                   (str "{\"i\": " i ", \"s\": \"k" (mod i 7) "\"}"))))
+                  "]")
+        t (SubJson/read json (ColumnarFromJsonPolicy.))]
+    (is (instance? ColumnarTable t))
+    (is (= n (count t)))
+    (let [i (.getFieldIndex t "i")]
+      (is (= (reduce + (range n)) (reduce + (map #(.getLong t % i) (range n))))))
+    (is (= (SubJson/read json) t))))
+
+(deftest wide-table-test
+  (let [fields (map #(str "f" %) (range 300))
+        row (fn [r]
+              (str "{" (apply str (interpose ", " (map-indexed #(str "\"" %2 "\": " (+ r %1))
+                                                               fields)))
+                   "}"))
+        json (str "[" (row 0) ", " (row 1000) ", " (row 2000) "]")
+        t (SubJson/read json policy)]
+    (is (instance? ColumnarTable t))
+    (is (= (vec fields) (map #(.get (.getFields t) (.getFieldIndex t %)) fields)))
+    (is (= 1299 (get (.get t 1) "f299")))
+    (is (nil? (get (.get t 1) "f300")))
+    (is (= (SubJson/read json) t))))
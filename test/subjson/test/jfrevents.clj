@@ -0,0 +1,60 @@
+(ns subjson.test.jfrevents
+  (:use clojure.test)
+  (:import [su.boptim.al.subjson SubJson]
+           [jdk.jfr Recording]
+           [jdk.jfr.consumer RecordedEvent RecordingFile]
+           [java.io File]
+           [java.time Duration]))
+
+(defn- record-events
+  "Run f while recording SubJson's JFR events with the given threshold, or
+   their default threshold if it is nil, and return the recorded events."
+  [threshold f]
+  (let [file (File/createTempFile "subjson" ".jfr")]
+    (try
+      (with-open [rec (Recording.)]
+        (doseq [event-name ["su.boptim.al.subjson.Parse"
+                            "su.boptim.al.subjson.Write"]]
+          (let [settings (.enable rec ^String event-name)]
+            (when threshold
+              (.withThreshold settings threshold))))
+        (.start rec)
+        (f)
+        (.stop rec)
+        (.dump rec (.toPath file)))
+      (vec (RecordingFile/readAllEvents (.toPath file)))
+      (finally
+        (.delete file)))))
+
+(defn- event-name
+  [^RecordedEvent e]
+  (.getName (.getEventType e)))
+
+(deftest parse-event-test
+  (let [json "{\"a\": [1, 2.5, \"s\", true, null, [[]]], \"b\": {}}"
+        events (record-events Duration/ZERO #(SubJson/read ^String json))
+        [^RecordedEvent e] (filter #(= "su.boptim.al.subjson.Parse" (event-name %))
+                                   events)]
+    (is (some? e))
+    (is (= (count json) (.getLong e "inputChars")))
+    (is (= 4 (.getInt e "maxDepth")))
+    (is (= 10 (.getInt e "values")))
+    (is (= 3 (.getInt e "arrays")))
+    (is (= 2 (.getInt e "objects")))
+    (is (= "su.boptim.al.subjson.DefaultFromJsonPolicy"
+           (.getName (.getClass e "policy"))))))
+
+(deftest write-event-test
+  (let [events (record-events Duration/ZERO #(SubJson/writeToString [1 2 3] false))
+        [^RecordedEvent e] (filter #(= "su.boptim.al.subjson.Write" (event-name %))
+                                   events)]
+    (is (some? e))
+    (is (= (count "[1,2,3]") (.getLong e "outputChars")))
+    (is (false? (.getBoolean e "pretty")))
+    (is (false? (.getBoolean e "parallel")))))
+
+(deftest threshold-test
+  ;; Small values are well under the default threshold, so aren't recorded.
+  (is (empty? (record-events nil #(dotimes [_ 10]
+                                    (SubJson/read "[1, 2, 3]")
+                                    (SubJson/writeToString [1 2 3]))))))
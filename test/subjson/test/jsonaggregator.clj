@@ -0,0 +1,99 @@
+(ns subjson.test.jsonaggregator
+  (:use clojure.test)
+  (:require [su.boptim.al.subjson :as subjson])
+  (:import [su.boptim.al.subjson SubJson JsonAggregator JsonAggregates JsonPath
+            UnsynchronizedStringReader]
+           [java.io BufferedReader StringReader]))
+
+(def test-json
+  "{\"items\": [{\"price\": 5, \"tags\": [\"a\", \"b\"]},
+                {\"price\": 2.5, \"tags\": [\"a\"]},
+                {\"price\": \"n/a\"},
+                {\"x\": {\"price\": 100}}],
+    \"price\": -3}")
+
+(def test-aggregator
+  (-> JsonAggregator/NONE
+      (.withCount "$.items[*]")
+      (.withSum "$..price")
+      (.withMin "$..price")
+      (.withMax "$.items[*].price")
+      (.withDistinctCount "$..tags[*]")
+      (.withHistogram "$..price" (double-array [0 10]))))
+
+(deftest aggregate-test
+  (let [r (.aggregate test-aggregator test-json)]
+    (is (= 4 (.getCount r 0) (.get r 0)))
+    (is (= 104.5 (.getSum r 1) (.get r 1)))
+    (is (= 4 (.getCount r 1)))
+    (is (= -3.0 (.getMin r 2)))
+    (is (= 5.0 (.getMax r 3)))
+    (is (= 2 (.getDistinctCount r 4)))
+    (is (= 3 (.getCount r 4)))
+    (is (= [1 2 1] (vec (.getHistogram r 5)) (.get r 5)))))
+
+(deftest exact-test
+  ;; Sums, minimums and maximums of integers are exact longs, until a
+  ;; real comes along or the sum overflows.
+  (let [agg (-> JsonAggregator/NONE (.withSum "$[*]") (.withMin "$[*]") (.withMax "$[*]"))]
+    (is (= [9007199254740993 1 9007199254740992]
+           (let [r (.aggregate agg "[9007199254740992, 1]")]
+             (map #(.get r %) (range 3)))))
+    (is (instance? Double (.get (.aggregate agg "[1, 2.0]") 0)))
+    (is (instance? Double (.get (.aggregate agg "[9223372036854775807, 1]") 0)))
+    (is (nil? (.get (.aggregate agg "[\"x\"]") 1)))
+    (is (Double/isNaN (.getMax (.aggregate agg "[]") 2)))))
+
+(deftest numbers-test
+  ;; Numbers decode to the same double Double/parseDouble gives,
+  ;; whether or not they take the fast path.
+  (let [agg (.withMin JsonAggregator/NONE "$[0]")]
+    (doseq [n ["0" "-0.0" "0.1" "123.456e-7" "1e22" "1e23" "4.9e-324" "1e400"
+               "0.30000000000000004" "1.7976931348623157e308" "12345678901234567890"
+               "3.14159265358979323846264338327950288" "9007199254740993.0"]]
+      (is (= (Double/parseDouble n) (.getMin (.aggregate agg (str "[" n "]")) 0)) n))))
+
+(deftest distinct-test
+  (let [agg (.withDistinctCount JsonAggregator/NONE "$[*]")]
+    (is (= 4 (.getDistinctCount (.aggregate agg "[1, 1.0, 1e0, \"1\", \"\\u0031\", true, null, true]") 0)))
+    (let [n 100000
+          r (.aggregate agg (str "[" (apply str (interpose "," (range n))) "]"))]
+      (is (< (Math/abs (- n (.getDistinctCount r 0))) (* n 0.05))))))
+
+(deftest merge-test
+  (let [agg (-> JsonAggregator/NONE (.withCount "$.v") (.withSum "$.v")
+                (.withDistinctCount "$.v") (.withHistogram "$.v" (double-array [5])))
+        lines (map #(str "{\"v\": " (mod % 7) "}") (range 100))
+        whole (.aggregateAll agg ^CharSequence (apply str (interpose "\n" lines)))
+        parts (map #(.aggregateAll agg ^CharSequence (apply str (interpose "\n" %)))
+                   (partition-all 30 lines))
+        merged (.newAggregates agg)]
+    (doseq [p parts] (.merge merged p))
+    (is (= (str whole) (str merged)))
+    (is (= 7 (.get merged 2)))
+    (is (thrown? IllegalArgumentException
+                 (.merge merged (.newAggregates (.withCount JsonAggregator/NONE "$.v")))))))
+
+(deftest stream-test
+  (let [agg (.withSum JsonAggregator/NONE "$.v")
+        results (.newAggregates agg)
+        r (UnsynchronizedStringReader. "{\"v\":1} {\"v\":2}x")]
+    (.aggregate agg r results)
+    (.aggregate agg r results)
+    (is (= 3 (.get results 0)))
+    (is (= (int \x) (.read r))))
+  (let [agg (.withCount JsonAggregator/NONE "$..a")
+        results (.newAggregates agg)]
+    (.aggregateAll agg (BufferedReader. (StringReader. "{\"a\":{\"a\":1}}\n\n[{\"a\":2}]\n")) results)
+    (is (= 3 (.getCount results 0)))))
+
+(deftest error-test
+  (doseq [agg [(.withSum JsonAggregator/NONE "$..*") (.withCount JsonAggregator/NONE "$.zzz")]
+          bad ["[1,]" "{\"a\":1,}" "[1" "[01]" "[1.]" "[1e]" "[-]" "{\"a\" 1}" "[tru]" "[\"\\x\"]"]]
+    (is (thrown? IllegalArgumentException (.aggregate agg bad)) bad))
+  (is (thrown? IllegalStateException (.getSum (.aggregate test-aggregator "{}") 0)))
+  (is (thrown? IllegalArgumentException (.withHistogram JsonAggregator/NONE "$.a" (double-array [2 1]))))
+  (is (thrown? IllegalArgumentException (.withCount JsonAggregator/NONE "$")))
+  (is (thrown? IllegalArgumentException
+               (.aggregate test-aggregator (StringReader. "{}")
+                           (.newAggregates (.withCount JsonAggregator/NONE "$.a"))))))
@@ -0,0 +1,87 @@
+(ns subjson.test.jsonredactor
+  (:use clojure.test)
+  (:require [su.boptim.al.subjson :as subjson])
+  (:import [su.boptim.al.subjson SubJson JsonRedactor JsonPath
+            UnsynchronizedStringReader UnsynchronizedBufferedReader]
+           [java.io BufferedReader StringReader]
+           [java.security MessageDigest]))
+
+(def test-json
+  "{ \"user\" : {\"email\":\"a@b.c\", \"name\":\"n\", \"password\" : \"p\"},\n \"items\":[ {\"password\":1, \"x\":[1, 2 ,3]} , 5.000, 1E+400 ],\"password\":{\"nested\":true} }")
+
+(defn sha256-hex
+  [^String s]
+  (apply str (map #(format "%02x" %)
+                  (.digest (MessageDigest/getInstance "SHA-256") (.getBytes s "UTF-8")))))
+
+(deftest none-test
+  (is (= test-json (.redactToString JsonRedactor/NONE test-json))))
+
+(deftest drop-test
+  (is (= "{ \"user\" : {\"email\":\"a@b.c\", \"name\":\"n\"},\n \"items\":[ { \"x\":[1, 2 ,3]} , 5.000, 1E+400 ] }"
+         (.redactToString (.withDrop JsonRedactor/NONE "$..password") test-json)))
+  (is (= "[1]" (-> JsonRedactor/NONE (.withDrop "$[0]") (.withDrop "$[2]")
+                   (.redactToString "[0,1,2]"))))
+  (is (= "{}" (.redactToString (.withDrop JsonRedactor/NONE "$.*") "{\"a\":1, \"b\":[2]}")))
+  (is (= "{\"b\":2}" (.redactToString (.withDrop JsonRedactor/NONE "$['we\\'ird.key']")
+                                      "{\"we'ird.key\":1,\"b\":2}"))))
+
+(deftest replace-and-hash-test
+  (let [r (-> JsonRedactor/NONE
+              (.withHash "$.user.email")
+              (.withReplacement "$.items[1]" "***")
+              (.withDrop "$.items[0].x[1]")
+              (.redactToString test-json))]
+    (is (.contains r (str "\"email\":\"" (sha256-hex "a@b.c") "\"")))
+    (is (.contains r "[ {\"password\":1, \"x\":[1 ,3]} , \"***\", 1E+400 ]")))
+  ;; Strings are hashed decoded, other values as compact json.
+  (is (.contains (.redactToString (.withHash JsonRedactor/NONE "$.e")
+                                  "{\"e\":\"a\\u0040b.c\"}")
+                 (sha256-hex "a@b.c")))
+  (is (.contains (.redactToString (.withHash JsonRedactor/NONE "$.a")
+                                  "{\"a\": [1, {\"b\" : 2}]}")
+                 (sha256-hex "[1,{\"b\":2}]")))
+  (is (not= (.redactToString (.withHash JsonRedactor/NONE "$.a" (.getBytes "k1")) "{\"a\":\"x\"}")
+            (.redactToString (.withHash JsonRedactor/NONE "$.a" (.getBytes "k2")) "{\"a\":\"x\"}"))))
+
+(deftest skip-test
+  ;; Dropped and replaced arrays and objects are skipped in bulk; brackets
+  ;; in their strings mustn't end them early, from a String or through a
+  ;; small buffer.
+  (let [big (str "[" (apply str (interpose "," (repeat 1000 "{\"s\":\"]}\\\"[{\",\"n\":[[1],{}]}")))
+                 "]")
+        json (str "{\"p\":" big ", \"q\": {\"r\":" big "}, \"k\": [1]}")
+        redactor (-> JsonRedactor/NONE (.withDrop "$.p") (.withReplacement "$.q" "***"))
+        sb (StringBuilder.)]
+    (is (= "{ \"q\": \"***\", \"k\": [1]}" (.redactToString redactor json)))
+    (.redact redactor (UnsynchronizedBufferedReader. (StringReader. json) 16) sb)
+    (is (= "{ \"q\": \"***\", \"k\": [1]}" (str sb))))
+  (let [redactor (.withDrop JsonRedactor/NONE "$.p")]
+    (doseq [bad ["{\"p\":[1}" "{\"p\":{\"a\":[]]}" "{\"p\":[\"]\"" "{\"p\":[\"\\x\"]}"]]
+      (is (thrown? IllegalArgumentException (.redactToString redactor bad)) bad))))
+
+(deftest first-rule-wins-test
+  (is (= "{\"a\":\"X\"}"
+         (-> JsonRedactor/NONE (.withReplacement "$.a" "X") (.withDrop "$.a")
+             (.redactToString "{\"a\":1}")))))
+
+(deftest stream-test
+  (let [r (UnsynchronizedStringReader. "{\"p\":1,\"q\":2}\n{\"p\":3}")
+        sb (StringBuilder.)
+        redactor (.withDrop JsonRedactor/NONE "$.p")]
+    (.redact redactor r sb)
+    (.append sb "|")
+    (.redact redactor r sb)
+    (is (= "{\"q\":2}|\n{}" (str sb))))
+  (let [sb (StringBuilder.)]
+    (.redact (.withDrop JsonRedactor/NONE "$..password")
+             (BufferedReader. (StringReader. test-json)) sb)
+    (is (= (.redactToString (.withDrop JsonRedactor/NONE "$..password") test-json)
+           (str sb)))))
+
+(deftest error-test
+  (let [redactor (.withDrop JsonRedactor/NONE "$.p")]
+    (doseq [bad ["[1,]" "{\"a\":1,}" "{\"p\":[1,}" "{\"p\":1,}" "[1" "\"\\x\"" "{\"p\" 1}"]]
+      (is (thrown? IllegalArgumentException (.redactToString redactor bad)) bad)))
+  (doseq [bad ["" "a" "$" "$." "$.." "$[" "$[x]" "$['a" "$[1" "$.a[" "$.[0]"]]
+    (is (thrown? IllegalArgumentException (JsonPath/compile bad)) bad)))
@@ -0,0 +1,84 @@
+(ns subjson.test.jsonsubscriptions
+  (:use clojure.test)
+  (:import [su.boptim.al.subjson JsonSubscriptions]
+           [java.io StringReader]))
+
+(def predicates
+  ["$.region == \"eu\""
+   "$.price > 100"
+   "$.region==\"eu\" && $.price>=100"
+   "$.tags[*] == \"urgent\""
+   "$.user.id != null"
+   "$.trace"
+   "$['we ird'] == 1.0"])
+
+(defn subscriptions
+  []
+  (let [subs (JsonSubscriptions.)]
+    (doseq [p predicates] (.subscribe subs p))
+    subs))
+
+(deftest match-test
+  (let [subs (subscriptions)]
+    (is (= 7 (.size subs)))
+    (is (= "$.trace" (.getPredicate subs 5)))
+    (is (= [0 2 3 6]
+           (vec (.match subs "{\"region\":\"eu\",\"price\":100,\"tags\":[\"a\",\"urgent\"],
+                               \"user\":{\"id\":null},\"we ird\":1}"))))
+    ;; Escapes are decoded before comparing, and != holds when the path
+    ;; selects nothing.
+    (is (= [0 1 2 4 5]
+           (vec (.match subs "{\"region\":\"e\\u0075\",\"price\":100.5,\"trace\":{}}"))))
+    (is (= [4] (vec (.match subs "[1, 2, 3]"))))
+    (is (true? (.unsubscribe subs 0)))
+    (is (false? (.unsubscribe subs 0)))
+    (is (nil? (.getPredicate subs 0)))
+    (is (= [1 2 4 5]
+           (vec (.match subs "{\"region\":\"eu\",\"price\":101,\"trace\":1}"))))))
+
+(deftest early-stop-test
+  ;; Once every path is settled, the rest of the message isn't read.
+  (let [subs (doto (JsonSubscriptions.) (.subscribe "$.a == 1") (.subscribe "$.b"))
+        r (StringReader. "{\"a\": 1, \"b\": [], not json")]
+    (is (= [0 1] (vec (.match subs r))))
+    ;; Stopped just after the [] that settled $.b.
+    (is (= (int \,) (.read r)))))
+
+(deftest many-subscriptions-test
+  (let [subs (JsonSubscriptions.)]
+    (dotimes [i 1000]
+      (.subscribe subs (str "$.n == " i " && $.s != \"x" i "\"")))
+    (dotimes [i 1000]
+      (.subscribe subs (str "$.v[*] > " i)))
+    (is (= [42] (vec (.match subs "{\"n\": 42, \"s\": \"x41\"}"))))
+    (is (= [] (vec (.match subs "{\"n\": 42, \"s\": \"x42\"}"))))
+    (is (= (concat [7] (range 1000 1010))
+           (vec (.match subs "{\"v\": [3, 10], \"n\": 7.0}"))))))
+
+(deftest many-paths-test
+  ;; Thousands of distinct paths, on field names, indexes and descendants.
+  (let [subs (JsonSubscriptions.)]
+    (dotimes [i 1000]
+      (.subscribe subs (str "$.f" i " == " i))
+      (.subscribe subs (str "$.a[" i "] == " i))
+      (.subscribe subs (str "$..g" i)))
+    (is (= [7 21 1502]
+           (vec (.match subs "{\"f7\": 7, \"f8\": 0, \"a\": [5, 6, 2],
+                               \"o\": {\"x\": {\"g500\": null}}}"))))
+    (is (= [2999] (vec (.match subs "[{\"g999\": 1}, {\"f1\": 1}]"))))))
+
+(deftest empty-test
+  ;; With nothing to match, the message isn't read at all.
+  (let [r (StringReader. "{\"a\": 1}")]
+    (is (= [] (vec (.match (JsonSubscriptions.) r))))
+    (is (= "{\"a\": 1}" (slurp r)))))
+
+(deftest bad-predicate-test
+  (doseq [p ["" "region" "$.a ==" "$.a == [1]" "$.a > \"x\"" "$.a == 1 &"
+             "$.a == 1 || $.b" "$.a === 1"]]
+    (is (thrown? IllegalArgumentException (.subscribe (JsonSubscriptions.) p)) p)))
+
+(deftest bad-json-test
+  (let [subs (subscriptions)]
+    (doseq [json ["" "{\"region\": }" "{\"price\": 1,]" "[1 2]" "{\"tags\": [\"a\""]]
+      (is (thrown? IllegalArgumentException (.match subs json)) json))))
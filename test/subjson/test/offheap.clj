@@ -0,0 +1,108 @@
+(ns subjson.test.offheap
+  (:use clojure.test)
+  (:require [clojure.java.io :as io]
+            [su.boptim.al.subjson :as subjson])
+  (:import [su.boptim.al.subjson SubJson OffHeapDocument OffHeapCursor
+            ParseLimits ParseLimitExceededException]
+           [java.util.concurrent Executors Future]))
+
+(def test-json
+  "{\"countries\": [{\"code\": \"NZ\", \"population\": 5100000, \"area\": 268021.5},
+                    {\"code\": \"IS\", \"population\": 380000, \"eu\": false}],
+    \"version\": null, \"\\u00e9t\\u00e9\": \"summer\", \"\\ud83d\\ude00\": true}")
+
+(deftest cursor-test
+  (let [doc (SubJson/readOffHeap ^CharSequence test-json)
+        c (.cursor doc)]
+    (is (.isObject c))
+    (is (= 4 (.size c)))
+    (is (.field c "countries"))
+    (is (.isArray c))
+    (is (= 2 (.size c)))
+    (is (.index c 0))
+    (is (.field c "code"))
+    (is (= "NZ" (.asString c)))
+    (is (.contentEquals c "NZ"))
+    (is (not (.contentEquals c "N")))
+    (is (.up c))
+    (is (.field c "population"))
+    (is (= 5100000 (.asLong c)))
+    (is (.up c))
+    (is (.field c "area"))
+    (is (= 268021.5 (.asDouble c)))
+    (is (.up c))
+    (is (not (.field c "eu")))
+    (is (.up c))
+    (is (not (.index c 2)))
+    (is (.index c 1))
+    (is (.field c "eu"))
+    (is (false? (.asBoolean c)))
+    (.reset c)
+    (is (.field c "version"))
+    (is (.isNull c))
+    (.reset c)
+    (is (.field c "été"))
+    (is (= "summer" (.asString c)))
+    (.reset c)
+    (is (.field c "😀"))
+    (is (true? (.asBoolean c)))
+    (.reset c)
+    (is (not (.up c)))
+    (is (= ["countries" "version" "été" "😀"]
+           (map #(.keyAt c %) (range (.size c)))))
+    (is (thrown? IllegalStateException (.asLong c)))
+    (is (thrown? IllegalStateException (.index (doto (.cursor doc) (.field "version")) 0)))))
+
+(deftest to-value-test
+  (is (= (SubJson/read ^CharSequence test-json)
+         (.toValue (.cursor (SubJson/readOffHeap ^CharSequence test-json)))))
+  (is (= {"countries" [{"code" "NZ" "population" 5100000 "area" 268021.5}
+                       {"code" "IS" "population" 380000 "eu" false}]
+          "version" nil "été" "summer" "😀" true}
+         (.toValue (.cursor (SubJson/readOffHeap ^CharSequence test-json))
+                   subjson/clojure-fromjson-policy)))
+  (doseq [ex ["glossary" "menu" "widget" "web-app" "menu2"]]
+    (let [json (slurp (io/resource (str "jsonorg_examples/" ex ".json")))]
+      (is (= (SubJson/read ^CharSequence json)
+             (.toValue (.cursor (SubJson/readOffHeap (java.io.StringReader. json))))
+             (.toValue (.cursor (SubJson/readOffHeap ^CharSequence json))))
+          ex))))
+
+(deftest duplicate-key-test
+  (let [c (.cursor (SubJson/readOffHeap ^CharSequence "{\"a\":1,\"b\":2,\"a\":3}"))]
+    (is (= 2 (.size c)))
+    (is (.field c "a"))
+    (is (= 3 (.asLong c)))))
+
+(deftest deep-nesting-test
+  (let [depth 10000
+        c (.cursor (SubJson/readOffHeap
+                    ^CharSequence (str (apply str (repeat depth "[")) "1"
+                                       (apply str (repeat depth "]")))))]
+    (dotimes [_ depth] (.index c 0))
+    (is (= 1 (.asLong c)))))
+
+(deftest error-test
+  (is (thrown? IllegalArgumentException (SubJson/readOffHeap ^CharSequence "[1,")))
+  (is (thrown? ParseLimitExceededException
+               (SubJson/readOffHeap ^CharSequence "[[[1]]]"
+                                    (.withMaxDepth ParseLimits/NONE 2)))))
+
+(deftest shared-test
+  (let [doc (SubJson/readOffHeap
+             ^CharSequence (str "[" (apply str (interpose "," (map #(str "{\"n\":" % "}")
+                                                                   (range 1000))))
+                                "]"))
+        pool (Executors/newFixedThreadPool 4)
+        task (fn []
+               (let [c (.cursor doc)]
+                 (reduce + (for [i (range 1000)]
+                             (do (.index c i)
+                                 (.field c "n")
+                                 (let [n (.asLong c)]
+                                   (.up c) (.up c)
+                                   n))))))]
+    (try
+      (doseq [^Future f (.invokeAll pool (repeat 4 task))]
+        (is (= 499500 (.get f))))
+      (finally (.shutdown pool)))))
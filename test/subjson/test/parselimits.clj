@@ -0,0 +1,79 @@
+(ns subjson.test.parselimits
+  (:use clojure.test)
+  (:require [clojure.string :as str]
+            [subjson.test.subjson :refer [reader-makers]])
+  (:import [su.boptim.al.subjson SubJson ParseLimits
+            ParseLimitExceededException]))
+
+(defn- limit-exceeded
+  "Reads json-src with each of the reader-makers under limits, and returns
+   the names of the limits that were exceeded, or :ok for reads that
+   succeeded with the same value as an unlimited read."
+  [json-src ^ParseLimits limits]
+  (set (for [make-rdr reader-makers]
+         (try (if (= (SubJson/read (make-rdr json-src) limits)
+                     (SubJson/read ^CharSequence json-src))
+                :ok
+                :wrong-value)
+              (catch ParseLimitExceededException e
+                (.getLimitName e))))))
+
+(def none ParseLimits/NONE)
+
+(deftest max-depth-test
+  (let [nested (fn [n] (str (str/join (repeat n "[")) (str/join (repeat n "]"))))]
+    (is (= #{:ok} (limit-exceeded (nested 5) (.withMaxDepth none 5))))
+    (is (= #{"maxDepth"} (limit-exceeded (nested 6) (.withMaxDepth none 5))))
+    (is (= #{"maxDepth"} (limit-exceeded "{\"a\":{\"b\":{\"c\":{}}}}"
+                                         (.withMaxDepth none 3))))
+    ;; Fails fast, long before the end of the input.
+    (is (thrown? ParseLimitExceededException
+                 (SubJson/read ^CharSequence (str/join (repeat 1000000 "["))
+                               (.withMaxDepth none 64))))))
+
+(deftest max-string-length-test
+  (let [limits (.withMaxStringLength none 40)
+        s (fn [n] (str "\"" (str/join (repeat n "x")) "\""))]
+    (is (= #{:ok} (limit-exceeded (s 40) limits)))
+    (is (= #{"maxStringLength"} (limit-exceeded (s 41) limits)))
+    ;; Object keys count too.
+    (is (= #{"maxStringLength"} (limit-exceeded (str "{" (s 41) ":1}") limits)))
+    ;; It's the decoded length that counts.
+    (is (= #{:ok} (limit-exceeded (str "\"" (str/join (repeat 40 "\\u00e9")) "\"")
+                                  limits)))))
+
+(deftest max-number-length-test
+  (let [limits (.withMaxNumberLength none 9)]
+    (is (= #{:ok} (limit-exceeded "-12.5e+10" limits)))
+    (is (= #{"maxNumberLength"} (limit-exceeded "-12.5e+100" limits)))
+    (is (= #{"maxNumberLength"} (limit-exceeded (str/join (repeat 100 "1"))
+                                                limits)))))
+
+(deftest max-container-size-test
+  (let [limits (.withMaxContainerSize none 3)]
+    (is (= #{:ok} (limit-exceeded "[[1,2,3],{\"a\":1,\"b\":2,\"c\":3}]" limits)))
+    (is (= #{"maxContainerSize"} (limit-exceeded "[1,2,3,4]" limits)))
+    (is (= #{"maxContainerSize"} (limit-exceeded "{\"a\":1,\"b\":2,\"c\":3,\"d\":4}"
+                                                 limits)))))
+
+(deftest max-values-test
+  ;; The outer array, 1, the inner array, 2 and 3.
+  (is (= #{:ok} (limit-exceeded "[1,[2,3]]" (.withMaxValues none 5))))
+  (is (= #{"maxValues"} (limit-exceeded "[1,[2,3]]" (.withMaxValues none 4)))))
+
+(deftest max-input-length-test
+  (is (= #{:ok} (limit-exceeded "[1, 2] " (.withMaxInputLength none 6))))
+  (is (= #{"maxInputLength"} (limit-exceeded "[1, 2] " (.withMaxInputLength none 5))))
+  ;; Looking past the end of a value to see that it ended doesn't count.
+  (is (= #{:ok} (limit-exceeded "1234 5" (.withMaxInputLength none 4))))
+  (is (= #{"maxInputLength"} (limit-exceeded (str (str/join (repeat 100 " ")) "1")
+                                             (.withMaxInputLength none 50)))))
+
+(deftest limits-test
+  (is (thrown? IllegalArgumentException (.withMaxDepth none 0)))
+  (let [limits (-> none (.withMaxDepth 10) (.withMaxValues 100))]
+    (is (= 10 (.getMaxDepth limits)))
+    (is (= 100 (.getMaxValues limits)))
+    (is (= Integer/MAX_VALUE (.getMaxStringLength limits)))
+    ;; The original is unchanged.
+    (is (= Integer/MAX_VALUE (.getMaxDepth none)))))
@@ -0,0 +1,132 @@
+(ns subjson.test.perf-regression
+  (:use clojure.test)
+  (:require [clojure.java.io :as io]
+            [clojure.edn :as edn]
+            [clojure.pprint :as pprint]
+            [clojure.string :as str])
+  (:import [su.boptim.al.subjson SubJson]
+           [subjson.perftests CorpusGenerator CorpusGenerator$Shape]
+           [java.lang.management ManagementFactory]))
+
+;; Measures the bytes allocated and operations per second of reading and
+;; writing a few canonical documents, and fails if either has gotten
+;; worse than the baseline in test/resources/perf_baseline.edn by more
+;; than a tolerance. Timings are at the mercy of the machine and whatever
+;; else it's running, so the test is tagged :perf and left out of a plain
+;; `lein test`; run it with `lein test :perf`. Settings are Java system
+;; properties (pass them with JVM_OPTS):
+;;
+;;   subjson.perf.alloc-tolerance       allowed fractional increase in
+;;                                      bytes per op (default 0.15)
+;;   subjson.perf.throughput-tolerance  allowed fractional decrease in
+;;                                      ops/sec (default 0.6, since
+;;                                      throughput varies between machines)
+;;   subjson.perf.warmup-ms             time to warm up each case (default 500)
+;;   subjson.perf.measure-ms            time to measure each case (default 1000)
+;;   subjson.perf.record                if true, write the measurements as the
+;;                                      new baseline instead of checking them
+;;
+;; To re-record the baseline, run
+;;
+;;   JVM_OPTS=-Dsubjson.perf.record=true lein test :perf
+;;
+;; on an otherwise idle machine, look over the diff of
+;; test/resources/perf_baseline.edn, and commit it with the change that
+;; moved the numbers.
+
+(def baseline-resource "perf_baseline.edn")
+(def baseline-file "test/resources/perf_baseline.edn")
+
+(defn- setting
+  [name default]
+  (if-let [v (System/getProperty (str "subjson.perf." name))]
+    (if (instance? Boolean default)
+      (Boolean/parseBoolean v)
+      (Double/parseDouble v))
+    default))
+
+(defn- example
+  [name]
+  (slurp (io/resource (str "jsonorg_examples/" name ".json"))))
+
+(defn- corpus
+  [^CorpusGenerator$Shape shape]
+  (CorpusGenerator/generate shape 65536 42))
+
+(defn- cases
+  "Return a map of case names to no-argument functions that do one
+   operation. The inputs are built here, outside of any measurement."
+  []
+  (let [menu (example "menu")
+        web-app (example "web-app")
+        telemetry (corpus CorpusGenerator$Shape/TELEMETRY)
+        unicode (corpus CorpusGenerator$Shape/UNICODE_TEXT)
+        wide (corpus CorpusGenerator$Shape/WIDE_OBJECTS)
+        web-app-value (SubJson/read ^String web-app)
+        telemetry-value (SubJson/read ^String telemetry)]
+    {:read-menu #(SubJson/read ^String menu)
+     :read-web-app #(SubJson/read ^String web-app)
+     :read-telemetry-64k #(SubJson/read ^String telemetry)
+     :read-unicode-64k #(SubJson/read ^String unicode)
+     :read-wide-objects-64k #(SubJson/read ^String wide)
+     :write-web-app-compact #(SubJson/writeToString web-app-value false)
+     :write-telemetry-64k-pretty #(SubJson/writeToString telemetry-value true)}))
+
+(def ^:private ^com.sun.management.ThreadMXBean thread-mx-bean
+  (ManagementFactory/getThreadMXBean))
+
+(defn- allocated-bytes
+  ^long []
+  (.getThreadAllocatedBytes thread-mx-bean (.getId (Thread/currentThread))))
+
+(defn- measure
+  "Run op repeatedly for warmup-ms, then measure it for measure-ms, and
+   return its bytes allocated per op and ops per second."
+  [op warmup-ms measure-ms]
+  (let [^clojure.lang.IFn op op
+        ;; Results go here so the JIT can't throw the work away.
+        sink (object-array 1)
+        warmup-end (+ (System/nanoTime) (long (* 1e6 warmup-ms)))]
+    (while (< (System/nanoTime) warmup-end)
+      (aset sink 0 (.invoke op)))
+    (let [start-bytes (allocated-bytes)
+          start (System/nanoTime)
+          end (+ start (long (* 1e6 measure-ms)))]
+      (loop [n 0]
+        (dotimes [_ 10]
+          (aset sink 0 (.invoke op)))
+        (let [n (+ n 10)
+              now (System/nanoTime)]
+          (if (< now end)
+            (recur n)
+            {:bytes-per-op (quot (- (allocated-bytes) start-bytes) n)
+             :ops-per-sec (long (/ (* n 1e9) (- now start)))}))))))
+
+(deftest ^:perf perf-regression-test
+  (let [alloc-tolerance (setting "alloc-tolerance" 0.15)
+        throughput-tolerance (setting "throughput-tolerance" 0.6)
+        warmup-ms (setting "warmup-ms" 500)
+        measure-ms (setting "measure-ms" 1000)
+        results (into (sorted-map)
+                      (for [[case-name op] (cases)]
+                        [case-name (measure op warmup-ms measure-ms)]))]
+    (if (setting "record" false)
+      ;; Keep the comments at the top of the file.
+      (let [header (->> (str/split-lines (slurp baseline-file))
+                        (take-while #(.startsWith ^String % ";;")))]
+        (spit baseline-file (str (str/join "\n" header) "\n"
+                                 (with-out-str (pprint/pprint results)))))
+      (let [baseline (edn/read-string (slurp (io/resource baseline-resource)))]
+        (doseq [[case-name {:keys [bytes-per-op ops-per-sec]}] results
+                :let [expected (get baseline case-name)]]
+          (testing (name case-name)
+            (is (some? expected) "Case is missing from the baseline.")
+            (when expected
+              (is (<= bytes-per-op
+                      (* (:bytes-per-op expected) (+ 1.0 alloc-tolerance)))
+                  (str "Allocated " bytes-per-op " bytes per op; the baseline is "
+                       (:bytes-per-op expected) "."))
+              (is (>= ops-per-sec
+                      (* (:ops-per-sec expected) (- 1.0 throughput-tolerance)))
+                  (str "Ran " ops-per-sec " ops/sec; the baseline is "
+                       (:ops-per-sec expected) ".")))))))))
@@ -0,0 +1,53 @@
+(ns subjson.test.reformat
+  (:use clojure.test)
+  (:require [clojure.java.io :as io]
+            [su.boptim.al.subjson :as subjson])
+  (:import [su.boptim.al.subjson SubJson UnsynchronizedBufferedReader
+            UnsynchronizedStringReader]
+           [java.io BufferedReader StringReader StringWriter]))
+
+(def jsonorg-examples ["glossary" "menu" "widget" "web-app" "menu2"])
+
+(deftest matches-write-test
+  ;; Reformatting json that write() printed gives what write() would
+  ;; print in the other layout, since it keeps the order of the keys.
+  (doseq [ex jsonorg-examples]
+    (let [v (SubJson/read ^CharSequence (slurp (io/resource (str "jsonorg_examples/" ex ".json"))))
+          compact (SubJson/writeToString v false)
+          pretty (SubJson/writeToString v true)]
+      (is (= pretty (SubJson/reformatToString compact true)) ex)
+      (is (= compact (SubJson/reformatToString pretty false)) ex)
+      (let [sw (StringWriter.)]
+        (SubJson/reformat (UnsynchronizedBufferedReader. (StringReader. compact) 16) sw true)
+        (is (= pretty (str sw)) ex))
+      (let [sb (StringBuilder.)]
+        (SubJson/reformat (BufferedReader. (StringReader. pretty)) sb false)
+        (is (= compact (str sb)) ex)))))
+
+(deftest layout-test
+  (is (= "{\n    \"a\": {\n        \"b\": [\n            1,\n            2\n        ]\n    },\n    \"c\": {},\n    \"d\": []\n}"
+         (SubJson/reformatToString "{\"a\" :{ \"b\":[ 1 ,2]} , \"c\":{ }, \"d\" : [ ]}" true)))
+  (is (= "[1,{\"a\":null},[true,false]]"
+         (SubJson/reformatToString "[ 1,\n { \"a\" : null } , [true, false]\n]" false))))
+
+(deftest verbatim-test
+  (is (= "[1E+400,-0.0e-0,12345678901234567890123,\"\\/\\u00E9\\n\"]"
+         (SubJson/reformatToString
+          " [ 1E+400 , -0.0e-0 ,12345678901234567890123, \"\\/\\u00E9\\n\" ] " false))))
+
+(deftest stream-test
+  (let [r (UnsynchronizedStringReader. "{\"a\": 1}\n[2, 3]\n\"x\"")
+        sb (StringBuilder.)]
+    (dotimes [i 3]
+      (SubJson/reformat r sb false)
+      (.append sb "|"))
+    (is (= "{\"a\":1}|[2,3]|\"x\"|" (str sb)))))
+
+(deftest deep-nesting-test
+  (let [json (str (apply str (repeat 100000 "[")) (apply str (repeat 100000 "]")))]
+    (is (= json (SubJson/reformatToString json false)))))
+
+(deftest error-test
+  (doseq [bad ["[1,]" "{\"a\":1,}" "[1" "{\"a\"}" "\"ab" "01" "1." "[1 2]" "{1:2}"
+               "\"\\x\"" "\"\\u12g4\"" "tru" "[,1]" ""]]
+    (is (thrown? IllegalArgumentException (SubJson/reformatToString bad true)) bad)))
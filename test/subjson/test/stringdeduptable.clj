@@ -0,0 +1,59 @@
+(ns subjson.test.stringdeduptable
+  (:use clojure.test)
+  (:require [su.boptim.al.subjson :as subjson]
+            [subjson.test.subjson :refer [reader-makers]])
+  (:import [su.boptim.al.subjson SubJson StringDedupTable
+            DedupingFromJsonPolicy]))
+
+(def test-json (str "[{\"c\": \"US\", \"s\": \"ACTIVE\", \"d\": \"a description too long to keep\"},"
+                    " {\"c\": \"US\", \"s\": \"ACTIVE\", \"d\": \"a description too long to keep\"},"
+                    " {\"c\": \"U\\u0053\", \"s\": \"ACTIVE\"}]"))
+
+(deftest get-test
+  (let [table (StringDedupTable. 64 16)
+        s (String. "hello")]
+    (is (identical? s (.get table s)))
+    (is (identical? s (.get table (StringBuilder. "hello"))))
+    (is (identical? s (.get table (.toCharArray "xhellox") 1 5)))
+    ;; Too long to keep.
+    (let [long-str (apply str (repeat 17 "x"))]
+      (is (= long-str (.get table long-str)))
+      (is (not (identical? (.get table (StringBuilder. long-str))
+                           (.get table (StringBuilder. long-str))))))
+    (.clear table)
+    (is (not (identical? s (.get table (StringBuilder. "hello")))))))
+
+(deftest capacity-test
+  (is (= 128 (.capacity (StringDedupTable. 100 10))))
+  (is (= 8 (.capacity (StringDedupTable. 1 10))))
+  (is (thrown? IllegalArgumentException (StringDedupTable. 0 10))))
+
+(deftest clock-eviction-test
+  ;; A string that keeps being found outlasts a stream of strings that
+  ;; are each seen once.
+  (let [table (StringDedupTable. 8 100)
+        hot (.get table "hot")]
+    (.get table "hot")
+    (dotimes [i 1000]
+      (.get table (str "cold" i))
+      (when (zero? (mod i 3))
+        (.get table (StringBuilder. "hot"))))
+    (is (identical? hot (.get table (StringBuilder. "hot"))))))
+
+(deftest dedup-read-test
+  (let [table (StringDedupTable. 64 16)]
+    (doseq [make-rdr reader-makers]
+      (let [policy (DedupingFromJsonPolicy. table)
+            [a b c] (SubJson/read (make-rdr test-json) policy)]
+        (is (= [a b c] (SubJson/read ^CharSequence test-json)))
+        (is (identical? (get a "c") (get b "c")))
+        (is (identical? (get a "c") (get c "c")))
+        (is (identical? (get a "s") (get b "s")))
+        (is (not (identical? (get a "d") (get b "d"))))))))
+
+(deftest dedup-clojure-read-test
+  (let [policy (DedupingFromJsonPolicy. subjson/clojure-fromjson-policy
+                                        (StringDedupTable. 64 16))
+        [a b] (SubJson/read ^CharSequence test-json policy)]
+    (is (map? a))
+    (is (identical? (get a "c") (get b "c")))))
@@ -2,9 +2,12 @@
   (:use clojure.test)
   (:require [clojure.java.io :as io]
             [clojure.string :as str])
-  (:import [su.boptim.al.subjson SubJson UnsynchronizedStringReader]
-           [java.io Reader StringReader Writer StringWriter]
-           [java.lang.reflect Method]))
+  (:import [su.boptim.al.subjson SubJson UnsynchronizedStringReader
+            UnsynchronizedBufferedReader UnsynchronizedUtf8StreamReader
+            UnsynchronizedCharSequenceReader UnsynchronizedCharArrayReader]
+           [java.io ByteArrayInputStream Reader StringReader Writer StringWriter]
+           [java.lang.reflect Method]
+           [java.util.concurrent ForkJoinPool]))
 
 (defn get-private-static-method
   "Given a method name, returns a closure that will call that static method
@@ -19,13 +22,26 @@
          (.invoke method nil ;; static methods only
                   (to-array args))))))
 
+(defn get-private-static-field
+  "Given a field name, returns the value of that static field."
+  [field-name]
+  (let [field (.getDeclaredField SubJson field-name)]
+    (.setAccessible field true)
+    (.get field nil)))
+
 ;; We want to do tests that take a Reader with as many Readers as we
 ;; reasonably can. This makes sure the code is not making unreasonable
 ;; assumptions about Readers, and also gives our custom Readers some
 ;; exercise. Code that takes readers will loop over this vector and
 ;; run tests with a reader made with each of the reader-making functions.
 (def reader-makers [#(StringReader. %)
-                    #(UnsynchronizedStringReader. %)])
+                    #(UnsynchronizedStringReader. %)
+                    ;; Small buffers so values straddle refills.
+                    #(UnsynchronizedBufferedReader. (StringReader. %) 7)
+                    #(UnsynchronizedUtf8StreamReader.
+                      (ByteArrayInputStream. (.getBytes ^String % "UTF-8")) 7)
+                    #(UnsynchronizedCharSequenceReader. (StringBuilder. ^String %))
+                    #(UnsynchronizedCharArrayReader. (.toCharArray ^String %))])
 
 ;;
 ;; Ignoring whitespace
@@ -407,3 +423,58 @@
                  (.toString sb))))
         (is (= json-src
                (SubJson/writeToString json-val false))))))
+
+;; Parallel printing must be indistinguishable from sequential printing,
+;; whatever the chunk size.
+(deftest parallel-write-test
+  (let [pool (ForkJoinPool. 4)
+        tjp (get-private-static-field "defaultToJP")
+        json-vals (concat (for [example-name jsonorg_examples]
+                            (-> (str "jsonorg_examples/" example-name ".json")
+                                io/resource slurp SubJson/read))
+                          [(SubJson/read "[]")
+                           (SubJson/read "{}")
+                           (SubJson/read "12")
+                           (SubJson/read (str "[" (str/join "," (range 1000)) "]"))])]
+    (doseq [json-val json-vals
+            pretty-print? [true false]
+            chunk-size [1 2 7 1024]]
+      (is (= (SubJson/writeToString json-val pretty-print?)
+             (let [sb (StringBuilder.)]
+               (SubJson/writeParallel sb json-val pretty-print? tjp
+                                      pool chunk-size)
+               (.toString sb)))))))
+
+;; The default policy writes any List, Map, or standard Number type, not
+;; just the types read() produces.
+(def other-java-values {(Integer. 12) "12"
+                        (Short. (short 3)) "3"
+                        (java.math.BigInteger. "123456789012345678901234567890")
+                        "123456789012345678901234567890"
+                        (Float. 1.5) "1.5"
+                        (java.math.BigDecimal. "1.25") "1.25"
+                        (java.util.LinkedList. [1 2]) "[1,2]"
+                        (java.util.Collections/singletonList "a") "[\"a\"]"
+                        (java.util.LinkedHashMap. {"a" 1}) "{\"a\":1}"
+                        (java.util.TreeMap. {"b" [true]}) "{\"b\":[true]}"})
+
+(deftest other-java-types-write-test
+  (doseq [[value correct-output] other-java-values]
+    (is (= correct-output (SubJson/writeToString value false))))
+  (is (thrown? IllegalArgumentException
+               (SubJson/writeToString (Object.) false))))
+
+;; The default policy only narrows big numbers that a long or double
+;; holds exactly.
+(deftest big-number-conversion-test
+  (let [^su.boptim.al.subjson.ToJsonPolicy tjp (get-private-static-field "defaultToJP")]
+    (is (= 12 (.asInteger tjp (java.math.BigInteger. "12"))))
+    (is (= Long/MIN_VALUE (.asInteger tjp (java.math.BigInteger/valueOf Long/MIN_VALUE))))
+    (is (thrown? IllegalArgumentException
+                 (.asInteger tjp (java.math.BigInteger. "123456789012345678901"))))
+    (is (= 0.1 (.asReal tjp (java.math.BigDecimal. "0.1"))))
+    (is (= 1.25 (.asReal tjp (java.math.BigDecimal. "1.250"))))
+    (is (thrown? IllegalArgumentException
+                 (.asReal tjp (java.math.BigDecimal. "0.1000000000000000000001"))))
+    (is (thrown? IllegalArgumentException
+                 (.asReal tjp (java.math.BigDecimal. "1e400"))))))
@@ -1,9 +1,12 @@
 (ns subjson.test.subjson-clojure
   (:use clojure.test)
   (:require [su.boptim.al.subjson :as subjson]
+            [clojure.core.reducers :as r]
+            [clojure.walk :as walk]
             [clojure.string :as str]
             [clojure.java.io :as io])
-  (:import [su.boptim.al.subjson SubJson]
+  (:import [su.boptim.al.subjson SubJson ParseLimits
+            ParseLimitExceededException]
            [java.io StringReader StringWriter]))
 
 ;;
@@ -27,6 +30,14 @@
           edn-src (-> (str "jsonorg_examples/" example-name ".edn")
                       io/resource slurp)]
       (is (= (subjson/read-string json-src)
+             (read-string edn-src)))))
+  ;; Test other CharSequences
+  (doseq [example-name jsonorg_examples]
+    (let [json-src (-> (str "jsonorg_examples/" example-name ".json")
+                       io/resource slurp)
+          edn-src (-> (str "jsonorg_examples/" example-name ".edn")
+                      io/resource slurp)]
+      (is (= (subjson/read-string (StringBuilder. ^String json-src))
              (read-string edn-src))))))
 
 (deftest print-jsonorg_examples-test
@@ -76,3 +87,164 @@
                  (.toString sw))))
         (is (= json-src
                (subjson/write-string json-val false))))))
+
+;; Writing with a cache must produce the same output as writing without,
+;; both when the cache is cold and when it already holds parts of the value.
+(deftest cached-write-test
+  (let [cache (subjson/write-cache 64)]
+    (doseq [example-name jsonorg_examples
+            pretty-print? [true false]]
+      (let [json-val (-> (str "jsonorg_examples/" example-name ".json")
+                         io/resource slurp subjson/read-string)
+            ;; Shares json-val with the previous iteration's value.
+            json-val2 {"first" json-val "second" [json-val 1]}]
+        (is (= (subjson/write-string json-val pretty-print?)
+               (subjson/write-string json-val pretty-print? cache)))
+        (is (= (subjson/write-string json-val2 pretty-print?)
+               (subjson/write-string json-val2 pretty-print? cache)))
+        (is (= (subjson/write-string json-val2 pretty-print?)
+               (let [sw (StringWriter.)]
+                 (subjson/write sw json-val2 pretty-print? cache)
+                 (.toString sw))))))
+    (is (pos? (.size ^su.boptim.al.subjson.WriteCache cache)))))
+
+;; A cache shared between policies keeps what each one wrote apart.
+(deftest cached-write-policies-test
+  (let [cache (subjson/write-cache 64)
+        tjp subjson/clojure-tojson-policy
+        ;; Leaves out keys whose values are null.
+        no-nulls (reify su.boptim.al.subjson.CacheableToJsonPolicy
+                   (categorize [_ o] (.categorize tjp o))
+                   (asBoolean [_ o] (.asBoolean tjp o))
+                   (asString [_ o] (.asString tjp o))
+                   (asInteger [_ o] (.asInteger tjp o))
+                   (asReal [_ o] (.asReal tjp o))
+                   (arrayIterator [_ o] (.arrayIterator tjp o))
+                   (objectIterator [_ o]
+                     (.iterator ^Iterable (remove #(nil? (val %)) (iterator-seq (.objectIterator tjp o)))))
+                   (isCacheable [_ o] true))
+        v [{"a" 1 "b" nil}]
+        write-with (fn [policy]
+                     (let [sb (StringBuilder.)]
+                       (SubJson/write sb v false policy cache)
+                       (.toString sb)))]
+    (is (= "[{\"a\":1,\"b\":null}]" (write-with tjp)))
+    (is (= "[{\"a\":1}]" (write-with no-nulls)))
+    (is (= "[{\"a\":1,\"b\":null}]" (write-with tjp)))))
+
+(deftest categorize-test
+  (is (= "[1,2,3.5,1.25,\"a\",null,true]"
+         (subjson/write-string [(int 1) 2N 3.5 1.25M "a" nil true] false)))
+  (is (= "{\"a\":{\"b\":[]}}"
+         (subjson/write-string (array-map "a" (hash-map "b" [])) false)))
+  (is (= "[]" (subjson/write-string (subvec [1 2 3] 1 1) false)))
+  (is (thrown? IllegalArgumentException
+               (subjson/write-string (Object.) false))))
+
+;; Objects of up to 8 keys are built directly as array maps, and larger
+;; ones as hash maps; either way, later values for repeated keys win.
+(defn json-object-with-keys
+  [n]
+  (str "{" (str/join "," (for [i (range n)] (str "\"k" i "\":" i))) "}"))
+
+(deftest read-object-sizes-test
+  (doseq [n [0 1 7 8 9 16 17 100]]
+    (let [m (subjson/read-string (json-object-with-keys n))]
+      (is (= (into {} (for [i (range n)] [(str "k" i) i])) m))
+      (when (<= n 8)
+        (is (instance? clojure.lang.PersistentArrayMap m)))))
+  (is (= {"a" 3 "b" 2} (subjson/read-string "{\"a\":1,\"b\":2,\"a\":3}")))
+  (is (= {"k0" 0 "k1" 1 "k2" 2 "k3" 3 "k4" 4 "k5" 5 "k6" 6 "k7" 8}
+         (subjson/read-string (str "{\"k0\":0,\"k1\":1,\"k2\":2,\"k3\":3,"
+                                   "\"k4\":4,\"k5\":5,\"k6\":6,\"k7\":7,"
+                                   "\"k7\":8}"))))
+  (is (= [{"a" [{"b" {}} []]} {}]
+         (subjson/read-string "[{\"a\":[{\"b\":{}},[]]},{}]"))))
+
+(deftest read-keywordize-test
+  (doseq [example-name jsonorg_examples]
+    (let [json-src (-> (str "jsonorg_examples/" example-name ".json")
+                       io/resource slurp)
+          edn-val (-> (str "jsonorg_examples/" example-name ".edn")
+                      io/resource slurp read-string)]
+      (is (= (walk/keywordize-keys edn-val)
+             (subjson/read-string json-src true)
+             (subjson/read (StringReader. json-src) true)))
+      (is (= edn-val (subjson/read-string json-src false)))))
+  ;; Escapes, long keys that aren't cached, and repeated keys.
+  (is (= {(keyword "a\"b") 1
+          (keyword (apply str (repeat 100 "k"))) [{:x 1} {:x 2}]}
+         (subjson/read-string (str "{\"a\\\"b\":1,\""
+                                   (apply str (repeat 100 "k"))
+                                   "\":[{\"x\":1},{\"x\":2}]}")
+                              true)))
+  (is (identical? (key (first (subjson/read-string "{\"same\":1}" true)))
+                  (key (first (subjson/read-string "{\"same\":2}" true))))))
+
+;;
+;; Reducible reads
+;;
+
+(deftest read-reducible-test
+  (doseq [example-name jsonorg_examples]
+    (let [json-src (-> (str "jsonorg_examples/" example-name ".json")
+                       io/resource slurp)
+          as-array (str "[" json-src "," json-src "]")
+          as-ndjson (str json-src "\n" json-src "\n")
+          expected (let [v (subjson/read-string json-src)] [v v])]
+      (is (= expected (into [] (subjson/read-reducible as-array))))
+      (is (= expected (into [] (subjson/read-reducible
+                                (StringReader. as-array)))))
+      (is (= expected (into [] (subjson/read-reducible as-ndjson
+                                                       :ndjson? true))))
+      (is (= expected (into [] (subjson/read-reducible
+                                (StringReader. as-ndjson) :ndjson? true))))
+      (is (= expected (r/foldcat (subjson/read-reducible as-array))))))
+  (is (= [] (into [] (subjson/read-reducible " [ ] "))))
+  (is (= [{:a 1}] (into [] (subjson/read-reducible "[{\"a\":1}]"
+                                                   :keywordize? true)))))
+
+(deftest read-reducible-early-termination-test
+  ;; The reader is left after the comma that follows the last element
+  ;; read, at the start of the next one.
+  (let [rdr (StringReader. "[1,2,3,4,5] x")]
+    (is (= [2 4] (transduce (comp (map inc) (filter even?) (take 2))
+                            conj [] (subjson/read-reducible rdr))))
+    (is (= (int \4) (.read rdr)))))
+
+(deftest read-reducible-fold-test
+  (let [n 10000
+        json-src (str "[" (str/join "," (for [i (range n)]
+                                            (str "{\"i\":" i ",\"s\":\"a,]\\\"\"}")))
+                      "]")]
+    (is (= (reduce + (range n))
+           (r/fold 100 + (fn [acc m] (+ acc (get m "i")))
+                   (subjson/read-reducible json-src))))
+    (is (= (reduce + (range n))
+           (r/fold 100 + (fn [acc m] (+ acc (get m "i")))
+                   (subjson/read-reducible (str/replace (subs json-src 1
+                                                              (dec (count json-src)))
+                                                        "}," "}\n")
+                                           :ndjson? true))))))
+
+(deftest read-reducible-fold-reduced-test
+  ;; As when folding a vector, reduced ends the group it is returned in,
+  ;; but not the others.
+  (let [json-src (str "[" (str/join "," (range 100)) "]")
+        firsts (r/fold 10 (r/monoid into vector)
+                       (fn [acc x] (reduced (conj acc x)))
+                       (subjson/read-reducible json-src))]
+    (is (< 1 (count firsts) 100))
+    (is (= 0 (apply min firsts)))))
+
+(deftest read-reducible-char-sequence-test
+  (let [json-src (StringBuilder. "[1, 2, 3, 4]")]
+    (is (= 10 (reduce + 0 (subjson/read-reducible json-src))))
+    (is (= 10 (r/fold + (subjson/read-reducible json-src))))))
+
+(deftest read-limits-test
+  (let [limits (.withMaxDepth ParseLimits/NONE 2)]
+    (is (= {:a [1]} (subjson/read-string "{\"a\": [1]}" true limits)))
+    (is (= {"a" [1]} (subjson/read (StringReader. "{\"a\": [1]}") false limits)))
+    (is (thrown? ParseLimitExceededException
+                 (subjson/read-string "{\"a\": [[1]]}" true limits)))))
@@ -0,0 +1,93 @@
+(ns subjson.test.subjsonmetrics
+  (:use clojure.test)
+  (:import [su.boptim.al.subjson SubJson SubJsonMetrics MetricsSnapshot
+            UnsynchronizedBufferedReader]
+           [java.io StringReader]
+           java.lang.management.ManagementFactory
+           javax.management.ObjectName))
+
+(def test-json "{\"a\": [1, 2.5, \"s\", true, null, [[]]], \"b\": {}}")
+
+(defn- with-clean-metrics
+  [f]
+  (SubJsonMetrics/setEnabled true)
+  (SubJsonMetrics/reset)
+  (f)
+  (SubJsonMetrics/setEnabled true))
+
+(use-fixtures :each with-clean-metrics)
+
+(deftest read-counts-test
+  (SubJson/read ^String test-json)
+  (let [s (SubJsonMetrics/snapshot)]
+    (is (= 1 (.getDocumentsRead s)))
+    (is (= (count test-json) (.getCharsRead s)))
+    (is (= 1 (.getNullsRead s)))
+    (is (= 1 (.getBooleansRead s)))
+    (is (= 2 (.getNumbersRead s)))
+    (is (= 1 (.getStringsRead s)))
+    (is (= 2 (.getKeysRead s)))
+    (is (= 3 (.getArraysRead s)))
+    (is (= 2 (.getObjectsRead s)))
+    (is (= 4 (.getMaxDepth s)))
+    (is (pos? (.getParseNanos s)))))
+
+(deftest chars-read-test
+  ;; Buffered readers read ahead, but only what the parser used counts.
+  (SubJson/read (UnsynchronizedBufferedReader.
+                 (StringReader. (str test-json "   [1]")) 3))
+  (is (= (count test-json) (.getCharsRead (SubJsonMetrics/snapshot))))
+  ;; Other Readers can't say how much was read, so add nothing.
+  (SubJson/read (StringReader. test-json))
+  (is (= 2 (.getDocumentsRead (SubJsonMetrics/snapshot))))
+  (is (= (count test-json) (.getCharsRead (SubJsonMetrics/snapshot)))))
+
+(deftest write-counts-test
+  (let [json (SubJson/writeToString (SubJson/read ^String test-json) false)
+        s (SubJsonMetrics/snapshot)]
+    (is (= 1 (.getDocumentsWritten s)))
+    (is (= (count json) (.getCharsWritten s)))
+    (is (pos? (.getWriteNanos s))))
+  ;; StringWriters are counted too, but other Appendables can't be.
+  (let [sw (java.io.StringWriter.)]
+    (SubJson/write sw [1 2] false)
+    (is (= 2 (.getDocumentsWritten (SubJsonMetrics/snapshot))))
+    (is (= (+ (count (SubJson/writeToString (SubJson/read ^String test-json) false)) 5)
+           (.getCharsWritten (SubJsonMetrics/snapshot)))))
+  (SubJson/write (java.io.CharArrayWriter.) [1 2] false)
+  (is (= 3 (.getDocumentsWritten (SubJsonMetrics/snapshot)))))
+
+(deftest disabled-test
+  (SubJsonMetrics/setEnabled false)
+  (SubJson/read ^String test-json)
+  (SubJson/writeToString [1 2 3])
+  (let [s (SubJsonMetrics/snapshot)]
+    (is (= 0 (.getDocumentsRead s)))
+    (is (= 0 (.getDocumentsWritten s)))))
+
+(deftest concurrent-test
+  (let [threads 8
+        per-thread 500]
+    (->> (repeatedly threads
+                     #(future (dotimes [_ per-thread]
+                                (SubJson/read ^String test-json))))
+         doall
+         (run! deref))
+    (let [s (SubJsonMetrics/snapshot)]
+      (is (= (* threads per-thread) (.getDocumentsRead s)))
+      (is (= (* 2 threads per-thread) (.getNumbersRead s))))))
+
+(deftest mbean-test
+  (SubJsonMetrics/registerMBean)
+  ;; Registering twice is harmless.
+  (SubJsonMetrics/registerMBean)
+  (try
+    (SubJson/read ^String test-json)
+    (let [server (ManagementFactory/getPlatformMBeanServer)
+          name (ObjectName. SubJsonMetrics/MBEAN_NAME)]
+      (is (= 1 (.getAttribute server name "DocumentsRead")))
+      (is (= 4 (.getAttribute server name "MaxDepth")))
+      (.invoke server name "reset" (object-array 0) (make-array String 0))
+      (is (= 0 (.getDocumentsRead (SubJsonMetrics/snapshot)))))
+    (finally
+      (SubJsonMetrics/unregisterMBean))))
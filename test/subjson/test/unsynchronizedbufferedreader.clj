@@ -0,0 +1,134 @@
+(ns subjson.test.unsynchronizedbufferedreader
+  (:use clojure.test)
+  (:import [su.boptim.al.subjson SubJson UnsynchronizedBufferedReader
+            UnsynchronizedUtf8StreamReader]
+           [java.io BufferedInputStream ByteArrayInputStream IOException
+            PushbackInputStream PushbackReader Reader StringReader]
+           java.nio.charset.MalformedInputException))
+
+;; Last two characters are a surrogate pair (two 16-bit values that
+;; represent a single Unicode character).
+(def test-string1 "ABC𐐀")
+
+(def test-string2 "abcdefghijklmnopqrstuvwxyz")
+
+(defn utf8-bytes
+  [^String s]
+  (.getBytes s "UTF-8"))
+
+;; Buffer sizes small enough that every test crosses a refill.
+(def reader-makers [#(UnsynchronizedBufferedReader. (StringReader. %) 2)
+                    #(UnsynchronizedBufferedReader. (StringReader. %))
+                    #(UnsynchronizedUtf8StreamReader.
+                      (ByteArrayInputStream. (utf8-bytes %)) 3)
+                    #(UnsynchronizedUtf8StreamReader.
+                      (ByteArrayInputStream. (utf8-bytes %)))])
+
+(deftest read-test
+  (doseq [make-rdr reader-makers]
+    (let [r ^Reader (make-rdr test-string1)]
+      (is (= (int \A) (.read r)))
+      (is (= (int \B) (.read r)))
+      (is (= (int \C) (.read r)))
+      (is (= (int 16rD801) (.read r)))
+      (is (= (int 16rDC00) (.read r)))
+      (is (= -1 (.read r)))
+      ;; Check that additional reads are still -1.
+      (is (= -1 (.read r))))))
+
+(deftest move-test
+  (doseq [make-rdr reader-makers]
+    (let [r ^Reader (make-rdr test-string1)]
+      (.skip r 3)
+      (.mark r 3)
+      (is (= (int 16rD801) (.read r))) ;; High surrogate pair char.
+      (.reset r)                       ;; Move back 1 code point.
+      (is (= (int 16rD801) (.read r)))
+      (is (= (int 16rDC00) (.read r)))
+      (.skip r 5)
+      (is (= -1 (.read r))))))
+
+(deftest bulk-read-test
+  (doseq [make-rdr reader-makers]
+    (let [r ^Reader (make-rdr test-string2)
+          chrs (char-array (count test-string2))]
+      (.mark r 4)
+      (.read r chrs 0 0)
+      (is (= "" (String. chrs 0 0)))
+      (.read r)
+      (.reset r)
+      (is (= (int \a) (.read r)))
+      (.skip r 2)
+      (is (= (int \d) (.read r)))
+      (.mark r 3)
+      (.skip r 3)
+      (.reset r)
+      (.read r chrs 0 3)
+      (is (= "efg" (String. chrs 0 3)))
+      (is (= (int \h) (.read r)))
+      ;; Test can move backwards while recording, even past the end of
+      ;; the current buffer.
+      (.mark r 7)
+      (.skip r 6)
+      (is (= (int \o) (.read r)))
+      (.reset r)
+      (.read r chrs 0 5)
+      (is (= "ijklm" (String. chrs 0 5))))))
+
+(deftest invalid-mark-test
+  (let [r (UnsynchronizedBufferedReader. (StringReader. test-string2) 2)]
+    (is (thrown? IOException (.reset r)))
+    (.mark r 1)
+    (.skip r 4)
+    (is (thrown? IOException (.reset r)))))
+
+(deftest utf8-decode-test
+  (doseq [s ["héllo" "漢字" "😀 ok" "mixed é漢😀"]
+          size [1 2 3 8192]]
+    (let [r (UnsynchronizedUtf8StreamReader.
+             (ByteArrayInputStream. (utf8-bytes s)) size)]
+      (is (= s (slurp r)))))
+  ;; A truncated two-byte sequence.
+  (is (thrown? MalformedInputException
+               (.read (UnsynchronizedUtf8StreamReader.
+                       (ByteArrayInputStream. (byte-array [(unchecked-byte 0xC3)])))))))
+
+(deftest parse-test
+  (let [json "{\"a\": [1, 2.5, \"x\\ny\", true, null], \"é\": \"😀\"}"]
+    (doseq [make-rdr reader-makers]
+      (is (= (SubJson/read (StringReader. json))
+             (SubJson/read ^Reader (make-rdr json)))))))
+
+(deftest push-back-test
+  (testing "PushbackReader"
+    (let [in (PushbackReader. (StringReader. "[1, 2] rest") 64)
+          r (UnsynchronizedBufferedReader. in)]
+      (is (= [1 2] (SubJson/read r)))
+      (.pushBack r)
+      (is (= " rest" (slurp in)))))
+  (testing "Reader supporting mark"
+    (let [in (StringReader. "[1, 2] rest")
+          r (UnsynchronizedBufferedReader. in)]
+      (is (= [1 2] (SubJson/read r)))
+      (.pushBack r)
+      (is (= " rest" (slurp in)))))
+  (testing "PushbackInputStream"
+    (let [in (PushbackInputStream. (ByteArrayInputStream.
+                                    (utf8-bytes "[\"é\"] rést")) 64)
+          r (UnsynchronizedUtf8StreamReader. in)]
+      (is (= ["é"] (SubJson/read r)))
+      (.pushBack r)
+      (is (= " rést" (slurp in :encoding "UTF-8")))))
+  (testing "InputStream supporting mark"
+    (let [in (BufferedInputStream. (ByteArrayInputStream.
+                                    (utf8-bytes "[\"é\"] rést")))
+          r (UnsynchronizedUtf8StreamReader. in)]
+      (is (= ["é"] (SubJson/read r)))
+      (.pushBack r)
+      (is (= " rést" (slurp in :encoding "UTF-8")))))
+  (testing "Neither"
+    (let [r (UnsynchronizedUtf8StreamReader.
+             (proxy [java.io.InputStream] []
+               (read ([] -1) ([b off len] -1))))]
+      (.read r)
+      (is (thrown? IOException (.pushBack r))))))
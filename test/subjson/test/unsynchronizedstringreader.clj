@@ -1,7 +1,9 @@
 (ns subjson.test.unsynchronizedstringreader
   (:use clojure.test)
-  (:import su.boptim.al.subjson.UnsynchronizedStringReader
-           [java.io Reader StringReader]))
+  (:import [su.boptim.al.subjson SubJson UnsynchronizedStringReader
+            UnsynchronizedCharSequenceReader UnsynchronizedCharArrayReader]
+           [java.io Reader StringReader]
+           java.nio.CharBuffer))
 
 ;; Last two characters are a surrogate pair (two 16-bit values that
 ;; represent a single Unicode character).
@@ -12,7 +14,9 @@
 ;; We want to make sure the code works the same for our reader and
 ;; standard ones.
 (def reader-makers [#(UnsynchronizedStringReader. %)
-                    #(StringReader. %)])
+                    #(StringReader. %)
+                    #(UnsynchronizedCharSequenceReader. (StringBuilder. ^String %))
+                    #(UnsynchronizedCharArrayReader. (.toCharArray ^String %))])
 
 (deftest read-test
   (doseq [make-rdr reader-makers]
@@ -63,3 +67,26 @@
       (.reset r)
       (.read r chrs 0 5)
       (is (= "ijklm" (String. chrs 0 5))))))
+
+(deftest region-test
+  (let [s "xx[1, 2] {\"a\": 3}yy"
+        chrs (.toCharArray s)]
+    (doseq [^Reader r [(UnsynchronizedCharSequenceReader. (StringBuilder. s)
+                                                          2 (- (count s) 2))
+                       (UnsynchronizedCharArrayReader. chrs 2 (- (count s) 4))]]
+      (is (= [1 2] (SubJson/read r)))
+      (is (= 8 (.position r)))
+      (is (= {"a" 3} (SubJson/read r)))
+      (is (= (- (count s) 2) (.position r)))
+      (is (= -1 (.read r))))
+    ;; A number is only read up to the end of the region.
+    (is (= 12 (SubJson/read (.toCharArray "12345") 0 2)))
+    (is (thrown? IndexOutOfBoundsException
+                 (UnsynchronizedCharArrayReader. chrs 2 (count s))))))
+
+(deftest char-sequence-read-test
+  (let [json "{\"a\": [1, \"b\", null]}"
+        expected (SubJson/read json)]
+    (is (= expected (SubJson/read ^CharSequence (StringBuilder. json))))
+    (is (= expected (SubJson/read ^CharSequence (CharBuffer/wrap (.toCharArray json)))))
+    (is (= expected (SubJson/read ^CharSequence (CharBuffer/wrap json))))))
@@ -0,0 +1,86 @@
+(ns subjson.test.validator
+  (:use clojure.test)
+  (:require [clojure.java.io :as io]
+            [subjson.test.subjson :refer [reader-makers jsonorg_examples]])
+  (:import [su.boptim.al.subjson SubJson ValidationResult]
+           [java.lang.management ManagementFactory]))
+
+(def valid-json ["null" "true" " false " "0" "-0" "1.5e10" "-12.3E-4"
+                 ;; Too big for a Long, but still json.
+                 "123456789012345678901234567890"
+                 "\"\"" "\"a\\u00e9\\n\\\"\\/\"" "[]" "{}"
+                 " [ 1 , [2,{}] , {\"a\":[null]} ] "
+                 "{\"a\":{\"b\":{\"c\":1}}}"])
+
+(def invalid-json ["" "  " "nul" "tru" "01" "-" "1." "1e" "[" "]"
+                   "[1 2]" "[,1]" "{,}" "{1:2}" "{\"a\" 1}" "{\"a\":"
+                   "{\"a\":1]" "\"abc" "\"\\x\"" "\"\\u12g4\""
+                   (str "\"a" (char 1) "\"")
+                   ;; Trailing commas, which read() lets through.
+                   "[1,]" "{\"a\":1,}"
+                   ;; More than one value.
+                   "1 2" "[1]x"])
+
+(deftest is-valid-test
+  (doseq [s valid-json]
+    (is (SubJson/isValid ^CharSequence s) s)
+    (is (SubJson/isValid (StringBuilder. ^String s)) s))
+  (doseq [s invalid-json]
+    (is (not (SubJson/isValid ^CharSequence s)) s)))
+
+(deftest jsonorg-examples-test
+  (doseq [example-name jsonorg_examples]
+    (let [json-src (-> (str "jsonorg_examples/" example-name ".json")
+                       io/resource slurp)]
+      (is (SubJson/isValid ^CharSequence json-src) example-name))))
+
+(deftest measure-test
+  (let [result (ValidationResult.)]
+    (is (SubJson/validateAndMeasure " [1,{\"a\":[2,3]},\"x\"] " result))
+    (is (.isValid result))
+    (is (= 21 (.getCharsConsumed result)))
+    (is (= 3 (.getMaxDepth result)))
+    ;; 1, 2, 3, "x", the inner array, the object and the outer array.
+    (is (= 7 (.getValueCount result)))
+    (is (nil? (.getErrorMessage result)))
+    (is (= -1 (.getErrorOffset result)))
+    ;; Deep enough to grow the nesting stack.
+    (let [deep (str (apply str (repeat 300 "[{\"k\":"))
+                    0
+                    (apply str (repeat 300 "}]")))]
+      (is (SubJson/validateAndMeasure ^CharSequence deep result))
+      (is (= 600 (.getMaxDepth result))))
+    (is (not (SubJson/validateAndMeasure "[1,2,]" result)))
+    (is (not (.isValid result)))
+    (is (= 5 (.getErrorOffset result)))
+    (is (string? (.getErrorMessage result)))))
+
+(deftest reader-test
+  (let [result (ValidationResult.)]
+    (doseq [make-rdr reader-makers]
+      (doseq [s valid-json]
+        (is (SubJson/validateAndMeasure (make-rdr s) result) s))
+      ;; With a Reader, only the first value is looked at.
+      (doseq [s (remove #{"1 2" "[1]x"} invalid-json)]
+        (is (not (SubJson/validateAndMeasure (make-rdr s) result)) s))
+      ;; The Reader is left after the value, like read() leaves it.
+      (let [rdr (make-rdr "{\"a\": \"some text\"} 42")]
+        (is (SubJson/validateAndMeasure rdr result))
+        (is (= 42 (SubJson/read rdr)))))))
+
+(deftest no-allocation-test
+  (let [json-src (-> "jsonorg_examples/web-app.json" io/resource slurp)
+        result (ValidationResult.)
+        thread-bean (ManagementFactory/getThreadMXBean)
+        thread-id (.getId (Thread/currentThread))
+        validate-many #(dotimes [_ 1000]
+                         (SubJson/validateAndMeasure ^CharSequence json-src
+                                                     result))]
+    (when (instance? com.sun.management.ThreadMXBean thread-bean)
+      (validate-many) ;; Warm up.
+      (let [before (.getThreadAllocatedBytes thread-bean thread-id)
+            _ (validate-many)
+            after (.getThreadAllocatedBytes thread-bean thread-id)]
+        (is (.isValid result))
+        ;; Allow a little slack for the measuring itself.
+        (is (< (- after before) 1024))))))